@@ -34,6 +34,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.io.output.CountingOutputStream;
@@ -42,13 +44,13 @@ import org.apache.commons.lang3.time.StopWatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.core.LoggerContext;
 import org.apache.logging.log4j.core.config.ConfigurationSource;
-import org.deeplearning4j.datasets.iterator.AsyncDataSetIterator;
 import org.deeplearning4j.exception.DL4JInvalidConfigException;
 import org.deeplearning4j.exception.DL4JInvalidInputException;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration.GraphBuilder;
 import org.deeplearning4j.nn.conf.graph.MergeVertex;
 import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.inputs.InvalidInputTypeException;
 import org.deeplearning4j.nn.conf.layers.ActivationLayer;
 import org.deeplearning4j.nn.conf.layers.BaseOutputLayer;
 import org.deeplearning4j.nn.conf.layers.LossLayer;
@@ -58,7 +60,6 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.iterator.CachingDataSetIterator;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
-import org.nd4j.linalg.dataset.api.iterator.cache.InFileDataSetCache;
 import org.nd4j.linalg.dataset.api.iterator.cache.InMemoryDataSetCache;
 import org.nd4j.linalg.factory.Nd4j;
 import weka.classifiers.IterativeClassifier;
@@ -83,33 +84,49 @@ import weka.core.Tag;
 import weka.core.WekaException;
 import weka.core.WekaPackageManager;
 import weka.core.WrongIteratorException;
+import weka.dl4j.CacheCompression;
 import weka.dl4j.CacheMode;
 import weka.dl4j.ConvolutionMode;
 import weka.dl4j.NeuralNetConfiguration;
 import weka.dl4j.earlystopping.EarlyStopping;
+import weka.dl4j.iterators.dataset.CompiledDataSetPreProcessor;
+import weka.dl4j.iterators.dataset.CompiledDataSetPreProcessor.Scaling;
+import weka.dl4j.iterators.dataset.DefaultDataSetIterator;
+import weka.dl4j.iterators.dataset.IndexedDataSetIterator;
+import weka.dl4j.iterators.dataset.LazyDataSetIterator;
+import weka.dl4j.iterators.dataset.ParallelImageDataSetIterator;
+import weka.dl4j.iterators.dataset.PrefetchingDataSetIterator;
+import weka.dl4j.iterators.dataset.cache.HybridDataSetCache;
+import weka.dl4j.iterators.dataset.cache.PersistentDataSetCache;
 import weka.dl4j.iterators.instance.AbstractInstanceIterator;
 import weka.dl4j.iterators.instance.DefaultInstanceIterator;
+import weka.dl4j.iterators.instance.CompiledInstanceIterator;
 import weka.dl4j.iterators.instance.ImageInstanceIterator;
 import weka.dl4j.iterators.instance.ResizeImageInstanceIterator;
 import weka.dl4j.iterators.instance.api.ConvolutionalIterator;
+import weka.dl4j.iterators.instance.sequence.text.AbstractTextEmbeddingIterator;
 import weka.dl4j.iterators.instance.sequence.text.cnn.CnnTextEmbeddingInstanceIterator;
 import weka.dl4j.layers.ConvolutionLayer;
+import weka.dl4j.layers.DepthwiseConvolution2D;
 import weka.dl4j.layers.FeedForwardLayer;
 import weka.dl4j.layers.GlobalPoolingLayer;
 import weka.dl4j.layers.Layer;
 import weka.dl4j.layers.OutputLayer;
+import weka.dl4j.layers.SeparableConvolution2D;
 import weka.dl4j.layers.SubsamplingLayer;
 import weka.dl4j.listener.EpochListener;
 import weka.dl4j.listener.TrainingListener;
+import weka.dl4j.preprocessors.EmbeddingToCnnPreProcessor;
+import weka.dl4j.sampler.Sampler;
+import weka.dl4j.sampler.SequentialSampler;
 import weka.dl4j.zoo.CustomNet;
 import weka.dl4j.zoo.ZooModel;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.NominalToBinary;
 import weka.filters.unsupervised.attribute.Normalize;
+import weka.filters.unsupervised.attribute.Remove;
 import weka.filters.unsupervised.attribute.ReplaceMissingValues;
 import weka.filters.unsupervised.attribute.Standardize;
-import weka.filters.unsupervised.instance.Randomize;
-import weka.filters.unsupervised.instance.RemovePercentage;
 import weka.gui.FilePropertyMetadata;
 import weka.gui.knowledgeflow.KFGUIConsts;
 
@@ -140,6 +157,23 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
    * filter: No normalization/standardization
    */
   public static final int FILTER_NONE = 2;
+  /**
+   * Number of spilled batches the hybrid dataset cache reads ahead
+   */
+  protected static final int HYBRID_CACHE_PREFETCH_DEPTH = 4;
+  /**
+   * Layer configurations of the zoo models, by zoo model class and options
+   */
+  protected static final Map<String, List<org.deeplearning4j.nn.conf.layers.Layer>>
+      ZOO_MODEL_LAYERS = new ConcurrentHashMap<>();
+  /**
+   * Largest image side that is tried when searching an input shape the zoo model accepts
+   */
+  protected static final int MAX_ZOO_MODEL_INPUT_SIZE = 4096;
+  /**
+   * Name of the embedding layer that looks up the word vectors in token index mode
+   */
+  protected static final String EMBEDDING_LAYER_NAME = "embedding";
   /**
    * The filter to apply to the training data
    */
@@ -160,6 +194,10 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
    * Filter used to convert nominal attributes to binary numeric attributes.
    */
   protected NominalToBinary nominalToBinaryFilter;
+  /**
+   * Preprocessing of the features of compiled datasets, whose instances only reference rows.
+   */
+  protected CompiledDataSetPreProcessor compiledPreProcessor;
   /**
    * ZeroR classifier, just in case we don't actually have any data to train a network.
    */
@@ -214,9 +252,13 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
    */
   protected AbstractInstanceIterator instanceIterator = new DefaultInstanceIterator();
   /**
-   * Queue size for AsyncDataSetIterator (if < 1, AsyncDataSetIterator is not used)
+   * Number of batches that are prepared ahead of time (if < 1, batches are prepared on demand)
    */
   protected int queueSize = 0;
+  /**
+   * Number of threads that prepare batches ahead of time
+   */
+  protected int numPrefetchThreads = 1;
   /**
    * Whether to normalize/standardize/neither
    */
@@ -233,6 +275,31 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
    * Caching mode to use for loading data
    */
   protected CacheMode cacheMode = CacheMode.MEMORY;
+  /**
+   * Directory of the persistent dataset cache (used with {@link CacheMode#FILESYSTEM})
+   */
+  protected File cacheDirectory =
+      new File(Paths.get(WekaPackageManager.WEKA_HOME.getAbsolutePath(), "dataset-cache").toString());
+  /**
+   * Maximum size of the persistent dataset cache in megabytes (non-positive: unbounded)
+   */
+  protected int cacheMaxSize = 4096;
+  /**
+   * Off-heap memory budget of the hybrid dataset cache in megabytes
+   */
+  protected int cacheMemoryBudget = 1024;
+  /**
+   * Compression of the batches that the hybrid dataset cache spills to disk
+   */
+  protected CacheCompression cacheCompression = CacheCompression.NONE;
+  /**
+   * Hybrid dataset cache shared by the training and validation iterators
+   */
+  protected transient HybridDataSetCache hybridCache;
+  /**
+   * Sampler that determines the order of the training examples in each epoch
+   */
+  protected Sampler sampler = new SequentialSampler();
   /**
    * Training listener list
    */
@@ -282,34 +349,50 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
   }
 
   /**
-   * Split the dataset into p% train an (100-p)% test set
+   * Split the dataset into a (100-p)% train and a p% validation set. The split is stratified for
+   * nominal classes. Both sets share the attribute values of the input instances, nothing is copied.
    *
    * @param data Input data
-   * @param p train percentage
-   * @return Array of instances: (0) Train, (1) Test
-   * @throws Exception Filterapplication went wrong
-   */
-  public static Instances[] splitTrainVal(Instances data, double p) throws Exception {
-    // Randomize data
-    Randomize rand = new Randomize();
-    rand.setInputFormat(data);
-    rand.setRandomSeed(42);
-    data = Filter.useFilter(data, rand);
-
-    // Remove testpercentage from data to get the train set
-    RemovePercentage rp = new RemovePercentage();
-    rp.setInputFormat(data);
-    rp.setPercentage(p);
-    Instances train = Filter.useFilter(data, rp);
+   * @param p validation percentage
+   * @return Array of instances: (0) Train, (1) Validation
+   */
+  public static Instances[] splitTrainVal(Instances data, double p) {
+    // Group the instance indices by class (a single group for non-nominal classes)
+    final boolean stratify = data.classIndex() >= 0 && data.classAttribute().isNominal();
+    final int numGroups = stratify ? data.numClasses() : 1;
+    List<List<Integer>> groups = new ArrayList<>(numGroups);
+    for (int i = 0; i < numGroups; i++) {
+      groups.add(new ArrayList<>());
+    }
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(i);
+      int group = stratify && !inst.classIsMissing() ? (int) inst.classValue() : 0;
+      groups.get(group).add(i);
+    }
 
-    // Remove trainpercentage from data to get the test set
-    rp = new RemovePercentage();
-    rp.setInputFormat(data);
-    rp.setPercentage(p);
-    rp.setInvertSelection(true);
-    Instances test = Filter.useFilter(data, rp);
+    // Shuffle each group and move the first p% of it into the validation set
+    Random rand = new Random(42);
+    boolean[] isVal = new boolean[data.numInstances()];
+    for (List<Integer> group : groups) {
+      Collections.shuffle(group, rand);
+      int numVal = (int) Math.round(group.size() * p / 100.0);
+      for (int i = 0; i < numVal; i++) {
+        isVal[group.get(i)] = true;
+      }
+    }
 
-    return new Instances[]{train, test};
+    // Instances.add() only creates shallow copies that share the attribute values
+    Instances train = new Instances(data, data.numInstances());
+    Instances val = new Instances(data, 0);
+    for (int i = 0; i < data.numInstances(); i++) {
+      if (isVal[i]) {
+        val.add(data.instance(i));
+      } else {
+        train.add(data.instance(i));
+      }
+    }
+    train.compactify();
+    return new Instances[]{train, val};
   }
 
   public String globalInfo() {
@@ -543,7 +626,10 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
    * @return True if layer is convolutional/subsampling
    */
   protected boolean isNDLayer(Layer layer) {
-    return layer instanceof ConvolutionLayer || layer instanceof SubsamplingLayer;
+    return layer instanceof ConvolutionLayer
+        || layer instanceof DepthwiseConvolution2D
+        || layer instanceof SeparableConvolution2D
+        || layer instanceof SubsamplingLayer;
   }
 
   /**
@@ -678,6 +764,24 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     queueSize = QueueSize;
   }
 
+  public int getNumPrefetchThreads() {
+    return numPrefetchThreads;
+  }
+
+  @OptionMetadata(
+      description =
+          "The number of threads that prepare batches ahead of time if the queue size is "
+              + "positive (default: 1). Only in-memory and compiled datasets that are not "
+              + "cached or use the memory cache are prepared by more than one thread.",
+      displayName = "number of prefetch threads",
+      commandLineParamName = "numPrefetchThreads",
+      commandLineParamSynopsis = "-numPrefetchThreads <int>",
+      displayOrder = 31
+  )
+  public void setNumPrefetchThreads(int numPrefetchThreads) {
+    this.numPrefetchThreads = numPrefetchThreads;
+  }
+
   /**
    * The method used to train the classifier.
    *
@@ -757,6 +861,11 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     try {
       Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
 
+      // Load the word vectors for the training data before they are needed by the model
+      if (instanceIterator instanceof AbstractTextEmbeddingIterator) {
+        ((AbstractTextEmbeddingIterator) instanceIterator).initWordVectors(trainData);
+      }
+
       // If zoo model was set, use this model as internal MultiLayerNetwork
       if (useZooModel()) {
         createZooModel();
@@ -767,7 +876,7 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
       instanceIterator.initialize();
 
       // Setup the datasetiterators (needs to be done after the model initialization)
-      trainIterator = getDataSetIterator(this.trainData);
+      trainIterator = getTrainDataSetIterator(this.trainData);
 
       // Print model architecture
       if (getDebug()) {
@@ -865,34 +974,155 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
    *
    * @param data Input instances
    * @param cm Cache mode for the datasets
-   * @param cacheDirSuffix suffix for the cache directory
+   * @param cacheDirSuffix prefix of the cache namespace for persistent caches
    * @return DataSetIterator Iterator over dataset objects
    */
   protected DataSetIterator getDataSetIterator(Instances data, CacheMode cm, String cacheDirSuffix)
       throws Exception {
+    DataSetIterator it;
+    if (cm == CacheMode.FILESYSTEM && instanceIterator instanceof CompiledInstanceIterator) {
+      // Compiled datasets are persistent already and their preprocessing is not part of the key
+      cm = CacheMode.NONE;
+    }
+    if (cm == CacheMode.FILESYSTEM) {
+      // Only convert the instances if the batches are not in the persistent cache yet
+      it = new LazyDataSetIterator(() -> createDataSetIterator(data),
+          instanceIterator.getTrainBatchSize());
+    } else {
+      it = createDataSetIterator(data);
+    }
+    return wrapDataSetIterator(it, data, cm, cacheDirSuffix);
+  }
+
+  /**
+   * Generates the DataSetIterator for the training instances. If a non-sequential sampler is set,
+   * the example order is drawn anew by the sampler in each epoch. Image iterators may augment or
+   * shuffle their training images.
+   *
+   * @param data Training instances
+   * @return DataSetIterator Iterator over dataset objects
+   */
+  protected DataSetIterator getTrainDataSetIterator(Instances data) throws Exception {
+    if (instanceIterator instanceof ImageInstanceIterator
+        && ((ImageInstanceIterator) instanceIterator).isTrainDataRandomized()) {
+      DataSetIterator it =
+          ((ImageInstanceIterator) instanceIterator)
+              .getTrainDataSetIterator(data, getSeed(), instanceIterator.getTrainBatchSize());
+      // Cached batches would replay the first epoch
+      return wrapDataSetIterator(it, data, CacheMode.NONE, "");
+    }
+
+    if (instanceIterator instanceof CompiledInstanceIterator) {
+      if (!sampler.isSequential()) {
+        log.warn(
+            "{} is not supported by {}. Batches of consecutive rows are shuffled instead.",
+            sampler.getClass().getSimpleName(),
+            instanceIterator.getClass().getSimpleName());
+      }
+      DataSetIterator it =
+          ((CompiledInstanceIterator) instanceIterator)
+              .getTrainDataSetIterator(data, getSeed(), instanceIterator.getTrainBatchSize());
+      it.setPreProcessor(compiledPreProcessor);
+      // Cached batches would replay the first epoch's order
+      return wrapDataSetIterator(it, data, CacheMode.NONE, "");
+    }
+
+    if (sampler.isSequential()) {
+      return getDataSetIterator(data, cacheMode, "");
+    }
+
+    DataSetIterator it = createDataSetIterator(data);
+    if (it instanceof DefaultDataSetIterator) {
+      sampler.initialize(data, getSeed());
+      ((DefaultDataSetIterator) it).setSampler(sampler);
+      // The examples are already in memory and a cache would replay the first epoch's order
+      return wrapDataSetIterator(it, data, CacheMode.NONE, "");
+    }
+
+    log.warn(
+        "{} is not supported by {}. Examples are visited sequentially.",
+        sampler.getClass().getSimpleName(),
+        instanceIterator.getClass().getSimpleName());
+    return wrapDataSetIterator(it, data, cacheMode, "");
+  }
+
+  /**
+   * Create the DataSetIterator of the instance iterator. The batches of compiled datasets get the
+   * preprocessing that the filters apply to other datasets.
+   *
+   * @param data Input instances
+   * @return DataSetIterator Iterator over dataset objects
+   * @throws Exception Iterator could not be created
+   */
+  protected DataSetIterator createDataSetIterator(Instances data) throws Exception {
     DataSetIterator it = instanceIterator.getDataSetIterator(data, getSeed());
+    if (instanceIterator instanceof CompiledInstanceIterator) {
+      it.setPreProcessor(compiledPreProcessor);
+    }
+    return it;
+  }
 
+  /**
+   * Wraps the given DataSetIterator into caching and asynchronous iterators as configured.
+   *
+   * @param it Iterator to wrap
+   * @param data Instances the iterator was created from
+   * @param cm Cache mode for the datasets
+   * @param cacheDirSuffix prefix of the cache namespace for persistent caches
+   * @return DataSetIterator Iterator over dataset objects
+   */
+  protected DataSetIterator wrapDataSetIterator(DataSetIterator it, Instances data, CacheMode cm,
+      String cacheDirSuffix) {
     // Use caching if set
     switch (cm) {
       case MEMORY: // Use memory as cache
+        if (it instanceof IndexedDataSetIterator) {
+          // The batches are built from in-memory or memory mapped data already. A memory cache
+          // would only hold serialized copies and hide the batch index from the prefetcher.
+          break;
+        }
         final InMemoryDataSetCache memCache = new InMemoryDataSetCache();
         it = new CachingDataSetIterator(it, memCache);
         break;
-      case FILESYSTEM: // use filesystem as cache
-        final String tmpDir = System.getProperty("java.io.tmpdir");
-        final String suffix = cacheDirSuffix.isEmpty() ? "" : "-" + cacheDirSuffix;
-        final File cacheDir = Paths.get(tmpDir, "dataset-cache" + suffix).toFile();
-        cacheDir.delete(); // remove old existing cache
-        final InFileDataSetCache fsCache = new InFileDataSetCache(cacheDir);
-        it = new CachingDataSetIterator(it, fsCache);
+      case FILESYSTEM: // use the persistent content-addressed cache
+        final String key = PersistentDataSetCache.computeKey(data, instanceIterator, getSeed(),
+            instanceIterator.getTrainBatchSize());
+        final String namespace = cacheDirSuffix.isEmpty() ? key : cacheDirSuffix + "-" + key;
+        final PersistentDataSetCache fsCache =
+            new PersistentDataSetCache(cacheDirectory, cacheMaxSize * 1024L * 1024L);
+        if (fsCache.isComplete(namespace)) {
+          log.info("Reusing cached batches from {}", Paths.get(cacheDirectory.getPath(), namespace));
+        }
+        it = new CachingDataSetIterator(it, fsCache, namespace);
+        break;
+      case HYBRID: // use memory up to the budget and spill the rest to disk
+        if (hybridCache == null) {
+          hybridCache =
+              new HybridDataSetCache(
+                  cacheMemoryBudget * 1024L * 1024L,
+                  cacheCompression,
+                  new File(System.getProperty("java.io.tmpdir")),
+                  HYBRID_CACHE_PREFETCH_DEPTH);
+        }
+        // Each iterator gets its own namespace in the shared cache
+        final String hybridNamespace =
+            (cacheDirSuffix.isEmpty() ? "train" : cacheDirSuffix) + "-" + UUID.randomUUID();
+        it = new CachingDataSetIterator(it, hybridCache, hybridNamespace);
         break;
     }
 
-    // Use async dataset iteration if queue size was set
-    if (queueSize > 0) {
-      it = new AsyncDataSetIterator(it, queueSize);
+    // Prepare batches ahead of time if queue size was set, image iterators that decode in
+    // parallel do this already
+    if (queueSize > 0 && !(it instanceof ParallelImageDataSetIterator)) {
+      if (numPrefetchThreads > 1 && !(it instanceof IndexedDataSetIterator)) {
+        log.warn(
+            "{} batches are prepared by a single thread, numPrefetchThreads={} is ignored.",
+            it.getClass().getSimpleName(),
+            numPrefetchThreads);
+      }
+      it = new PrefetchingDataSetIterator(it, queueSize, numPrefetchThreads);
       if (!it.hasNext()) {
-        throw new RuntimeException("AsyncDataSetIterator could not load any datasets.");
+        throw new RuntimeException("PrefetchingDataSetIterator could not load any datasets.");
       }
     }
     return it;
@@ -988,9 +1218,13 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     nominalToBinaryFilter.setInputFormat(data);
     data = Filter.useFilter(data, nominalToBinaryFilter);
 
-    // Standardize or normalize (as requested), including the class
-
-    if (filterType == FILTER_STANDARDIZE) {
+    // Standardize or normalize (as requested), including the class. The instances of compiled
+    // datasets only reference rows, which must not be rescaled.
+    compiledPreProcessor = null;
+    if (getInstanceIterator() instanceof CompiledInstanceIterator) {
+      filter = null;
+      data = initCompiledPreProcessor(data);
+    } else if (filterType == FILTER_STANDARDIZE) {
       filter = new Standardize();
       filter.setOptions(new String[]{"-unset-class-temporarily"});
       filter.setInputFormat(data);
@@ -1007,6 +1241,47 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     return data;
   }
 
+  /**
+   * Fit the preprocessing of a compiled dataset, which replaces missing values and standardizes or
+   * normalizes the features of each batch the way the filters do for other datasets. A numeric
+   * class is rescaled by the filter itself.
+   *
+   * @param data Instances referencing the training rows
+   * @return Instances with the rescaled class
+   * @throws Exception Compiled dataset could not be read
+   */
+  protected Instances initCompiledPreProcessor(Instances data) throws Exception {
+    final CompiledInstanceIterator cii = (CompiledInstanceIterator) getInstanceIterator();
+    final Scaling scaling;
+    if (filterType == FILTER_STANDARDIZE) {
+      scaling = Scaling.STANDARDIZE;
+    } else if (filterType == FILTER_NORMALIZE) {
+      scaling = Scaling.NORMALIZE;
+    } else {
+      scaling = Scaling.NONE;
+    }
+    compiledPreProcessor =
+        CompiledDataSetPreProcessor.fit(
+            cii.getCompiledDataSet(), CompiledInstanceIterator.rows(data), scaling);
+    if (scaling == Scaling.NONE || !data.classAttribute().isNumeric()) {
+      return data;
+    }
+
+    Remove removeRows = new Remove();
+    removeRows.setAttributeIndicesArray(new int[] {data.classIndex()});
+    removeRows.setInvertSelection(true);
+    removeRows.setInputFormat(data);
+    Instances classValues = Filter.useFilter(data, removeRows);
+    Filter classFilter = scaling == Scaling.STANDARDIZE ? new Standardize() : new Normalize();
+    classFilter.setOptions(new String[]{"-unset-class-temporarily"});
+    classFilter.setInputFormat(classValues);
+    classValues = Filter.useFilter(classValues, classFilter);
+    for (int i = 0; i < data.numInstances(); i++) {
+      data.instance(i).setClassValue(classValues.instance(i).classValue());
+    }
+    return data;
+  }
+
   /**
    * Build the Zoomodel instance
    *
@@ -1026,49 +1301,108 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
 
     // Get the new width/heigth/channels from the iterator
     ImageInstanceIterator iii = (ImageInstanceIterator) it;
-    int newWidth = iii.getWidth();
-    int newHeight = iii.getHeight();
-    int channels = iii.getNumChannels();
-    boolean initSuccessful = false;
-    while (!initSuccessful) {
-      // Increase width and height
-      int[] newShape = new int[]{channels, newHeight, newWidth};
-      setInstanceIterator(new ResizeImageInstanceIterator(iii, newWidth, newHeight));
-      initSuccessful = initZooModel(trainData.numClasses(), getSeed(), newShape);
-
-      newWidth *= 1.2;
-      newHeight *= 1.2;
-      if (!initSuccessful) {
-        log.warn(
-            "The data's shape did not fit the chosen "
-                + "model's input. It was therefore resized to ({}x{}x{}).",
-            channels,
-            newHeight,
-            newWidth);
-      }
+    final int numClasses = trainData.numClasses();
+    final int[] shape =
+        getZooModelInputShape(numClasses, iii.getNumChannels(), iii.getHeight(), iii.getWidth());
+    if (shape[1] != iii.getHeight() || shape[2] != iii.getWidth()) {
+      log.warn(
+          "The data's shape did not fit the chosen "
+              + "model's input. It was therefore resized to ({}x{}x{}).",
+          shape[0],
+          shape[1],
+          shape[2]);
     }
+    setInstanceIterator(new ResizeImageInstanceIterator(iii, shape[2], shape[1]));
+
+    // Allocate the parameters only for the final shape
+    model = zooModel.init(numClasses, getSeed(), shape);
+    model.init();
+    zooModel.loadPretrainedWeights(model);
   }
 
-  protected boolean initZooModel(int numClasses, long seed, int[] newShape) throws Exception {
-    try {
-      ComputationGraph tmpModel = zooModel.init(numClasses, seed, newShape);
-      // Make a dummy feed forward pass to check if the model dimensions fit at each layer
-      Instances dummyData = new Instances(trainData);
-      for (int i = 0; i < instanceIterator.getTrainBatchSize(); i++) {
-        dummyData.add(trainData.get(i));
+  /**
+   * Find the smallest input shape of at least the given height and width (keeping the aspect
+   * ratio) that the zoo model accepts. The shapes are checked by propagating the input type through
+   * the model configuration, so no parameters are allocated. The images are grown by a factor of
+   * 1.2 until the model accepts them and the smallest accepted size in between is searched by
+   * bisection.
+   *
+   * @param numClasses Number of classes
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @return Input shape: channels, height, width
+   * @throws WekaException The model does not accept any input shape
+   */
+  protected int[] getZooModelInputShape(int numClasses, int channels, int height, int width)
+      throws WekaException {
+    final int minSide = Math.min(height, width);
+    int invalid = minSide - 1;
+    int valid = -1;
+    int side = minSide;
+    while (side <= MAX_ZOO_MODEL_INPUT_SIZE) {
+      if (isValidZooModelInputShape(numClasses, scaleShape(channels, height, width, side))) {
+        valid = side;
+        break;
       }
-      tmpModel.init();
-      DataSetIterator iter = getDataSetIterator(dummyData);
-      tmpModel.feedForward(iter.next().getFeatures(), false);
+      invalid = side;
+      side = Math.max(side + 1, (int) (side * 1.2));
+    }
+    if (valid < 0) {
+      throw new WekaException(
+          "The zoo model does not accept images of up to "
+              + MAX_ZOO_MODEL_INPUT_SIZE
+              + " pixels with the data's aspect ratio.");
+    }
 
-      // No Exception thrown -> set model to this zoo model and return true
-      model = zooModel.init(numClasses, seed, newShape);
-      return true;
+    // The result is always an accepted shape, even if the validity is not monotonic in the size
+    while (valid - invalid > 1) {
+      side = (invalid + valid) >>> 1;
+      if (isValidZooModelInputShape(numClasses, scaleShape(channels, height, width, side))) {
+        valid = side;
+      } else {
+        invalid = side;
+      }
+    }
+    return scaleShape(channels, height, width, valid);
+  }
+
+  /**
+   * Scale an image shape such that its smaller side has the given size.
+   *
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @param minSide Size of the smaller side
+   * @return Scaled shape: channels, height, width
+   */
+  protected static int[] scaleShape(int channels, int height, int width, int minSide) {
+    final int side = Math.min(height, width);
+    return new int[] {
+      channels,
+      (int) (((long) height * minSide + side - 1) / side),
+      (int) (((long) width * minSide + side - 1) / side)
+    };
+  }
+
+  /**
+   * Check whether the zoo model accepts the given input shape, without allocating its parameters.
+   *
+   * @param numClasses Number of classes
+   * @param shape Input shape: channels, height, width
+   * @return True if the input can be propagated through the model
+   */
+  protected boolean isValidZooModelInputShape(int numClasses, int[] shape) {
+    try {
+      ComputationGraphConfiguration conf = zooModel.getConfiguration(numClasses, getSeed(), shape);
+      return Utils.isValidInputType(conf, InputType.convolutional(shape[1], shape[2], shape[0]));
     } catch (UnsupportedOperationException e) {
       throw new UnsupportedOperationException(
           "ZooModel was not set (CustomNet), but createZooModel could be called. Invalid situation",
           e);
-    } catch (DL4JInvalidConfigException | DL4JInvalidInputException e) {
+    } catch (DL4JInvalidConfigException
+        | DL4JInvalidInputException
+        | InvalidInputTypeException e) {
       return false;
     }
   }
@@ -1098,9 +1432,24 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     ComputationGraphConfiguration conf = gb.pretrain(false).backprop(true).build();
     ComputationGraph model = new ComputationGraph(conf);
     model.init();
+    if (isTokenIndexMode()) {
+      ((AbstractTextEmbeddingIterator) getInstanceIterator())
+          .initEmbeddingLayer(model, EMBEDDING_LAYER_NAME);
+    }
     this.model = model;
   }
 
+  /**
+   * Whether the instance iterator emits token indices that are looked up by an embedding layer in
+   * the network, including hashed tokens.
+   *
+   * @return True in token index mode
+   */
+  protected boolean isTokenIndexMode() {
+    return getInstanceIterator() instanceof AbstractTextEmbeddingIterator
+        && ((AbstractTextEmbeddingIterator) getInstanceIterator()).isEmittingTokenIndices();
+  }
+
   /**
    * Default layer setup: Create sequential layer network defined by the order of the layer list
    *
@@ -1128,6 +1477,15 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     String currentInput = "input";
     gb.addInputs(currentInput);
 
+    // Look up the word vectors of the token indices in the network
+    final boolean tokenIndexMode = isTokenIndexMode();
+    final AbstractTextEmbeddingIterator textIter =
+        tokenIndexMode ? (AbstractTextEmbeddingIterator) getInstanceIterator() : null;
+    if (tokenIndexMode) {
+      gb.addLayer(EMBEDDING_LAYER_NAME, textIter.createEmbeddingLayer(false), currentInput);
+      currentInput = EMBEDDING_LAYER_NAME;
+    }
+
     // Collect all convolution layers defined until the first non conv layer
     List<ConvolutionLayer> convLayers = new ArrayList<>();
     int idx = 0;
@@ -1137,6 +1495,11 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
         validateCnnLayer(convLayer);
         convLayers.add(convLayer);
         gb.addLayer(convLayer.getLayerName(), convLayer.getBackend().clone(), currentInput);
+        if (tokenIndexMode) {
+          gb.inputPreProcessor(
+              convLayer.getLayerName(),
+              new EmbeddingToCnnPreProcessor(textIter.getSequenceLength()));
+        }
         idx++;
       } else {
         break;
@@ -1181,13 +1544,9 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     final AbstractInstanceIterator iter = getInstanceIterator();
     if (iter instanceof CnnTextEmbeddingInstanceIterator) {
       CnnTextEmbeddingInstanceIterator cnnIter = (CnnTextEmbeddingInstanceIterator) iter;
-      final int vectorSize =
-          cnnIter
-              .getWordVectors()
-              .getWordVector(cnnIter.getWordVectors().vocab().wordAtIndex(0))
-              .length;
+      final int vectorSize = cnnIter.getEmbeddingSize();
 
-      final int truncateLength = cnnIter.getTruncateLength();
+      final int truncateLength = cnnIter.getSequenceLength();
 
       if (truncateLength < cl.getKernelSizeX()) {
         throw new InvalidLayerConfigurationException(
@@ -1341,6 +1700,10 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
   public void done() {
 
     trainData = null;
+    if (hybridCache != null) {
+      hybridCache.close();
+      hybridCache = null;
+    }
   }
 
   /**
@@ -1373,15 +1736,11 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
       final int dummyNumLabels = 2;
 
       Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
-      ComputationGraph tmpCg = zooModel.init(dummyNumLabels, getSeed(), zooModel.getShape()[0]);
-      tmpCg.init();
       layers =
-          Arrays.stream(tmpCg.getLayers())
-              .map(l -> Layer.create(l.conf().getLayer()))
-              .collect(Collectors.toList())
-              .toArray(new Layer[tmpCg.getLayers().length]);
-
-
+          getZooModelLayers(zooModel, dummyNumLabels)
+              .stream()
+              .map(l -> Layer.create(l.clone()))
+              .toArray(Layer[]::new);
     } catch (Exception e) {
       if (!(zooModel instanceof CustomNet)) {
         log.error("Could not set layers from zoomodel.", e);
@@ -1391,6 +1750,31 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     }
   }
 
+  /**
+   * Get the layer configurations of a zoo model at its default input shape. They are read from
+   * the model configuration without allocating parameters, once per zoo model class and options.
+   * The returned layers are shared and must not be modified.
+   *
+   * @param zooModel Zoo model
+   * @param numLabels Number of labels
+   * @return Layer configurations
+   */
+  protected static List<org.deeplearning4j.nn.conf.layers.Layer> getZooModelLayers(
+      ZooModel zooModel, int numLabels) {
+    final String key =
+        zooModel.getClass().getName()
+            + " "
+            + weka.core.Utils.joinOptions(zooModel.getOptions())
+            + " "
+            + numLabels;
+    return ZOO_MODEL_LAYERS.computeIfAbsent(
+        key,
+        k ->
+            Collections.unmodifiableList(
+                zooModel.getLayerConfigurations(numLabels, 0, zooModel.getShape()[0])));
+  }
+
+
   public TrainingListener getIterationListener() {
     return iterationListener;
   }
@@ -1406,6 +1790,22 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     iterationListener = l;
   }
 
+  public Sampler getSampler() {
+    return sampler;
+  }
+
+  @OptionMetadata(
+      displayName = "training example sampler",
+      description = "The sampler that determines the order of the training examples in each epoch "
+          + "(default = SequentialSampler).",
+      commandLineParamName = "sampler",
+      commandLineParamSynopsis = "-sampler <string>",
+      displayOrder = 14
+  )
+  public void setSampler(Sampler sampler) {
+    this.sampler = sampler;
+  }
+
   public CacheMode getCacheMode() {
     return cacheMode;
   }
@@ -1421,6 +1821,71 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
     cacheMode = cm;
   }
 
+  public int getCacheMemoryBudget() {
+    return cacheMemoryBudget;
+  }
+
+  @OptionMetadata(
+      displayName = "hybrid cache memory budget in MB",
+      description = "The off-heap memory budget of the HYBRID cache mode in MB. Further batches "
+          + "are spilled to disk (default = 1024).",
+      commandLineParamName = "cache-memory-budget",
+      commandLineParamSynopsis = "-cache-memory-budget <int>",
+      displayOrder = 17
+  )
+  public void setCacheMemoryBudget(int cacheMemoryBudget) {
+    this.cacheMemoryBudget = cacheMemoryBudget;
+  }
+
+  public CacheCompression getCacheCompression() {
+    return cacheCompression;
+  }
+
+  @OptionMetadata(
+      displayName = "hybrid cache spill compression",
+      description = "The compression of batches spilled to disk in the HYBRID cache mode, one of "
+          + "{NONE,LZ4,FLOAT16} (default = NONE).",
+      commandLineParamName = "cache-compression",
+      commandLineParamSynopsis = "-cache-compression <string>",
+      displayOrder = 18
+  )
+  public void setCacheCompression(CacheCompression cacheCompression) {
+    this.cacheCompression = cacheCompression;
+  }
+
+  public File getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.SAVE_DIALOG, directoriesOnly = true)
+  @OptionMetadata(
+      displayName = "cache directory",
+      description = "The directory of the persistent dataset cache, shared across runs "
+          + "(default = $WEKA_HOME/dataset-cache).",
+      commandLineParamName = "cache-dir",
+      commandLineParamSynopsis = "-cache-dir <string>",
+      displayOrder = 15
+  )
+  public void setCacheDirectory(File cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  public int getCacheMaxSize() {
+    return cacheMaxSize;
+  }
+
+  @OptionMetadata(
+      displayName = "maximum cache size in MB",
+      description = "The maximum size of the persistent dataset cache in MB. Least recently used "
+          + "entries are evicted beyond this size (default = 4096, <= 0: unbounded).",
+      commandLineParamName = "cache-max-size",
+      commandLineParamSynopsis = "-cache-max-size <int>",
+      displayOrder = 16
+  )
+  public void setCacheMaxSize(int cacheMaxSize) {
+    this.cacheMaxSize = cacheMaxSize;
+  }
+
   /**
    * Performs efficient batch prediction
    *
@@ -1584,7 +2049,8 @@ public class Dl4jMlpClassifier extends RandomizableClassifier
    * @return Activations in form of instances
    */
   public Instances getActivationsAtLayer(String layerName, Instances input) throws Exception {
-    DataSetIterator iter = getDataSetIterator(input);
+    // Inference passes over the data once, a cache would only be left open
+    DataSetIterator iter = getDataSetIterator(input, CacheMode.NONE);
     iter.reset();
     DataSet next;
     INDArray acts = null;
@@ -46,7 +46,9 @@ import weka.core.MissingOutputLayerException;
 import weka.core.OptionHandler;
 import weka.core.OptionMetadata;
 import weka.dl4j.CacheMode;
+import weka.dl4j.iterators.instance.sequence.text.AbstractTextEmbeddingIterator;
 import weka.dl4j.layers.Layer;
+import weka.dl4j.preprocessors.EmbeddingSequencePreProcessor;
 import weka.dl4j.zoo.CustomNet;
 import weka.dl4j.zoo.ZooModel;
 import weka.gui.ProgrammaticProperty;
@@ -108,17 +110,23 @@ public class RnnSequenceClassifier extends Dl4jMlpClassifier
       data = initEarlyStopping(data);
       this.trainData = data;
 
+      if (instanceIterator instanceof AbstractTextEmbeddingIterator) {
+        ((AbstractTextEmbeddingIterator) instanceIterator).initWordVectors(trainData);
+      }
       instanceIterator.initialize();
 
       createModel();
 
       // Setup the datasetiterators (needs to be done after the model initialization)
-      trainIterator = getDataSetIterator(this.trainData);
+      trainIterator = getTrainDataSetIterator(this.trainData);
 
       // Set the iteration listener
       model.setListeners(getListener());
 
       numEpochsPerformed = 0;
+
+      // Serialization only writes the network of an initialized classifier
+      isInitializationFinished = true;
     } finally {
       Thread.currentThread().setContextClassLoader(origLoader);
     }
@@ -152,6 +160,17 @@ public class RnnSequenceClassifier extends Dl4jMlpClassifier
 
     String currentInput = "input";
     gb.addInputs(currentInput);
+
+    // Look up the word vectors of the token indices in the network
+    if (isTokenIndexMode()) {
+      gb.addLayer(
+          EMBEDDING_LAYER_NAME,
+          ((AbstractTextEmbeddingIterator) getInstanceIterator()).createEmbeddingLayer(true),
+          currentInput);
+      gb.inputPreProcessor(EMBEDDING_LAYER_NAME, new EmbeddingSequencePreProcessor());
+      currentInput = EMBEDDING_LAYER_NAME;
+    }
+
     // Collect layers
     for (Layer layer : layers) {
       String lName = layer.getLayerName();
@@ -164,6 +183,10 @@ public class RnnSequenceClassifier extends Dl4jMlpClassifier
     ComputationGraphConfiguration conf = gb.pretrain(false).backprop(true).build();
     ComputationGraph model = new ComputationGraph(conf);
     model.init();
+    if (isTokenIndexMode()) {
+      ((AbstractTextEmbeddingIterator) getInstanceIterator())
+          .initEmbeddingLayer(model, EMBEDDING_LAYER_NAME);
+    }
     this.model = model;
   }
 
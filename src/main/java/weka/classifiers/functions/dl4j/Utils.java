@@ -19,6 +19,15 @@
 package weka.classifiers.functions.dl4j;
 
 import org.deeplearning4j.datasets.iterator.AsyncDataSetIterator;
+import org.deeplearning4j.exception.DL4JInvalidConfigException;
+import org.deeplearning4j.exception.DL4JInvalidInputException;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.InputPreProcessor;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.inputs.InvalidInputTypeException;
+import org.deeplearning4j.nn.conf.layers.FeedForwardLayer;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
@@ -34,6 +43,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Map;
 
 /**
  * Utility routines for the Dl4jMlpClassifier
@@ -150,6 +160,57 @@ public class Utils {
     return score;
   }
 
+  /**
+   * Check whether activations of the given input types can be propagated through a network
+   * configuration. Only the configuration is inspected, no parameters are allocated. Besides the
+   * checks of the layers themselves, the input size of each layer must match the size of its
+   * incoming activations if it was set explicitly.
+   *
+   * @param conf Network configuration
+   * @param inputTypes Types of the network inputs
+   * @return True if every vertex accepts its input
+   */
+  public static boolean isValidInputType(
+      ComputationGraphConfiguration conf, InputType... inputTypes) {
+    try {
+      Map<String, InputType> outputTypes = conf.getLayerActivationTypes(false, inputTypes);
+      for (Map.Entry<String, InputType> e : outputTypes.entrySet()) {
+        if (e.getValue() instanceof InputType.InputTypeConvolutional) {
+          InputType.InputTypeConvolutional cnn = (InputType.InputTypeConvolutional) e.getValue();
+          if (cnn.getHeight() <= 0 || cnn.getWidth() <= 0) {
+            return false;
+          }
+        }
+        GraphVertex vertex = conf.getVertices().get(e.getKey());
+        if (!(vertex instanceof LayerVertex)) {
+          continue;
+        }
+        LayerVertex layerVertex = (LayerVertex) vertex;
+        org.deeplearning4j.nn.conf.layers.Layer layer = layerVertex.getLayerConf().getLayer();
+        if (!(layer instanceof FeedForwardLayer) || ((FeedForwardLayer) layer).getNIn() <= 0) {
+          continue;
+        }
+        InputType layerInput = outputTypes.get(conf.getVertexInputs().get(e.getKey()).get(0));
+        InputPreProcessor preProcessor = layerVertex.getPreProcessor();
+        if (preProcessor != null) {
+          layerInput = preProcessor.getOutputType(layerInput);
+        }
+        FeedForwardLayer expected = (FeedForwardLayer) layer.clone();
+        expected.setNIn(layerInput, true);
+        if (expected.getNIn() != ((FeedForwardLayer) layer).getNIn()) {
+          return false;
+        }
+      }
+      return true;
+    } catch (DL4JInvalidConfigException
+        | DL4JInvalidInputException
+        | InvalidInputTypeException
+        | IllegalStateException e) {
+      // Preprocessors reject inputs of the wrong shape with an IllegalStateException
+      return false;
+    }
+  }
+
   /**
    * Convert an arbitrary NDArray to Weka instances
    * @param ndArray Input array
@@ -194,7 +255,10 @@ public class Utils {
    * @param fieldName Field name
    * @param <T>       Return type
    * @return Value of field with name {@code fieldName}
+   * @deprecated No longer used by this package since the CnnSentenceDataSetIterator does not
+   *     extend the DL4J iterator anymore
    */
+  @Deprecated
   public static <T> T getFieldValue(Object obj, String fieldName) {
     try {
       Field f = obj.getClass().getSuperclass().getDeclaredField(fieldName);
@@ -215,7 +279,10 @@ public class Utils {
    * @param fieldName Field name
    * @param value     Field value to be set
    * @param <T>       Field type
+   * @deprecated No longer used by this package since the CnnSentenceDataSetIterator does not
+   *     extend the DL4J iterator anymore
    */
+  @Deprecated
   public static <T> void setFieldValue(Object obj, String fieldName, T value) {
     try {
       Field f = obj.getClass().getSuperclass().getDeclaredField(fieldName);
@@ -236,7 +303,10 @@ public class Utils {
    * @param args       Method arguments
    * @param <T>        Return type
    * @return Method return value
+   * @deprecated No longer used by this package since the CnnSentenceDataSetIterator does not
+   *     extend the DL4J iterator anymore
    */
+  @Deprecated
   public static <T> T invokeMethod(Object obj, String methodName, Object... args) {
     try {
       Class<?>[] parameterTypes = new Class[args.length];
@@ -0,0 +1,179 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CompiledDataSetLoader.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.converters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.dl4j.iterators.dataset.CompiledDataSet;
+import weka.dl4j.iterators.instance.CompiledInstanceIterator;
+
+/**
+ * Loads a compiled dataset (see {@link CompiledDataSetSaver}) into Weka. Only the row index and
+ * the class value of each instance are loaded, the features stay in the compiled file and are read
+ * by the {@link CompiledInstanceIterator} during training.
+ *
+ * @author Steven Lang
+ */
+public class CompiledDataSetLoader extends AbstractFileLoader
+    implements BatchConverter, IncrementalConverter {
+
+  /** For serialization */
+  private static final long serialVersionUID = 6286435722310734413L;
+
+  /** the file extension. */
+  public static String FILE_EXTENSION = CompiledDataSetSaver.FILE_EXTENSION;
+
+  /** The compiled dataset */
+  protected transient CompiledDataSet compiled;
+
+  /** Next row to load incrementally */
+  protected long nextRow;
+
+  /**
+   * Main method for testing this class.
+   *
+   * @param args should contain &lt;filestem&gt;[.names | data]
+   */
+  public static void main(String[] args) {
+    runFileLoader(new CompiledDataSetLoader(), args);
+  }
+
+  @Override
+  public String getFileExtension() {
+    return FILE_EXTENSION;
+  }
+
+  @Override
+  public String[] getFileExtensions() {
+    return new String[] {FILE_EXTENSION};
+  }
+
+  @Override
+  public String getFileDescription() {
+    return "Compiled binary datasets for the CompiledInstanceIterator.";
+  }
+
+  @Override
+  public String getRevision() {
+    return "$Revision: 1 $";
+  }
+
+  public String globalInfo() {
+    return "Loads the row references and class values of a compiled dataset. Use the "
+        + "CompiledInstanceIterator with the same file to train on the features.";
+  }
+
+  @Override
+  public Instances getStructure() throws IOException {
+    if (m_sourceFile == null) {
+      throw new IOException("No source has been specified.");
+    }
+
+    if (m_structure == null) {
+      compiled = new CompiledDataSet(m_sourceFile);
+      Instances header = compiled.getHeader();
+      ArrayList<Attribute> atts = new ArrayList<>();
+      atts.add(new Attribute(CompiledInstanceIterator.ROW_ATTRIBUTE));
+      atts.add(header.classAttribute().copy(header.classAttribute().name()));
+      m_structure = new Instances(header.relationName(), atts, 0);
+      m_structure.setClassIndex(1);
+      nextRow = 0;
+    }
+
+    return m_structure;
+  }
+
+  @Override
+  public Instances getDataSet() throws IOException {
+    if (m_sourceFile == null) {
+      throw new IOException("No source has been specified");
+    }
+    if (getRetrieval() == INCREMENTAL) {
+      throw new IOException("Cannot mix getting Instances in both incremental and batch modes");
+    }
+    setRetrieval(BATCH);
+
+    Instances result = new Instances(getStructure(), (int) compiled.getNumRows());
+    for (long row = 0; row < compiled.getNumRows(); row++) {
+      result.add(rowInstance(row));
+    }
+    return result;
+  }
+
+  @Override
+  public Instance getNextInstance(Instances structure) throws IOException {
+    if (getRetrieval() == BATCH) {
+      throw new IOException("Cannot mix getting Instances in both incremental and batch modes");
+    }
+    setRetrieval(INCREMENTAL);
+
+    getStructure();
+    if (nextRow >= compiled.getNumRows()) {
+      return null;
+    }
+    Instance inst = rowInstance(nextRow++);
+    inst.setDataset(structure);
+    return inst;
+  }
+
+  /**
+   * Create the instance that references a row.
+   *
+   * @param row Row index
+   * @return Instance with the row index and the class value
+   */
+  protected Instance rowInstance(long row) {
+    final double[] labels = compiled.getLabels(row);
+    double classValue;
+    if (m_structure.classAttribute().isNominal()) {
+      final int hot = Utils.maxIndex(labels);
+      classValue = labels[hot] > 0 ? hot : Utils.missingValue();
+    } else {
+      classValue = Double.isNaN(labels[0]) ? Utils.missingValue() : labels[0];
+    }
+    return new DenseInstance(1, new double[] {row, classValue});
+  }
+
+  /**
+   * Resets the Loader object and sets the source of the data set to be the supplied File object.
+   *
+   * @param file the source file.
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public void setSource(File file) throws IOException {
+    m_structure = null;
+    compiled = null;
+
+    setRetrieval(NONE);
+
+    if (file == null) {
+      throw new IOException("Source file object is null!");
+    }
+
+    m_sourceFile = file;
+    m_File = file.getAbsolutePath();
+  }
+}
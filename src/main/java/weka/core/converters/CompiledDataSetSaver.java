@@ -0,0 +1,233 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CompiledDataSetSaver.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionMetadata;
+import weka.dl4j.iterators.dataset.CompiledDataSet;
+
+/**
+ * Compiles a dataset into the binary format read by the {@link
+ * weka.dl4j.iterators.instance.CompiledInstanceIterator}. Compile once, e.g. with
+ *
+ * <pre>
+ * java weka.Run weka.core.converters.CompiledDataSetSaver -i data.arff -o data.cds
+ * </pre>
+ *
+ * and train on the {@link CompiledDataSetLoader} output without parsing the features again. If no
+ * class is set, the last attribute is used.
+ *
+ * @author Steven Lang
+ */
+public class CompiledDataSetSaver extends AbstractFileSaver
+    implements BatchConverter, IncrementalConverter {
+
+  /** For serialization */
+  private static final long serialVersionUID = -4013383254596627155L;
+
+  /** the file extension. */
+  public static String FILE_EXTENSION = ".cds";
+
+  /** Whether to store the values as double precision floats */
+  protected boolean storeDoubles = false;
+
+  /** The destination */
+  protected transient OutputStream output;
+
+  /** Writer of the current incremental run */
+  protected transient CompiledDataSet.Writer writer;
+
+  /** Constructor. */
+  public CompiledDataSetSaver() {
+    resetOptions();
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the options of a Saver.
+   */
+  public static void main(String[] args) {
+    runFileSaver(new CompiledDataSetSaver(), args);
+  }
+
+  public String globalInfo() {
+    return "Compiles a dataset into a binary file of feature and label buffers that is memory "
+        + "mapped by the CompiledInstanceIterator. Nominal attributes are one-hot encoded, "
+        + "missing values are stored as NaN and replaced like ReplaceMissingValues does when "
+        + "training.";
+  }
+
+  @OptionMetadata(
+      displayName = "store doubles",
+      description = "Store the values as double instead of single precision floats. Only useful "
+          + "if ND4J runs in double precision (default = false).",
+      commandLineParamName = "double",
+      commandLineParamSynopsis = "-double",
+      commandLineParamIsFlag = true,
+      displayOrder = 1
+  )
+  public boolean getStoreDoubles() {
+    return storeDoubles;
+  }
+
+  public void setStoreDoubles(boolean storeDoubles) {
+    this.storeDoubles = storeDoubles;
+  }
+
+  @Override
+  public String getFileDescription() {
+    return "Compiled binary datasets for the CompiledInstanceIterator.";
+  }
+
+  @Override
+  public void resetOptions() {
+    super.resetOptions();
+    setFileExtension(FILE_EXTENSION);
+  }
+
+  @Override
+  public Capabilities getCapabilities() {
+    Capabilities result = super.getCapabilities();
+    result.disableAll();
+
+    // attributes
+    result.enable(Capability.NOMINAL_ATTRIBUTES);
+    result.enable(Capability.NUMERIC_ATTRIBUTES);
+    result.enable(Capability.DATE_ATTRIBUTES);
+    result.enable(Capability.MISSING_VALUES);
+
+    // class
+    result.enable(Capability.NOMINAL_CLASS);
+    result.enable(Capability.NUMERIC_CLASS);
+    result.enable(Capability.DATE_CLASS);
+    result.enable(Capability.MISSING_CLASS_VALUES);
+    result.enable(Capability.NO_CLASS);
+
+    return result;
+  }
+
+  @Override
+  public void resetWriter() {
+    super.resetWriter();
+    output = null;
+    writer = null;
+  }
+
+  @Override
+  public void setDestination(OutputStream output) throws IOException {
+    super.setDestination(output);
+    this.output = output;
+  }
+
+  @Override
+  public void writeBatch() throws IOException {
+    if (getRetrieval() == INCREMENTAL) {
+      throw new IOException("Batch and incremental saving cannot be mixed.");
+    }
+    if (getInstances() == null) {
+      throw new IOException("No instances to save");
+    }
+    setRetrieval(BATCH);
+    setWriteMode(WRITE);
+
+    try (CompiledDataSet.Writer batchWriter = createWriter(getInstances())) {
+      for (Instance inst : getInstances()) {
+        batchWriter.write(inst);
+      }
+    }
+
+    setWriteMode(WAIT);
+    resetWriter();
+    setWriteMode(CANCEL);
+  }
+
+  @Override
+  public void writeIncremental(Instance inst) throws IOException {
+    int writeMode = getWriteMode();
+    Instances structure = getInstances();
+
+    if (getRetrieval() == BATCH || getRetrieval() == NONE) {
+      throw new IOException("Batch and incremental saving cannot be mixed.");
+    }
+    if (writeMode == WAIT) {
+      if (structure == null) {
+        setWriteMode(CANCEL);
+        if (inst != null) {
+          throw new IOException("Structure (header information) has to be set in advance");
+        }
+      } else {
+        setWriteMode(STRUCTURE_READY);
+      }
+      writeMode = getWriteMode();
+    }
+    if (writeMode == CANCEL) {
+      if (writer != null) {
+        writer.close();
+      }
+      cancel();
+    }
+    if (writeMode == STRUCTURE_READY) {
+      setWriteMode(WRITE);
+      writer = createWriter(structure);
+      writeMode = getWriteMode();
+    }
+    if (writeMode == WRITE) {
+      if (inst != null) {
+        writer.write(inst);
+        m_incrementalCounter++;
+      } else {
+        // The last instance was written, complete the file
+        writer.close();
+        resetStructure();
+        resetWriter();
+      }
+    }
+  }
+
+  /**
+   * Create the writer for the given structure.
+   *
+   * @param structure Dataset structure
+   * @return Writer
+   * @throws IOException No destination set or unsupported structure
+   */
+  protected CompiledDataSet.Writer createWriter(Instances structure) throws IOException {
+    if (output == null) {
+      throw new IOException("No destination has been specified.");
+    }
+    Instances header = new Instances(structure, 0);
+    if (header.classIndex() < 0) {
+      header.setClassIndex(header.numAttributes() - 1);
+    }
+    return new CompiledDataSet.Writer(
+        output, header, storeDoubles ? DataBuffer.Type.DOUBLE : DataBuffer.Type.FLOAT);
+  }
+
+  @Override
+  public String getRevision() {
+    return "$Revision: 1 $";
+  }
+}
@@ -18,23 +18,40 @@
 
 package weka.core.converters;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
 import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
-import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-
 /**
- * Loads Word2Vec seriliazed embeddings into Weka.
+ * Loads Word2Vec seriliazed embeddings into Weka. Both the binary and the text format of word2vec
+ * are supported, optionally gzip compressed. The file is streamed record by record, so that large
+ * models can also be loaded incrementally in constant memory. Other formats, e.g. the zip files of
+ * {@link WordVectorSerializer#writeWord2VecModel}, are loaded completely with {@link
+ * WordVectorSerializer#readWord2VecModel} instead.
  *
  * @author Felipe Bravo-Marquez
  */
-public class Word2VecLoader extends AbstractFileLoader implements BatchConverter {
+public class Word2VecLoader extends AbstractFileLoader
+    implements BatchConverter, IncrementalConverter {
 
   /** For serialization */
   private static final long serialVersionUID = -5963779116425129124L;
@@ -45,8 +62,44 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
   /** the extension for compressed files. */
   public static String FILE_EXTENSION_COMPRESSED = FILE_EXTENSION + ".gz";
 
-  /** Word2Vec object */
-  private Word2Vec vec;
+  /** the file extension of the text format. */
+  public static String FILE_EXTENSION_TEXT = ".vec";
+
+  /** Maximum number of bytes that are read ahead to detect the format */
+  private static final int MARK_LIMIT = 1 << 16;
+
+  /** Number of bytes after the first word that decide between the binary and text format */
+  private static final int SNIFF_BYTES = 64;
+
+  /** Magic number at the start of zip files */
+  private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+
+  /** Input stream of the binary format */
+  protected transient DataInputStream binaryInput;
+
+  /** Reader of the text format */
+  protected transient BufferedReader textInput;
+
+  /** Word vectors of a file that is not in a word2vec format, loaded by DL4J */
+  protected transient WordVectors model;
+
+  /** Remaining words of the model */
+  protected transient Iterator<String> modelWords;
+
+  /** Number of words in the header, -1 if the file has no header */
+  protected long numWords;
+
+  /** Size of the word vectors */
+  protected int vectorSize;
+
+  /** Number of words that have been read */
+  protected long numRead;
+
+  /** Reused buffer of the bytes of a word */
+  protected transient ByteArrayOutputStream wordBuffer;
+
+  /** Reused buffer of the bytes of a binary vector */
+  protected transient ByteBuffer vectorBuffer;
 
   /**
    * Main method for testing this class.
@@ -62,7 +115,6 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
    */
   @Override
   public String getFileExtension() {
-    // TODO Auto-generated method stub
     return FILE_EXTENSION;
   }
 
@@ -73,7 +125,9 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
    * @return the file extensions
    */
   public String[] getFileExtensions() {
-    return new String[] {FILE_EXTENSION, FILE_EXTENSION_COMPRESSED};
+    return new String[] {
+      FILE_EXTENSION, FILE_EXTENSION_COMPRESSED, FILE_EXTENSION_TEXT, FILE_EXTENSION_TEXT + ".gz"
+    };
   }
 
   /* (non-Javadoc)
@@ -81,7 +135,7 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
    */
   @Override
   public String getFileDescription() {
-    return "W2V binary word embeddings.";
+    return "W2V binary or text word embeddings.";
   }
 
   /* (non-Javadoc)
@@ -97,7 +151,7 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
     ArrayList<Attribute> att = new ArrayList<Attribute>();
 
     // Add one attribute for each embedding dimension
-    for (int i = 0; i < this.vec.getLayerSize(); i++) {
+    for (int i = 0; i < this.vectorSize; i++) {
       att.add(new Attribute("embedding-" + i));
     }
 
@@ -113,8 +167,7 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
     }
 
     if (m_structure == null) {
-      setSource(m_sourceFile);
-      this.vec = WordVectorSerializer.readWord2VecModel(m_sourceFile);
+      openSource();
       this.setStructure();
     }
 
@@ -128,32 +181,63 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
     }
 
     if (getRetrieval() == INCREMENTAL) {
-      throw new IOException("This loader cannot load instances incrementally.");
+      throw new IOException("Cannot mix getting Instances in both incremental and batch modes");
     }
     setRetrieval(BATCH);
 
     if (m_structure == null) {
       getStructure();
+    } else if (numRead > 0 || !isOpen()) {
+      // Read the records again, e.g. on a second call
+      openSource();
     }
 
-    Instances result = new Instances(m_structure);
-
-    for (String word : vec.getVocab().words()) {
-      double[] values = new double[result.numAttributes()];
-
-      for (int i = 0; i < this.vec.getWordVector(word).length; i++)
-        values[i] = this.vec.getWordVector(word)[i];
+    Instances result =
+        new Instances(m_structure, (int) Math.max(0, Math.min(numWords, Integer.MAX_VALUE)));
+    final Attribute wordAttribute = result.attribute(vectorSize);
+    final double[] vector = new double[vectorSize];
+    String word;
+    try {
+      while ((word = readRecord(vector)) != null) {
+        double[] values = new double[vectorSize + 1];
+        System.arraycopy(vector, 0, values, 0, vectorSize);
+        values[vectorSize] = wordAttribute.addStringValue(word);
+        result.add(new DenseInstance(1, values));
+      }
+    } finally {
+      closeSource();
+    }
 
-      values[result.numAttributes() - 1] = result.attribute("word_id").addStringValue(word);
+    return result;
+  }
 
-      Instance inst = new DenseInstance(1, values);
+  /* (non-Javadoc)
+   * @see weka.core.converters.AbstractLoader#getNextInstance(weka.core.Instances)
+   */
+  @Override
+  public Instance getNextInstance(Instances structure) throws IOException {
+    if (getRetrieval() == BATCH) {
+      throw new IOException("Cannot mix getting Instances in both incremental and batch modes");
+    }
+    setRetrieval(INCREMENTAL);
 
-      inst.setDataset(result);
+    if (m_structure == null) {
+      getStructure();
+    }
 
-      result.add(inst);
+    double[] values = new double[vectorSize + 1];
+    final String word = readRecord(values);
+    if (word == null) {
+      closeSource();
+      return null;
     }
 
-    return result;
+    // Only the current word is kept in the header, as in Weka's incremental ARFF loading
+    structure.attribute(vectorSize).setStringValue(word);
+    values[vectorSize] = 0;
+    Instance inst = new DenseInstance(1, values);
+    inst.setDataset(structure);
+    return inst;
   }
 
   /**
@@ -163,7 +247,9 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
    * @throws IOException if an error occurs
    */
   public void setSource(File file) throws IOException {
+    closeSource();
     m_structure = null;
+    model = null;
 
     setRetrieval(NONE);
 
@@ -173,11 +259,334 @@ public class Word2VecLoader extends AbstractFileLoader implements BatchConverter
     m_File = file.getAbsolutePath();
   }
 
-  /* (non-Javadoc)
-   * @see weka.core.converters.AbstractLoader#getNextInstance(weka.core.Instances)
+  /**
+   * Open the source file, read the header and detect the format. A file without the header of
+   * the word count and vector size is read in the text format.
+   *
+   * @throws IOException Could not read the file
    */
-  @Override
-  public Instance getNextInstance(Instances structure) throws IOException {
-    throw new IOException("This loader cannot load data incrementally.");
+  protected void openSource() throws IOException {
+    closeSource();
+    InputStream raw = new FileInputStream(m_sourceFile);
+    if (m_sourceFile.getName().endsWith(".gz")) {
+      raw = new GZIPInputStream(raw, MARK_LIMIT);
+    }
+    final BufferedInputStream in = new BufferedInputStream(raw, MARK_LIMIT);
+    try {
+      numRead = 0;
+      if (isZip(in)) {
+        in.close();
+        openModel();
+        return;
+      }
+      in.mark(MARK_LIMIT);
+      final String firstLine = readLine(in);
+      if (firstLine == null || firstLine.trim().isEmpty()) {
+        throw new IOException("Word vector file " + m_sourceFile + " is empty");
+      }
+      final String[] parts = firstLine.trim().split("\\s+");
+      boolean text;
+      if (parts.length == 2 && isInteger(parts[0]) && isInteger(parts[1])) {
+        numWords = Long.parseLong(parts[0]);
+        vectorSize = Integer.parseInt(parts[1]);
+        text = isText(in);
+      } else if (isTextRecord(parts)) {
+        // Text format without header, e.g. GloVe
+        in.reset();
+        numWords = -1;
+        vectorSize = parts.length - 1;
+        text = true;
+      } else {
+        in.close();
+        openModel();
+        return;
+      }
+      if (vectorSize <= 0) {
+        throw new IOException("Invalid vector size " + vectorSize + " in " + m_sourceFile);
+      }
+
+      if (text) {
+        textInput = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      } else {
+        binaryInput = new DataInputStream(in);
+        vectorBuffer = ByteBuffer.allocate(vectorSize * 4).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      wordBuffer = new ByteArrayOutputStream();
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Load the source file with DL4J, for files that are not in a word2vec format.
+   *
+   * @throws IOException Could not read the file
+   */
+  protected void openModel() throws IOException {
+    if (model == null) {
+      try {
+        model = WordVectorSerializer.readWord2VecModel(m_sourceFile);
+      } catch (RuntimeException e) {
+        throw new IOException("Unsupported word vector file " + m_sourceFile, e);
+      }
+    }
+    numWords = model.vocab().numWords();
+    if (numWords == 0) {
+      throw new IOException("Word vector file " + m_sourceFile + " is empty");
+    }
+    vectorSize = model.getWordVector(model.vocab().wordAtIndex(0)).length;
+    modelWords = model.vocab().words().iterator();
+  }
+
+  /**
+   * Check whether the source file is open.
+   *
+   * @return True if records can be read
+   */
+  protected boolean isOpen() {
+    return binaryInput != null || textInput != null || modelWords != null;
+  }
+
+  /** Close the source file. */
+  protected void closeSource() {
+    try {
+      if (binaryInput != null) {
+        binaryInput.close();
+      }
+      if (textInput != null) {
+        textInput.close();
+      }
+    } catch (IOException e) {
+      // Nothing left to read
+    }
+    binaryInput = null;
+    textInput = null;
+    modelWords = null;
+  }
+
+  /**
+   * Read the next record.
+   *
+   * @param vector Array whose first values are set to the word vector
+   * @return Word, null if there are no more records
+   * @throws IOException Could not read the file or the record is invalid
+   */
+  protected String readRecord(double[] vector) throws IOException {
+    if (numWords >= 0 && numRead >= numWords) {
+      return null;
+    }
+    final String word;
+    if (binaryInput != null) {
+      word = readBinaryRecord(vector);
+    } else if (textInput != null) {
+      word = readTextRecord(vector);
+    } else if (modelWords != null) {
+      word = readModelRecord(vector);
+    } else {
+      return null;
+    }
+    if (word != null) {
+      numRead++;
+    }
+    return word;
+  }
+
+  /**
+   * Read the next record of the binary format: the word, a space and the vector as little endian
+   * floats, optionally followed by a line break.
+   *
+   * @param vector Array whose first values are set to the word vector
+   * @return Word, null at the end of the file
+   * @throws IOException Could not read the file
+   */
+  protected String readBinaryRecord(double[] vector) throws IOException {
+    wordBuffer.reset();
+    int b = binaryInput.read();
+    while (b == '\n' || b == '\r') {
+      b = binaryInput.read();
+    }
+    if (b < 0) {
+      return null;
+    }
+    while (b != ' ') {
+      if (b < 0) {
+        throw new EOFException("Unexpected end of " + m_sourceFile + " in record " + numRead);
+      }
+      wordBuffer.write(b);
+      b = binaryInput.read();
+    }
+    binaryInput.readFully(vectorBuffer.array());
+    for (int i = 0; i < vectorSize; i++) {
+      vector[i] = vectorBuffer.getFloat(i * 4);
+    }
+    return new String(wordBuffer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read the next record of the text format: the word followed by the space separated values.
+   *
+   * @param vector Array whose first values are set to the word vector
+   * @return Word, null at the end of the file
+   * @throws IOException Could not read the file or the record is invalid
+   */
+  protected String readTextRecord(double[] vector) throws IOException {
+    String line;
+    do {
+      line = textInput.readLine();
+      if (line == null) {
+        return null;
+      }
+      line = line.trim();
+    } while (line.isEmpty());
+
+    int start = line.indexOf(' ');
+    if (start < 0) {
+      throw new IOException("Invalid word vector in record " + numRead + " of " + m_sourceFile);
+    }
+    final String word = line.substring(0, start);
+    try {
+      for (int i = 0; i < vectorSize; i++) {
+        while (start < line.length() && line.charAt(start) == ' ') {
+          start++;
+        }
+        int end = line.indexOf(' ', start);
+        if (end < 0) {
+          end = line.length();
+        }
+        vector[i] = Float.parseFloat(line.substring(start, end));
+        start = end;
+      }
+    } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+      throw new IOException(
+          "Expected " + vectorSize + " values in record " + numRead + " of " + m_sourceFile, e);
+    }
+    return word;
+  }
+
+  /**
+   * Read the next word of a model that was loaded by DL4J.
+   *
+   * @param vector Array whose first values are set to the word vector
+   * @return Word, null if there are no more words
+   */
+  protected String readModelRecord(double[] vector) {
+    if (!modelWords.hasNext()) {
+      return null;
+    }
+    final String word = modelWords.next();
+    System.arraycopy(model.getWordVector(word), 0, vector, 0, vectorSize);
+    return word;
+  }
+
+  /**
+   * Check whether a stream starts with the magic number of zip files.
+   *
+   * @param in Stream, which is reset to its current position
+   * @return True for a zip file
+   * @throws IOException Could not read the stream
+   */
+  protected static boolean isZip(BufferedInputStream in) throws IOException {
+    in.mark(ZIP_MAGIC.length);
+    try {
+      for (byte magic : ZIP_MAGIC) {
+        if (in.read() != magic) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Check whether the fields of a line form a record of the text format: a word and numbers.
+   *
+   * @param parts Whitespace separated fields
+   * @return True for a text record
+   */
+  protected static boolean isTextRecord(String[] parts) {
+    if (parts.length < 2) {
+      return false;
+    }
+    try {
+      for (int i = 1; i < parts.length; i++) {
+        Float.parseFloat(parts[i]);
+      }
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Detect whether the records after the header are in the text format. The bytes after the first
+   * word are floats in the binary format, which are practically never all printable digits.
+   *
+   * @param in Stream after the header, which is reset to its current position
+   * @return True for the text format
+   * @throws IOException Could not read the stream
+   */
+  protected boolean isText(BufferedInputStream in) throws IOException {
+    in.mark(MARK_LIMIT);
+    try {
+      int b = in.read();
+      while (b == '\n' || b == '\r') {
+        b = in.read();
+      }
+      int numWordBytes = 0;
+      while (b >= 0 && b != ' ' && ++numWordBytes < MARK_LIMIT - SNIFF_BYTES) {
+        b = in.read();
+      }
+      final int numBytes = Math.min(SNIFF_BYTES, vectorSize * 4);
+      for (int i = 0; i < numBytes; i++) {
+        b = in.read();
+        if (b < 0) {
+          break;
+        }
+        if ("0123456789.-+eE \t\r\n".indexOf(b) < 0) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Read a line of the stream.
+   *
+   * @param in Stream
+   * @return Line without the line break, null at the end of the stream
+   * @throws IOException Could not read the stream
+   */
+  protected static String readLine(InputStream in) throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b = in.read();
+    if (b < 0) {
+      return null;
+    }
+    while (b >= 0 && b != '\n') {
+      line.write(b);
+      b = in.read();
+    }
+    return new String(line.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Check whether a string is a non-negative integer.
+   *
+   * @param s String
+   * @return True if it is an integer
+   */
+  protected static boolean isInteger(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (!Character.isDigit(s.charAt(i))) {
+        return false;
+      }
+    }
+    return !s.isEmpty();
   }
 }
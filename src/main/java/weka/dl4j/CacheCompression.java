@@ -0,0 +1,35 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CacheCompression.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j;
+
+/**
+ * Compression of batches that are spilled to disk by the {@link CacheMode#HYBRID} cache.
+ * <ul>
+ *   <li>NONE: Store the batches uncompressed</li>
+ *   <li>LZ4: Lossless LZ4 compression, well suited for sparse or low entropy features</li>
+ *   <li>FLOAT16: Store the features as half precision floats (lossy, halves the size)</li>
+ * </ul>
+ *
+ * @author Steven Lang
+ */
+public enum CacheCompression {
+  NONE,
+  LZ4,
+  FLOAT16
+}
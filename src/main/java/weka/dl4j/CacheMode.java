@@ -23,7 +23,9 @@ package weka.dl4j;
  * <ul>
  *   <li>NONE: Do not use any cache</li>
  *   <li>MEMORY: Cache data in memory</li>
- *   <li>FILESYSTEM: Cache data in the filesystem in "java.io.tmpdir"</li>
+ *   <li>FILESYSTEM: Cache data in a persistent, content-addressed cache directory that is shared
+ *   across runs</li>
+ *   <li>HYBRID: Cache data in off-heap memory up to a budget and spill the rest to disk</li>
  * </ul>
  *
  * @author Steven Lang
@@ -31,5 +33,6 @@ package weka.dl4j;
 public enum CacheMode {
   NONE,
   MEMORY,
-  FILESYSTEM
+  FILESYSTEM,
+  HYBRID
 }
@@ -0,0 +1,118 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * FileUtils.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Utility routines for the files written by the caches: checksums of their contents and keys, and
+ * writes that are never seen partially by concurrent readers.
+ *
+ * @author Steven Lang
+ */
+public class FileUtils {
+
+  /** Infix of the temporary files of {@link #writeAtomically(Path, TempFileWriter)} */
+  public static final String TEMP_INFIX = ".tmp-";
+
+  private FileUtils() {}
+
+  /**
+   * Create a SHA-256 digest.
+   *
+   * @return Digest
+   */
+  public static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Format bytes as lower case hex string.
+   *
+   * @param bytes Bytes
+   * @return Hex string
+   */
+  public static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Write a file through a temporary file in the same directory, which is then moved into place.
+   * Readers either see the previous file or the complete new one. The parent directories are
+   * created and the temporary file is removed if the write fails.
+   *
+   * @param target File to write
+   * @param writer Writes the contents to the temporary file
+   * @throws IOException Write or move failed
+   */
+  public static void writeAtomically(Path target, TempFileWriter writer) throws IOException {
+    final Path parent = target.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    final Path tmp = parent.resolve(target.getFileName() + TEMP_INFIX + UUID.randomUUID());
+    try {
+      writer.write(tmp);
+      moveAtomically(tmp, target);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Move a file atomically if supported by the file system, otherwise replace the target.
+   *
+   * @param source Source path
+   * @param target Target path
+   * @throws IOException Move failed
+   */
+  public static void moveAtomically(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /** Writes the contents of a file to a temporary path. */
+  @FunctionalInterface
+  public interface TempFileWriter {
+
+    /**
+     * Write the contents.
+     *
+     * @param tmp Temporary file
+     * @throws IOException Write failed
+     */
+    void write(Path tmp) throws IOException;
+  }
+}
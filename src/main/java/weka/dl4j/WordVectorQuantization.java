@@ -0,0 +1,35 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * WordVectorQuantization.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j;
+
+/**
+ * Compression of the word vectors of the text embedding iterators.
+ * <ul>
+ *   <li>NONE: Keep the word vectors at full precision</li>
+ *   <li>INT8: Scalar quantization of each component to a byte, with one scale per word</li>
+ *   <li>PRODUCT: Product quantization, one byte per subspace of the word vectors</li>
+ * </ul>
+ *
+ * @author Steven Lang
+ */
+public enum WordVectorQuantization {
+  NONE,
+  INT8,
+  PRODUCT
+}
@@ -0,0 +1,659 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CompiledDataSet.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import lombok.extern.log4j.Log4j2;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A dataset that was compiled into a binary file of feature and label buffers. The file is memory
+ * mapped, so opening it is independent of its size and batches of consecutive rows are served as
+ * zero-copy views.
+ *
+ * <p>Features are encoded the way the classifier would preprocess them: numeric and date
+ * attributes are copied, binary nominal attributes become a single 0/1 column and other nominal
+ * attributes are one-hot encoded. Missing values are encoded as NaN in all columns of the
+ * attribute and replaced by the {@link CompiledDataSetPreProcessor}. Labels are one-hot encoded
+ * for nominal classes and hold the raw value (NaN if missing) for numeric classes.
+ *
+ * <p>Layout (little endian):
+ *
+ * <pre>
+ * int     magic
+ * int     version
+ * int     data type (0 = float, 1 = double)
+ * int     number of features
+ * int     number of labels
+ * int     class index
+ * int     length of the ARFF header in bytes
+ * byte[]  ARFF header of the source dataset (UTF-8)
+ * ...     padding to a 64 byte boundary
+ * values  features, [rows, features] in 'c' order
+ * ...     padding to a 64 byte boundary
+ * values  labels, [rows, labels] in 'c' order
+ * long    number of rows
+ * int     magic
+ * </pre>
+ *
+ * The number of rows is written last so that datasets can be compiled in a single pass.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class CompiledDataSet {
+
+  /** Magic number of compiled datasets */
+  public static final int MAGIC = 0x57444c43;
+
+  /** Format version */
+  public static final int VERSION = 1;
+
+  /** Size of the fixed header in bytes */
+  protected static final int HEADER_SIZE = 28;
+
+  /** Size of the footer in bytes */
+  protected static final int FOOTER_SIZE = 12;
+
+  /** Alignment of the feature and label buffers */
+  protected static final int ALIGNMENT = 64;
+
+  /** Maximum size of a single mapped region */
+  protected static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE - ALIGNMENT;
+
+  /** Compiled file */
+  protected final File file;
+
+  /** Header of the source dataset, including the class attribute */
+  protected final Instances header;
+
+  /** Data type of the stored values */
+  protected final DataBuffer.Type dataType;
+
+  /** Number of rows */
+  protected final long numRows;
+
+  /** Number of feature columns */
+  protected final int numFeatures;
+
+  /** Number of label columns */
+  protected final int numLabels;
+
+  /** Mapped feature buffer, split into chunks of whole rows */
+  protected final ByteBuffer[] featureChunks;
+
+  /** Mapped label buffer, split into chunks of whole rows */
+  protected final ByteBuffer[] labelChunks;
+
+  /** Number of feature rows per chunk */
+  protected final int featureRowsPerChunk;
+
+  /** Number of label rows per chunk */
+  protected final int labelRowsPerChunk;
+
+  /** Whether the file is mapped copy-on-write (views are only served from such mappings) */
+  protected final boolean copyOnWrite;
+
+  /**
+   * Open a compiled dataset.
+   *
+   * @param file Compiled file
+   * @throws IOException File could not be read or is not a compiled dataset
+   */
+  public CompiledDataSet(File file) throws IOException {
+    this.file = file;
+    this.copyOnWrite = file.canWrite();
+    try (FileChannel channel = openChannel(file)) {
+      final long size = channel.size();
+      if (size < HEADER_SIZE + FOOTER_SIZE) {
+        throw new IOException("Not a compiled dataset: " + file);
+      }
+
+      ByteBuffer footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+      numRows = footer.getLong();
+      ByteBuffer fixed = read(channel, 0, HEADER_SIZE);
+      if (fixed.getInt() != MAGIC || footer.getInt() != MAGIC) {
+        throw new IOException("Not a compiled dataset (or incomplete): " + file);
+      }
+      final int version = fixed.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported compiled dataset version " + version + ": " + file);
+      }
+      dataType = fixed.getInt() == 0 ? DataBuffer.Type.FLOAT : DataBuffer.Type.DOUBLE;
+      numFeatures = fixed.getInt();
+      numLabels = fixed.getInt();
+      final int classIndex = fixed.getInt();
+      final int headerLength = fixed.getInt();
+
+      ByteBuffer arff = read(channel, HEADER_SIZE, headerLength);
+      header =
+          new Instances(
+              new StringReader(new String(arff.array(), StandardCharsets.UTF_8)));
+      header.setClassIndex(classIndex);
+
+      final long featureRowBytes = (long) numFeatures * valueSize();
+      final long labelRowBytes = (long) numLabels * valueSize();
+      final long featuresOffset = align(HEADER_SIZE + headerLength);
+      final long labelsOffset = align(featuresOffset + numRows * featureRowBytes);
+      if (labelsOffset + numRows * labelRowBytes + FOOTER_SIZE > size) {
+        throw new IOException("Compiled dataset is truncated: " + file);
+      }
+
+      featureRowsPerChunk = rowsPerChunk(featureRowBytes);
+      labelRowsPerChunk = rowsPerChunk(labelRowBytes);
+      featureChunks = map(channel, featuresOffset, featureRowBytes, featureRowsPerChunk);
+      labelChunks = map(channel, labelsOffset, labelRowBytes, labelRowsPerChunk);
+    }
+  }
+
+  /**
+   * Open the channel of the compiled file. The file is opened for writing if possible so that it
+   * can be mapped copy-on-write: in-place operations on batch views must never modify the file.
+   *
+   * @param file Compiled file
+   * @return Channel
+   * @throws IOException File could not be opened
+   */
+  protected FileChannel openChannel(File file) throws IOException {
+    if (copyOnWrite) {
+      return FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+  }
+
+  /**
+   * Read a region of the file.
+   *
+   * @param channel File channel
+   * @param position Start position
+   * @param length Number of bytes
+   * @return Little endian buffer with the region
+   * @throws IOException Region could not be read
+   */
+  protected static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) {
+        throw new IOException("Unexpected end of compiled dataset");
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Map a buffer of rows in chunks that hold a whole number of rows.
+   *
+   * @param channel File channel
+   * @param offset Start of the buffer
+   * @param rowBytes Bytes per row
+   * @param rowsPerChunk Rows per chunk
+   * @return Mapped chunks
+   * @throws IOException Buffer could not be mapped
+   */
+  protected ByteBuffer[] map(FileChannel channel, long offset, long rowBytes, int rowsPerChunk)
+      throws IOException {
+    if (rowBytes == 0 || numRows == 0) {
+      return new ByteBuffer[0];
+    }
+    final MapMode mode = copyOnWrite ? MapMode.PRIVATE : MapMode.READ_ONLY;
+    final int numChunks = (int) ((numRows + rowsPerChunk - 1) / rowsPerChunk);
+    ByteBuffer[] chunks = new ByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      long rows = Math.min(rowsPerChunk, numRows - (long) i * rowsPerChunk);
+      chunks[i] =
+          channel
+              .map(mode, offset + (long) i * rowsPerChunk * rowBytes, rows * rowBytes)
+              .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return chunks;
+  }
+
+  /**
+   * Number of rows that fit into a single mapped chunk.
+   *
+   * @param rowBytes Bytes per row
+   * @return Rows per chunk
+   */
+  protected static int rowsPerChunk(long rowBytes) {
+    if (rowBytes == 0) {
+      return Integer.MAX_VALUE;
+    }
+    if (rowBytes > MAX_CHUNK_SIZE) {
+      throw new IllegalArgumentException("Rows larger than 2GB are not supported");
+    }
+    return (int) (MAX_CHUNK_SIZE / rowBytes);
+  }
+
+  /**
+   * Round the offset up to the alignment.
+   *
+   * @param offset Offset
+   * @return Aligned offset
+   */
+  protected static long align(long offset) {
+    return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  /**
+   * Get the features of the given rows. If the rows are consecutive, the stored data type matches
+   * the ND4J data type, the platform is little endian and the file is writable (and therefore
+   * mapped copy-on-write), the returned array is a view of the mapped file. Otherwise the rows are
+   * copied into a new array.
+   *
+   * @param rows Row indices
+   * @param from Position of the first row in {@code rows}
+   * @param count Number of rows
+   * @return Features of shape [count, numFeatures]
+   */
+  public INDArray getFeatures(long[] rows, int from, int count) {
+    if (isViewable(rows, from, count)) {
+      final long first = rows[from];
+      final int chunk = (int) (first / featureRowsPerChunk);
+      final int rowInChunk = (int) (first % featureRowsPerChunk);
+      if (rowInChunk + count <= featureRowsPerChunk) {
+        final int rowBytes = numFeatures * valueSize();
+        ByteBuffer view = featureChunks[chunk].duplicate();
+        view.position(rowInChunk * rowBytes);
+        view.limit((rowInChunk + count) * rowBytes);
+        DataBuffer buffer =
+            Nd4j.createBuffer(
+                view.slice().order(ByteOrder.nativeOrder()), dataType, count * numFeatures);
+        return Nd4j.create(buffer, new long[] {count, numFeatures});
+      }
+    }
+    return gather(featureChunks, featureRowsPerChunk, numFeatures, rows, from, count);
+  }
+
+  /**
+   * Get the labels of a single row.
+   *
+   * @param row Row index
+   * @return Labels
+   */
+  public double[] getLabels(long row) {
+    checkRow(row);
+    ByteBuffer chunk = labelChunks[(int) (row / labelRowsPerChunk)].duplicate();
+    chunk.order(ByteOrder.LITTLE_ENDIAN);
+    final int position = (int) (row % labelRowsPerChunk) * numLabels * valueSize();
+    double[] labels = new double[numLabels];
+    for (int i = 0; i < numLabels; i++) {
+      labels[i] =
+          dataType == DataBuffer.Type.DOUBLE
+              ? chunk.getDouble(position + 8 * i)
+              : chunk.getFloat(position + 4 * i);
+    }
+    return labels;
+  }
+
+  /**
+   * Whether the given rows can be served as a view of the mapped file.
+   *
+   * @param rows Row indices
+   * @param from Position of the first row in {@code rows}
+   * @param count Number of rows
+   * @return True if the rows are consecutive and no conversion is necessary
+   */
+  protected boolean isViewable(long[] rows, int from, int count) {
+    if (count == 0
+        || numFeatures == 0
+        || !copyOnWrite
+        || dataType != Nd4j.dataType()
+        || ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+      return false;
+    }
+    for (int i = 1; i < count; i++) {
+      if (rows[from + i] != rows[from] + i) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copy the given rows out of the mapped chunks.
+   *
+   * @param chunks Mapped chunks
+   * @param rowsPerChunk Rows per chunk
+   * @param columns Columns per row
+   * @param rows Row indices
+   * @param from Position of the first row in {@code rows}
+   * @param count Number of rows
+   * @return Array of shape [count, columns]
+   */
+  protected INDArray gather(
+      ByteBuffer[] chunks, int rowsPerChunk, int columns, long[] rows, int from, int count) {
+    final long[] shape = {count, columns};
+    if (dataType == DataBuffer.Type.DOUBLE) {
+      double[] values = new double[count * columns];
+      for (int i = 0; i < count; i++) {
+        final long row = checkRow(rows[from + i]);
+        ByteBuffer chunk = chunks[(int) (row / rowsPerChunk)].duplicate();
+        chunk.order(ByteOrder.LITTLE_ENDIAN).position((int) (row % rowsPerChunk) * columns * 8);
+        chunk.asDoubleBuffer().get(values, i * columns, columns);
+      }
+      return Nd4j.create(values, shape, 'c');
+    }
+
+    float[] values = new float[count * columns];
+    for (int i = 0; i < count; i++) {
+      final long row = checkRow(rows[from + i]);
+      ByteBuffer chunk = chunks[(int) (row / rowsPerChunk)].duplicate();
+      chunk.order(ByteOrder.LITTLE_ENDIAN).position((int) (row % rowsPerChunk) * columns * 4);
+      chunk.asFloatBuffer().get(values, i * columns, columns);
+    }
+    return Nd4j.create(values, shape, 'c');
+  }
+
+  /**
+   * Check that a row index is valid.
+   *
+   * @param row Row index
+   * @return Row index
+   */
+  protected long checkRow(long row) {
+    if (row < 0 || row >= numRows) {
+      throw new IndexOutOfBoundsException(
+          "Row " + row + " is not in the compiled dataset " + file + " (" + numRows + " rows)");
+    }
+    return row;
+  }
+
+  /**
+   * Size of a stored value in bytes.
+   *
+   * @return Value size
+   */
+  protected int valueSize() {
+    return dataType == DataBuffer.Type.DOUBLE ? 8 : 4;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public Instances getHeader() {
+    return header;
+  }
+
+  public DataBuffer.Type getDataType() {
+    return dataType;
+  }
+
+  public long getNumRows() {
+    return numRows;
+  }
+
+  public int getNumFeatures() {
+    return numFeatures;
+  }
+
+  public int getNumLabels() {
+    return numLabels;
+  }
+
+  /**
+   * Number of feature columns of the compiled representation of the given structure.
+   *
+   * @param structure Dataset structure with the class index set
+   * @return Number of feature columns
+   */
+  public static int numFeatures(Instances structure) {
+    int numFeatures = 0;
+    for (int i = 0; i < structure.numAttributes(); i++) {
+      if (i != structure.classIndex()) {
+        numFeatures += numColumns(structure.attribute(i));
+      }
+    }
+    return numFeatures;
+  }
+
+  /**
+   * Number of columns an attribute is encoded into.
+   *
+   * @param att Attribute
+   * @return Number of columns
+   */
+  protected static int numColumns(Attribute att) {
+    if (att.isNominal() && att.numValues() > 2) {
+      return att.numValues();
+    }
+    return 1;
+  }
+
+  /**
+   * Writes compiled datasets in a single pass. The features are streamed to the output while the
+   * (much smaller) labels are buffered in a temporary file until the writer is closed.
+   */
+  public static class Writer implements Closeable {
+
+    /** Output stream */
+    protected final OutputStream out;
+
+    /** Structure of the written instances */
+    protected final Instances structure;
+
+    /** Data type of the stored values */
+    protected final DataBuffer.Type dataType;
+
+    /** Temporary label buffer */
+    protected final Path labelsFile;
+
+    /** Output stream of the temporary label buffer */
+    protected final OutputStream labelsOut;
+
+    /** Encoded feature row */
+    protected final ByteBuffer featureRow;
+
+    /** Encoded label row */
+    protected final ByteBuffer labelRow;
+
+    /** Number of bytes written so far */
+    protected long position;
+
+    /** Number of rows written so far */
+    protected long numRows;
+
+    /**
+     * Constructor. Writes the header.
+     *
+     * @param out Output stream
+     * @param structure Dataset structure with the class index set
+     * @param dataType Data type of the stored values (FLOAT or DOUBLE)
+     * @throws IOException Header could not be written
+     */
+    public Writer(OutputStream out, Instances structure, DataBuffer.Type dataType)
+        throws IOException {
+      if (structure.classIndex() < 0) {
+        throw new IOException("Class index not set.");
+      }
+      for (int i = 0; i < structure.numAttributes(); i++) {
+        Attribute att = structure.attribute(i);
+        if (att.isString() || att.isRelationValued()) {
+          throw new IOException("Attribute " + att.name() + " is neither numeric nor nominal");
+        }
+      }
+      if (dataType != DataBuffer.Type.FLOAT && dataType != DataBuffer.Type.DOUBLE) {
+        throw new IOException("Unsupported data type " + dataType);
+      }
+
+      this.out = new BufferedOutputStream(out, 1 << 16);
+      this.structure = new Instances(structure, 0);
+      this.dataType = dataType;
+      final int numFeatures = numFeatures(structure);
+      final int numLabels = structure.classAttribute().isNominal() ? structure.numClasses() : 1;
+      final int valueSize = dataType == DataBuffer.Type.DOUBLE ? 8 : 4;
+      this.featureRow = ByteBuffer.allocate(numFeatures * valueSize).order(ByteOrder.LITTLE_ENDIAN);
+      this.labelRow = ByteBuffer.allocate(numLabels * valueSize).order(ByteOrder.LITTLE_ENDIAN);
+      this.labelsFile = Files.createTempFile("compiled-labels-", ".bin");
+      this.labelsOut = new BufferedOutputStream(Files.newOutputStream(labelsFile), 1 << 16);
+
+      byte[] arff = this.structure.toString().getBytes(StandardCharsets.UTF_8);
+      ByteBuffer fixed = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      fixed
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(dataType == DataBuffer.Type.DOUBLE ? 1 : 0)
+          .putInt(numFeatures)
+          .putInt(numLabels)
+          .putInt(structure.classIndex())
+          .putInt(arff.length);
+      write(fixed.array());
+      write(arff);
+      pad();
+    }
+
+    /**
+     * Write an instance.
+     *
+     * @param inst Instance with the structure given to the constructor
+     * @throws IOException Instance could not be written
+     */
+    public void write(Instance inst) throws IOException {
+      featureRow.clear();
+      for (int i = 0; i < structure.numAttributes(); i++) {
+        if (i == structure.classIndex()) {
+          continue;
+        }
+        Attribute att = structure.attribute(i);
+        final boolean missing = inst.isMissing(i);
+        if (numColumns(att) > 1) {
+          final int hot = (int) inst.value(i);
+          for (int v = 0; v < att.numValues(); v++) {
+            putValue(featureRow, missing ? Double.NaN : v == hot ? 1 : 0);
+          }
+        } else {
+          putValue(featureRow, missing ? Double.NaN : inst.value(i));
+        }
+      }
+      write(featureRow.array());
+
+      // The class is looked up by index, the instance's dataset need not have it set
+      labelRow.clear();
+      final int classIndex = structure.classIndex();
+      final boolean classIsMissing = inst.isMissing(classIndex);
+      if (structure.classAttribute().isNominal()) {
+        final int hot = classIsMissing ? -1 : (int) inst.value(classIndex);
+        for (int v = 0; v < structure.numClasses(); v++) {
+          putValue(labelRow, v == hot ? 1 : 0);
+        }
+      } else {
+        putValue(labelRow, classIsMissing ? Double.NaN : inst.value(classIndex));
+      }
+      labelsOut.write(labelRow.array());
+      numRows++;
+    }
+
+    /**
+     * Append the labels and the footer and close the output.
+     *
+     * @throws IOException Dataset could not be completed
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        labelsOut.close();
+        pad();
+        Files.copy(labelsFile, out);
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        footer.putLong(numRows).putInt(MAGIC);
+        out.write(footer.array());
+        out.close();
+        log.debug("Compiled {} rows of {}", numRows, structure.relationName());
+      } finally {
+        Files.deleteIfExists(labelsFile);
+      }
+    }
+
+    /**
+     * Number of rows written so far.
+     *
+     * @return Number of rows
+     */
+    public long getNumRows() {
+      return numRows;
+    }
+
+    /**
+     * Put a value in the stored data type.
+     *
+     * @param buf Row buffer
+     * @param value Value
+     */
+    protected void putValue(ByteBuffer buf, double value) {
+      if (dataType == DataBuffer.Type.DOUBLE) {
+        buf.putDouble(value);
+      } else {
+        buf.putFloat((float) value);
+      }
+    }
+
+    /**
+     * Write bytes and keep track of the position.
+     *
+     * @param bytes Bytes
+     * @throws IOException Bytes could not be written
+     */
+    protected void write(byte[] bytes) throws IOException {
+      out.write(bytes);
+      position += bytes.length;
+    }
+
+    /**
+     * Pad the output to the alignment.
+     *
+     * @throws IOException Padding could not be written
+     */
+    protected void pad() throws IOException {
+      write(new byte[(int) (align(position) - position)]);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d rows, %d features, %d labels (%s), class: %s",
+        file.getName(),
+        numRows,
+        numFeatures,
+        numLabels,
+        dataType,
+        Utils.quote(header.classAttribute().name()));
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CompiledDataSetIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * An nd4j mini-batch iterator that reads the features of the given rows from a {@link
+ * CompiledDataSet}. Batches of consecutive rows are views of the mapped file, other batches are
+ * gathered row by row. The labels are passed in separately, since they are subject to the
+ * classifier's preprocessing.
+ *
+ * <p>For training, the rows are best given in file order and the batches are shuffled as a whole
+ * in each epoch (see {@link #CompiledDataSetIterator(CompiledDataSet, long[], float[], int, int,
+ * long)}), so that the examples are visited in a different order while the batches remain views.
+ *
+ * @author Steven Lang
+ */
+public class CompiledDataSetIterator implements IndexedDataSetIterator {
+
+  /** The ID used to serialize this class */
+  private static final long serialVersionUID = 8261657684473197624L;
+
+  /** The compiled dataset */
+  protected final CompiledDataSet data;
+
+  /** Rows of the compiled dataset in iteration order */
+  protected final long[] rows;
+
+  /** Labels, [rows.length, numLabels] */
+  protected final float[] labels;
+
+  /** Number of label columns */
+  protected final int numLabels;
+
+  /** The batch size */
+  protected final int batchSize;
+
+  /** Index of the next batch */
+  protected int cursor = 0;
+
+  /** An optional dataset preprocessor */
+  protected DataSetPreProcessor preProcessor;
+
+  /** Shuffles the batches in each epoch, null to keep the order */
+  protected final Random random;
+
+  /** Batches of the current epoch, each is a block of consecutive rows of {@link #rows} */
+  protected final int[] blocks;
+
+  /**
+   * Constructs a new iterator.
+   *
+   * @param data Compiled dataset
+   * @param rows Rows of the compiled dataset in iteration order
+   * @param labels Labels of the rows, [rows.length, numLabels] in 'c' order
+   * @param numLabels Number of label columns
+   * @param batchSize The batch size
+   */
+  public CompiledDataSetIterator(
+      CompiledDataSet data, long[] rows, float[] labels, int numLabels, int batchSize) {
+    this(data, rows, labels, numLabels, batchSize, null);
+  }
+
+  /**
+   * Constructs a new iterator that visits the batches in a random order, which is drawn anew in
+   * each epoch. The batches themselves are blocks of consecutive entries of {@code rows}.
+   *
+   * @param data Compiled dataset
+   * @param rows Rows of the compiled dataset
+   * @param labels Labels of the rows, [rows.length, numLabels] in 'c' order
+   * @param numLabels Number of label columns
+   * @param batchSize The batch size
+   * @param seed Seed of the batch order
+   */
+  public CompiledDataSetIterator(
+      CompiledDataSet data, long[] rows, float[] labels, int numLabels, int batchSize, long seed) {
+    this(data, rows, labels, numLabels, batchSize, new Random(seed));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param data Compiled dataset
+   * @param rows Rows of the compiled dataset
+   * @param labels Labels of the rows, [rows.length, numLabels] in 'c' order
+   * @param numLabels Number of label columns
+   * @param batchSize The batch size
+   * @param random Shuffles the batches in each epoch, null to keep the order
+   */
+  protected CompiledDataSetIterator(
+      CompiledDataSet data,
+      long[] rows,
+      float[] labels,
+      int numLabels,
+      int batchSize,
+      Random random) {
+    this.data = data;
+    this.rows = rows;
+    this.labels = labels;
+    this.numLabels = numLabels;
+    this.batchSize = Math.max(1, Math.min(batchSize, rows.length));
+    this.random = random;
+    this.blocks = new int[(rows.length + this.batchSize - 1) / this.batchSize];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = i;
+    }
+    shuffleBlocks();
+  }
+
+  /** Draw the batch order of the next epoch. */
+  protected void shuffleBlocks() {
+    if (random == null) {
+      return;
+    }
+    for (int i = blocks.length - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final int tmp = blocks[i];
+      blocks[i] = blocks[j];
+      blocks[j] = tmp;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return cursor < blocks.length;
+  }
+
+  @Override
+  public DataSet next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return batch(cursor++, null);
+  }
+
+  /**
+   * Returns the next batches merged into a single batch of at most {@code num} examples, or of a
+   * single batch if that is larger already. Batches are never split.
+   *
+   * @param num Maximum number of examples
+   * @return Next batch
+   */
+  @Override
+  public DataSet next(int num) {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    List<DataSet> batches = new ArrayList<>();
+    int count = 0;
+    do {
+      DataSet ds = batch(cursor++, null);
+      batches.add(ds);
+      count += ds.numExamples();
+    } while (hasNext() && count + batchSize(cursor) <= num);
+    return batches.size() == 1 ? batches.get(0) : DataSet.merge(batches);
+  }
+
+  @Override
+  public int numBatches() {
+    return blocks.length;
+  }
+
+  /**
+   * Builds a batch without moving the cursor. Batches are not reused, since they may be views of
+   * the mapped file.
+   *
+   * @param index Batch index
+   * @param reuse Ignored
+   * @return Batch
+   */
+  @Override
+  public DataSet batch(int index, DataSet reuse) {
+    return read(blocks[index] * batchSize, batchSize(index));
+  }
+
+  /**
+   * Number of examples of a batch, only the last block of rows may be smaller.
+   *
+   * @param index Batch index
+   * @return Number of examples
+   */
+  protected int batchSize(int index) {
+    return Math.min(batchSize, rows.length - blocks[index] * batchSize);
+  }
+
+  /**
+   * Read the given rows and apply the preprocessor.
+   *
+   * @param from Position of the first row in {@link #rows}
+   * @param count Number of rows
+   * @return Batch
+   */
+  protected DataSet read(int from, int count) {
+    INDArray features = data.getFeatures(rows, from, count);
+    float[] batchLabels = new float[count * numLabels];
+    System.arraycopy(labels, from * numLabels, batchLabels, 0, batchLabels.length);
+
+    INDArray batchLabelsArr = Nd4j.create(batchLabels, new long[] {count, numLabels}, 'c');
+    DataSet ds = new DataSet(features, batchLabelsArr);
+    if (preProcessor != null) {
+      preProcessor.preProcess(ds);
+    }
+    return ds;
+  }
+
+  @Override
+  public int inputColumns() {
+    return data.getNumFeatures();
+  }
+
+  @Override
+  public int totalOutcomes() {
+    return numLabels;
+  }
+
+  @Override
+  public boolean resetSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean asyncSupported() {
+    return true;
+  }
+
+  @Override
+  public void reset() {
+    cursor = 0;
+    shuffleBlocks();
+  }
+
+  @Override
+  public int batch() {
+    return batchSize;
+  }
+
+  @Override
+  public DataSetPreProcessor getPreProcessor() {
+    return preProcessor;
+  }
+
+  @Override
+  public void setPreProcessor(DataSetPreProcessor preProcessor) {
+    this.preProcessor = preProcessor;
+  }
+
+  @Override
+  public List<String> getLabels() {
+    return null;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
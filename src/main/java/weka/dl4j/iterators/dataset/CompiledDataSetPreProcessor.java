@@ -0,0 +1,260 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CompiledDataSetPreProcessor.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.util.Arrays;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.BooleanIndexing;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * Applies the feature preprocessing of the classifier to the batches of a {@link
+ * CompiledDataSet}, so that compiled and ARFF datasets are trained on the same values: missing
+ * values (stored as NaN) are replaced by the mean or mode of the training rows, as by
+ * ReplaceMissingValues, and the columns are optionally standardized or normalized, as by the
+ * Standardize and Normalize filters applied after NominalToBinary.
+ *
+ * <p>The features are never modified in place, since batches may be views of the mapped file.
+ *
+ * @author Steven Lang
+ */
+public class CompiledDataSetPreProcessor implements DataSetPreProcessor {
+
+  /** The ID used to serialize this class */
+  private static final long serialVersionUID = -2281757045232539611L;
+
+  /** Number of rows read at a time while fitting */
+  protected static final int FIT_BATCH_SIZE = 1024;
+
+  /** Rescaling of the columns */
+  public enum Scaling {
+    NONE,
+    NORMALIZE,
+    STANDARDIZE
+  }
+
+  /** Replacement of missing values for each column */
+  protected final double[] fill;
+
+  /** Value subtracted from each column */
+  protected final double[] shift;
+
+  /** Factor applied to each column after the shift */
+  protected final double[] scale;
+
+  /** Row vector of {@link #fill} */
+  protected transient INDArray fillRow;
+
+  /** Row vector of {@link #shift} */
+  protected transient INDArray shiftRow;
+
+  /** Row vector of {@link #scale} */
+  protected transient INDArray scaleRow;
+
+  /** Whether the columns are rescaled at all */
+  protected transient boolean rescaled;
+
+  /**
+   * Constructor.
+   *
+   * @param fill Replacement of missing values for each column
+   * @param shift Value subtracted from each column
+   * @param scale Factor applied to each column after the shift
+   */
+  public CompiledDataSetPreProcessor(double[] fill, double[] shift, double[] scale) {
+    this.fill = fill;
+    this.shift = shift;
+    this.scale = scale;
+  }
+
+  /**
+   * Compute the preprocessing from the given training rows. Numeric columns are filled with their
+   * mean and the columns of a nominal attribute with the encoding of its most frequent value.
+   *
+   * @param data Compiled dataset
+   * @param rows Training rows
+   * @param scaling Rescaling of the columns
+   * @return Preprocessor
+   */
+  public static CompiledDataSetPreProcessor fit(
+      CompiledDataSet data, long[] rows, Scaling scaling) {
+    final int numFeatures = data.getNumFeatures();
+    final long[] sorted = rows.clone();
+    Arrays.sort(sorted);
+
+    // Statistics of the present values
+    final double[] counts = new double[numFeatures];
+    final double[] sums = new double[numFeatures];
+    final double[] sumSquares = new double[numFeatures];
+    final double[] min = new double[numFeatures];
+    final double[] max = new double[numFeatures];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    for (int from = 0; from < sorted.length; from += FIT_BATCH_SIZE) {
+      final int count = Math.min(FIT_BATCH_SIZE, sorted.length - from);
+      final INDArray features = data.getFeatures(sorted, from, count);
+      // 1 for present values, 0 for missing ones
+      final INDArray present = features.mul(0).addi(1);
+      BooleanIndexing.replaceWhere(present, 0, Conditions.isNan());
+      final INDArray values = features.dup();
+      BooleanIndexing.replaceWhere(values, 0, Conditions.isNan());
+      add(counts, present.sum(0));
+      add(sums, values.sum(0));
+      add(sumSquares, values.mul(values).sum(0));
+
+      final INDArray lower = features.dup();
+      BooleanIndexing.replaceWhere(lower, Double.POSITIVE_INFINITY, Conditions.isNan());
+      final INDArray upper = features.dup();
+      BooleanIndexing.replaceWhere(upper, Double.NEGATIVE_INFINITY, Conditions.isNan());
+      final double[] batchMin = lower.min(0).toDoubleVector();
+      final double[] batchMax = upper.max(0).toDoubleVector();
+      for (int j = 0; j < numFeatures; j++) {
+        min[j] = Math.min(min[j], batchMin[j]);
+        max[j] = Math.max(max[j], batchMax[j]);
+      }
+    }
+
+    final double[] fill = computeFill(data.getHeader(), counts, sums);
+
+    // Statistics after replacing the missing values
+    final long n = sorted.length;
+    final double[] shift = new double[numFeatures];
+    final double[] scale = new double[numFeatures];
+    Arrays.fill(scale, 1);
+    for (int j = 0; j < numFeatures; j++) {
+      final double numMissing = n - counts[j];
+      if (numMissing > 0) {
+        sums[j] += numMissing * fill[j];
+        sumSquares[j] += numMissing * fill[j] * fill[j];
+        min[j] = Math.min(min[j], fill[j]);
+        max[j] = Math.max(max[j], fill[j]);
+      }
+      if (scaling == Scaling.STANDARDIZE && n > 0) {
+        shift[j] = sums[j] / n;
+        final double variance =
+            n > 1 ? Math.max(0, (sumSquares[j] - sums[j] * sums[j] / n) / (n - 1)) : 0;
+        // Constant columns are only centered
+        scale[j] = variance > 0 ? 1 / Math.sqrt(variance) : 1;
+      } else if (scaling == Scaling.NORMALIZE && n > 0) {
+        shift[j] = min[j];
+        // Constant columns become zero
+        scale[j] = max[j] > min[j] ? 1 / (max[j] - min[j]) : 0;
+      }
+    }
+    return new CompiledDataSetPreProcessor(fill, shift, scale);
+  }
+
+  /**
+   * Add the values of a row vector to the given sums.
+   *
+   * @param sums Sums
+   * @param row Row vector
+   */
+  protected static void add(double[] sums, INDArray row) {
+    final double[] values = row.toDoubleVector();
+    for (int j = 0; j < sums.length; j++) {
+      sums[j] += values[j];
+    }
+  }
+
+  /**
+   * Replacement of missing values for each column.
+   *
+   * @param header Header of the compiled dataset
+   * @param counts Number of present values in each column
+   * @param sums Sum of the present values in each column
+   * @return Replacement values
+   */
+  protected static double[] computeFill(Instances header, double[] counts, double[] sums) {
+    final double[] fill = new double[counts.length];
+    int column = 0;
+    for (int i = 0; i < header.numAttributes(); i++) {
+      if (i == header.classIndex()) {
+        continue;
+      }
+      final Attribute att = header.attribute(i);
+      final int numColumns = CompiledDataSet.numColumns(att);
+      if (numColumns > 1) {
+        // One-hot encoded: the column with the largest count, the first one on ties
+        int mode = column;
+        for (int j = column + 1; j < column + numColumns; j++) {
+          if (sums[j] > sums[mode]) {
+            mode = j;
+          }
+        }
+        fill[mode] = 1;
+      } else if (att.isNominal()) {
+        // Binary: the second value only if it is more frequent
+        fill[column] = sums[column] > counts[column] - sums[column] ? 1 : 0;
+      } else if (counts[column] > 0) {
+        fill[column] = sums[column] / counts[column];
+      }
+      column += numColumns;
+    }
+    return fill;
+  }
+
+  /** Create the row vectors, the preprocessor is shared by the prefetching threads. */
+  protected synchronized void initRows() {
+    if (scaleRow == null) {
+      fillRow = Nd4j.create(fill);
+      shiftRow = Nd4j.create(shift);
+      scaleRow = Nd4j.create(scale);
+      for (int j = 0; j < scale.length; j++) {
+        rescaled |= shift[j] != 0 || scale[j] != 1;
+      }
+    }
+  }
+
+  @Override
+  public void preProcess(DataSet dataSet) {
+    initRows();
+    INDArray features = dataSet.getFeatures();
+    if (BooleanIndexing.or(features, Conditions.isNan())) {
+      final INDArray fillValues = Nd4j.zeros(features.shape()).addiRowVector(fillRow);
+      features = features.dup();
+      BooleanIndexing.replaceWhere(features, fillValues, Conditions.isNan());
+      if (rescaled) {
+        features.subiRowVector(shiftRow).muliRowVector(scaleRow);
+      }
+    } else if (rescaled) {
+      features = features.subRowVector(shiftRow).muliRowVector(scaleRow);
+    } else {
+      return;
+    }
+    dataSet.setFeatures(features);
+  }
+
+  public double[] getFill() {
+    return fill;
+  }
+
+  public double[] getShift() {
+    return shift;
+  }
+
+  public double[] getScale() {
+    return scale;
+  }
+}
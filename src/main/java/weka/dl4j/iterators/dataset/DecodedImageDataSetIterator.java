@@ -0,0 +1,197 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * DecodedImageDataSetIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.io.File;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.dl4j.iterators.dataset.cache.DecodedImageCache;
+
+/**
+ * An nd4j mini-batch iterator over image files that decodes every image only once. The decoded
+ * {@code uint8} pixels are stored in a {@link DecodedImageCache} and read from it in all later
+ * epochs (and runs). The pixels are returned as values in [0, 255], scaling is left to the
+ * preprocessor.
+ *
+ * @author Steven Lang
+ */
+public class DecodedImageDataSetIterator implements DataSetIterator {
+
+  /** The ID used to serialize this class */
+  private static final long serialVersionUID = 2784249659845191438L;
+
+  /** The image files */
+  protected final File[] files;
+
+  /** Label index of each image */
+  protected final int[] labels;
+
+  /** Number of labels */
+  protected final int numLabels;
+
+  /** Label names */
+  protected final List<String> labelNames;
+
+  /** Image shape: channels, height, width */
+  protected final long[] imageShape;
+
+  /** Decodes the images that are not in the cache */
+  protected final ImageDecoder decoder;
+
+  /** The batch size */
+  protected final int batchSize;
+
+  /** The cursor */
+  protected int cursor = 0;
+
+  /** An optional dataset preprocessor */
+  protected DataSetPreProcessor preProcessor;
+
+  /**
+   * Constructs a new iterator.
+   *
+   * @param files Image files
+   * @param labels Label index of each image
+   * @param numLabels Number of labels
+   * @param labelNames Label names
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @param decoder Image decoder reading through the decoded image cache
+   * @param batchSize The batch size
+   */
+  public DecodedImageDataSetIterator(
+      File[] files,
+      int[] labels,
+      int numLabels,
+      List<String> labelNames,
+      int channels,
+      int height,
+      int width,
+      ImageDecoder decoder,
+      int batchSize) {
+    this.files = files;
+    this.labels = labels;
+    this.numLabels = numLabels;
+    this.labelNames = labelNames;
+    this.imageShape = new long[] {channels, height, width};
+    this.decoder = decoder;
+    this.batchSize = Math.max(1, Math.min(batchSize, files.length));
+  }
+
+  @Override
+  public boolean hasNext() {
+    return cursor < files.length;
+  }
+
+  @Override
+  public DataSet next() {
+    return next(batchSize);
+  }
+
+  /**
+   * Returns the next batch of at most the given size.
+   *
+   * @param num Maximum batch size
+   * @return Next batch
+   */
+  @Override
+  public DataSet next(int num) {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final int count = Math.min(num, files.length - cursor);
+    final int imageSize = decoder.getImageSize();
+    final byte[] pixels = new byte[imageSize];
+    final float[] features = new float[count * imageSize];
+    final float[] batchLabels = new float[count * numLabels];
+    for (int i = 0; i < count; i++) {
+      decoder.decode(files[cursor + i], pixels);
+      for (int p = 0; p < imageSize; p++) {
+        features[i * imageSize + p] = pixels[p] & 0xff;
+      }
+      batchLabels[i * numLabels + labels[cursor + i]] = 1;
+    }
+    cursor += count;
+
+    long[] shape = {count, imageShape[0], imageShape[1], imageShape[2]};
+    DataSet ds =
+        new DataSet(
+            Nd4j.create(features, shape, 'c'),
+            Nd4j.create(batchLabels, new long[] {count, numLabels}, 'c'));
+    if (preProcessor != null) {
+      preProcessor.preProcess(ds);
+    }
+    return ds;
+  }
+
+  @Override
+  public int inputColumns() {
+    return (int) (imageShape[0] * imageShape[1] * imageShape[2]);
+  }
+
+  @Override
+  public int totalOutcomes() {
+    return numLabels;
+  }
+
+  @Override
+  public boolean resetSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean asyncSupported() {
+    return true;
+  }
+
+  @Override
+  public void reset() {
+    cursor = 0;
+  }
+
+  @Override
+  public int batch() {
+    return batchSize;
+  }
+
+  @Override
+  public DataSetPreProcessor getPreProcessor() {
+    return preProcessor;
+  }
+
+  @Override
+  public void setPreProcessor(DataSetPreProcessor preProcessor) {
+    this.preProcessor = preProcessor;
+  }
+
+  @Override
+  public List<String> getLabels() {
+    return labelNames;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -21,10 +21,12 @@ package weka.dl4j.iterators.dataset;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
-import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.dl4j.sampler.Sampler;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -32,7 +34,7 @@ import java.util.List;
  *
  * @author Steven Lang
  */
-public class DefaultDataSetIterator implements DataSetIterator, Serializable {
+public class DefaultDataSetIterator implements IndexedDataSetIterator, Serializable {
 
   /** The ID used to serialize this class */
   private static final long serialVersionUID = 5571114918884888578L;
@@ -49,6 +51,12 @@ public class DefaultDataSetIterator implements DataSetIterator, Serializable {
   /** An optional dataset preprocessor */
   protected DataSetPreProcessor preProcessor;
 
+  /** An optional sampler that determines the example order in each epoch */
+  protected Sampler sampler;
+
+  /** Example indices of the current epoch (null if the examples are visited sequentially) */
+  protected int[] order;
+
   /**
    * Constructs a new dataset iterator.
    *
@@ -68,7 +76,16 @@ public class DefaultDataSetIterator implements DataSetIterator, Serializable {
    */
   @Override
   public boolean hasNext() {
-    return (cursor + batchSize <= data.numExamples());
+    return (cursor + batchSize <= numSamples());
+  }
+
+  /**
+   * Number of examples that are visited per epoch.
+   *
+   * @return number of examples per epoch
+   */
+  protected int numSamples() {
+    return order == null ? data.numExamples() : order.length;
   }
 
   /**
@@ -78,6 +95,10 @@ public class DefaultDataSetIterator implements DataSetIterator, Serializable {
    */
   @Override
   public DataSet next() {
+    if (order != null) {
+      return next(batchSize);
+    }
+
     // Apply preprocessor
     if (preProcessor != null) {
       preProcessor.preProcess(data);
@@ -101,6 +122,16 @@ public class DefaultDataSetIterator implements DataSetIterator, Serializable {
    */
   @Override
   public DataSet next(int num) {
+    // The last batch of an epoch only contains the remaining examples
+    num = Math.min(num, numSamples() - cursor);
+    if (order != null) {
+      DataSet thisBatch = gather(Arrays.copyOfRange(order, cursor, cursor + num));
+      cursor += num;
+      if (preProcessor != null) {
+        preProcessor.preProcess(thisBatch);
+      }
+      return thisBatch;
+    }
 
     // Apply preprocessor
     if (preProcessor != null) preProcessor.preProcess(data);
@@ -115,6 +146,137 @@ public class DefaultDataSetIterator implements DataSetIterator, Serializable {
     return thisBatch;
   }
 
+  /**
+   * Number of full batches in the current epoch.
+   *
+   * @return number of batches
+   */
+  @Override
+  public int numBatches() {
+    return numSamples() / batchSize;
+  }
+
+  /**
+   * Builds a batch of the current epoch without moving the cursor.
+   *
+   * @param index Batch index
+   * @param reuse A batch that is no longer in use, or null
+   * @return the mini batch
+   */
+  @Override
+  public DataSet batch(int index, DataSet reuse) {
+    final int[] indices = new int[batchSize];
+    for (int i = 0; i < batchSize; i++) {
+      final int position = index * batchSize + i;
+      indices[i] = order == null ? position : order[position];
+    }
+    DataSet thisBatch;
+    if (reuse == null) {
+      thisBatch = gather(indices);
+    } else {
+      thisBatch =
+          new DataSet(
+              pullRows(data.getFeatures(), indices, reuse.getFeatures()),
+              pullRows(data.getLabels(), indices, reuse.getLabels()),
+              pullRows(data.getFeaturesMaskArray(), indices, reuse.getFeaturesMaskArray()),
+              pullRows(data.getLabelsMaskArray(), indices, reuse.getLabelsMaskArray()));
+    }
+    if (preProcessor != null) {
+      preProcessor.preProcess(thisBatch);
+    }
+    return thisBatch;
+  }
+
+  /**
+   * Gathers the given examples from the dataset into a new mini batch. Only the selected rows are
+   * copied, the dataset itself is never reordered.
+   *
+   * @param indices Example indices
+   * @return Mini batch with the examples in the given order
+   */
+  protected DataSet gather(int[] indices) {
+    return new DataSet(
+        pullRows(data.getFeatures(), indices),
+        pullRows(data.getLabels(), indices),
+        pullRows(data.getFeaturesMaskArray(), indices),
+        pullRows(data.getLabelsMaskArray(), indices));
+  }
+
+  /**
+   * Pull the given examples (along dimension zero) out of an array of arbitrary rank.
+   *
+   * @param arr Source array
+   * @param indices Example indices
+   * @return Array of shape [indices.length, arr.shape[1], ...]
+   */
+  protected static INDArray pullRows(INDArray arr, int[] indices) {
+    if (arr == null) {
+      return null;
+    }
+    long[] shape = arr.shape();
+    if (shape.length == 2) {
+      return Nd4j.pullRows(arr, 1, indices, 'c');
+    }
+
+    // Operate on a [numExamples, prod(shape[1:])] view and restore the shape afterwards
+    long exampleLength = arr.length() / shape[0];
+    INDArray flat = arr.reshape('c', shape[0], exampleLength);
+    INDArray pulled = Nd4j.pullRows(flat, 1, indices, 'c');
+    long[] newShape = shape.clone();
+    newShape[0] = indices.length;
+    return pulled.reshape('c', newShape);
+  }
+
+  /**
+   * Pull the given examples (along dimension zero) into an existing array if it has the right
+   * shape, otherwise into a new array.
+   *
+   * @param arr Source array
+   * @param indices Example indices
+   * @param reuse Destination array, or null
+   * @return Array of shape [indices.length, arr.shape[1], ...]
+   */
+  protected static INDArray pullRows(INDArray arr, int[] indices, INDArray reuse) {
+    if (arr == null) {
+      return null;
+    }
+    long[] shape = arr.shape().clone();
+    shape[0] = indices.length;
+    if (reuse == null || reuse.ordering() != 'c' || !Arrays.equals(shape, reuse.shape())) {
+      return pullRows(arr, indices);
+    }
+    if (shape.length == 2) {
+      Nd4j.pullRows(arr, reuse, 1, indices);
+      return reuse;
+    }
+
+    long exampleLength = arr.length() / arr.size(0);
+    INDArray flat = arr.reshape('c', arr.size(0), exampleLength);
+    Nd4j.pullRows(flat, reuse.reshape('c', indices.length, exampleLength), 1, indices);
+    return reuse;
+  }
+
+  /**
+   * Sets the sampler that determines the example order. The sampler must have been initialized
+   * with the instances this iterator's dataset was created from.
+   *
+   * @param sampler Sampler, or null to visit the examples sequentially
+   */
+  public void setSampler(Sampler sampler) {
+    this.sampler = sampler;
+    this.cursor = 0;
+    this.order = (sampler == null || sampler.isSequential()) ? null : sampler.sample();
+  }
+
+  /**
+   * Gets the sampler.
+   *
+   * @return sampler
+   */
+  public Sampler getSampler() {
+    return sampler;
+  }
+
   /**
    * Returns the number of input columns.
    *
@@ -136,10 +298,13 @@ public class DefaultDataSetIterator implements DataSetIterator, Serializable {
     return data.get(0).getLabels().columns();
   }
 
-  /** Resets the cursor. */
+  /** Resets the cursor and draws the example order of the next epoch. */
   @Override
   public void reset() {
     cursor = 0;
+    if (order != null) {
+      order = sampler.sample();
+    }
   }
 
   /**
@@ -0,0 +1,219 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * ImageAugmentation.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.io.Serializable;
+import java.util.Enumeration;
+import java.util.Random;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.OptionMetadata;
+
+/**
+ * Random augmentations of decoded images: a crop of the zero-padded image, a horizontal flip and a
+ * brightness and contrast jitter. The random choices for an image only depend on the seed, the
+ * epoch and the position of the image in the dataset, so the augmented batches are reproducible
+ * no matter which worker thread decodes an image.
+ *
+ * @author Steven Lang
+ */
+public class ImageAugmentation implements OptionHandler, Serializable {
+
+  private static final long serialVersionUID = 2617431946374106032L;
+
+  /** Maximum shift of the random crop in pixels */
+  protected int cropPadding = 0;
+
+  /** Whether to flip images horizontally with a probability of 0.5 */
+  protected boolean flipHorizontally = false;
+
+  /** Maximum brightness change as a fraction of the intensity range */
+  protected double brightnessJitter = 0;
+
+  /** Maximum relative contrast change */
+  protected double contrastJitter = 0;
+
+  @OptionMetadata(
+      displayName = "crop padding",
+      description = "Pad the images by this many pixels and crop them at a random position "
+          + "(default = 0).",
+      commandLineParamName = "cropPadding",
+      commandLineParamSynopsis = "-cropPadding <int>",
+      displayOrder = 1
+  )
+  public int getCropPadding() {
+    return cropPadding;
+  }
+
+  public void setCropPadding(int cropPadding) {
+    this.cropPadding = Math.max(0, cropPadding);
+  }
+
+  @OptionMetadata(
+      displayName = "flip horizontally",
+      description = "Flip half of the images horizontally (default = false).",
+      commandLineParamName = "flipHorizontally",
+      commandLineParamSynopsis = "-flipHorizontally",
+      commandLineParamIsFlag = true,
+      displayOrder = 2
+  )
+  public boolean getFlipHorizontally() {
+    return flipHorizontally;
+  }
+
+  public void setFlipHorizontally(boolean flipHorizontally) {
+    this.flipHorizontally = flipHorizontally;
+  }
+
+  @OptionMetadata(
+      displayName = "brightness jitter",
+      description = "Maximum brightness change as a fraction of the intensity range "
+          + "(default = 0).",
+      commandLineParamName = "brightnessJitter",
+      commandLineParamSynopsis = "-brightnessJitter <double>",
+      displayOrder = 3
+  )
+  public double getBrightnessJitter() {
+    return brightnessJitter;
+  }
+
+  public void setBrightnessJitter(double brightnessJitter) {
+    this.brightnessJitter = Math.max(0, brightnessJitter);
+  }
+
+  @OptionMetadata(
+      displayName = "contrast jitter",
+      description = "Maximum relative contrast change (default = 0).",
+      commandLineParamName = "contrastJitter",
+      commandLineParamSynopsis = "-contrastJitter <double>",
+      displayOrder = 4
+  )
+  public double getContrastJitter() {
+    return contrastJitter;
+  }
+
+  public void setContrastJitter(double contrastJitter) {
+    this.contrastJitter = Math.max(0, contrastJitter);
+  }
+
+  /**
+   * Whether any augmentation is configured.
+   *
+   * @return True if images are changed by {@link #apply}
+   */
+  public boolean isEnabled() {
+    return cropPadding > 0 || flipHorizontally || brightnessJitter > 0 || contrastJitter > 0;
+  }
+
+  /**
+   * Create the random number generator for an image in an epoch.
+   *
+   * @param seed Seed
+   * @param epoch Epoch
+   * @param index Position of the image in the dataset
+   * @return Random number generator
+   */
+  public static Random random(long seed, int epoch, int index) {
+    long z = seed;
+    z = mix(z + 0x9e3779b97f4a7c15L * (epoch + 1));
+    z = mix(z + 0x9e3779b97f4a7c15L * (index + 1));
+    return new Random(z);
+  }
+
+  /**
+   * Mixes the bits of a value (the finalizer of SplitMix64).
+   *
+   * @param z Value
+   * @return Mixed value
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Augment an image.
+   *
+   * @param src Pixels of shape [channels, height, width]
+   * @param dst Destination for the augmented intensities in [0, 255]
+   * @param offset Offset in the destination
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @param random Random number generator of this image
+   */
+  public void apply(
+      byte[] src, float[] dst, int offset, int channels, int height, int width, Random random) {
+    final int shiftY = cropPadding > 0 ? random.nextInt(2 * cropPadding + 1) - cropPadding : 0;
+    final int shiftX = cropPadding > 0 ? random.nextInt(2 * cropPadding + 1) - cropPadding : 0;
+    final boolean flip = flipHorizontally && random.nextBoolean();
+    final double brightness = (2 * random.nextDouble() - 1) * brightnessJitter * 255;
+    final double contrast = 1 + (2 * random.nextDouble() - 1) * contrastJitter;
+
+    for (int c = 0; c < channels; c++) {
+      final int channelOffset = c * height * width;
+      for (int y = 0; y < height; y++) {
+        final int sy = y + shiftY;
+        for (int x = 0; x < width; x++) {
+          final int sx = (flip ? width - 1 - x : x) + shiftX;
+          double value = 0;
+          if (sy >= 0 && sy < height && sx >= 0 && sx < width) {
+            value = src[channelOffset + sy * width + sx] & 0xff;
+          }
+          value = (value - 127.5) * contrast + 127.5 + brightness;
+          dst[offset + channelOffset + y * width + x] = (float) Math.max(0, Math.min(255, value));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  @Override
+  public Enumeration<Option> listOptions() {
+
+    return Option.listOptionsForClass(this.getClass()).elements();
+  }
+
+  /**
+   * Gets the current settings of the Classifier.
+   *
+   * @return an array of strings suitable for passing to setOptions
+   */
+  @Override
+  public String[] getOptions() {
+
+    return Option.getOptions(this, this.getClass());
+  }
+
+  /**
+   * Parses a given list of options.
+   *
+   * @param options the list of options as an array of strings
+   * @throws Exception if an option is not supported
+   */
+  public void setOptions(String[] options) throws Exception {
+
+    Option.setOptions(options, this, this.getClass());
+  }
+}
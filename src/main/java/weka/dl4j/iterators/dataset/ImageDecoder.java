@@ -0,0 +1,243 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * ImageDecoder.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import lombok.extern.log4j.Log4j2;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_imgcodecs;
+import org.datavec.image.loader.NativeImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import weka.dl4j.iterators.dataset.cache.DecodedImageCache;
+
+/**
+ * Decodes image files into {@code uint8} pixels of shape [channels, height, width], optionally
+ * reading and writing them through a {@link DecodedImageCache}. JPEG images that are at least twice
+ * as large as the target shape can be decoded at a reduced size, which lets the JPEG decoder skip
+ * most of the inverse DCT work before the image is resized to the target shape.
+ *
+ * <p>Instances are not thread-safe, use one decoder per thread.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class ImageDecoder {
+
+  /** Reduction factors supported by the JPEG decoder, largest first */
+  protected static final int[] REDUCTION_FACTORS = {8, 4, 2};
+
+  /** Decodes and resizes the images */
+  protected final NativeImageLoader loader;
+
+  /** Number of channels */
+  protected final int channels;
+
+  /** Image height */
+  protected final int height;
+
+  /** Image width */
+  protected final int width;
+
+  /** Whether JPEG images may be decoded at a reduced size */
+  protected final boolean reducedDecoding;
+
+  /** Optional decoded image cache */
+  protected final DecodedImageCache cache;
+
+  /**
+   * Constructor.
+   *
+   * @param loader Image loader producing arrays of shape [1, channels, height, width]
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @param reducedDecoding Whether JPEG images may be decoded at a reduced size
+   * @param cache Decoded image cache with slots of channels * height * width bytes, or null
+   */
+  public ImageDecoder(
+      NativeImageLoader loader,
+      int channels,
+      int height,
+      int width,
+      boolean reducedDecoding,
+      DecodedImageCache cache) {
+    this.loader = loader;
+    this.channels = channels;
+    this.height = height;
+    this.width = width;
+    this.reducedDecoding = reducedDecoding;
+    this.cache = cache;
+  }
+
+  /**
+   * Size of a decoded image in bytes.
+   *
+   * @return Number of pixel values
+   */
+  public int getImageSize() {
+    return channels * height * width;
+  }
+
+  /**
+   * Decode an image, or read it from the cache if it was decoded before.
+   *
+   * @param file Image file
+   * @param pixels Destination of size {@link #getImageSize()}
+   */
+  public void decode(File file, byte[] pixels) {
+    final String path = file.getAbsolutePath();
+    final long lastModified = file.lastModified();
+    try {
+      if (cache != null && cache.get(path, lastModified, pixels)) {
+        return;
+      }
+      toPixels(decodeFile(file), file.toString(), pixels);
+      if (cache != null) {
+        cache.put(path, lastModified, pixels);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not load image " + file, e);
+    }
+  }
+
+  /**
+   * Decode an encoded image (e.g. the bytes of a JPEG file).
+   *
+   * @param encoded Encoded image
+   * @param name Name of the image for error messages
+   * @param pixels Destination of size {@link #getImageSize()}
+   */
+  public void decode(byte[] encoded, String name, byte[] pixels) {
+    try {
+      toPixels(loader.asMatrix(new ByteArrayInputStream(encoded)), name, pixels);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not decode image " + name, e);
+    }
+  }
+
+  /**
+   * Convert a decoded image into {@code uint8} pixels.
+   *
+   * @param decoded Array of shape [1, channels, height, width]
+   * @param name Name of the image for error messages
+   * @param pixels Destination of size {@link #getImageSize()}
+   * @throws IOException Image has the wrong shape
+   */
+  protected void toPixels(INDArray decoded, String name, byte[] pixels) throws IOException {
+    if (decoded.length() != pixels.length) {
+      throw new IOException(
+          "Decoded image " + name + " has shape " + Arrays.toString(decoded.shape()));
+    }
+    INDArray flat = decoded.dup('c');
+    for (int p = 0; p < pixels.length; p++) {
+      pixels[p] = (byte) Math.max(0, Math.min(255, Math.round(flat.getFloat(p))));
+    }
+  }
+
+  /**
+   * Decode an image at the target shape.
+   *
+   * @param file Image file
+   * @return Array of shape [1, channels, height, width]
+   * @throws IOException Image could not be decoded
+   */
+  protected INDArray decodeFile(File file) throws IOException {
+    final int factor = reducedDecoding ? getReductionFactor(file) : 1;
+    if (factor > 1) {
+      Mat mat = opencv_imgcodecs.imread(file.getAbsolutePath(), getReducedReadFlag(factor));
+      try {
+        if (!mat.empty()) {
+          return loader.asMatrix(mat);
+        }
+      } finally {
+        mat.release();
+      }
+      log.debug("Could not decode {} at a reduced size", file);
+    }
+    return loader.asMatrix(file);
+  }
+
+  /**
+   * Get the largest factor by which a JPEG image can be reduced while decoding without becoming
+   * smaller than the target shape. Only the image header is read.
+   *
+   * @param file Image file
+   * @return Reduction factor, 1 if the image must be decoded at its full size
+   */
+  protected int getReductionFactor(File file) {
+    final String name = file.getName().toLowerCase();
+    if (!(name.endsWith(".jpg") || name.endsWith(".jpeg"))) {
+      return 1;
+    }
+    try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+      Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+      if (readers == null || !readers.hasNext()) {
+        return 1;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        final int sourceWidth = reader.getWidth(0);
+        final int sourceHeight = reader.getHeight(0);
+        for (int factor : REDUCTION_FACTORS) {
+          if (sourceWidth / factor >= width && sourceHeight / factor >= height) {
+            return factor;
+          }
+        }
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      log.debug("Could not read the header of {}", file);
+    }
+    return 1;
+  }
+
+  /**
+   * Get the OpenCV read flag that decodes at the given reduction factor.
+   *
+   * @param factor Reduction factor
+   * @return Read flag
+   */
+  protected int getReducedReadFlag(int factor) {
+    final boolean color = channels >= 3;
+    switch (factor) {
+      case 8:
+        return color
+            ? opencv_imgcodecs.IMREAD_REDUCED_COLOR_8
+            : opencv_imgcodecs.IMREAD_REDUCED_GRAYSCALE_8;
+      case 4:
+        return color
+            ? opencv_imgcodecs.IMREAD_REDUCED_COLOR_4
+            : opencv_imgcodecs.IMREAD_REDUCED_GRAYSCALE_4;
+      default:
+        return color
+            ? opencv_imgcodecs.IMREAD_REDUCED_COLOR_2
+            : opencv_imgcodecs.IMREAD_REDUCED_GRAYSCALE_2;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * IndexedDataSetIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+/**
+ * A DataSetIterator whose batches can be built by index, independently of the cursor. This allows
+ * the {@link PrefetchingDataSetIterator} to build several batches of an epoch at the same time.
+ *
+ * @author Steven Lang
+ */
+public interface IndexedDataSetIterator extends DataSetIterator {
+
+  /**
+   * Number of batches in the current epoch, i.e. since the last {@link #reset()}.
+   *
+   * @return Number of batches
+   */
+  int numBatches();
+
+  /**
+   * Build a batch of the current epoch and apply the preprocessor. Must be safe to call from
+   * several threads at the same time, as long as the iterator is not reset meanwhile.
+   *
+   * @param index Batch index, less than {@link #numBatches()}
+   * @param reuse A batch returned by this method earlier that is no longer in use, or null. Its
+   *     arrays may be overwritten if they have the right shape
+   * @return Batch
+   */
+  DataSet batch(int index, DataSet reuse);
+}
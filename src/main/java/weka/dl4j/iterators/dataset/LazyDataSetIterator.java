@@ -0,0 +1,150 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * LazyDataSetIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+/**
+ * A DataSetIterator that creates its backing iterator on first use. Used as source of a caching
+ * iterator so that the conversion of the instances is skipped entirely if all batches can be
+ * served from a cache.
+ *
+ * @author Steven Lang
+ */
+public class LazyDataSetIterator implements DataSetIterator {
+
+  private static final long serialVersionUID = -1203712637915043112L;
+
+  /** Factory for the backing iterator */
+  protected final Callable<DataSetIterator> factory;
+
+  /** The batch size of the backing iterator */
+  protected final int batchSize;
+
+  /** The backing iterator, null until first use */
+  protected DataSetIterator delegate;
+
+  /** Preprocessor that is set on the backing iterator once it is created */
+  protected DataSetPreProcessor preProcessor;
+
+  /**
+   * Constructor.
+   *
+   * @param factory Factory for the backing iterator
+   * @param batchSize The batch size of the backing iterator
+   */
+  public LazyDataSetIterator(Callable<DataSetIterator> factory, int batchSize) {
+    this.factory = factory;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Get the backing iterator and create it if necessary.
+   *
+   * @return Backing iterator
+   */
+  protected DataSetIterator getDelegate() {
+    if (delegate == null) {
+      try {
+        delegate = factory.call();
+      } catch (Exception e) {
+        throw new RuntimeException("Could not create the dataset iterator.", e);
+      }
+      if (preProcessor != null) {
+        delegate.setPreProcessor(preProcessor);
+      }
+    }
+    return delegate;
+  }
+
+  @Override
+  public DataSet next(int num) {
+    return getDelegate().next(num);
+  }
+
+  @Override
+  public int inputColumns() {
+    return getDelegate().inputColumns();
+  }
+
+  @Override
+  public int totalOutcomes() {
+    return getDelegate().totalOutcomes();
+  }
+
+  @Override
+  public boolean resetSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean asyncSupported() {
+    return false;
+  }
+
+  /** Resets the backing iterator if it has been created already. */
+  @Override
+  public void reset() {
+    if (delegate != null) {
+      delegate.reset();
+    }
+  }
+
+  @Override
+  public int batch() {
+    return delegate == null ? batchSize : delegate.batch();
+  }
+
+  @Override
+  public void setPreProcessor(DataSetPreProcessor preProcessor) {
+    this.preProcessor = preProcessor;
+    if (delegate != null) {
+      delegate.setPreProcessor(preProcessor);
+    }
+  }
+
+  @Override
+  public DataSetPreProcessor getPreProcessor() {
+    return preProcessor;
+  }
+
+  @Override
+  public List<String> getLabels() {
+    return getDelegate().getLabels();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return getDelegate().hasNext();
+  }
+
+  @Override
+  public DataSet next() {
+    return getDelegate().next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PackedImageDataSetIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * An nd4j mini-batch iterator over {@link PackedImageShards}. The images are read from the mapped
+ * shards by the decode workers of the {@link ParallelImageDataSetIterator}.
+ *
+ * <p>If shuffling is enabled, the images are not visited in dataset order but shard by shard in
+ * their packed order, which keeps the reads sequential. The order of the shards is shuffled in
+ * each epoch, and a shuffle buffer mixes the images of neighbouring positions.
+ *
+ * @author Steven Lang
+ */
+public class PackedImageDataSetIterator extends ParallelImageDataSetIterator {
+
+  /** The ID used to serialize this class */
+  private static final long serialVersionUID = -1509457273540090022L;
+
+  /** The packed images */
+  protected final PackedImageShards packedImages;
+
+  /** Record of each image */
+  protected final int[] records;
+
+  /** Whether to shuffle the order of the shards in each epoch */
+  protected boolean shuffleShards = false;
+
+  /** Size of the shuffle buffer, at most 1 disables it */
+  protected int shuffleBufferSize = 0;
+
+  /**
+   * Constructs a new iterator.
+   *
+   * @param packedImages The packed images
+   * @param records Record of each image
+   * @param labels Label index of each image
+   * @param numLabels Number of labels
+   * @param labelNames Label names
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @param decoderFactory Creates the decoder of a worker, only used for encoded images
+   * @param batchSize The batch size
+   * @param numWorkers Number of decode workers
+   * @param ordered Whether batches are returned in the epoch order
+   */
+  public PackedImageDataSetIterator(
+      PackedImageShards packedImages,
+      int[] records,
+      int[] labels,
+      int numLabels,
+      List<String> labelNames,
+      int channels,
+      int height,
+      int width,
+      Supplier<ImageDecoder> decoderFactory,
+      int batchSize,
+      int numWorkers,
+      boolean ordered) {
+    super(
+        null,
+        records.length,
+        labels,
+        numLabels,
+        labelNames,
+        channels,
+        height,
+        width,
+        decoderFactory,
+        batchSize,
+        numWorkers,
+        ordered);
+    this.packedImages = packedImages;
+    this.records = records;
+    if (packedImages.isDecoded()
+        && !Arrays.equals(packedImages.getShape(), new int[] {channels, height, width})) {
+      throw new IllegalArgumentException(
+          "Packed images have the shape "
+              + Arrays.toString(packedImages.getShape())
+              + " instead of "
+              + Arrays.toString(new int[] {channels, height, width}));
+    }
+  }
+
+  /**
+   * Visit the images shard by shard and shuffle them in each epoch.
+   *
+   * @param shuffleShards Whether to shuffle the order of the shards
+   * @param shuffleBufferSize Size of the shuffle buffer, at most 1 disables it
+   * @param seed Seed of the shuffling
+   */
+  public void setShuffle(boolean shuffleShards, int shuffleBufferSize, long seed) {
+    this.shuffleShards = shuffleShards;
+    this.shuffleBufferSize = shuffleBufferSize;
+    this.seed = seed;
+  }
+
+  @Override
+  protected int[] computeOrder(int epoch) {
+    if (!shuffleShards && shuffleBufferSize <= 1) {
+      return null;
+    }
+    final Random random = ImageAugmentation.random(seed, epoch, -1);
+
+    // Group the images by shard in their packed order
+    List<List<Integer>> shards = new ArrayList<>();
+    for (int i = 0; i < records.length; i++) {
+      final int shard = packedImages.getShard(records[i]);
+      while (shards.size() <= shard) {
+        shards.add(new ArrayList<>());
+      }
+      shards.get(shard).add(i);
+    }
+    for (List<Integer> shard : shards) {
+      shard.sort(Comparator.comparingLong(i -> packedImages.getOffset(records[i])));
+    }
+    if (shuffleShards) {
+      Collections.shuffle(shards, random);
+    }
+
+    // Stream the images through the shuffle buffer
+    final int[] result = new int[records.length];
+    final int bufferSize = Math.max(1, shuffleBufferSize);
+    final int[] buffer = new int[bufferSize];
+    int buffered = 0;
+    int next = 0;
+    for (List<Integer> shard : shards) {
+      for (int index : shard) {
+        if (buffered < bufferSize) {
+          buffer[buffered++] = index;
+          continue;
+        }
+        final int pick = random.nextInt(bufferSize);
+        result[next++] = buffer[pick];
+        buffer[pick] = index;
+      }
+    }
+    while (buffered > 0) {
+      final int pick = random.nextInt(buffered);
+      result[next++] = buffer[pick];
+      buffer[pick] = buffer[--buffered];
+    }
+    return result;
+  }
+
+  @Override
+  protected void readImage(int index, ImageDecoder decoder, byte[] pixels) {
+    final int record = records[index];
+    if (packedImages.isDecoded()) {
+      packedImages.read(record, pixels);
+    } else {
+      byte[] encoded = new byte[packedImages.getLength(record)];
+      packedImages.read(record, encoded);
+      decoder.decode(encoded, String.valueOf(record), pixels);
+    }
+  }
+}
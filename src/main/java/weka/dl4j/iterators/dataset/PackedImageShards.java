@@ -0,0 +1,429 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PackedImageShards.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import lombok.extern.log4j.Log4j2;
+import org.datavec.image.loader.NativeImageLoader;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Images packed into a few large shard files. Instead of opening one small file per image, the
+ * images listed in a meta data ARFF file are read with large sequential reads from memory-mapped
+ * shards. The images are either stored as encoded files (e.g. the JPEG bytes) or as decoded {@code
+ * uint8} tensors of a fixed shape that need no decoding at all.
+ *
+ * <p>An index file maps the file name of each image in the meta data to its shard, offset and
+ * length. The shards are named after the index file. Pack images with
+ *
+ * <pre>
+ * java weka.dl4j.iterators.dataset.PackedImageShards -i meta.arff -images img/ -o img.pack
+ * </pre>
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class PackedImageShards {
+
+  /** Index file magic */
+  protected static final int MAGIC = 0x57494d53;
+
+  /** Format version */
+  protected static final int VERSION = 1;
+
+  /** Default maximum shard size */
+  public static final long DEFAULT_SHARD_SIZE = 256L * 1024 * 1024;
+
+  /** Maximum shard size, shards are mapped as a whole */
+  public static final long MAX_SHARD_SIZE = Integer.MAX_VALUE;
+
+  /** Whether the images are stored as decoded tensors */
+  protected final boolean decoded;
+
+  /** Image shape of decoded images: channels, height, width */
+  protected final int[] shape;
+
+  /** Record index of each image name */
+  protected final Map<String, Integer> records = new HashMap<>();
+
+  /** Shard of each record */
+  protected final int[] recordShards;
+
+  /** Offset of each record */
+  protected final long[] recordOffsets;
+
+  /** Length of each record */
+  protected final int[] recordLengths;
+
+  /** Mapped shards */
+  protected final ByteBuffer[] shards;
+
+  /**
+   * Open packed images.
+   *
+   * @param indexFile Index file
+   * @throws IOException Index or shards could not be read
+   */
+  public PackedImageShards(File indexFile) throws IOException {
+    final String[] shardNames;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(indexFile + " is not a packed image index");
+      }
+      final int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported packed image index version " + version);
+      }
+      decoded = in.readBoolean();
+      shape = new int[] {in.readInt(), in.readInt(), in.readInt()};
+      shardNames = new String[in.readInt()];
+      for (int i = 0; i < shardNames.length; i++) {
+        shardNames[i] = in.readUTF();
+      }
+      final int numRecords = in.readInt();
+      recordShards = new int[numRecords];
+      recordOffsets = new long[numRecords];
+      recordLengths = new int[numRecords];
+      for (int i = 0; i < numRecords; i++) {
+        records.put(in.readUTF(), i);
+        recordShards[i] = in.readInt();
+        recordOffsets[i] = in.readLong();
+        recordLengths[i] = in.readInt();
+      }
+    }
+
+    shards = new ByteBuffer[shardNames.length];
+    final File dir = indexFile.getAbsoluteFile().getParentFile();
+    for (int i = 0; i < shardNames.length; i++) {
+      try (FileChannel channel =
+          FileChannel.open(new File(dir, shardNames[i]).toPath(), StandardOpenOption.READ)) {
+        shards[i] = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+  }
+
+  /**
+   * Whether the images are stored as decoded tensors.
+   *
+   * @return True if decoded, false if encoded
+   */
+  public boolean isDecoded() {
+    return decoded;
+  }
+
+  /**
+   * Shape of the decoded images.
+   *
+   * @return Channels, height and width
+   */
+  public int[] getShape() {
+    return shape.clone();
+  }
+
+  /**
+   * Number of packed images.
+   *
+   * @return Number of records
+   */
+  public int getNumRecords() {
+    return recordShards.length;
+  }
+
+  /**
+   * Get the record of an image.
+   *
+   * @param name File name of the image in the meta data
+   * @return Record index, or -1 if the image is not packed
+   */
+  public int indexOf(String name) {
+    return records.getOrDefault(name, -1);
+  }
+
+  /**
+   * Shard of a record.
+   *
+   * @param record Record index
+   * @return Shard index
+   */
+  public int getShard(int record) {
+    return recordShards[record];
+  }
+
+  /**
+   * Offset of a record in its shard.
+   *
+   * @param record Record index
+   * @return Offset in bytes
+   */
+  public long getOffset(int record) {
+    return recordOffsets[record];
+  }
+
+  /**
+   * Length of a record.
+   *
+   * @param record Record index
+   * @return Length in bytes
+   */
+  public int getLength(int record) {
+    return recordLengths[record];
+  }
+
+  /**
+   * Read a record. Thread-safe.
+   *
+   * @param record Record index
+   * @param dst Destination of at least {@link #getLength(int)} bytes
+   */
+  public void read(int record, byte[] dst) {
+    ByteBuffer shard = shards[recordShards[record]].duplicate();
+    shard.position((int) recordOffsets[record]);
+    shard.get(dst, 0, recordLengths[record]);
+  }
+
+  /**
+   * Pack the images listed in a meta data ARFF file.
+   *
+   * @param metaData Meta data with the image file names in the first attribute
+   * @param imagesLocation Directory containing the images
+   * @param indexFile Index file to write
+   * @param shardSize Maximum size of a shard in bytes
+   * @param decoder Decoder for decoded tensors, or null to store the encoded files
+   * @param seed Seed for the random order of the images in the shards
+   * @throws IOException Images could not be packed
+   */
+  public static void pack(
+      Instances metaData,
+      File imagesLocation,
+      File indexFile,
+      long shardSize,
+      ImageDecoder decoder,
+      long seed)
+      throws IOException {
+    // Store the images in random order, so that sequential reads are not sorted by class
+    Set<String> uniqueNames = new LinkedHashSet<>();
+    for (int i = 0; i < metaData.numInstances(); i++) {
+      uniqueNames.add(metaData.instance(i).stringValue(0));
+    }
+    List<String> names = new ArrayList<>(uniqueNames);
+    Collections.shuffle(names, new Random(seed));
+
+    int[] shape = new int[3];
+    if (decoder != null) {
+      shape = new int[] {decoder.channels, decoder.height, decoder.width};
+    }
+    try (Writer writer = new Writer(indexFile, shardSize, decoder != null, shape)) {
+      final byte[] pixels = decoder == null ? null : new byte[decoder.getImageSize()];
+      for (String name : names) {
+        File file = Paths.get(imagesLocation.getPath(), name).toFile();
+        if (decoder == null) {
+          writer.add(name, Files.readAllBytes(file.toPath()));
+        } else {
+          decoder.decode(file, pixels);
+          writer.add(name, pixels);
+        }
+      }
+    }
+  }
+
+  /** Writes the images into shards and the index */
+  public static class Writer implements Closeable {
+
+    /** Index file */
+    protected final File indexFile;
+
+    /** Maximum size of a shard */
+    protected final long shardSize;
+
+    /** Whether the images are decoded tensors */
+    protected final boolean decoded;
+
+    /** Image shape of decoded images */
+    protected final int[] shape;
+
+    /** Names of the written shards */
+    protected final List<String> shardNames = new ArrayList<>();
+
+    /** Names of the records */
+    protected final List<String> names = new ArrayList<>();
+
+    /** Shard, offset and length of each record */
+    protected final List<long[]> locations = new ArrayList<>();
+
+    /** Current shard */
+    protected OutputStream shard;
+
+    /** Size of the current shard */
+    protected long shardPosition;
+
+    /**
+     * Constructor.
+     *
+     * @param indexFile Index file, the shards are written next to it
+     * @param shardSize Maximum size of a shard in bytes
+     * @param decoded Whether the images are decoded tensors
+     * @param shape Image shape of decoded images: channels, height, width
+     */
+    public Writer(File indexFile, long shardSize, boolean decoded, int[] shape) {
+      this.indexFile = indexFile.getAbsoluteFile();
+      this.shardSize = Math.max(1, Math.min(shardSize, MAX_SHARD_SIZE));
+      this.decoded = decoded;
+      this.shape = shape;
+    }
+
+    /**
+     * Add an image.
+     *
+     * @param name File name of the image in the meta data
+     * @param data Encoded image or decoded tensor
+     * @throws IOException Image could not be written
+     */
+    public void add(String name, byte[] data) throws IOException {
+      if (data.length > shardSize) {
+        throw new IOException("Image " + name + " is larger than the shard size");
+      }
+      if (shard == null || shardPosition + data.length > shardSize) {
+        nextShard();
+      }
+      shard.write(data);
+      names.add(name);
+      locations.add(new long[] {shardNames.size() - 1, shardPosition, data.length});
+      shardPosition += data.length;
+    }
+
+    /**
+     * Start a new shard.
+     *
+     * @throws IOException Shard could not be created
+     */
+    protected void nextShard() throws IOException {
+      if (shard != null) {
+        shard.close();
+      }
+      final String base = indexFile.getName().replaceFirst("\\.[^.]*$", "");
+      final String name = String.format("%s-%05d.shard", base, shardNames.size());
+      shard =
+          new BufferedOutputStream(
+              new FileOutputStream(new File(indexFile.getParentFile(), name)), 1 << 20);
+      shardNames.add(name);
+      shardPosition = 0;
+    }
+
+    /**
+     * Complete the last shard and write the index.
+     *
+     * @throws IOException Index could not be written
+     */
+    @Override
+    public void close() throws IOException {
+      if (shard != null) {
+        shard.close();
+        shard = null;
+      }
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(decoded);
+        for (int dim : shape) {
+          out.writeInt(dim);
+        }
+        out.writeInt(shardNames.size());
+        for (String shardName : shardNames) {
+          out.writeUTF(shardName);
+        }
+        out.writeInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+          final long[] location = locations.get(i);
+          out.writeUTF(names.get(i));
+          out.writeInt((int) location[0]);
+          out.writeLong(location[1]);
+          out.writeInt((int) location[2]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Packs the images of a meta data ARFF file.
+   *
+   * @param args Command line arguments
+   * @throws Exception Images could not be packed
+   */
+  public static void main(String[] args) throws Exception {
+    String input = Utils.getOption('i', args);
+    String images = Utils.getOption("images", args);
+    String output = Utils.getOption('o', args);
+    if (input.isEmpty() || images.isEmpty() || output.isEmpty()) {
+      System.err.println(
+          "Usage: " + PackedImageShards.class.getName()
+              + " -i <meta data ARFF> -images <images dir> -o <index file>"
+              + " [-shardSize <MB>] [-S <seed>]"
+              + " [-decode -width <int> -height <int> -numChannels <int>]");
+      System.exit(1);
+    }
+    String shardSize = Utils.getOption("shardSize", args);
+    String seed = Utils.getOption('S', args);
+    ImageDecoder decoder = null;
+    if (Utils.getFlag("decode", args)) {
+      final int width = Integer.parseInt(Utils.getOption("width", args));
+      final int height = Integer.parseInt(Utils.getOption("height", args));
+      final int channels = Integer.parseInt(Utils.getOption("numChannels", args));
+      decoder =
+          new ImageDecoder(
+              new NativeImageLoader(height, width, channels), channels, height, width, false, null);
+    }
+
+    Instances metaData = DataSource.read(input);
+    pack(
+        metaData,
+        new File(images),
+        new File(output),
+        shardSize.isEmpty() ? DEFAULT_SHARD_SIZE : Long.parseLong(shardSize) * 1024 * 1024,
+        decoder,
+        seed.isEmpty() ? 1 : Long.parseLong(seed));
+    log.info("Packed {} images into {}", metaData.numInstances(), output);
+  }
+}
@@ -0,0 +1,490 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * ParallelImageDataSetIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import lombok.extern.log4j.Log4j2;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * An nd4j mini-batch iterator that decodes (and augments) images in a pool of worker threads. Each
+ * worker assembles whole batches, at most two batches per worker are decoded ahead of the
+ * consumer. Batches are either returned in dataset order or as soon as they are complete.
+ *
+ * <p>The workers are started with the first batch of an epoch and stopped after the last one, or
+ * when the iterator is reset.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class ParallelImageDataSetIterator implements DataSetIterator {
+
+  /** The ID used to serialize this class */
+  private static final long serialVersionUID = -8531699129511414324L;
+
+  /** Number of batches each worker may decode ahead of the consumer */
+  protected static final int BATCHES_AHEAD_PER_WORKER = 2;
+
+  /** The image files, null if a subclass reads the images from elsewhere */
+  protected final File[] files;
+
+  /** Number of images */
+  protected final int numImages;
+
+  /** Label index of each image */
+  protected final int[] labels;
+
+  /** Number of labels */
+  protected final int numLabels;
+
+  /** Label names */
+  protected final List<String> labelNames;
+
+  /** Image shape: channels, height, width */
+  protected final int[] imageShape;
+
+  /** The batch size */
+  protected final int batchSize;
+
+  /** Number of decode workers */
+  protected final int numWorkers;
+
+  /** Whether batches are returned in dataset order */
+  protected final boolean ordered;
+
+  /** Creates the decoder of a worker */
+  protected final Supplier<ImageDecoder> decoderFactory;
+
+  /** Decoder of each worker, kept across epochs */
+  protected final ImageDecoder[] decoders;
+
+  /** Images decoded by each worker */
+  protected final AtomicLongArray decodedImages;
+
+  /** Time spent decoding by each worker in nanoseconds */
+  protected final AtomicLongArray decodeNanos;
+
+  /** Optional augmentation */
+  protected ImageAugmentation augmentation;
+
+  /** Seed of the augmentation */
+  protected long seed;
+
+  /** Current epoch, used to vary the augmentation */
+  protected int epoch = 0;
+
+  /** Order in which the images are visited in the current epoch, null for the dataset order */
+  protected int[] order;
+
+  /** Workers of the current epoch */
+  protected ExecutorService executor;
+
+  /** Worker index of the current thread */
+  protected ThreadLocal<Integer> workerIndex;
+
+  /** Pending batches in submission order (ordered mode) */
+  protected Deque<Future<DataSet>> pending;
+
+  /** Completed batches (unordered mode) */
+  protected CompletionService<DataSet> completed;
+
+  /** Number of submitted batches in this epoch */
+  protected int submitted;
+
+  /** Number of returned batches in this epoch */
+  protected int returned;
+
+  /** An optional dataset preprocessor */
+  protected DataSetPreProcessor preProcessor;
+
+  /**
+   * Constructs a new iterator.
+   *
+   * @param files Image files
+   * @param labels Label index of each image
+   * @param numLabels Number of labels
+   * @param labelNames Label names
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @param decoderFactory Creates the decoder of a worker
+   * @param batchSize The batch size
+   * @param numWorkers Number of decode workers
+   * @param ordered Whether batches are returned in the epoch order
+   */
+  public ParallelImageDataSetIterator(
+      File[] files,
+      int[] labels,
+      int numLabels,
+      List<String> labelNames,
+      int channels,
+      int height,
+      int width,
+      Supplier<ImageDecoder> decoderFactory,
+      int batchSize,
+      int numWorkers,
+      boolean ordered) {
+    this(
+        files,
+        files.length,
+        labels,
+        numLabels,
+        labelNames,
+        channels,
+        height,
+        width,
+        decoderFactory,
+        batchSize,
+        numWorkers,
+        ordered);
+  }
+
+  /**
+   * Constructor for subclasses that read the images from somewhere else than image files.
+   *
+   * @param files Image files, or null if {@link #readImage} is overridden
+   * @param numImages Number of images
+   * @param labels Label index of each image
+   * @param numLabels Number of labels
+   * @param labelNames Label names
+   * @param channels Number of channels
+   * @param height Image height
+   * @param width Image width
+   * @param decoderFactory Creates the decoder of a worker
+   * @param batchSize The batch size
+   * @param numWorkers Number of decode workers
+   * @param ordered Whether batches are returned in the epoch order
+   */
+  protected ParallelImageDataSetIterator(
+      File[] files,
+      int numImages,
+      int[] labels,
+      int numLabels,
+      List<String> labelNames,
+      int channels,
+      int height,
+      int width,
+      Supplier<ImageDecoder> decoderFactory,
+      int batchSize,
+      int numWorkers,
+      boolean ordered) {
+    this.files = files;
+    this.numImages = numImages;
+    this.labels = labels;
+    this.numLabels = numLabels;
+    this.labelNames = labelNames;
+    this.imageShape = new int[] {channels, height, width};
+    this.decoderFactory = decoderFactory;
+    this.batchSize = Math.max(1, Math.min(batchSize, numImages));
+    this.numWorkers = Math.max(1, numWorkers);
+    this.ordered = ordered;
+    this.decoders = new ImageDecoder[this.numWorkers];
+    this.decodedImages = new AtomicLongArray(this.numWorkers);
+    this.decodeNanos = new AtomicLongArray(this.numWorkers);
+  }
+
+  /**
+   * Augment the images of each epoch differently but reproducibly.
+   *
+   * @param augmentation Augmentation, or null to disable it
+   * @param seed Seed of the augmentation
+   */
+  public void setAugmentation(ImageAugmentation augmentation, long seed) {
+    this.augmentation = augmentation;
+    this.seed = seed;
+  }
+
+  /**
+   * Number of batches per epoch.
+   *
+   * @return Number of batches
+   */
+  protected int numBatches() {
+    return (numImages + batchSize - 1) / batchSize;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return returned < numBatches();
+  }
+
+  @Override
+  public DataSet next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    if (executor == null) {
+      startWorkers();
+    }
+
+    DataSet ds;
+    try {
+      ds = ordered ? pending.poll().get() : completed.take().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stopWorkers();
+      throw new RuntimeException("Interrupted while waiting for decoded images", e);
+    } catch (ExecutionException e) {
+      stopWorkers();
+      throw new RuntimeException("Could not decode images", e.getCause());
+    }
+    returned++;
+    submitBatches();
+    if (!hasNext()) {
+      stopWorkers();
+      if (log.isDebugEnabled()) {
+        log.debug("Decoded images/sec per worker: {}", Arrays.toString(getImagesPerSecond()));
+      }
+    }
+
+    if (preProcessor != null) {
+      preProcessor.preProcess(ds);
+    }
+    return ds;
+  }
+
+  /**
+   * Returns the next batch. The batch size is fixed since the workers assemble the batches ahead of
+   * time, so {@code num} is ignored.
+   *
+   * @param num Ignored
+   * @return Next batch
+   */
+  @Override
+  public DataSet next(int num) {
+    return next();
+  }
+
+  /** Start the workers of the current epoch and submit the first batches. */
+  protected void startWorkers() {
+    final AtomicInteger workerCount = new AtomicInteger();
+    final ThreadLocal<Integer> workerIndex = new ThreadLocal<>();
+    executor =
+        Executors.newFixedThreadPool(
+            numWorkers,
+            r -> {
+              final int index = workerCount.getAndIncrement();
+              Thread t =
+                  new Thread(
+                      () -> {
+                        workerIndex.set(index);
+                        r.run();
+                      },
+                      "image-decoder-" + index);
+              t.setDaemon(true);
+              return t;
+            });
+    pending = new ArrayDeque<>();
+    completed = new ExecutorCompletionService<>(executor);
+    submitted = 0;
+    order = computeOrder(epoch);
+    this.workerIndex = workerIndex;
+    submitBatches();
+  }
+
+  /**
+   * Compute the order in which the images are visited in an epoch.
+   *
+   * @param epoch Epoch
+   * @return Image indices, or null to visit the images in dataset order
+   */
+  protected int[] computeOrder(int epoch) {
+    return null;
+  }
+
+  /**
+   * Read the pixels of an image. Called by the workers.
+   *
+   * @param index Image index
+   * @param decoder Decoder of the worker
+   * @param pixels Destination
+   */
+  protected void readImage(int index, ImageDecoder decoder, byte[] pixels) {
+    decoder.decode(files[index], pixels);
+  }
+
+  /** Submit batches until the workers are the allowed number of batches ahead. */
+  protected void submitBatches() {
+    final int limit = Math.min(numBatches(), returned + numWorkers * BATCHES_AHEAD_PER_WORKER);
+    while (submitted < limit) {
+      final int batch = submitted++;
+      final int batchEpoch = epoch;
+      if (ordered) {
+        pending.add(executor.submit(() -> decodeBatch(batch, batchEpoch)));
+      } else {
+        completed.submit(() -> decodeBatch(batch, batchEpoch));
+      }
+    }
+  }
+
+  /**
+   * Stop the workers, discarding all batches that were not returned yet. Waits for running batches
+   * since the decoders are reused by the workers of the next epoch.
+   */
+  protected void stopWorkers() {
+    if (executor != null) {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      executor = null;
+      pending = null;
+      completed = null;
+    }
+  }
+
+  /**
+   * Decode a batch. Called by the workers.
+   *
+   * @param batch Batch index
+   * @param batchEpoch Epoch of the batch
+   * @return Batch
+   */
+  protected DataSet decodeBatch(int batch, int batchEpoch) {
+    final int worker = workerIndex.get();
+    ImageDecoder decoder = decoders[worker];
+    if (decoder == null) {
+      decoder = decoderFactory.get();
+      decoders[worker] = decoder;
+    }
+
+    final long start = System.nanoTime();
+    final int first = batch * batchSize;
+    final int count = Math.min(batchSize, numImages - first);
+    final int[] batchOrder = order;
+    final int imageSize = decoder.getImageSize();
+    final byte[] pixels = new byte[imageSize];
+    final float[] features = new float[count * imageSize];
+    final float[] batchLabels = new float[count * numLabels];
+    final boolean augment = augmentation != null && augmentation.isEnabled();
+    for (int i = 0; i < count; i++) {
+      final int index = batchOrder == null ? first + i : batchOrder[first + i];
+      readImage(index, decoder, pixels);
+      if (augment) {
+        augmentation.apply(
+            pixels,
+            features,
+            i * imageSize,
+            imageShape[0],
+            imageShape[1],
+            imageShape[2],
+            ImageAugmentation.random(seed, batchEpoch, index));
+      } else {
+        for (int p = 0; p < imageSize; p++) {
+          features[i * imageSize + p] = pixels[p] & 0xff;
+        }
+      }
+      batchLabels[i * numLabels + labels[index]] = 1;
+    }
+    decodedImages.addAndGet(worker, count);
+    decodeNanos.addAndGet(worker, System.nanoTime() - start);
+
+    long[] shape = {count, imageShape[0], imageShape[1], imageShape[2]};
+    return new DataSet(
+        Nd4j.create(features, shape, 'c'),
+        Nd4j.create(batchLabels, new long[] {count, numLabels}, 'c'));
+  }
+
+  /**
+   * Decoding throughput of each worker since the iterator was created.
+   *
+   * @return Images per second of each worker
+   */
+  public double[] getImagesPerSecond() {
+    double[] result = new double[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      final long nanos = decodeNanos.get(i);
+      result[i] = nanos == 0 ? 0 : decodedImages.get(i) * 1e9 / nanos;
+    }
+    return result;
+  }
+
+  @Override
+  public int inputColumns() {
+    return imageShape[0] * imageShape[1] * imageShape[2];
+  }
+
+  @Override
+  public int totalOutcomes() {
+    return numLabels;
+  }
+
+  @Override
+  public boolean resetSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean asyncSupported() {
+    // Batches are already prepared in the background
+    return false;
+  }
+
+  @Override
+  public void reset() {
+    stopWorkers();
+    returned = 0;
+    epoch++;
+  }
+
+  @Override
+  public int batch() {
+    return batchSize;
+  }
+
+  @Override
+  public DataSetPreProcessor getPreProcessor() {
+    return preProcessor;
+  }
+
+  @Override
+  public void setPreProcessor(DataSetPreProcessor preProcessor) {
+    this.preProcessor = preProcessor;
+  }
+
+  @Override
+  public List<String> getLabels() {
+    return labelNames;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,367 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PrefetchingDataSetIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+/**
+ * A DataSetIterator that builds the batches of another iterator ahead of time in background
+ * threads, so that the batch construction overlaps with the training. The batches are always
+ * returned in the order of the source iterator.
+ *
+ * <p>If the source is an {@link IndexedDataSetIterator}, several producer threads build different
+ * batches at the same time. Otherwise a single producer calls {@code next()} on the source. At most
+ * {@code queueSize} batches are built ahead of the consumer. The batches are kept in a ring of
+ * {@code queueSize + 1} slots and the arrays of a batch are reused for a later batch once the
+ * consumer has moved on, so a returned batch is only valid until the next call to {@link #next()}.
+ *
+ * <p>The producers are started with the first batch of an epoch and stopped after the last one, or
+ * when the iterator is reset.
+ *
+ * @author Steven Lang
+ */
+public class PrefetchingDataSetIterator implements DataSetIterator {
+
+  private static final long serialVersionUID = 2794370514727432163L;
+
+  /** The source iterator */
+  protected final DataSetIterator source;
+
+  /** Number of batches built ahead of the consumer */
+  protected final int queueSize;
+
+  /** Number of producer threads */
+  protected final int numProducers;
+
+  /** Batch slots, batch b is stored in slot b % slots.length */
+  protected final DataSet[] slots;
+
+  /** Index of the batch stored in each slot, -1 if the slot holds no batch of this epoch */
+  protected final int[] slotBatches;
+
+  /** Guards the state shared with the producers */
+  protected final Object lock = new Object();
+
+  /** Producers of the current epoch */
+  protected ExecutorService executor;
+
+  /** Incremented whenever the producers are stopped, so that stale producers exit */
+  protected int generation = 0;
+
+  /** Number of batches in this epoch, -1 while unknown */
+  protected int numBatches = -1;
+
+  /** Index of the next batch to be built */
+  protected int produced = 0;
+
+  /** Number of returned batches in this epoch */
+  protected int returned = 0;
+
+  /** Error of a producer */
+  protected Throwable failure;
+
+  /**
+   * Constructor.
+   *
+   * @param source Source iterator
+   * @param queueSize Number of batches built ahead of the consumer
+   * @param numProducers Number of producer threads, only used if the source is an {@link
+   *     IndexedDataSetIterator}
+   */
+  public PrefetchingDataSetIterator(DataSetIterator source, int queueSize, int numProducers) {
+    this.source = source;
+    this.queueSize = Math.max(1, queueSize);
+    this.numProducers = source instanceof IndexedDataSetIterator ? Math.max(1, numProducers) : 1;
+    this.slots = new DataSet[this.queueSize + 1];
+    this.slotBatches = new int[this.slots.length];
+  }
+
+  @Override
+  public boolean hasNext() {
+    synchronized (lock) {
+      if (executor == null && numBatches < 0) {
+        startProducers();
+      }
+      while (numBatches < 0 && failure == null && !isReady(returned)) {
+        await();
+      }
+      checkFailure();
+      return numBatches < 0 || returned < numBatches;
+    }
+  }
+
+  @Override
+  public DataSet next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    DataSet ds;
+    boolean done;
+    synchronized (lock) {
+      while (failure == null && !isReady(returned)) {
+        await();
+      }
+      checkFailure();
+      ds = slots[returned % slots.length];
+      returned++;
+      done = numBatches >= 0 && returned >= numBatches;
+      lock.notifyAll();
+    }
+    if (done) {
+      stopProducers();
+    }
+    return ds;
+  }
+
+  /**
+   * Returns the next batches merged into a single batch of at most {@code num} examples, or of a
+   * single batch if that is larger already. The batches of the source are never split.
+   *
+   * @param num Maximum number of examples
+   * @return Next batch
+   */
+  @Override
+  public DataSet next(int num) {
+    List<DataSet> batches = new ArrayList<>();
+    DataSet ds = next();
+    int count = ds.numExamples();
+    while (count + batch() <= num && hasNext()) {
+      // The arrays of a batch may be reused as soon as the next batch is taken
+      batches.add(ds.copy());
+      ds = next();
+      count += ds.numExamples();
+    }
+    batches.add(ds);
+    return batches.size() == 1 ? ds : DataSet.merge(batches);
+  }
+
+  /**
+   * Whether the given batch is stored in its slot.
+   *
+   * @param batch Batch index
+   * @return True if the batch was built
+   */
+  protected boolean isReady(int batch) {
+    return slotBatches[batch % slots.length] == batch;
+  }
+
+  /** Start the producers of the current epoch. Must hold the lock. */
+  protected void startProducers() {
+    Arrays.fill(slotBatches, -1);
+    produced = 0;
+    returned = 0;
+    failure = null;
+    numBatches =
+        source instanceof IndexedDataSetIterator
+            ? ((IndexedDataSetIterator) source).numBatches()
+            : -1;
+    final int producerGeneration = generation;
+    final AtomicInteger producerCount = new AtomicInteger();
+    executor =
+        Executors.newFixedThreadPool(
+            numProducers,
+            r -> {
+              Thread t = new Thread(r, "dataset-prefetcher-" + producerCount.getAndIncrement());
+              t.setDaemon(true);
+              return t;
+            });
+    for (int i = 0; i < numProducers; i++) {
+      executor.execute(() -> produce(producerGeneration));
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * Build batches until the epoch is complete or the producers are stopped.
+   *
+   * @param producerGeneration Generation the producer was started in
+   */
+  protected void produce(int producerGeneration) {
+    try {
+      while (true) {
+        final int batch;
+        final DataSet reuse;
+        synchronized (lock) {
+          while (generation == producerGeneration
+              && (numBatches < 0 || produced < numBatches)
+              && produced >= returned + queueSize) {
+            lock.wait();
+          }
+          if (generation != producerGeneration || (numBatches >= 0 && produced >= numBatches)) {
+            return;
+          }
+          batch = produced++;
+          // The slot holds a batch the consumer has moved past already
+          reuse = slots[batch % slots.length];
+        }
+
+        DataSet ds;
+        if (source instanceof IndexedDataSetIterator) {
+          ds = ((IndexedDataSetIterator) source).batch(batch, reuse);
+        } else if (source.hasNext()) {
+          ds = source.next();
+        } else {
+          ds = null;
+        }
+
+        synchronized (lock) {
+          if (generation != producerGeneration) {
+            return;
+          }
+          if (ds == null) {
+            numBatches = batch;
+          } else {
+            slots[batch % slots.length] = ds;
+            slotBatches[batch % slots.length] = batch;
+          }
+          lock.notifyAll();
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stopped
+    } catch (Throwable t) {
+      synchronized (lock) {
+        if (generation == producerGeneration) {
+          failure = t;
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop the producers, discarding all batches that were not returned yet. Waits for running
+   * producers since the source must not be used concurrently with a reset.
+   */
+  protected void stopProducers() {
+    ExecutorService stopped;
+    synchronized (lock) {
+      stopped = executor;
+      executor = null;
+      generation++;
+      lock.notifyAll();
+    }
+    if (stopped != null) {
+      stopped.shutdownNow();
+      try {
+        stopped.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Wait for a producer. Must hold the lock. */
+  protected void await() {
+    try {
+      lock.wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the next batch", e);
+    }
+  }
+
+  /** Rethrow the error of a producer. Must hold the lock. */
+  protected void checkFailure() {
+    if (failure != null) {
+      throw new RuntimeException("Could not prefetch the next batch", failure);
+    }
+  }
+
+  /**
+   * Number of producer threads, which is one unless the source is an {@link
+   * IndexedDataSetIterator}.
+   *
+   * @return Number of producer threads
+   */
+  public int getNumProducers() {
+    return numProducers;
+  }
+
+  @Override
+  public void reset() {
+    stopProducers();
+    source.reset();
+    synchronized (lock) {
+      numBatches = -1;
+      returned = 0;
+    }
+  }
+
+  @Override
+  public int inputColumns() {
+    return source.inputColumns();
+  }
+
+  @Override
+  public int totalOutcomes() {
+    return source.totalOutcomes();
+  }
+
+  @Override
+  public boolean resetSupported() {
+    return source.resetSupported();
+  }
+
+  @Override
+  public boolean asyncSupported() {
+    // Batches are already prepared in the background
+    return false;
+  }
+
+  @Override
+  public int batch() {
+    return source.batch();
+  }
+
+  /**
+   * Sets the preprocessor of the source, which is applied by the producers.
+   *
+   * @param preProcessor Preprocessor
+   */
+  @Override
+  public void setPreProcessor(DataSetPreProcessor preProcessor) {
+    source.setPreProcessor(preProcessor);
+  }
+
+  @Override
+  public DataSetPreProcessor getPreProcessor() {
+    return source.getPreProcessor();
+  }
+
+  @Override
+  public List<String> getLabels() {
+    return source.getLabels();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
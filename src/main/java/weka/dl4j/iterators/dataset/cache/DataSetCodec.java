@@ -0,0 +1,333 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * DataSetCodec.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.dl4j.CacheCompression;
+
+/**
+ * Compact binary encoding of {@link DataSet} mini batches. Arrays are written as raw little endian
+ * values in 'c' order, which makes encoding and decoding a bulk copy. Optionally the whole batch is
+ * LZ4 compressed or the features are stored as half precision floats.
+ *
+ * @author Steven Lang
+ */
+public class DataSetCodec {
+
+  /** Magic number of the encoding */
+  protected static final int MAGIC = 0x444c3443;
+
+  /** Value types */
+  protected static final byte TYPE_FLOAT = 0, TYPE_DOUBLE = 1, TYPE_HALF = 2;
+
+  /** Compression of the encoding */
+  protected final CacheCompression compression;
+
+  /**
+   * Constructor.
+   *
+   * @param compression Compression of the encoding
+   */
+  public DataSetCodec(CacheCompression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Encode a dataset.
+   *
+   * @param ds Dataset
+   * @return Encoded bytes
+   * @throws IOException Encoding failed
+   */
+  public byte[] encode(DataSet ds) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(estimateSize(ds));
+    if (compression == CacheCompression.LZ4) {
+      try (OutputStream out = new FramedLZ4CompressorOutputStream(bytes)) {
+        write(ds, out);
+      }
+    } else {
+      write(ds, bytes);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decode a dataset.
+   *
+   * @param bytes Encoded bytes
+   * @return Dataset
+   * @throws IOException Decoding failed
+   */
+  public DataSet decode(byte[] bytes) throws IOException {
+    if (compression == CacheCompression.LZ4) {
+      try (InputStream in = new FramedLZ4CompressorInputStream(new ByteArrayInputStream(bytes))) {
+        return read(ByteBuffer.wrap(IOUtils.toByteArray(in)));
+      }
+    }
+    return read(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Decode a dataset from a buffer (e.g. a direct buffer of the memory tier). The buffer position
+   * is not modified.
+   *
+   * @param buffer Encoded bytes
+   * @return Dataset
+   * @throws IOException Decoding failed
+   */
+  public DataSet decode(ByteBuffer buffer) throws IOException {
+    if (compression == CacheCompression.LZ4) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return decode(bytes);
+    }
+    return read(buffer.duplicate());
+  }
+
+  /**
+   * Number of bytes of the uncompressed encoding.
+   *
+   * @param ds Dataset
+   * @return Size in bytes
+   */
+  public static int estimateSize(DataSet ds) {
+    long size = 8;
+    for (INDArray arr : arrays(ds)) {
+      size += 2;
+      if (arr != null) {
+        int valueSize = arr.data().dataType() == DataBuffer.Type.DOUBLE ? 8 : 4;
+        size += 8 * arr.rank() + arr.length() * valueSize;
+      }
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE - 8);
+  }
+
+  /**
+   * Get the arrays of a dataset in encoding order.
+   *
+   * @param ds Dataset
+   * @return Features, labels, features mask, labels mask
+   */
+  protected static INDArray[] arrays(DataSet ds) {
+    return new INDArray[] {
+      ds.getFeatures(), ds.getLabels(), ds.getFeaturesMaskArray(), ds.getLabelsMaskArray()
+    };
+  }
+
+  /**
+   * Write the dataset.
+   *
+   * @param ds Dataset
+   * @param out Output stream
+   * @throws IOException Writing failed
+   */
+  protected void write(DataSet ds, OutputStream out) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(compression.ordinal());
+    out.write(header.array());
+
+    INDArray[] arrays = arrays(ds);
+    for (int i = 0; i < arrays.length; i++) {
+      // Only the features are downcast, labels of regression tasks must stay exact
+      boolean half = i == 0 && compression == CacheCompression.FLOAT16;
+      writeArray(arrays[i], half, out);
+    }
+  }
+
+  /**
+   * Write a single array.
+   *
+   * @param arr Array (may be null)
+   * @param half Whether to store the values as half precision floats
+   * @param out Output stream
+   * @throws IOException Writing failed
+   */
+  protected void writeArray(INDArray arr, boolean half, OutputStream out) throws IOException {
+    if (arr == null) {
+      out.write(new byte[] {0, 0});
+      return;
+    }
+    final boolean isDouble = arr.data().dataType() == DataBuffer.Type.DOUBLE;
+    final byte type = half ? TYPE_HALF : (isDouble ? TYPE_DOUBLE : TYPE_FLOAT);
+    final long[] shape = arr.shape();
+    final int length = (int) arr.length();
+    final int valueSize = type == TYPE_HALF ? 2 : (type == TYPE_DOUBLE ? 8 : 4);
+
+    ByteBuffer buf =
+        ByteBuffer.allocate(2 + 8 * shape.length + valueSize * length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    buf.put((byte) 1).put((byte) (shape.length << 2 | type));
+    for (long s : shape) {
+      buf.putLong(s);
+    }
+
+    // Make sure that the values are in 'c' order
+    INDArray c = arr.ordering() == 'c' && !arr.isView() ? arr : arr.dup('c');
+    if (type == TYPE_DOUBLE) {
+      buf.asDoubleBuffer().put(c.data().asDouble(), 0, length);
+    } else {
+      float[] values = c.data().asFloat();
+      if (type == TYPE_HALF) {
+        for (int k = 0; k < length; k++) {
+          buf.putShort(2 + 8 * shape.length + 2 * k, toHalf(values[k]));
+        }
+      } else {
+        buf.asFloatBuffer().put(values, 0, length);
+      }
+    }
+    out.write(buf.array());
+  }
+
+  /**
+   * Read a dataset.
+   *
+   * @param buf Buffer positioned at the start of the encoding
+   * @return Dataset
+   * @throws IOException Invalid encoding
+   */
+  protected DataSet read(ByteBuffer buf) throws IOException {
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    if (buf.getInt() != MAGIC) {
+      throw new IOException("Invalid dataset encoding");
+    }
+    buf.getInt(); // Compression, already known from the configuration
+
+    INDArray[] arrays = new INDArray[4];
+    for (int i = 0; i < arrays.length; i++) {
+      arrays[i] = readArray(buf);
+    }
+    return new DataSet(arrays[0], arrays[1], arrays[2], arrays[3]);
+  }
+
+  /**
+   * Read a single array.
+   *
+   * @param buf Buffer positioned at the start of the array
+   * @return Array or null
+   */
+  protected INDArray readArray(ByteBuffer buf) {
+    if (buf.get() == 0) {
+      buf.get();
+      return null;
+    }
+    final int meta = buf.get();
+    final int rank = meta >> 2;
+    final int type = meta & 3;
+    final long[] shape = new long[rank];
+    long length = 1;
+    for (int i = 0; i < rank; i++) {
+      shape[i] = buf.getLong();
+      length *= shape[i];
+    }
+
+    final int n = (int) length;
+    if (type == TYPE_DOUBLE) {
+      double[] values = new double[n];
+      buf.asDoubleBuffer().get(values);
+      buf.position(buf.position() + 8 * n);
+      return Nd4j.create(values, shape, 'c');
+    }
+
+    float[] values = new float[n];
+    if (type == TYPE_HALF) {
+      for (int k = 0; k < n; k++) {
+        values[k] = fromHalf(buf.getShort());
+      }
+    } else {
+      buf.asFloatBuffer().get(values);
+      buf.position(buf.position() + 4 * n);
+    }
+    return Nd4j.create(values, shape, 'c');
+  }
+
+  /**
+   * Convert a float to IEEE 754 half precision (rounded to the nearest value).
+   *
+   * @param value Float value
+   * @return Half precision bits
+   */
+  public static short toHalf(float value) {
+    final int bits = Float.floatToIntBits(value);
+    final int sign = (bits >>> 16) & 0x8000;
+    int val = (bits & 0x7fffffff) + 0x1000; // Rounded magnitude
+
+    if (val >= 0x47800000) { // Overflow, infinity or NaN
+      if ((bits & 0x7fffffff) >= 0x47800000) {
+        if (val < 0x7f800000) {
+          return (short) (sign | 0x7c00); // Infinity
+        }
+        return (short) (sign | 0x7c00 | (bits & 0x007fffff) >>> 13); // NaN / infinity
+      }
+      return (short) (sign | 0x7bff); // Largest finite value
+    }
+    if (val >= 0x38800000) { // Normal number
+      return (short) (sign | val - 0x38000000 >>> 13);
+    }
+    if (val < 0x33000000) { // Too small for a subnormal
+      return (short) sign;
+    }
+    val = (bits & 0x7fffffff) >>> 23; // Subnormal
+    return (short)
+        (sign
+            | ((bits & 0x7fffff | 0x800000) + (0x800000 >>> val - 102) >>> 126 - val));
+  }
+
+  /**
+   * Convert IEEE 754 half precision bits to a float.
+   *
+   * @param half Half precision bits
+   * @return Float value
+   */
+  public static float fromHalf(short half) {
+    final int h = half & 0xffff;
+    final int sign = (h & 0x8000) << 16;
+    int exp = (h >>> 10) & 0x1f;
+    int mantissa = h & 0x3ff;
+
+    if (exp == 0x1f) { // Infinity or NaN
+      return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+    }
+    if (exp == 0) {
+      if (mantissa == 0) {
+        return Float.intBitsToFloat(sign);
+      }
+      // Subnormal: normalize
+      exp = 1;
+      while ((mantissa & 0x400) == 0) {
+        mantissa <<= 1;
+        exp--;
+      }
+      mantissa &= 0x3ff;
+    }
+    return Float.intBitsToFloat(sign | (exp + 112) << 23 | mantissa << 13);
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * DecodedImageCache.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * A persistent cache of decoded images. All images of one shard have the same size (e.g. after
+ * resizing to the target shape) and are stored as {@code uint8} pixels in fixed size slots of a
+ * memory-mapped shard file. An append-only index maps the image path and its modification time to
+ * the slot. Modified images are decoded again and stored in a new slot.
+ *
+ * <p>Appends are guarded by a lock on the index file, so multiple processes can share a cache
+ * directory.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class DecodedImageCache {
+
+  /** Shard file suffix */
+  protected static final String SHARD_SUFFIX = ".bin";
+
+  /** Index file suffix */
+  protected static final String INDEX_SUFFIX = ".idx";
+
+  /** Maximum size of a single mapped region of the shard */
+  protected static final long MAX_CHUNK_SIZE = 1L << 28;
+
+  /** Open caches, there must be only one instance per shard in a JVM (see {@link FileLock}) */
+  protected static final Map<File, DecodedImageCache> OPEN_CACHES = new HashMap<>();
+
+  /** Shard file */
+  protected final File shardFile;
+
+  /** Index file */
+  protected final File indexFile;
+
+  /** Size of a single image in bytes */
+  protected final int slotSize;
+
+  /** Number of slots per mapped chunk */
+  protected final int slotsPerChunk;
+
+  /** Slot and modification time of each image */
+  protected final Map<String, Entry> index = new HashMap<>();
+
+  /** Mapped chunks of the shard */
+  protected final List<ByteBuffer> chunks = new ArrayList<>();
+
+  /** Number of index bytes read so far */
+  protected long indexPosition = 0;
+
+  /**
+   * Get the cache of the given shard.
+   *
+   * @param directory Cache directory
+   * @param shardName Name of the shard, which must identify the image shape and decoding
+   * @param slotSize Size of a single image in bytes
+   * @return Cache
+   * @throws IOException Cache could not be opened
+   */
+  public static synchronized DecodedImageCache open(File directory, String shardName, int slotSize)
+      throws IOException {
+    File shard = new File(directory, shardName + SHARD_SUFFIX).getCanonicalFile();
+    DecodedImageCache cache = OPEN_CACHES.get(shard);
+    if (cache == null) {
+      cache = new DecodedImageCache(shard, slotSize);
+      OPEN_CACHES.put(shard, cache);
+    } else if (cache.slotSize != slotSize) {
+      throw new IOException("Shard " + shard + " has slots of " + cache.slotSize + " bytes");
+    }
+    return cache;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param shardFile Shard file
+   * @param slotSize Size of a single image in bytes
+   * @throws IOException Cache could not be opened
+   */
+  protected DecodedImageCache(File shardFile, int slotSize) throws IOException {
+    this.shardFile = shardFile;
+    this.indexFile =
+        new File(
+            shardFile.getParentFile(),
+            shardFile.getName().replace(SHARD_SUFFIX, "") + INDEX_SUFFIX);
+    this.slotSize = slotSize;
+    this.slotsPerChunk = (int) Math.max(1, MAX_CHUNK_SIZE / slotSize);
+    Files.createDirectories(shardFile.getParentFile().toPath());
+    refreshIndex();
+  }
+
+  /**
+   * Read the pixels of an image.
+   *
+   * @param path Absolute image path
+   * @param lastModified Modification time of the image
+   * @param pixels Destination of size {@link #getSlotSize()}
+   * @return True if the image was in the cache and up to date
+   * @throws IOException Cache could not be read
+   */
+  public synchronized boolean get(String path, long lastModified, byte[] pixels)
+      throws IOException {
+    Entry entry = index.get(path);
+    if (entry == null || entry.lastModified != lastModified) {
+      // The image may have been added by another process
+      refreshIndex();
+      entry = index.get(path);
+      if (entry == null || entry.lastModified != lastModified) {
+        return false;
+      }
+    }
+    ByteBuffer slot = chunk(entry.slot).duplicate();
+    slot.position((int) (entry.slot % slotsPerChunk) * slotSize);
+    slot.get(pixels, 0, slotSize);
+    return true;
+  }
+
+  /**
+   * Store the pixels of an image.
+   *
+   * @param path Absolute image path
+   * @param lastModified Modification time of the image
+   * @param pixels Pixels of size {@link #getSlotSize()}
+   * @throws IOException Cache could not be written
+   */
+  public synchronized void put(String path, long lastModified, byte[] pixels) throws IOException {
+    if (pixels.length != slotSize) {
+      throw new IllegalArgumentException(
+          "Expected " + slotSize + " bytes but got " + pixels.length);
+    }
+    try (FileChannel indexChannel =
+            FileChannel.open(
+                indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileChannel shard =
+            FileChannel.open(
+                shardFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      // Released when the index channel is closed
+      indexChannel.lock();
+      refreshIndex();
+      Entry existing = index.get(path);
+      if (existing != null && existing.lastModified == lastModified) {
+        return; // Added by another process in the meantime
+      }
+
+      // Drop a record that was only partially written (e.g. a crashed process)
+      indexChannel.truncate(indexPosition);
+
+      final long slot = shard.size() / slotSize;
+      ByteBuffer data = ByteBuffer.wrap(pixels);
+      while (data.hasRemaining()) {
+        shard.write(data, slot * slotSize + data.position());
+      }
+
+      ByteArrayOutputStream record = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(record)) {
+        out.writeUTF(path);
+        out.writeLong(lastModified);
+        out.writeLong(slot);
+      }
+      ByteBuffer recordBuffer = ByteBuffer.wrap(record.toByteArray());
+      while (recordBuffer.hasRemaining()) {
+        indexChannel.write(recordBuffer, indexPosition + recordBuffer.position());
+      }
+      indexPosition += record.size();
+      index.put(path, new Entry(lastModified, slot));
+    }
+  }
+
+  /**
+   * Read the index records appended since the last refresh.
+   *
+   * @throws IOException Index could not be read
+   */
+  protected void refreshIndex() throws IOException {
+    if (!indexFile.exists() || indexFile.length() <= indexPosition) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      channel.position(indexPosition);
+      DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+      final long length = channel.size();
+      long position = indexPosition;
+      while (position < length) {
+        try {
+          final String path = in.readUTF();
+          final long lastModified = in.readLong();
+          final long slot = in.readLong();
+          index.put(path, new Entry(lastModified, slot));
+          position = channel.position();
+        } catch (EOFException e) {
+          break; // Incomplete record
+        }
+      }
+      indexPosition = position;
+    }
+  }
+
+  /**
+   * Get the mapped chunk containing the given slot, mapping (or remapping) it if necessary.
+   *
+   * @param slot Slot
+   * @return Chunk
+   * @throws IOException Shard could not be mapped
+   */
+  protected ByteBuffer chunk(long slot) throws IOException {
+    final int chunkIndex = (int) (slot / slotsPerChunk);
+    final long requiredSize = (slot % slotsPerChunk + 1) * slotSize;
+    while (chunks.size() <= chunkIndex) {
+      chunks.add(null);
+    }
+    ByteBuffer chunk = chunks.get(chunkIndex);
+    if (chunk == null || chunk.capacity() < requiredSize) {
+      try (FileChannel channel = FileChannel.open(shardFile.toPath(), StandardOpenOption.READ)) {
+        final long start = (long) chunkIndex * slotsPerChunk * slotSize;
+        final long size = Math.min((long) slotsPerChunk * slotSize, channel.size() - start);
+        chunk = channel.map(MapMode.READ_ONLY, start, size);
+      }
+      chunks.set(chunkIndex, chunk);
+    }
+    return chunk;
+  }
+
+  /**
+   * Size of a single image in bytes.
+   *
+   * @return Slot size
+   */
+  public int getSlotSize() {
+    return slotSize;
+  }
+
+  /**
+   * Number of cached images.
+   *
+   * @return Number of images
+   */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /** Slot and modification time of a cached image */
+  protected static class Entry {
+
+    /** Modification time of the image when it was decoded */
+    final long lastModified;
+
+    /** Slot in the shard */
+    final long slot;
+
+    /**
+     * Constructor.
+     *
+     * @param lastModified Modification time
+     * @param slot Slot
+     */
+    Entry(long lastModified, long slot) {
+      this.lastModified = lastModified;
+      this.slot = slot;
+    }
+  }
+}
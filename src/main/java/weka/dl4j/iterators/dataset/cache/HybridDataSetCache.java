@@ -0,0 +1,363 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * HybridDataSetCache.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.stream.Stream;
+import lombok.extern.log4j.Log4j2;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.cache.DataSetCache;
+import weka.dl4j.CacheCompression;
+
+/**
+ * A {@link DataSetCache} that keeps batches in off-heap memory up to a byte budget and spills the
+ * remaining batches to disk, optionally compressed. While batches are read sequentially, the
+ * spilled batches following the current one are read and decoded ahead by a background thread.
+ *
+ * <p>The spilled batches live in a temporary directory that is removed recursively on {@link
+ * #close()} or, if the cache is not closed, by a shutdown hook when the JVM exits.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class HybridDataSetCache implements DataSetCache, Closeable {
+
+  /** Batches held in off-heap memory */
+  protected final Map<String, ByteBuffer> memory = new ConcurrentHashMap<>();
+
+  /** Batches that were spilled to disk */
+  protected final Map<String, Path> spilled = new ConcurrentHashMap<>();
+
+  /** Spilled batches that are being read ahead */
+  protected final Map<String, Future<DataSet>> prefetched = new ConcurrentHashMap<>();
+
+  /** Namespaces for which all batches have been put */
+  protected final Set<String> completeNamespaces = ConcurrentHashMap.newKeySet();
+
+  /** Codec of the in-memory batches */
+  protected final DataSetCodec memoryCodec = new DataSetCodec(CacheCompression.NONE);
+
+  /** Codec of the spilled batches */
+  protected final DataSetCodec spillCodec;
+
+  /** Memory budget in bytes */
+  protected final long memoryBudget;
+
+  /** Number of spilled batches to read ahead */
+  protected final int prefetchDepth;
+
+  /** Directory of the spilled batches */
+  protected final Path spillDir;
+
+  /** Background reader of spilled batches */
+  protected final ExecutorService prefetcher;
+
+  /** Removes the spill directory when the JVM exits, only refers to the directory */
+  protected final Thread cleanupHook;
+
+  /** Bytes currently held in memory */
+  protected long memoryUsed = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param memoryBudget Off-heap memory budget in bytes
+   * @param compression Compression of the spilled batches
+   * @param spillRoot Directory in which the temporary spill directory is created
+   * @param prefetchDepth Number of spilled batches to read ahead
+   */
+  public HybridDataSetCache(
+      long memoryBudget, CacheCompression compression, File spillRoot, int prefetchDepth) {
+    this.memoryBudget = memoryBudget;
+    this.spillCodec = new DataSetCodec(compression);
+    this.prefetchDepth = prefetchDepth;
+    try {
+      Files.createDirectories(spillRoot.toPath());
+      this.spillDir = Files.createTempDirectory(spillRoot.toPath(), "hybrid-cache-");
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create spill directory in " + spillRoot, e);
+    }
+    final Path dir = this.spillDir;
+    this.cleanupHook = new Thread(() -> delete(dir), "hybrid-cache-cleanup");
+    Runtime.getRuntime().addShutdownHook(cleanupHook);
+    this.prefetcher =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread t = new Thread(r, "hybrid-cache-prefetch");
+              t.setDaemon(true);
+              return t;
+            });
+  }
+
+  @Override
+  public boolean isComplete(String namespace) {
+    return completeNamespaces.contains(namespace);
+  }
+
+  @Override
+  public void setComplete(String namespace, boolean value) {
+    if (value) {
+      completeNamespaces.add(namespace);
+      log.debug(
+          "Cached namespace {}: {} MB in memory, {} batches spilled to disk",
+          namespace, memoryUsed / 1024 / 1024, spilled.size());
+    } else {
+      completeNamespaces.remove(namespace);
+    }
+  }
+
+  @Override
+  public DataSet get(String key) {
+    prefetchAfter(key);
+    try {
+      ByteBuffer inMemory = memory.get(key);
+      if (inMemory != null) {
+        return memoryCodec.decode(inMemory);
+      }
+
+      Future<DataSet> future = prefetched.remove(key);
+      if (future != null) {
+        return future.get();
+      }
+      return readSpilled(key);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read cached batch " + key, e);
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException("Could not read cached batch " + key, e);
+    }
+  }
+
+  @Override
+  public void put(String key, DataSet dataSet) {
+    try {
+      final int size = DataSetCodec.estimateSize(dataSet);
+      synchronized (this) {
+        if (memoryUsed + size <= memoryBudget) {
+          ByteBuffer buffer = allocate(size);
+          if (buffer != null) {
+            memoryCodec.write(dataSet, new ByteBufferOutputStream(buffer));
+            buffer.flip();
+            memory.put(key, buffer);
+            memoryUsed += size;
+            return;
+          }
+        }
+      }
+
+      Path file = spillDir.resolve(key);
+      Files.write(file, spillCodec.encode(dataSet));
+      spilled.put(key, file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not cache batch " + key, e);
+    }
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return memory.containsKey(key) || spilled.containsKey(key);
+  }
+
+  /**
+   * Get the number of bytes currently held in memory.
+   *
+   * @return Bytes held in memory
+   */
+  public long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  /**
+   * Get the number of batches spilled to disk.
+   *
+   * @return Number of spilled batches
+   */
+  public int getNumSpilled() {
+    return spilled.size();
+  }
+
+  /**
+   * Get the number of spilled batches that are read ahead.
+   *
+   * @return Number of read-ahead batches
+   */
+  public int getNumPrefetched() {
+    return prefetched.size();
+  }
+
+  /**
+   * Get the directory of the spilled batches.
+   *
+   * @return Spill directory
+   */
+  public Path getSpillDir() {
+    return spillDir;
+  }
+
+  /** Stop the prefetcher, release the memory and remove all spilled batches. */
+  @Override
+  public void close() {
+    prefetcher.shutdownNow();
+    memory.clear();
+    spilled.clear();
+    prefetched.clear();
+    memoryUsed = 0;
+    delete(spillDir);
+    try {
+      Runtime.getRuntime().removeShutdownHook(cleanupHook);
+    } catch (IllegalStateException e) {
+      // The JVM is already shutting down and runs the hook anyway
+    }
+  }
+
+  /**
+   * Remove a spill directory and all its files.
+   *
+   * @param dir Spill directory
+   */
+  protected static void delete(Path dir) {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    } catch (IOException e) {
+      log.warn("Could not remove spill directory {}", dir);
+    }
+  }
+
+  /**
+   * Allocate an off-heap buffer.
+   *
+   * @param size Size in bytes
+   * @return Buffer or null if the direct memory of the JVM is exhausted
+   */
+  protected ByteBuffer allocate(int size) {
+    try {
+      return ByteBuffer.allocateDirect(size);
+    } catch (OutOfMemoryError e) {
+      log.warn(
+          "Direct memory exhausted after {} MB, spilling to disk. Increase "
+              + "-XX:MaxDirectMemorySize to use the full memory budget.",
+          memoryUsed / 1024 / 1024);
+      return null;
+    }
+  }
+
+  /**
+   * Read and decode a spilled batch.
+   *
+   * @param key Batch key
+   * @return Batch
+   * @throws IOException Batch could not be read
+   */
+  protected DataSet readSpilled(String key) throws IOException {
+    Path file = spilled.get(key);
+    if (file == null) {
+      throw new IOException("Batch " + key + " is not in the cache");
+    }
+    return spillCodec.decode(Files.readAllBytes(file));
+  }
+
+  /**
+   * Schedule reading the spilled batches following the given key.
+   *
+   * @param key Key of the current batch
+   */
+  protected void prefetchAfter(String key) {
+    if (spilled.isEmpty() || prefetchDepth <= 0) {
+      return;
+    }
+    Matcher m = PersistentDataSetCache.KEY_PATTERN.matcher(key);
+    if (!m.matches()) {
+      return;
+    }
+    final String namespace = m.group(1);
+    final int index = Integer.parseInt(m.group(2));
+
+    // Drop read-ahead batches of this namespace that were skipped (e.g. after a reset), other
+    // namespaces may be read in turns, e.g. the training and validation data
+    Set<String> wanted = new HashSet<>();
+    for (int i = index + 1; i <= index + prefetchDepth; i++) {
+      wanted.add(String.format("data-set-cache-%s-%06d.bin", namespace, i));
+    }
+    prefetched
+        .keySet()
+        .removeIf(k -> !wanted.contains(k) && !k.equals(key) && isInNamespace(k, namespace));
+
+    for (String next : wanted) {
+      if (spilled.containsKey(next) && !prefetched.containsKey(next)) {
+        prefetched.put(next, prefetcher.submit(() -> readSpilled(next)));
+      }
+    }
+  }
+
+  /**
+   * Check whether a batch key belongs to a namespace.
+   *
+   * @param key Batch key
+   * @param namespace Namespace
+   * @return True if the key is a batch of the namespace
+   */
+  protected static boolean isInNamespace(String key, String namespace) {
+    Matcher m = PersistentDataSetCache.KEY_PATTERN.matcher(key);
+    return m.matches() && m.group(1).equals(namespace);
+  }
+
+  /** Output stream that writes into a byte buffer. */
+  protected static class ByteBufferOutputStream extends java.io.OutputStream {
+
+    /** Target buffer */
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer Target buffer
+     */
+    ByteBufferOutputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buffer.put(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,421 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PersistentDataSetCache.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.log4j.Log4j2;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.cache.DataSetCache;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.dl4j.FileUtils;
+
+/**
+ * A content-addressed {@link DataSetCache} that persists mini batches on disk and shares them
+ * across runs and processes.
+ *
+ * <p>Each cache namespace (see {@link #computeKey(Instances, OptionHandler, int, int)}) is stored
+ * in its own directory. Batches are written to a temporary file and atomically moved into place,
+ * and a namespace is only read once its completion marker exists, so concurrent writers and
+ * readers never see partial files. The total size of the cache is bounded by evicting the least
+ * recently used namespaces.
+ *
+ * <p>The cache can be maintained from the command line:
+ *
+ * <pre>
+ * java weka.dl4j.iterators.dataset.cache.PersistentDataSetCache -dir &lt;cache dir&gt;
+ *   [-list | -evict &lt;max size in MB&gt; | -clear]
+ * </pre>
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class PersistentDataSetCache implements DataSetCache {
+
+  /** Version of the key and file format. Bump to invalidate all existing entries. */
+  public static final int FORMAT_VERSION = 1;
+
+  /** Name of the completion marker file in a namespace directory */
+  public static final String COMPLETE_MARKER = "COMPLETE";
+
+  /** Namespaces that were used within this period are never evicted */
+  public static final long EVICTION_GRACE_MILLIS = 60 * 60 * 1000L;
+
+  /** Incomplete namespaces (e.g. from crashed runs) older than this are removed on eviction */
+  public static final long STALE_INCOMPLETE_MILLIS = 24 * 60 * 60 * 1000L;
+
+  /** Key format used by {@link org.nd4j.linalg.dataset.api.iterator.CachingDataSetIterator} */
+  protected static final Pattern KEY_PATTERN = Pattern.compile("data-set-cache-(.+)-(\\d+)\\.bin");
+
+  /** Root directory of the cache */
+  protected final Path root;
+
+  /** Maximum size of the cache in bytes (non-positive: unbounded) */
+  protected final long maxSizeBytes;
+
+  /**
+   * Constructor.
+   *
+   * @param root Root directory of the cache
+   * @param maxSizeBytes Maximum size of the cache in bytes (non-positive: unbounded)
+   */
+  public PersistentDataSetCache(File root, long maxSizeBytes) {
+    this.root = root.toPath();
+    this.maxSizeBytes = maxSizeBytes;
+    try {
+      Files.createDirectories(this.root);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create cache directory " + root, e);
+    }
+  }
+
+  /**
+   * Compute the cache namespace for the given data and iterator configuration. The key covers all
+   * attribute values, instance weights and the header, the iterator class and its options, the seed
+   * and the batch size. Files referenced by the instances (e.g. images) are identified by their
+   * path only.
+   *
+   * @param data Instances that are converted by the iterator
+   * @param iterator Instance iterator configuration
+   * @param seed Seed passed to the iterator
+   * @param batchSize Batch size of the generated batches
+   * @return Hex encoded SHA-256 key
+   */
+  public static String computeKey(Instances data, OptionHandler iterator, int seed,
+      int batchSize) {
+    MessageDigest md = FileUtils.sha256();
+
+    StringBuilder config = new StringBuilder();
+    config.append(FORMAT_VERSION).append('\n');
+    config.append(iterator.getClass().getName()).append('\n');
+    config.append(Utils.joinOptions(iterator.getOptions())).append('\n');
+    config.append(seed).append('\n').append(batchSize).append('\n');
+    config.append(new Instances(data, 0).toString()).append('\n');
+    md.update(config.toString().getBytes(StandardCharsets.UTF_8));
+
+    // String and relational values are only indices into the header, hash their contents instead
+    final int numAttributes = data.numAttributes();
+    final boolean[] hashAsString = new boolean[numAttributes];
+    for (int j = 0; j < numAttributes; j++) {
+      Attribute att = data.attribute(j);
+      hashAsString[j] = att.isString() || att.isRelationValued();
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(8 * (numAttributes + 1));
+    for (Instance inst : data) {
+      buffer.clear();
+      for (int j = 0; j < numAttributes; j++) {
+        buffer.putDouble(inst.value(j));
+      }
+      buffer.putDouble(inst.weight());
+      md.update(buffer.array(), 0, buffer.position());
+      for (int j = 0; j < numAttributes; j++) {
+        if (hashAsString[j] && !inst.isMissing(j)) {
+          md.update(inst.toString(j).getBytes(StandardCharsets.UTF_8));
+          md.update((byte) 0);
+        }
+      }
+    }
+
+    return FileUtils.toHex(md.digest());
+  }
+
+  @Override
+  public boolean isComplete(String namespace) {
+    Path marker = root.resolve(namespace).resolve(COMPLETE_MARKER);
+    if (Files.exists(marker)) {
+      touch(marker);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void setComplete(String namespace, boolean value) {
+    Path dir = root.resolve(namespace);
+    Path marker = dir.resolve(COMPLETE_MARKER);
+    try {
+      if (value) {
+        FileUtils.writeAtomically(marker, Files::createFile);
+        evict(maxSizeBytes);
+      } else {
+        Files.deleteIfExists(marker);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not update cache namespace " + namespace, e);
+    }
+  }
+
+  @Override
+  public DataSet get(String key) {
+    Path file = resolve(key);
+    if (isFirstBatch(key)) {
+      // Mark the namespace as used at the beginning of each epoch
+      touch(file.resolveSibling(COMPLETE_MARKER));
+    }
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+      DataSet ds = new DataSet();
+      ds.load(in);
+      return ds;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read cached batch " + file, e);
+    }
+  }
+
+  @Override
+  public void put(String key, DataSet dataSet) {
+    Path file = resolve(key);
+    try {
+      // Concurrent writers of the same namespace produce identical files, the last one wins
+      FileUtils.writeAtomically(
+          file,
+          tmp -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+              dataSet.save(out);
+            }
+          });
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write cached batch " + file, e);
+    }
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return Files.exists(resolve(key));
+  }
+
+  /**
+   * List all namespaces in the cache, least recently used first.
+   *
+   * @return Cache entries
+   * @throws IOException Cache directory could not be read
+   */
+  public List<Entry> listEntries() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    // Skip directories that are currently being deleted
+    DirectoryStream.Filter<Path> filter =
+        p -> Files.isDirectory(p) && !p.getFileName().toString().startsWith(".");
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, filter)) {
+      for (Path dir : dirs) {
+        entries.add(new Entry(dir));
+      }
+    }
+    entries.sort(Comparator.comparingLong(e -> e.lastUsed));
+    return entries;
+  }
+
+  /**
+   * Evict least recently used namespaces until the cache is not larger than the given size.
+   * Namespaces used within {@link #EVICTION_GRACE_MILLIS} are kept to not pull batches from
+   * under a running reader; incomplete namespaces are only removed once they are stale.
+   *
+   * @param maxBytes Maximum size of the cache in bytes (non-positive: only remove stale entries)
+   * @throws IOException Cache directory could not be read
+   */
+  public void evict(long maxBytes) throws IOException {
+    final long now = System.currentTimeMillis();
+    List<Entry> entries = listEntries();
+    long total = entries.stream().mapToLong(e -> e.sizeBytes).sum();
+
+    for (Entry e : entries) {
+      final long age = now - e.lastUsed;
+      final boolean stale = !e.complete && age > STALE_INCOMPLETE_MILLIS;
+      final boolean overSize = maxBytes > 0 && total > maxBytes;
+      if (stale || (overSize && e.complete && age > EVICTION_GRACE_MILLIS)) {
+        log.debug("Evicting dataset cache entry {} ({} bytes)", e.namespace, e.sizeBytes);
+        delete(e.dir);
+        total -= e.sizeBytes;
+      }
+    }
+  }
+
+  /**
+   * Remove all namespaces from the cache.
+   *
+   * @throws IOException Cache directory could not be read
+   */
+  public void clear() throws IOException {
+    for (Entry e : listEntries()) {
+      delete(e.dir);
+    }
+  }
+
+  /**
+   * Resolve the file of a batch key.
+   *
+   * @param key Batch key
+   * @return Path of the batch
+   */
+  protected Path resolve(String key) {
+    Matcher m = KEY_PATTERN.matcher(key);
+    String namespace = m.matches() ? m.group(1) : "default";
+    return root.resolve(namespace).resolve(key);
+  }
+
+  /**
+   * Check whether the key refers to the first batch of a namespace.
+   *
+   * @param key Batch key
+   * @return True if it is the first batch
+   */
+  protected boolean isFirstBatch(String key) {
+    Matcher m = KEY_PATTERN.matcher(key);
+    return m.matches() && Integer.parseInt(m.group(2)) == 0;
+  }
+
+  /**
+   * Update the modification time of a file, used as last access time for the LRU eviction.
+   *
+   * @param file File to touch
+   */
+  protected static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // The entry might have been evicted concurrently, the access time is just a hint
+      log.debug("Could not touch {}", file);
+    }
+  }
+
+  /**
+   * Delete a namespace directory. It is first renamed so that readers and writers never see a
+   * partially deleted namespace.
+   *
+   * @param dir Namespace directory
+   * @throws IOException Deletion failed
+   */
+  protected static void delete(Path dir) throws IOException {
+    Path trash = dir.resolveSibling(".evicted-" + UUID.randomUUID());
+    try {
+      Files.move(dir, trash, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // Already removed by another process
+      return;
+    }
+    try (Stream<Path> files = Files.walk(trash)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  /** A namespace in the cache. */
+  public static class Entry {
+
+    /** Directory of the namespace */
+    public final Path dir;
+    /** Name of the namespace */
+    public final String namespace;
+    /** Whether all batches of the namespace have been written */
+    public final boolean complete;
+    /** Total size of all files in bytes */
+    public final long sizeBytes;
+    /** Last time the namespace was used (ms since epoch) */
+    public final long lastUsed;
+
+    /**
+     * Read the entry information from a namespace directory.
+     *
+     * @param dir Namespace directory
+     * @throws IOException Directory could not be read
+     */
+    Entry(Path dir) throws IOException {
+      this.dir = dir;
+      this.namespace = dir.getFileName().toString();
+      Path marker = dir.resolve(COMPLETE_MARKER);
+      this.complete = Files.exists(marker);
+      long size = 0;
+      long newest = Files.getLastModifiedTime(dir).toMillis();
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path f : (Iterable<Path>) files::iterator) {
+          try {
+            size += Files.size(f);
+            newest = Math.max(newest, Files.getLastModifiedTime(f).toMillis());
+          } catch (IOException e) {
+            // File vanished concurrently
+          }
+        }
+      }
+      this.sizeBytes = size;
+      this.lastUsed = complete ? Files.getLastModifiedTime(marker).toMillis() : newest;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s\t%s\t%.1f MB\t%tF %<tT",
+          namespace, complete ? "complete" : "incomplete", sizeBytes / 1024.0 / 1024.0, lastUsed);
+    }
+  }
+
+  /**
+   * Command line maintenance of a cache directory.
+   *
+   * @param args -dir &lt;cache dir&gt; [-list | -evict &lt;max size in MB&gt; | -clear]
+   * @throws Exception Invalid arguments or cache directory could not be read
+   */
+  public static void main(String[] args) throws Exception {
+    String dir = Utils.getOption("dir", args);
+    if (dir.isEmpty()) {
+      System.err.println(
+          "Usage: " + PersistentDataSetCache.class.getName()
+              + " -dir <cache dir> [-list | -evict <max size in MB> | -clear]");
+      System.exit(1);
+    }
+    PersistentDataSetCache cache = new PersistentDataSetCache(Paths.get(dir).toFile(), 0);
+
+    String evict = Utils.getOption("evict", args);
+    Utils.getFlag("list", args); // Listing is the default action
+    if (Utils.getFlag("clear", args)) {
+      cache.clear();
+    } else if (!evict.isEmpty()) {
+      cache.evict(Long.parseLong(evict) * 1024 * 1024);
+    }
+
+    long total = 0;
+    for (Entry e : cache.listEntries()) {
+      System.out.println(e);
+      total += e.sizeBytes;
+    }
+    System.out.println(String.format("Total: %.1f MB", total / 1024.0 / 1024.0));
+  }
+}
@@ -0,0 +1,513 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * TokenizedDocumentCache.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.dataset.sequence.text;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import lombok.extern.log4j.Log4j2;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.core.stopwords.AbstractStopwords;
+import weka.dl4j.FileUtils;
+import weka.dl4j.text.wordvectors.PrunedWordVectors;
+
+/**
+ * Caches the tokenized documents of the text iterators as arrays of vocabulary indices, so that
+ * tokenization, stop word removal and the vocabulary lookup are done once per document instead of
+ * once per epoch.
+ *
+ * <p>Documents that are not cached yet are tokenized in parallel. The token indices are kept in
+ * memory for the lifetime of the cache. If a cache file is given, they are additionally stored on
+ * disk per document (identified by the SHA-256 digest of its text) and reused by later runs with
+ * the same configuration, see {@link #computeKey(OptionHandler, OptionHandler, OptionHandler,
+ * File, WordVectors)}.
+ *
+ * <p>Instead of a word vector vocabulary, the tokens can be hashed into a fixed number of buckets,
+ * see {@link #bucketOf(String, int)}. Every token then has an index, without any vocabulary in
+ * memory.
+ *
+ * <p>The tokenizer factory, token preprocessor and stop words must be safe to use from multiple
+ * threads if more than one thread is used.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class TokenizedDocumentCache {
+
+  /** Version of the key and file format. Bump to invalidate all existing cache files. */
+  public static final int FORMAT_VERSION = 1;
+
+  /** File name suffix of cache files */
+  public static final String FILE_SUFFIX = ".tokens";
+
+  /** Shared tokenizer pools by number of threads */
+  private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+  /** Tokenizer factory */
+  protected final TokenizerFactory tokenizerFactory;
+
+  /** Stop words, may be null */
+  protected final AbstractStopwords stopwords;
+
+  /** Word vectors that define the vocabulary, null if the tokens are hashed */
+  protected final WordVectors wordVectors;
+
+  /** Number of hash buckets, zero if the word vectors define the vocabulary */
+  protected final int numBuckets;
+
+  /** Index of unknown tokens, e.g. the OOV word of pruned word vectors, -1 to remove them */
+  protected final int oovIndex;
+
+  /** Number of tokenizer threads */
+  protected final int numThreads;
+
+  /** Cache file, null if the documents are only cached in memory */
+  protected final Path file;
+
+  /** Token indices by document text */
+  protected final Map<String, int[]> memory = new HashMap<>();
+
+  /** Token indices by document digest, as stored in the cache file */
+  protected Map<ByteBuffer, int[]> persisted;
+
+  /** Whether documents were added since the cache file was read */
+  protected boolean dirty;
+
+
+  /**
+   * Constructor.
+   *
+   * @param tokenizerFactory Tokenizer factory
+   * @param stopwords Stop words, may be null
+   * @param wordVectors Word vectors that define the vocabulary
+   * @param numThreads Number of tokenizer threads (non-positive: number of available processors)
+   * @param file Cache file, null to only cache the documents in memory
+   */
+  public TokenizedDocumentCache(
+      TokenizerFactory tokenizerFactory,
+      AbstractStopwords stopwords,
+      WordVectors wordVectors,
+      int numThreads,
+      File file) {
+    this(
+        tokenizerFactory,
+        stopwords,
+        wordVectors,
+        0,
+        wordVectors != null && wordVectors.hasWord(PrunedWordVectors.OOV_WORD)
+            ? wordVectors.indexOf(PrunedWordVectors.OOV_WORD)
+            : -1,
+        numThreads,
+        file);
+  }
+
+  /**
+   * Constructor that maps tokens unknown to the word vectors to the given index, e.g. the index of
+   * an unknown word vector or the padding index {@link #getNumIndices()} for a zero vector.
+   *
+   * @param tokenizerFactory Tokenizer factory
+   * @param stopwords Stop words, may be null
+   * @param wordVectors Word vectors that define the vocabulary
+   * @param unknownIndex Index of unknown tokens, -1 to remove them
+   * @param numThreads Number of tokenizer threads (non-positive: number of available processors)
+   * @param file Cache file, null to only cache the documents in memory
+   */
+  public TokenizedDocumentCache(
+      TokenizerFactory tokenizerFactory,
+      AbstractStopwords stopwords,
+      WordVectors wordVectors,
+      int unknownIndex,
+      int numThreads,
+      File file) {
+    this(tokenizerFactory, stopwords, wordVectors, 0, unknownIndex, numThreads, file);
+  }
+
+  /**
+   * Constructor for hashed tokens. Each token is mapped to one of the given number of buckets.
+   *
+   * @param tokenizerFactory Tokenizer factory
+   * @param stopwords Stop words, may be null
+   * @param numBuckets Number of hash buckets
+   * @param numThreads Number of tokenizer threads (non-positive: number of available processors)
+   * @param file Cache file, null to only cache the documents in memory
+   */
+  public TokenizedDocumentCache(
+      TokenizerFactory tokenizerFactory,
+      AbstractStopwords stopwords,
+      int numBuckets,
+      int numThreads,
+      File file) {
+    this(tokenizerFactory, stopwords, null, numBuckets, -1, numThreads, file);
+    if (numBuckets <= 0) {
+      throw new IllegalArgumentException("Number of hash buckets must be positive: " + numBuckets);
+    }
+  }
+
+  private TokenizedDocumentCache(
+      TokenizerFactory tokenizerFactory,
+      AbstractStopwords stopwords,
+      WordVectors wordVectors,
+      int numBuckets,
+      int unknownIndex,
+      int numThreads,
+      File file) {
+    this.tokenizerFactory = tokenizerFactory;
+    this.stopwords = stopwords;
+    this.wordVectors = wordVectors;
+    this.numBuckets = numBuckets;
+    this.oovIndex = unknownIndex;
+    this.numThreads =
+        numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+    this.file = file == null ? null : file.toPath();
+    if (stopwords != null) {
+      // Stop words are loaded lazily on first use, do it before any concurrent access
+      stopwords.isStopword("");
+    }
+  }
+
+  /**
+   * Compute the name of the cache file for the given configuration. The key covers the classes and
+   * options of the tokenizer factory, token preprocessor and stop words and the word vector file,
+   * identified by its path, size and modification time.
+   *
+   * @param tokenizerFactory Tokenizer factory configuration
+   * @param tokenPreProcess Token preprocessor configuration
+   * @param stopwords Stop words configuration
+   * @param wordVectorLocation Word vector file
+   * @param wordVectors Loaded word vectors
+   * @return Hex encoded SHA-256 key
+   */
+  public static String computeKey(
+      OptionHandler tokenizerFactory,
+      OptionHandler tokenPreProcess,
+      OptionHandler stopwords,
+      File wordVectorLocation,
+      WordVectors wordVectors) {
+    return computeKey(
+        tokenizerFactory,
+        tokenPreProcess,
+        stopwords,
+        wordVectorLocation.getAbsolutePath()
+            + '\n'
+            + wordVectorLocation.length()
+            + ' '
+            + wordVectorLocation.lastModified()
+            + '\n'
+            + wordVectors.vocab().numWords());
+  }
+
+  /**
+   * Compute the name of the cache file for the given configuration and a description of the
+   * vocabulary, e.g. the number of hash buckets.
+   *
+   * @param tokenizerFactory Tokenizer factory configuration
+   * @param tokenPreProcess Token preprocessor configuration
+   * @param stopwords Stop words configuration
+   * @param vocabulary Description of the vocabulary that defines the token indices
+   * @return Hex encoded SHA-256 key
+   */
+  public static String computeKey(
+      OptionHandler tokenizerFactory,
+      OptionHandler tokenPreProcess,
+      OptionHandler stopwords,
+      String vocabulary) {
+    StringBuilder config = new StringBuilder();
+    config.append(FORMAT_VERSION).append('\n');
+    for (OptionHandler oh : new OptionHandler[] {tokenizerFactory, tokenPreProcess, stopwords}) {
+      config.append(oh.getClass().getName()).append(' ');
+      config.append(Utils.joinOptions(oh.getOptions())).append('\n');
+    }
+    config.append(vocabulary).append('\n');
+
+    return FileUtils.toHex(digest(config.toString()));
+  }
+
+  /**
+   * Get the token indices of the given documents. Documents that are not cached yet are tokenized
+   * in parallel.
+   *
+   * @param documents Documents
+   * @return Vocabulary indices of the known tokens that are no stop words, per document
+   */
+  public int[][] getTokenIndices(List<String> documents) {
+    final int numDocuments = documents.size();
+    final int[][] result = new int[numDocuments][];
+    List<Integer> misses = new ArrayList<>();
+    List<ByteBuffer> missDigests = new ArrayList<>();
+    for (int i = 0; i < numDocuments; i++) {
+      final String document = documents.get(i);
+      int[] indices = memory.get(document);
+      if (indices == null && file != null) {
+        final ByteBuffer digest = ByteBuffer.wrap(digest(document));
+        indices = getPersisted().get(digest);
+        if (indices == null) {
+          missDigests.add(digest);
+        } else {
+          memory.put(document, indices);
+        }
+      }
+      if (indices == null) {
+        misses.add(i);
+      }
+      result[i] = indices;
+    }
+
+    if (!misses.isEmpty()) {
+      final int[][] tokenized = tokenize(misses, documents);
+      for (int m = 0; m < misses.size(); m++) {
+        final int i = misses.get(m);
+        result[i] = tokenized[m];
+        memory.put(documents.get(i), tokenized[m]);
+        if (file != null) {
+          persisted.put(missDigests.get(m), tokenized[m]);
+          dirty = true;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the token indices of a single document.
+   *
+   * @param document Document
+   * @return Vocabulary indices of the known tokens that are no stop words
+   */
+  public int[] getTokenIndices(String document) {
+    return getTokenIndices(Arrays.asList(document))[0];
+  }
+
+  /**
+   * Tokenize the given documents, in parallel if more than one thread is used.
+   *
+   * @param misses Positions of the documents to tokenize
+   * @param documents All documents
+   * @return Token indices of the documents at the given positions
+   */
+  protected int[][] tokenize(List<Integer> misses, List<String> documents) {
+    if (numThreads == 1 || misses.size() == 1) {
+      return misses.stream().map(i -> tokenize(documents.get(i))).toArray(int[][]::new);
+    }
+    try {
+      return getPool(numThreads).submit(
+              () ->
+                  IntStream.range(0, misses.size())
+                      .parallel()
+                      .mapToObj(m -> tokenize(documents.get(misses.get(m))))
+                      .toArray(int[][]::new))
+          .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while tokenizing documents", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not tokenize documents", e.getCause());
+    }
+  }
+
+  /**
+   * Tokenize a document and translate it to the vocabulary indices of the tokens that are known to
+   * the word vectors and no stop words. If the word vectors were pruned to a corpus or an unknown
+   * index is given, unknown tokens are mapped to the OOV word or that index instead.
+   *
+   * @param document Document
+   * @return Vocabulary indices
+   */
+  protected int[] tokenize(String document) {
+    final List<String> tokens = tokenizerFactory.create(document).getTokens();
+    final int[] indices = new int[tokens.size()];
+    int length = 0;
+    for (String token : tokens) {
+      if (stopwords != null && stopwords.isStopword(token)) {
+        continue;
+      }
+      final int index = indexOf(token);
+      if (index >= 0) {
+        indices[length++] = index;
+      }
+    }
+    return Arrays.copyOf(indices, length);
+  }
+
+  /**
+   * Get the index of a single token.
+   *
+   * @param token Token
+   * @return Hash bucket or vocabulary index, -1 if the token is removed
+   */
+  protected int indexOf(String token) {
+    if (numBuckets > 0) {
+      return token.isEmpty() ? -1 : bucketOf(token, numBuckets);
+    }
+    final int index = wordVectors.indexOf(token);
+    return index >= 0 || token.isEmpty() ? index : oovIndex;
+  }
+
+  /**
+   * Get the hash bucket of a token, from the 32 bit FNV-1a hash of its UTF-8 bytes. The hash does
+   * not depend on the JVM, so that the buckets of a trained model stay valid.
+   *
+   * @param token Token
+   * @param numBuckets Number of buckets
+   * @return Bucket in [0, numBuckets)
+   */
+  public static int bucketOf(String token, int numBuckets) {
+    int hash = 0x811c9dc5;
+    for (byte b : token.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x01000193;
+    }
+    return (int) (Integer.toUnsignedLong(hash) % numBuckets);
+  }
+
+  /**
+   * Get the number of distinct token indices, which is also the padding index.
+   *
+   * @return Number of hash buckets or vocabulary size
+   */
+  public int getNumIndices() {
+    return numBuckets > 0 ? numBuckets : wordVectors.vocab().numWords();
+  }
+
+  /**
+   * Write the documents that were tokenized since the cache file was read. The file is written to
+   * a temporary file first and atomically moved into place, so that concurrent runs never read a
+   * partial file.
+   */
+  public void flush() {
+    if (file == null || !dirty) {
+      return;
+    }
+    try {
+      FileUtils.writeAtomically(
+          file,
+          tmp -> {
+            try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+              out.writeInt(FORMAT_VERSION);
+              out.writeInt(persisted.size());
+              for (Map.Entry<ByteBuffer, int[]> e : persisted.entrySet()) {
+                out.write(e.getKey().array());
+                out.writeInt(e.getValue().length);
+                for (int index : e.getValue()) {
+                  out.writeInt(index);
+                }
+              }
+            }
+          });
+      dirty = false;
+      log.debug("Wrote {} tokenized documents to {}", persisted.size(), file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write token cache " + file, e);
+    }
+  }
+
+  /** Flush the cache. The tokenizer threads are shared and stop on their own when idle. */
+  public void close() {
+    flush();
+  }
+
+  /**
+   * Get the shared tokenizer pool with the given number of threads. The pools are shared by all
+   * caches, so that iterators that are created per prediction do not leave pools behind. Idle
+   * worker threads of a ForkJoinPool terminate, and they are daemon threads.
+   *
+   * @param numThreads Number of threads
+   * @return Pool
+   */
+  protected static ForkJoinPool getPool(int numThreads) {
+    return POOLS.computeIfAbsent(numThreads, ForkJoinPool::new);
+  }
+
+  /**
+   * Get the documents of the cache file, read it on first access.
+   *
+   * @return Token indices by document digest
+   */
+  protected Map<ByteBuffer, int[]> getPersisted() {
+    if (persisted != null) {
+      return persisted;
+    }
+    persisted = new HashMap<>();
+    if (!Files.exists(file)) {
+      return persisted;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        log.debug("Ignoring token cache {} of a different format version", file);
+        return persisted;
+      }
+      final int numDocuments = in.readInt();
+      for (int i = 0; i < numDocuments; i++) {
+        final byte[] digest = new byte[32];
+        in.readFully(digest);
+        final int[] indices = new int[in.readInt()];
+        for (int j = 0; j < indices.length; j++) {
+          indices[j] = in.readInt();
+        }
+        persisted.put(ByteBuffer.wrap(digest), indices);
+      }
+      log.debug("Read {} tokenized documents from {}", numDocuments, file);
+    } catch (IOException e) {
+      // A corrupt cache file is rebuilt
+      log.warn("Could not read token cache {}, documents are tokenized again", file);
+      persisted.clear();
+    }
+    return persisted;
+  }
+
+  /**
+   * Number of documents in memory.
+   *
+   * @return Number of documents
+   */
+  public int size() {
+    return memory.size();
+  }
+
+  /**
+   * Compute the SHA-256 digest of a string.
+   *
+   * @param s String
+   * @return Digest
+   */
+  protected static byte[] digest(String s) {
+    return FileUtils.sha256().digest(s.getBytes(StandardCharsets.UTF_8));
+  }
+}
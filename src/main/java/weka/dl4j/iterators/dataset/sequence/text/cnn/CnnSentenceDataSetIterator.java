@@ -18,287 +18,597 @@
 
 package weka.dl4j.iterators.dataset.sequence.text.cnn;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.deeplearning4j.iterator.CnnSentenceDataSetIterator.UnknownWordHandling;
 import org.deeplearning4j.iterator.LabeledSentenceProvider;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.INDArrayIndex;
-import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
 import org.nd4j.linalg.primitives.Pair;
 import weka.core.stopwords.AbstractStopwords;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.stream.Collectors;
-
-import static weka.classifiers.functions.dl4j.Utils.*;
+import weka.dl4j.iterators.dataset.sequence.text.TokenizedDocumentCache;
 
 /**
- * CnnSentenceDataSetIterator extension to Deeplearning4j implementation. This class extends its
- * parent {@link org.deeplearning4j.iterator.CnnSentenceDataSetIterator#next(int)} method to support
- * regression with numeric values.
- * <p>
- * Since {@link org.deeplearning4j.iterator.CnnSentenceDataSetIterator} only has private access to
- * its fields and most of its methods, it is necessary to make use of
- * <p>
- * - {@link weka.classifiers.functions.dl4j.Utils#getFieldValue(Object, String)},
- * - {@link weka.classifiers.functions.dl4j.Utils#setFieldValue(Object, String, Object)}
- * - {@link weka.classifiers.functions.dl4j.Utils#invokeMethod(Object, String, Object...)}
- * <p>
- * until field/method visibility is changed upstream.
+ * A DataSetIterator that translates labeled sentences into the sentence images of CNN text models,
+ * given a word vector model. Each sentence is a {@code [1 x length x vectorSize]} image with one
+ * word vector per row (or per column if the sentences are not along the height). Stop words are
+ * removed and so are tokens that are unknown to the word vectors, unless the {@link
+ * UnknownWordHandling} is {@code UseUnknownVector}: they then get the vector of the unknown word of
+ * the word vectors or, if there is none, a zero vector. Sentences are truncated to the maximum
+ * sentence length and padded to the longest sentence of the batch. If the sentences of a batch
+ * differ in length, a feature mask marks the valid positions.
+ *
+ * <p>Sentences are tokenized once and their vocabulary indices are kept in a {@link
+ * TokenizedDocumentCache} for the following epochs.
+ *
+ * <p>The word vectors of a batch are gathered from the word vector matrix with a single indexed
+ * copy. Models that do not expose their matrix (e.g. models loaded with {@code loadStaticModel})
+ * are queried once per batch for the distinct words of the batch instead. The labels are numeric
+ * for regression (a single class) and one-hot encoded in the order of the sorted label strings for
+ * classification.
+ *
+ * <p>In token index mode, the features of a batch are the vocabulary indices of the tokens with
+ * shape {@code [batch x 1 x maxLength]} and the feature mask has shape {@code [batch x
+ * maxLength]}. Padding maps to the index after the vocabulary. The word vectors are then looked up
+ * by an embedding layer in the network.
  *
  * @author Steven Lang
  */
-public class CnnSentenceDataSetIterator extends org.deeplearning4j.iterator.CnnSentenceDataSetIterator {
+public class CnnSentenceDataSetIterator implements DataSetIterator {
 
     private static final long serialVersionUID = 685006779872000151L;
 
+    /**
+     * Labeled sentences.
+     */
+    private final LabeledSentenceProvider sentenceProvider;
+
+    /**
+     * Word vectors.
+     */
+    private final WordVectors wordVectors;
+
+    /**
+     * Tokenizer factory.
+     */
+    private final TokenizerFactory tokenizerFactory;
+
     /**
      * Stop words.
      */
-    private AbstractStopwords stopwords;
+    private final AbstractStopwords stopwords;
+
+    /**
+     * Whether to scale the word vectors to unit length.
+     */
+    private final boolean useNormalizedWordVectors;
+
+    /**
+     * Batch size.
+     */
+    private final int minibatchSize;
+
+    /**
+     * Maximum number of tokens per sentence, non-positive for no limit.
+     */
+    private final int maxSentenceLength;
+
+    /**
+     * Whether the tokens of a sentence are along the height of the image.
+     */
+    private final boolean sentencesAlongHeight;
+
+    /**
+     * Whether to emit token indices instead of word vectors.
+     */
+    private final boolean tokenIndices;
+
+    /**
+     * Handling of tokens that are unknown to the word vectors.
+     */
+    private final UnknownWordHandling unknownWordHandling;
+
+    /**
+     * Number of classes, 1 for regression.
+     */
+    private final int numClasses;
+
+    /**
+     * Class index of each label string.
+     */
+    private final Map<String, Integer> labelClassMap;
+
+    /**
+     * Label strings in class index order.
+     */
+    private final List<String> labels;
 
     /**
-     * Constructor that uses {@link Builder} extended with stopwords.
+     * Word vector size.
+     */
+    private final int wordVectorSize;
+
+    /**
+     * Cache of the tokenized sentences.
+     */
+    private final TokenizedDocumentCache tokenCache;
+
+    /**
+     * Preprocessor applied to each batch.
+     */
+    private DataSetPreProcessor dataSetPreProcessor;
+
+    /**
+     * Word vector matrix in vocabulary order, null if not available.
+     */
+    private transient INDArray wordVectorMatrix;
+
+    /**
+     * Whether the word vector matrix was looked up.
+     */
+    private transient boolean wordVectorMatrixResolved;
+
+    /**
+     * Number of sentences returned in this epoch.
+     */
+    private int cursor = 0;
+
+    /**
+     * Constructor.
      *
      * @param builder Builder
      */
     protected CnnSentenceDataSetIterator(CnnSentenceDataSetIterator.Builder builder) {
-        super(builder);
+        this.sentenceProvider = builder.sentenceProvider;
+        this.wordVectors = builder.wordVectors;
+        this.tokenizerFactory = builder.tokenizerFactory;
         this.stopwords = builder.stopwords;
-    }
+        this.useNormalizedWordVectors = builder.useNormalizedWordVectors;
+        this.minibatchSize = builder.minibatchSize;
+        this.maxSentenceLength = builder.maxSentenceLength;
+        this.sentencesAlongHeight = builder.sentencesAlongHeight;
+        this.tokenIndices = builder.tokenIndices;
+        this.dataSetPreProcessor = builder.dataSetPreProcessor;
+        this.unknownWordHandling = builder.unknownWordHandling;
+        if (builder.tokenCache != null) {
+            this.tokenCache = builder.tokenCache;
+        } else if (unknownWordHandling == UnknownWordHandling.UseUnknownVector) {
+            // The padding index after the vocabulary gives a zero vector
+            final int unknownIndex =
+                    wordVectors.hasWord(wordVectors.getUNK())
+                            ? wordVectors.indexOf(wordVectors.getUNK())
+                            : wordVectors.vocab().numWords();
+            this.tokenCache =
+                    new TokenizedDocumentCache(tokenizerFactory, stopwords, wordVectors, unknownIndex, 1, null);
+        } else {
+            this.tokenCache = new TokenizedDocumentCache(tokenizerFactory, stopwords, wordVectors, 1, null);
+        }
 
+        this.numClasses = sentenceProvider.numLabelClasses();
+        this.labels = new ArrayList<>(sentenceProvider.allLabels());
+        Collections.sort(labels);
+        this.labelClassMap = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            labelClassMap.put(labels.get(i), i);
+        }
+        this.wordVectorSize =
+                wordVectors == null
+                        ? 0
+                        : wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+    }
 
     @Override
     public boolean hasNext() {
-        LabeledSentenceProvider sentenceProvider = getSentenceProvider();
-        if (sentenceProvider == null) {
-            throw new RuntimeException("Sentenceprovider was null");
-        }
         return sentenceProvider.hasNext();
     }
 
+    @Override
+    public DataSet next() {
+        return next(minibatchSize);
+    }
 
     @Override
     public DataSet next(int num) {
         if (!hasNext()) {
             throw new NoSuchElementException("No next element available");
         }
-        LabeledSentenceProvider sentenceProvider = getSentenceProvider();
-        int maxSentenceLength = getMaxSentenceLength();
-        int numClasses = getNumClasses();
-        String unknownWordSentinel = getUnknownWordSentinel();
-        Map<String, Integer> labelClassMap = getLabelClassMap();
 
-        List<Pair<List<String>, String>> tokenizedSentences = new ArrayList<>(num);
-        int maxLength = -1;
-        int minLength = Integer.MAX_VALUE;
-        for (int i = tokenizedSentences.size(); i < num && sentenceProvider.hasNext(); i++) {
+        List<String> sentences = new ArrayList<>(num);
+        List<String> sentenceLabels = new ArrayList<>(num);
+        for (int i = 0; i < num && sentenceProvider.hasNext(); i++) {
             Pair<String, String> p = sentenceProvider.nextSentence();
-            String sentence = p.getFirst();
-            String label = p.getSecond();
-            List<String> tokens = tokenizeSentence(sentence);
-
-            // Skip stopwords
-            tokens = tokens.stream()
-                    .filter(stopwords::isStopword)
-                    .collect(Collectors.toList());
-
-            // If tokens are empty, add at least the UNKNOWN_WORD_SENTINEL
-            if (tokens.isEmpty()) {
-                tokens.add(unknownWordSentinel);
-            }
+            sentences.add(p.getFirst());
+            sentenceLabels.add(p.getSecond());
+        }
 
-            // Update max/min token lengths
-            maxLength = Math.max(maxLength, tokens.size());
-            minLength = Math.min(minLength, tokens.size());
-            tokenizedSentences.add(new Pair<>(tokens, label));
+        final int[][] tokenizedSentences = tokenCache.getTokenIndices(sentences);
+        if (!sentenceProvider.hasNext()) {
+            tokenCache.flush();
+        }
+        int maxLength = -1;
+        int minLength = Integer.MAX_VALUE;
+        for (int[] tokens : tokenizedSentences) {
+            maxLength = Math.max(maxLength, tokens.length);
+            minLength = Math.min(minLength, tokens.length);
         }
 
-        // Limit max length
+        // Sentences without any known token keep a single padding position
+        maxLength = Math.max(maxLength, 1);
         if (maxSentenceLength > 0) {
             maxLength = Math.min(maxLength, maxSentenceLength);
         }
 
-        int currMinibatchSize = tokenizedSentences.size();
+        final int currMinibatchSize = tokenizedSentences.length;
+        final INDArray labels = createLabels(sentenceLabels);
 
-        INDArray labels = Nd4j.create(currMinibatchSize, numClasses);
-        final boolean isClassification = numClasses > 1;
-        if (isClassification) {
+        // Vocabulary index of each position, -1 for padding
+        final int[] positions = new int[currMinibatchSize * maxLength];
+        final float[] mask = new float[positions.length];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < currMinibatchSize; i++) {
+            final int[] tokens = tokenizedSentences[i];
+            final int length = Math.max(1, Math.min(tokens.length, maxLength));
+            System.arraycopy(tokens, 0, positions, i * maxLength, Math.min(tokens.length, length));
+            Arrays.fill(mask, i * maxLength, i * maxLength + length, 1.0f);
+        }
+
+        DataSet ds;
+        if (tokenIndices) {
+            final int paddingIndex = tokenCache.getNumIndices();
+            final float[] indices = new float[positions.length];
+            for (int p = 0; p < positions.length; p++) {
+                indices[p] = positions[p] < 0 ? paddingIndex : positions[p];
+            }
+            INDArray features = Nd4j.create(indices, new int[]{currMinibatchSize, 1, maxLength}, 'c');
+            INDArray featuresMask = Nd4j.create(mask, new int[]{currMinibatchSize, maxLength}, 'c');
+            ds = new DataSet(features, labels, featuresMask, null);
+        } else {
+            // One word vector per row of [batch * maxLength x vectorSize]
+            INDArray vectors = gatherWordVectors(positions);
+            INDArray features = vectors.reshape('c', currMinibatchSize, 1, maxLength, wordVectorSize);
+            int[] maskShape;
+            if (sentencesAlongHeight) {
+                maskShape = new int[]{currMinibatchSize, 1, maxLength, 1};
+            } else {
+                features = features.permute(0, 1, 3, 2).dup('c');
+                maskShape = new int[]{currMinibatchSize, 1, 1, maxLength};
+            }
+            INDArray featuresMask = minLength != maxLength ? Nd4j.create(mask, maskShape, 'c') : null;
+            ds = new DataSet(features, labels, featuresMask, null);
+        }
+
+        if (dataSetPreProcessor != null) {
+            dataSetPreProcessor.preProcess(ds);
+        }
+        cursor += ds.numExamples();
+        return ds;
+    }
+
+    /**
+     * Create the labels of a batch.
+     *
+     * @param sentenceLabels Label string of each sentence
+     * @return Labels of shape {@code [batch x numClasses]}
+     */
+    protected INDArray createLabels(List<String> sentenceLabels) {
+        final int currMinibatchSize = sentenceLabels.size();
+        final float[] data = new float[currMinibatchSize * numClasses];
+        if (numClasses > 1) {
             for (int i = 0; i < currMinibatchSize; i++) {
-                String labelStr = tokenizedSentences.get(i).getSecond();
-                if (!labelClassMap.containsKey(labelStr)) {
+                final Integer labelIdx = labelClassMap.get(sentenceLabels.get(i));
+                if (labelIdx == null) {
                     throw new IllegalStateException(
                             "Got label \""
-                                    + labelStr
+                                    + sentenceLabels.get(i)
                                     + "\" that is not present in list of LabeledSentenceProvider labels");
                 }
-
-                int labelIdx = labelClassMap.get(labelStr);
-                labels.putScalar(i, labelIdx, 1.0);
+                data[i * numClasses + labelIdx] = 1.0f;
             }
         } else if (numClasses == 1) {
-            // Fix labels array for Regression task
+            // Regression
             for (int i = 0; i < currMinibatchSize; i++) {
-                final String labelStr = tokenizedSentences.get(i).getSecond();
-                double lbl = Double.parseDouble(labelStr);
-                labels.putScalar(i, lbl);
+                data[i] = Float.parseFloat(sentenceLabels.get(i));
             }
         } else {
             throw new IllegalStateException("Number of classes must be >= 1.");
         }
+        return Nd4j.create(data, new int[]{currMinibatchSize, numClasses}, 'c');
+    }
 
-        // Determine feature shape
-        int[] featuresShape = new int[4];
-        featuresShape[0] = currMinibatchSize;
-        featuresShape[1] = 1;
-        int wordVectorSize = getWordVectorSize();
-        boolean sentencesAlongHeight = isSentencesAlongHeight();
-        if (sentencesAlongHeight) {
-            featuresShape[2] = maxLength;
-            featuresShape[3] = wordVectorSize;
+    /**
+     * Gather the word vectors of all positions of a batch. Padding positions and unknown words
+     * without a vector (index after the vocabulary) get zero vectors.
+     *
+     * @param positions Vocabulary index of each position, -1 for padding
+     * @return Word vectors of shape {@code [positions x vectorSize]}
+     */
+    protected INDArray gatherWordVectors(int[] positions) {
+        final INDArray matrix = getWordVectorMatrix();
+        final int numWords = wordVectors.vocab().numWords();
+        final int[] rows = new int[positions.length];
+        final INDArray source;
+        if (matrix != null) {
+            source = matrix;
+            for (int p = 0; p < positions.length; p++) {
+                rows[p] = isZeroVector(positions[p], numWords) ? 0 : positions[p];
+            }
         } else {
-            featuresShape[2] = wordVectorSize;
-            featuresShape[3] = maxLength;
-        }
-
-        // Create features from tokens
-        INDArray features = Nd4j.create(featuresShape);
-        for (int i = 0; i < currMinibatchSize; i++) {
-            List<String> currSentence = tokenizedSentences.get(i).getFirst();
-
-            for (int j = 0; j < currSentence.size() && j < maxSentenceLength; j++) {
-                INDArray vector = getVector(currSentence.get(j));
-
-                INDArrayIndex[] indices = new INDArrayIndex[4];
-                indices[0] = NDArrayIndex.point(i);
-                indices[1] = NDArrayIndex.point(0);
-                if (sentencesAlongHeight) {
-                    indices[2] = NDArrayIndex.point(j);
-                    indices[3] = NDArrayIndex.all();
-                } else {
-                    indices[2] = NDArrayIndex.all();
-                    indices[3] = NDArrayIndex.point(j);
+            // Query the distinct words of the batch
+            Map<Integer, Integer> localRows = new LinkedHashMap<>();
+            List<String> words = new ArrayList<>();
+            for (int p = 0; p < positions.length; p++) {
+                final int index = isZeroVector(positions[p], numWords) ? 0 : positions[p];
+                Integer row = localRows.get(index);
+                if (row == null) {
+                    row = words.size();
+                    localRows.put(index, row);
+                    words.add(wordVectors.vocab().wordAtIndex(index));
                 }
-
-                features.put(indices, vector);
+                rows[p] = row;
             }
+            source = wordVectors.getWordVectors(words);
         }
 
-        INDArray featuresMask = null;
+        INDArray vectors = Nd4j.pullRows(source, 1, rows, 'c');
+        if (useNormalizedWordVectors) {
+            INDArray norms = Transforms.max(vectors.norm2(1), 1e-12, false);
+            vectors.diviColumnVector(norms.reshape(positions.length, 1));
+        }
 
-        // Create feature mask
-        if (minLength != maxLength) {
-            int idxSeq;
-            if (sentencesAlongHeight) {
-                featuresMask = Nd4j.create(currMinibatchSize, 1, maxLength, 1);
-                idxSeq = 2;
-            } else {
-                featuresMask = Nd4j.create(currMinibatchSize, 1, 1, maxLength);
-                idxSeq = 3;
-            }
+        // Zero the padding rows
+        boolean hasPadding = false;
+        final float[] keep = new float[positions.length];
+        for (int p = 0; p < positions.length; p++) {
+            final boolean zero = isZeroVector(positions[p], numWords);
+            keep[p] = zero ? 0.0f : 1.0f;
+            hasPadding |= zero;
+        }
+        if (hasPadding) {
+            vectors.muliColumnVector(Nd4j.create(keep, new int[]{positions.length, 1}, 'c'));
+        }
+        return vectors;
+    }
 
-            INDArrayIndex[] idxs = new INDArrayIndex[4];
-            idxs[1] = NDArrayIndex.all();
-            idxs[2] = NDArrayIndex.all();   //One of [2] and [3] will get replaced, depending on sentencesAlongHeight
-            idxs[3] = NDArrayIndex.all();
-            for (int i = 0; i < currMinibatchSize; i++) {
-                idxs[0] = NDArrayIndex.point(i);
-                int sentenceLength = tokenizedSentences.get(i).getFirst().size();
-                if (sentenceLength >= maxLength) {
-                    idxs[idxSeq] = NDArrayIndex.all();
-                } else {
-                    idxs[idxSeq] = NDArrayIndex.interval(0, sentenceLength);
+    /**
+     * Check whether a position gets a zero vector.
+     *
+     * @param position Vocabulary index, -1 for padding
+     * @param numWords Vocabulary size
+     * @return True for padding and unknown words without a vector
+     */
+    protected static boolean isZeroVector(int position, int numWords) {
+        return position < 0 || position >= numWords;
+    }
+
+    /**
+     * Get the word vector matrix with one row per vocabulary word, if the word vectors expose it.
+     *
+     * @return Word vector matrix or null
+     */
+    protected INDArray getWordVectorMatrix() {
+        if (!wordVectorMatrixResolved) {
+            wordVectorMatrixResolved = true;
+            try {
+                INDArray weights = wordVectors.lookupTable().getWeights();
+                if (weights != null && weights.rows() >= wordVectors.vocab().numWords()
+                        && weights.columns() == wordVectorSize) {
+                    wordVectorMatrix = weights;
                 }
-                featuresMask.get(idxs).assign(1.0);
+            } catch (UnsupportedOperationException e) {
+                // E.g. StaticWord2Vec, vectors are queried per batch
+                wordVectorMatrix = null;
             }
         }
+        return wordVectorMatrix;
+    }
 
-        // Create DataSet
-        DataSet ds = new DataSet(features, labels, featuresMask, null);
-        DataSetPreProcessor dataSetPreProcessor = getDataSetPreProcessor();
-        if (dataSetPreProcessor != null) {
-            dataSetPreProcessor.preProcess(ds);
-        }
+    @Override
+    public int inputColumns() {
+        return tokenIndices ? 1 : wordVectorSize;
+    }
 
-        // Increment the cursor
-        incrementCursor(ds.numExamples());
-        return ds;
+    @Override
+    public int totalOutcomes() {
+        return numClasses;
     }
 
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
 
-    public static String getUnknownWordSentinel() {
-        return "UNKNOWN_WORD_SENTINEL";
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        cursor = 0;
+        sentenceProvider.reset();
+    }
+
+    @Override
+    public int batch() {
+        return minibatchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.dataSetPreProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return dataSetPreProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
     }
 
     public LabeledSentenceProvider getSentenceProvider() {
-        return getFieldValue(this, "sentenceProvider");
+        return sentenceProvider;
     }
 
     public int getMaxSentenceLength() {
-        return getFieldValue(this, "maxSentenceLength");
+        return maxSentenceLength;
     }
 
     public boolean isSentencesAlongHeight() {
-        return getFieldValue(this, "sentencesAlongHeight");
-    }
-
-    public DataSetPreProcessor getDataSetPreProcessor() {
-        return getFieldValue(this, "dataSetPreProcessor");
+        return sentencesAlongHeight;
     }
 
     public int getWordVectorSize() {
-        return getFieldValue(this, "wordVectorSize");
+        return wordVectorSize;
     }
 
-    public int getNumClasses() {
-        return getFieldValue(this, "numClasses");
+    public WordVectors getWordVectors() {
+        return wordVectors;
     }
 
-    public INDArray getUnknown() {
-        return getFieldValue(this, "unknown");
+    public boolean isTokenIndices() {
+        return tokenIndices;
     }
 
-    public int getCursor() {
-        return getFieldValue(this, "cursor");
+    public UnknownWordHandling getUnknownWordHandling() {
+        return unknownWordHandling;
     }
 
-    public void setCursor(int value) {
-        setFieldValue(this, "cursor", value);
+    public int getNumClasses() {
+        return numClasses;
     }
 
-    protected void incrementCursor(int n) {
-        int oldCurser = getCursor();
-        setCursor(oldCurser + n);
+    public int getCursor() {
+        return cursor;
     }
 
     public AbstractStopwords getStopwords() {
         return stopwords;
     }
 
-    protected INDArray getVector(String s) {
-        return invokeMethod(this, "getVector", s);
-    }
-
-    protected List<String> tokenizeSentence(String sentence) {
-        return invokeMethod(this, "tokenizeSentence", sentence);
+    public TokenizedDocumentCache getTokenCache() {
+        return tokenCache;
     }
 
     /**
-     * CnnSentenceDataSetIterator.Builder implementation that supports stopwords.
+     * Builder for the {@link CnnSentenceDataSetIterator}.
      *
      * @author Steven Lang
      */
-    public static class Builder extends org.deeplearning4j.iterator.CnnSentenceDataSetIterator.Builder {
+    public static class Builder {
+
+        /**
+         * Labeled sentences
+         */
+        LabeledSentenceProvider sentenceProvider;
+
+        /**
+         * Word vectors
+         */
+        WordVectors wordVectors;
+
+        /**
+         * Tokenizer factory
+         */
+        TokenizerFactory tokenizerFactory;
 
         /**
          * Stopwords
          */
         AbstractStopwords stopwords;
 
+        /**
+         * Whether to scale the word vectors to unit length
+         */
+        boolean useNormalizedWordVectors = true;
+
+        /**
+         * Batch size
+         */
+        int minibatchSize = 32;
+
+        /**
+         * Maximum sentence length
+         */
+        int maxSentenceLength = -1;
+
+        /**
+         * Whether the sentences are along the height
+         */
+        boolean sentencesAlongHeight = true;
+
+        /**
+         * Token index mode
+         */
+        boolean tokenIndices;
+
+        /**
+         * Handling of unknown words
+         */
+        UnknownWordHandling unknownWordHandling = UnknownWordHandling.RemoveWord;
+
+        /**
+         * Preprocessor
+         */
+        DataSetPreProcessor dataSetPreProcessor;
+
+        /**
+         * Token cache
+         */
+        TokenizedDocumentCache tokenCache;
+
+        /**
+         * Set the labeled sentences.
+         *
+         * @param sentenceProvider Sentence provider
+         * @return Builder instance
+         */
+        public Builder sentenceProvider(LabeledSentenceProvider sentenceProvider) {
+            this.sentenceProvider = sentenceProvider;
+            return this;
+        }
+
+        /**
+         * Set the word vectors.
+         *
+         * @param wordVectors Word vectors
+         * @return Builder instance
+         */
+        public Builder wordVectors(WordVectors wordVectors) {
+            this.wordVectors = wordVectors;
+            return this;
+        }
+
+        /**
+         * Set the tokenizer factory.
+         *
+         * @param tokenizerFactory Tokenizer factory
+         * @return Builder instance
+         */
+        public Builder tokenizerFactory(TokenizerFactory tokenizerFactory) {
+            this.tokenizerFactory = tokenizerFactory;
+            return this;
+        }
+
         /**
          * Set stopwords.
          *
@@ -310,12 +620,115 @@ public class CnnSentenceDataSetIterator extends org.deeplearning4j.iterator.CnnS
             return this;
         }
 
+        /**
+         * Set whether to scale the word vectors to unit length (default = true).
+         *
+         * @param useNormalizedWordVectors Whether to normalize the word vectors
+         * @return Builder instance
+         */
+        public Builder useNormalizedWordVectors(boolean useNormalizedWordVectors) {
+            this.useNormalizedWordVectors = useNormalizedWordVectors;
+            return this;
+        }
+
+        /**
+         * Set the batch size (default = 32).
+         *
+         * @param minibatchSize Batch size
+         * @return Builder instance
+         */
+        public Builder minibatchSize(int minibatchSize) {
+            this.minibatchSize = minibatchSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of tokens per sentence, non-positive for no limit (default = -1).
+         *
+         * @param maxSentenceLength Maximum sentence length
+         * @return Builder instance
+         */
+        public Builder maxSentenceLength(int maxSentenceLength) {
+            this.maxSentenceLength = maxSentenceLength;
+            return this;
+        }
+
+        /**
+         * Set whether the tokens of a sentence are along the height of the image (default = true).
+         *
+         * @param sentencesAlongHeight Whether the sentences are along the height
+         * @return Builder instance
+         */
+        public Builder sentencesAlongHeight(boolean sentencesAlongHeight) {
+            this.sentencesAlongHeight = sentencesAlongHeight;
+            return this;
+        }
+
+        /**
+         * Set whether to emit token indices instead of word vectors.
+         *
+         * @param tokenIndices Token index mode
+         * @return Builder instance
+         */
+        public Builder tokenIndices(boolean tokenIndices) {
+            this.tokenIndices = tokenIndices;
+            return this;
+        }
+
+        /**
+         * Set the handling of tokens that are unknown to the word vectors (default = RemoveWord).
+         * With UseUnknownVector, they get the vector of the unknown word of the word vectors or a
+         * zero vector if there is none. A token cache given by {@link
+         * #tokenCache(TokenizedDocumentCache)} defines the handling itself.
+         *
+         * @param unknownWordHandling Handling of unknown words
+         * @return Builder instance
+         */
+        public Builder unknownWordHandling(UnknownWordHandling unknownWordHandling) {
+            this.unknownWordHandling = unknownWordHandling;
+            return this;
+        }
+
+        /**
+         * Set the preprocessor that is applied to each batch.
+         *
+         * @param dataSetPreProcessor Preprocessor
+         * @return Builder instance
+         */
+        public Builder dataSetPreProcessor(DataSetPreProcessor dataSetPreProcessor) {
+            this.dataSetPreProcessor = dataSetPreProcessor;
+            return this;
+        }
+
+        /**
+         * Set the cache of the tokenized sentences. It must use the same tokenizer factory, stop
+         * words and word vectors as this builder. By default, the sentences are tokenized by a
+         * single thread and cached in memory.
+         *
+         * @param tokenCache Token cache
+         * @return Builder instance
+         */
+        public Builder tokenCache(TokenizedDocumentCache tokenCache) {
+            this.tokenCache = tokenCache;
+            return this;
+        }
+
         /**
          * Build the iterator.
          *
          * @return {@link CnnSentenceDataSetIterator} instance
          */
         public CnnSentenceDataSetIterator build() {
+            if (wordVectors == null && (!tokenIndices || tokenCache == null)) {
+                // Token indices of a given cache (e.g. hashed tokens) need no word vectors
+                throw new IllegalStateException("Cannot build CnnSentenceDataSetIterator without a WordVectors instance");
+            }
+            if (tokenizerFactory == null) {
+                throw new IllegalStateException("Cannot build CnnSentenceDataSetIterator without a TokenizerFactory");
+            }
+            if (sentenceProvider == null) {
+                throw new IllegalStateException("Cannot build CnnSentenceDataSetIterator without a LabeledSentenceProvider");
+            }
             return new CnnSentenceDataSetIterator(this);
         }
     }
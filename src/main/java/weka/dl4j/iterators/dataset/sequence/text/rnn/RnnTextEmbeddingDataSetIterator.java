@@ -37,6 +37,7 @@ import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.primitives.Pair;
 import weka.core.Instances;
 import weka.core.stopwords.AbstractStopwords;
+import weka.dl4j.iterators.dataset.sequence.text.TokenizedDocumentCache;
 import weka.dl4j.text.tokenization.preprocessor.TokenPreProcess;
 import weka.dl4j.text.tokenization.tokenizer.factory.TokenizerFactory;
 
@@ -44,6 +45,14 @@ import weka.dl4j.text.tokenization.tokenizer.factory.TokenizerFactory;
  * A DataSetIterator implementation that reads text documents from an arff file and translates each
  * document to a sequence of wordvectors, given a wordvector model.
  *
+ * <p>Documents are tokenized once and their vocabulary indices are kept in a {@link
+ * TokenizedDocumentCache} for the following epochs.
+ *
+ * <p>In token index mode, each document is translated to the sequence of the vocabulary indices of
+ * its tokens instead, with features of shape {@code [batch x 1 x maxLength]}. The word vectors are
+ * then looked up by an embedding layer in the network. Padding positions hold the index after the
+ * last vocabulary word.
+ *
  * @author Steven Lang
  */
 @Log4j2
@@ -54,12 +63,16 @@ public class RnnTextEmbeddingDataSetIterator implements DataSetIterator, Seriali
   private final int batchSize;
   private final int vectorSize;
   private final int truncateLength;
+  /** Whether to emit token indices instead of word vectors */
+  private final boolean tokenIndices;
   protected AbstractStopwords stopWords;
 
   protected int cursor = 0;
   protected final Instances data;
   private final TokenizerFactory tokenizerFactory;
   private LabeledSentenceProvider sentenceProvider;
+  /** Cache of the tokenized documents */
+  private transient TokenizedDocumentCache tokenCache;
 
   /**
    * @param data Instances with documents and labels
@@ -79,8 +92,85 @@ public class RnnTextEmbeddingDataSetIterator implements DataSetIterator, Seriali
       LabeledSentenceProvider sentenceProvider,
       int batchSize,
       int truncateLength) {
+    this(
+        data,
+        wordVectors,
+        tokenFact,
+        tpp,
+        stopWords,
+        sentenceProvider,
+        batchSize,
+        truncateLength,
+        false);
+  }
+
+  /**
+   * @param data Instances with documents and labels
+   * @param wordVectors WordVectors object
+   * @param tokenFact Tokenizer factory
+   * @param tpp Token pre processor
+   * @param stopWords Stop word object
+   * @param batchSize Size of each minibatch for training
+   * @param truncateLength If reviews exceed
+   * @param tokenIndices Whether to emit token indices instead of word vectors
+   */
+  public RnnTextEmbeddingDataSetIterator(
+      Instances data,
+      WordVectors wordVectors,
+      TokenizerFactory tokenFact,
+      TokenPreProcess tpp,
+      AbstractStopwords stopWords,
+      LabeledSentenceProvider sentenceProvider,
+      int batchSize,
+      int truncateLength,
+      boolean tokenIndices) {
+    this(
+        data,
+        wordVectors,
+        tokenFact,
+        tpp,
+        stopWords,
+        sentenceProvider,
+        batchSize,
+        truncateLength,
+        tokenIndices,
+        null);
+  }
+
+  /**
+   * @param data Instances with documents and labels
+   * @param wordVectors WordVectors object
+   * @param tokenFact Tokenizer factory
+   * @param tpp Token pre processor
+   * @param stopWords Stop word object
+   * @param batchSize Size of each minibatch for training
+   * @param truncateLength If reviews exceed
+   * @param tokenIndices Whether to emit token indices instead of word vectors
+   * @param tokenCache Cache of the tokenized documents, null to tokenize with a single thread and
+   *     cache the documents in memory. Required if the word vectors are null, which is only
+   *     possible in token index mode, e.g. with hashed tokens.
+   */
+  public RnnTextEmbeddingDataSetIterator(
+      Instances data,
+      WordVectors wordVectors,
+      TokenizerFactory tokenFact,
+      TokenPreProcess tpp,
+      AbstractStopwords stopWords,
+      LabeledSentenceProvider sentenceProvider,
+      int batchSize,
+      int truncateLength,
+      boolean tokenIndices,
+      TokenizedDocumentCache tokenCache) {
     this.batchSize = batchSize;
-    this.vectorSize = wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+    this.tokenIndices = tokenIndices;
+    if (wordVectors == null && (!tokenIndices || tokenCache == null)) {
+      throw new IllegalArgumentException(
+          "Word vectors can only be omitted in token index mode with a token cache");
+    }
+    this.vectorSize =
+        wordVectors == null
+            ? 0
+            : wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
 
     this.data = data;
 
@@ -91,6 +181,21 @@ public class RnnTextEmbeddingDataSetIterator implements DataSetIterator, Seriali
     this.tokenizerFactory.getBackend().setTokenPreProcessor(tpp.getBackend());
     this.stopWords = stopWords;
     this.sentenceProvider = sentenceProvider;
+    this.tokenCache = tokenCache;
+  }
+
+  /**
+   * Get the cache of the tokenized documents, create an in-memory cache if none was given.
+   *
+   * @return Token cache
+   */
+  protected TokenizedDocumentCache getTokenCache() {
+    if (tokenCache == null) {
+      tokenCache =
+          new TokenizedDocumentCache(
+              tokenizerFactory.getBackend(), stopWords, wordVectors, 1, null);
+    }
+    return tokenCache;
   }
 
   @Override
@@ -114,21 +219,15 @@ public class RnnTextEmbeddingDataSetIterator implements DataSetIterator, Seriali
       lbls.add(Double.valueOf(next.getSecond()));
     }
 
-    // Second: tokenize reviews and filter out unknown words
+    // Second: tokenize reviews and filter out unknown words, cached after the first epoch
     final int numDocuments = reviews.size();
-    if (numDocuments == 0){
-      System.out.println();
+    final int[][] allTokens = getTokenCache().getTokenIndices(reviews);
+    if (!sentenceProvider.hasNext()) {
+      getTokenCache().flush();
     }
-    List<List<String>> allTokens = new ArrayList<>(numDocuments);
     int maxLength = 0;
-    for (String s : reviews) {
-      List<String> tokens = tokenizerFactory.getBackend().create(s).getTokens();
-      List<String> tokensFiltered = new ArrayList<>();
-      for (String t : tokens) {
-        if (wordVectors.hasWord(t) && !stopWords.isStopword(t)) tokensFiltered.add(t);
-      }
-      allTokens.add(tokensFiltered);
-      maxLength = Math.max(maxLength, tokensFiltered.size());
+    for (int[] tokens : allTokens) {
+      maxLength = Math.max(maxLength, tokens.length);
     }
 
     // If longest review exceeds 'truncateLength': only take the first 'truncateLength' words
@@ -136,7 +235,12 @@ public class RnnTextEmbeddingDataSetIterator implements DataSetIterator, Seriali
 
     // Create data for training
     // Here: we have reviews.size() examples of varying lengths
-    INDArray features = Nd4j.create(new int[] {numDocuments, vectorSize, maxLength}, 'f');
+    INDArray features =
+        Nd4j.create(new int[] {numDocuments, tokenIndices ? 1 : vectorSize, maxLength}, 'f');
+    if (tokenIndices) {
+      // Padding positions point to the zero row after the vocabulary or hash buckets
+      features.assign(getTokenCache().getNumIndices());
+    }
     INDArray labels =
         Nd4j.create(
             new int[] {numDocuments, data.numClasses(), maxLength},
@@ -152,26 +256,37 @@ public class RnnTextEmbeddingDataSetIterator implements DataSetIterator, Seriali
      Vectorized version
     */
     for (int i = 0; i < numDocuments; i++) {
-      List<String> tokens = allTokens.get(i);
+      int[] tokens = allTokens[i];
 
       // Check for empty document
-      if (tokens.isEmpty()) {
+      if (tokens.length == 0) {
         continue;
       }
 
       // Get the sequence length of document (i)
-      int lastIdx = Math.min(tokens.size(), maxLength);
+      int lastIdx = Math.min(tokens.length, maxLength);
 
-      // Get all wordvectors in batch
-      final INDArray vectors = wordVectors.getWordVectors(tokens.subList(0, lastIdx)).transpose();
-
-      // Put wordvectors into features array: instead of putting one vector at position (j) we put
-      // an array of vectors in the interval of [0, lastIdx)
-      features.put(
-          new INDArrayIndex[] {
-            NDArrayIndex.point(i), NDArrayIndex.all(), NDArrayIndex.interval(0, lastIdx)
-          },
-          vectors);
+      if (tokenIndices) {
+        // Put the vocabulary indices, the embedding layer of the network looks up the vectors
+        for (int j = 0; j < lastIdx; j++) {
+          features.putScalar(i, 0, j, tokens[j]);
+        }
+      } else {
+        // Get all wordvectors in batch
+        List<String> words = new ArrayList<>(lastIdx);
+        for (int j = 0; j < lastIdx; j++) {
+          words.add(wordVectors.vocab().wordAtIndex(tokens[j]));
+        }
+        final INDArray vectors = wordVectors.getWordVectors(words).transpose();
+
+        // Put wordvectors into features array: instead of putting one vector at position (j) we
+        // put an array of vectors in the interval of [0, lastIdx)
+        features.put(
+            new INDArrayIndex[] {
+              NDArrayIndex.point(i), NDArrayIndex.all(), NDArrayIndex.interval(0, lastIdx)
+            },
+            vectors);
+      }
 
       // Assign "1" to each position where a feature is present, that is, in the interval of
       // [0, lastIdx)
@@ -210,7 +325,7 @@ public class RnnTextEmbeddingDataSetIterator implements DataSetIterator, Seriali
 
   @Override
   public int inputColumns() {
-    return vectorSize;
+    return tokenIndices ? 1 : vectorSize;
   }
 
   @Override
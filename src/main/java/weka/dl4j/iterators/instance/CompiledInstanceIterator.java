@@ -0,0 +1,290 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CompiledInstanceIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.instance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import weka.core.Attribute;
+import weka.core.Environment;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.InvalidInputDataException;
+import weka.core.Option;
+import weka.core.OptionMetadata;
+import weka.dl4j.iterators.dataset.CompiledDataSet;
+import weka.dl4j.iterators.dataset.CompiledDataSetIterator;
+import weka.gui.FilePropertyMetadata;
+import weka.gui.knowledgeflow.KFGUIConsts;
+
+/**
+ * An iterator that reads the features from a compiled dataset (see {@link
+ * weka.core.converters.CompiledDataSetSaver}). The given instances only reference rows of the
+ * compiled file, as produced by the {@link weka.core.converters.CompiledDataSetLoader}.
+ *
+ * @author Steven Lang
+ */
+public class CompiledInstanceIterator extends AbstractInstanceIterator {
+
+  /** The ID used to serialize this class */
+  private static final long serialVersionUID = 4457185733925390761L;
+
+  /** Name of the attribute that references the rows of the compiled file */
+  public static final String ROW_ATTRIBUTE = "row";
+
+  /** The compiled dataset file */
+  protected File compiledFile = new File(System.getProperty("user.dir"));
+
+  /** The opened compiled dataset */
+  protected transient CompiledDataSet compiledDataSet;
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.OPEN_DIALOG, directoriesOnly = false)
+  @OptionMetadata(
+      displayName = "compiled dataset file",
+      description = "The compiled dataset file the rows refer to.",
+      commandLineParamName = "compiledFile",
+      commandLineParamSynopsis = "-compiledFile <string>",
+      displayOrder = 1
+  )
+  public File getCompiledFile() {
+    return compiledFile;
+  }
+
+  public void setCompiledFile(File compiledFile) {
+    this.compiledFile = compiledFile;
+    this.compiledDataSet = null;
+  }
+
+  /**
+   * Validates the input dataset
+   *
+   * @param data the input dataset
+   * @throws InvalidInputDataException if validation is unsuccessful
+   */
+  @Override
+  public void validate(Instances data) throws InvalidInputDataException {
+    if (!resolveCompiledFile().isFile()) {
+      throw new InvalidInputDataException("Compiled dataset not found: " + resolveCompiledFile());
+    }
+    if (!(data.numAttributes() == 2
+        && data.attribute(0).isNumeric()
+        && data.attribute(0).name().equals(ROW_ATTRIBUTE)
+        && data.classIndex() == 1)) {
+      throw new InvalidInputDataException(
+          "An ARFF is required with a numeric attribute \"" + ROW_ATTRIBUTE + "\" and a class "
+              + "attribute (see CompiledDataSetLoader)");
+    }
+  }
+
+  /**
+   * Returns the compiled dataset, opening it on first use.
+   *
+   * @return Compiled dataset
+   * @throws IOException Dataset could not be opened
+   */
+  public CompiledDataSet getCompiledDataSet() throws IOException {
+    if (compiledDataSet == null) {
+      compiledDataSet = new CompiledDataSet(resolveCompiledFile());
+    }
+    return compiledDataSet;
+  }
+
+  /**
+   * Resolve environment variables in the compiled file path.
+   *
+   * @return Resolved file
+   */
+  protected File resolveCompiledFile() {
+    String resolved = getCompiledFile().toString();
+    try {
+      resolved = Environment.getSystemWide().substitute(resolved);
+    } catch (Exception ex) {
+      // ignore
+    }
+    return new File(resolved);
+  }
+
+  /**
+   * Returns the iterator. Only the row indices and labels are taken from the given instances.
+   *
+   * @param data the dataset to use
+   * @param seed the seed for the random number generator
+   * @param batchSize the batch size to use
+   * @return the iterator
+   * @throws Exception if the compiled dataset could not be opened
+   */
+  @Override
+  public DataSetIterator getDataSetIterator(Instances data, int seed, int batchSize)
+      throws Exception {
+    return createDataSetIterator(data, batchSize, false, seed);
+  }
+
+  /**
+   * Returns the iterator for training. The rows are visited in file order, so that the batches are
+   * views of the mapped file, and the batches are shuffled in each epoch.
+   *
+   * @param data the dataset to use
+   * @param seed the seed of the batch order
+   * @param batchSize the batch size to use
+   * @return the iterator
+   * @throws Exception if the compiled dataset could not be opened
+   */
+  public DataSetIterator getTrainDataSetIterator(Instances data, int seed, int batchSize)
+      throws Exception {
+    return createDataSetIterator(data, batchSize, true, seed);
+  }
+
+  /**
+   * Create the iterator. Only the row indices and labels are taken from the given instances.
+   *
+   * @param data the dataset to use
+   * @param batchSize the batch size to use
+   * @param shuffleBatches whether to sort the rows and shuffle the batches in each epoch
+   * @param seed the seed of the batch order
+   * @return the iterator
+   * @throws Exception if the compiled dataset could not be opened
+   */
+  protected CompiledDataSetIterator createDataSetIterator(
+      Instances data, int batchSize, boolean shuffleBatches, int seed) throws Exception {
+    validate(data);
+    CompiledDataSet compiled = getCompiledDataSet();
+    if (compiled.getNumFeatures() == 0) {
+      throw new InvalidInputDataException("Compiled dataset has no features: " + compiledFile);
+    }
+
+    // Labels are built from the class values, which may have been preprocessed by the classifier
+    final Attribute classAttribute = data.classAttribute();
+    final int numLabels = classAttribute.isNominal() ? data.numClasses() : 1;
+    final int[] labelIndex = classAttribute.isNominal() ? sortedLabelIndex(classAttribute) : null;
+    final int[] order = shuffleBatches ? sortedByRow(data) : null;
+    final long[] rows = new long[data.numInstances()];
+    final float[] labels = new float[data.numInstances() * numLabels];
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance inst = data.instance(order == null ? i : order[i]);
+      rows[i] = (long) inst.value(0);
+      if (inst.classIsMissing()) {
+        continue;
+      }
+      if (labelIndex != null) {
+        labels[i * numLabels + labelIndex[(int) inst.classValue()]] = 1;
+      } else {
+        labels[i] = (float) inst.classValue();
+      }
+    }
+    if (shuffleBatches) {
+      return new CompiledDataSetIterator(compiled, rows, labels, numLabels, batchSize, seed);
+    }
+    return new CompiledDataSetIterator(compiled, rows, labels, numLabels, batchSize);
+  }
+
+  /**
+   * Instance indices in the order of the referenced rows.
+   *
+   * @param data the dataset
+   * @return Sorted instance indices
+   */
+  protected static int[] sortedByRow(Instances data) {
+    final long[] keys = new long[data.numInstances()];
+    for (int i = 0; i < keys.length; i++) {
+      // Row in the upper, instance index in the lower bits
+      keys[i] = ((long) data.instance(i).value(0) << 32) | i;
+    }
+    Arrays.sort(keys);
+    final int[] order = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      order[i] = (int) keys[i];
+    }
+    return order;
+  }
+
+  /**
+   * Row indices referenced by the given instances.
+   *
+   * @param data the dataset
+   * @return Row indices
+   */
+  public static long[] rows(Instances data) {
+    final long[] rows = new long[data.numInstances()];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = (long) data.instance(i).value(0);
+    }
+    return rows;
+  }
+
+  /**
+   * Position of each nominal class value in the sorted list of values, the label order used by
+   * DL4J.
+   *
+   * @param classAttribute Nominal class attribute
+   * @return Label index for each class value
+   */
+  protected static int[] sortedLabelIndex(Attribute classAttribute) {
+    List<String> labels = new ArrayList<>();
+    for (int i = 0; i < classAttribute.numValues(); i++) {
+      labels.add(classAttribute.value(i));
+    }
+    List<String> labelsSorted = new ArrayList<>(labels);
+    Collections.sort(labelsSorted);
+    int[] index = new int[labels.size()];
+    for (int i = 0; i < index.length; i++) {
+      index[i] = labelsSorted.indexOf(labels.get(i));
+    }
+    return index;
+  }
+
+  public String globalInfo() {
+    return "Instance iterator that reads the features from a memory mapped compiled dataset. The "
+        + "ARFF only references the rows, see CompiledDataSetLoader and CompiledDataSetSaver.";
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  @Override
+  public Enumeration<Option> listOptions() {
+    return Option.listOptionsForClassHierarchy(this.getClass(), super.getClass()).elements();
+  }
+
+  /**
+   * Gets the current settings of the Classifier.
+   *
+   * @return an array of strings suitable for passing to setOptions
+   */
+  @Override
+  public String[] getOptions() {
+    return Option.getOptionsForHierarchy(this, super.getClass());
+  }
+
+  /**
+   * Parses a given list of options.
+   *
+   * @param options the list of options as an array of strings
+   * @throws Exception if an option is not supported
+   */
+  public void setOptions(String[] options) throws Exception {
+    Option.setOptionsForHierarchy(options, this, super.getClass());
+  }
+}
@@ -18,19 +18,32 @@
 
 package weka.dl4j.iterators.instance;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Supplier;
 import org.datavec.api.split.CollectionInputSplit;
+import org.datavec.image.loader.NativeImageLoader;
 import org.datavec.image.recordreader.ImageRecordReader;
 import org.deeplearning4j.datasets.datavec.RecordReaderDataSetIterator;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
 import org.nd4j.linalg.dataset.api.preprocessor.ImagePreProcessingScaler;
 import weka.core.Environment;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.InvalidInputDataException;
 import weka.core.Option;
 import weka.core.OptionMetadata;
+import weka.core.WekaPackageManager;
 import weka.dl4j.ArffMetaDataLabelGenerator;
+import weka.dl4j.iterators.dataset.DecodedImageDataSetIterator;
+import weka.dl4j.iterators.dataset.ImageAugmentation;
+import weka.dl4j.iterators.dataset.ImageDecoder;
+import weka.dl4j.iterators.dataset.ParallelImageDataSetIterator;
+import weka.dl4j.iterators.dataset.cache.DecodedImageCache;
 
 import java.io.File;
 import weka.dl4j.iterators.instance.api.ConvolutionalIterator;
@@ -62,6 +75,25 @@ public class ImageInstanceIterator extends AbstractInstanceIterator implements
   /** The location of the folder containing the images */
   protected File imagesLocation = new File(System.getProperty("user.dir"));
 
+  /** Whether to cache the decoded images */
+  protected boolean cacheDecodedImages = false;
+
+  /** The location of the decoded image cache */
+  protected File decodedImageCacheDirectory =
+      new File(Paths.get(WekaPackageManager.WEKA_HOME.getAbsolutePath(), "image-cache").toString());
+
+  /** Number of threads decoding the images */
+  protected int numDecodeWorkers = 1;
+
+  /** Whether batches may be returned out of order */
+  protected boolean unorderedOutput = false;
+
+  /** Whether JPEG images may be decoded at a reduced size */
+  protected boolean reducedDecoding = false;
+
+  /** Augmentation of the training images */
+  protected ImageAugmentation augmentation = new ImageAugmentation();
+
   @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.SAVE_DIALOG, directoriesOnly = true)
   @OptionMetadata(
     displayName = "directory of images",
@@ -123,6 +155,105 @@ public class ImageInstanceIterator extends AbstractInstanceIterator implements
     this.numChannels = numChannels;
   }
 
+  @OptionMetadata(
+    displayName = "cache decoded images",
+    description = "Decode and resize each image only once and read the pixels from a memory "
+        + "mapped cache in later epochs and runs (default = false).",
+    commandLineParamName = "cacheDecodedImages",
+    commandLineParamSynopsis = "-cacheDecodedImages",
+    commandLineParamIsFlag = true,
+    displayOrder = 5
+  )
+  public boolean getCacheDecodedImages() {
+    return cacheDecodedImages;
+  }
+
+  public void setCacheDecodedImages(boolean cacheDecodedImages) {
+    this.cacheDecodedImages = cacheDecodedImages;
+  }
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.SAVE_DIALOG, directoriesOnly = true)
+  @OptionMetadata(
+    displayName = "decoded image cache directory",
+    description = "The directory of the decoded image cache "
+        + "(default = $WEKA_HOME/image-cache).",
+    commandLineParamName = "decodedImageCacheDir",
+    commandLineParamSynopsis = "-decodedImageCacheDir <string>",
+    displayOrder = 6
+  )
+  public File getDecodedImageCacheDirectory() {
+    return decodedImageCacheDirectory;
+  }
+
+  public void setDecodedImageCacheDirectory(File decodedImageCacheDirectory) {
+    this.decodedImageCacheDirectory = decodedImageCacheDirectory;
+  }
+
+  @OptionMetadata(
+    displayName = "number of decode workers",
+    description = "The number of threads decoding the images (default = 1).",
+    commandLineParamName = "numDecodeWorkers",
+    commandLineParamSynopsis = "-numDecodeWorkers <int>",
+    displayOrder = 7
+  )
+  public int getNumDecodeWorkers() {
+    return numDecodeWorkers;
+  }
+
+  public void setNumDecodeWorkers(int numDecodeWorkers) {
+    this.numDecodeWorkers = Math.max(1, numDecodeWorkers);
+  }
+
+  @OptionMetadata(
+    displayName = "unordered output",
+    description = "Return training batches as soon as a decode worker completes them instead "
+        + "of in dataset order (default = false).",
+    commandLineParamName = "unorderedOutput",
+    commandLineParamSynopsis = "-unorderedOutput",
+    commandLineParamIsFlag = true,
+    displayOrder = 8
+  )
+  public boolean getUnorderedOutput() {
+    return unorderedOutput;
+  }
+
+  public void setUnorderedOutput(boolean unorderedOutput) {
+    this.unorderedOutput = unorderedOutput;
+  }
+
+  @OptionMetadata(
+    displayName = "reduced decoding",
+    description = "Decode JPEG images that are at least twice the desired size at a reduced "
+        + "size of 1/2, 1/4 or 1/8 before resizing them (default = false).",
+    commandLineParamName = "reducedDecoding",
+    commandLineParamSynopsis = "-reducedDecoding",
+    commandLineParamIsFlag = true,
+    displayOrder = 9
+  )
+  public boolean getReducedDecoding() {
+    return reducedDecoding;
+  }
+
+  public void setReducedDecoding(boolean reducedDecoding) {
+    this.reducedDecoding = reducedDecoding;
+  }
+
+  @OptionMetadata(
+    displayName = "augmentation",
+    description = "Random augmentation of the training images, applied by the decode workers "
+        + "(default = none).",
+    commandLineParamName = "augmentation",
+    commandLineParamSynopsis = "-augmentation <ImageAugmentation>",
+    displayOrder = 10
+  )
+  public ImageAugmentation getAugmentation() {
+    return augmentation;
+  }
+
+  public void setAugmentation(ImageAugmentation augmentation) {
+    this.augmentation = augmentation;
+  }
+
   /**
    * Validates the input dataset
    *
@@ -189,6 +320,9 @@ public class ImageInstanceIterator extends AbstractInstanceIterator implements
 
     batchSize = Math.min(data.numInstances(), batchSize);
     validate(data);
+    if (getCacheDecodedImages() || getReducedDecoding() || getNumDecodeWorkers() > 1) {
+      return getDecodingDataSetIterator(data, batchSize, false);
+    }
     ImageRecordReader reader = getImageRecordReader(data);
 
     final int labelIndex = 1; // Use explicit label index position
@@ -201,6 +335,175 @@ public class ImageInstanceIterator extends AbstractInstanceIterator implements
     return tmpIter;
   }
 
+  /**
+   * Returns an iterator that decodes the images itself, optionally through the decoded image cache
+   * and in multiple worker threads. The labels are indexed in the same (sorted) order as the {@link
+   * ImageRecordReader} does.
+   *
+   * @param data the dataset to use
+   * @param batchSize the batch size to use
+   * @param training whether the iterator is used for training, which always uses a {@link
+   *     ParallelImageDataSetIterator} and allows unordered batches
+   * @return the iterator
+   * @throws Exception Cache could not be opened
+   */
+  protected DataSetIterator getDecodingDataSetIterator(
+      Instances data, int batchSize, boolean training) throws Exception {
+    ArffMetaDataLabelGenerator labelGenerator =
+        new ArffMetaDataLabelGenerator(data, resolve(getImagesLocation()).toString());
+    File[] files =
+        labelGenerator.getPathURIs().stream().map(File::new).toArray(File[]::new);
+
+    List<String> sortedLabels = getSortedLabels(data);
+    int[] labels = getLabelIndices(data, sortedLabels);
+
+    final int channels = getNumChannels();
+    final int height = getHeight();
+    final int width = getWidth();
+    final boolean reduced = getReducedDecoding();
+    DecodedImageCache cache = null;
+    if (getCacheDecodedImages()) {
+      cache =
+          DecodedImageCache.open(
+              resolve(getDecodedImageCacheDirectory()),
+              getDecodedImageShardName(),
+              channels * height * width);
+    }
+    final DecodedImageCache decodedImageCache = cache;
+    Supplier<ImageDecoder> decoders =
+        () ->
+            new ImageDecoder(
+                getNativeImageLoader(), channels, height, width, reduced, decodedImageCache);
+
+    DataSetIterator it;
+    if (training || getNumDecodeWorkers() > 1) {
+      it =
+          new ParallelImageDataSetIterator(
+              files,
+              labels,
+              data.numClasses(),
+              sortedLabels,
+              channels,
+              height,
+              width,
+              decoders,
+              batchSize,
+              getNumDecodeWorkers(),
+              !(training && getUnorderedOutput()));
+    } else {
+      it =
+          new DecodedImageDataSetIterator(
+              files,
+              labels,
+              data.numClasses(),
+              sortedLabels,
+              channels,
+              height,
+              width,
+              decoders.get(),
+              batchSize);
+    }
+    it.setPreProcessor(new ImagePreProcessingScaler(0, 1));
+    return it;
+  }
+
+  /**
+   * Returns the labels present in the dataset in sorted order, as the {@link ImageRecordReader}
+   * indexes them.
+   *
+   * @param data the dataset to use
+   * @return the sorted labels
+   */
+  protected List<String> getSortedLabels(Instances data) {
+    TreeSet<String> labelSet = new TreeSet<>();
+    for (Instance inst : data) {
+      labelSet.add(inst.stringValue(1));
+    }
+    return new ArrayList<>(labelSet);
+  }
+
+  /**
+   * Returns the label index of each instance.
+   *
+   * @param data the dataset to use
+   * @param sortedLabels the sorted labels
+   * @return the label indices
+   */
+  protected int[] getLabelIndices(Instances data, List<String> sortedLabels) {
+    int[] labels = new int[data.numInstances()];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = sortedLabels.indexOf(data.instance(i).stringValue(1));
+    }
+    return labels;
+  }
+
+  /**
+   * Whether the training iterator differs from {@link #getDataSetIterator(Instances, int, int)},
+   * e.g. because the images are augmented. Its batches must then not be cached across epochs.
+   *
+   * @return true if {@link #getTrainDataSetIterator(Instances, int, int)} should be used for
+   *     training
+   */
+  public boolean isTrainDataRandomized() {
+    return getAugmentation().isEnabled() || getUnorderedOutput();
+  }
+
+  /**
+   * Returns an iterator for training that augments the images as configured. The augmentation is
+   * different in each epoch but reproducible for a given seed. Batches are only returned out of
+   * order by this iterator, since predictions must be in dataset order.
+   *
+   * @param data the dataset to use
+   * @param seed the seed for the augmentation
+   * @param batchSize the batch size to use
+   * @return the iterator
+   * @throws Exception Images could not be loaded
+   */
+  public DataSetIterator getTrainDataSetIterator(Instances data, int seed, int batchSize)
+      throws Exception {
+    batchSize = Math.min(data.numInstances(), batchSize);
+    validate(data);
+    ParallelImageDataSetIterator it =
+        (ParallelImageDataSetIterator) getDecodingDataSetIterator(data, batchSize, true);
+    it.setAugmentation(getAugmentation(), seed);
+    return it;
+  }
+
+  /**
+   * Returns the loader that decodes the images for the decoded image cache. Must produce the same
+   * pixels as the reader of {@link #getImageRecordReader(Instances)}.
+   *
+   * @return the image loader
+   */
+  protected NativeImageLoader getNativeImageLoader() {
+    return new NativeImageLoader(getHeight(), getWidth(), getNumChannels());
+  }
+
+  /**
+   * Returns the name of the decoded image cache shard. Images decoded to a different shape or in a
+   * different way must use a different shard.
+   *
+   * @return the shard name
+   */
+  protected String getDecodedImageShardName() {
+    return String.format("images-%dx%dx%d", getNumChannels(), getHeight(), getWidth())
+        + (getReducedDecoding() ? "-reduced" : "");
+  }
+
+  /**
+   * Substitutes environment variables in the given path.
+   *
+   * @param file the path
+   * @return the resolved path
+   */
+  protected File resolve(File file) {
+    try {
+      return new File(Environment.getSystemWide().substitute(file.toString()));
+    } catch (Exception ex) {
+      return file;
+    }
+  }
+
   public String globalInfo() {
     return "Instance iterator that reads images based on the meta-data "
         + "given in the ARFF file.";
@@ -0,0 +1,271 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PackedImageInstanceIterator.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.instance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.preprocessor.ImagePreProcessingScaler;
+import weka.core.Instances;
+import weka.core.InvalidInputDataException;
+import weka.core.OptionMetadata;
+import weka.dl4j.iterators.dataset.ImageDecoder;
+import weka.dl4j.iterators.dataset.PackedImageDataSetIterator;
+import weka.dl4j.iterators.dataset.PackedImageShards;
+import weka.gui.FilePropertyMetadata;
+import weka.gui.ProgrammaticProperty;
+import weka.gui.knowledgeflow.KFGUIConsts;
+
+/**
+ * An iterator that reads the images listed in the meta data ARFF file from packed shards (see
+ * {@link PackedImageShards}) instead of one file per image.
+ *
+ * @author Steven Lang
+ */
+public class PackedImageInstanceIterator extends ImageInstanceIterator {
+
+  /** The version ID used for serializing objects of this class */
+  private static final long serialVersionUID = 1903385730914622478L;
+
+  /** The index file of the packed images */
+  protected File packedImages = new File(System.getProperty("user.dir"));
+
+  /** Whether to shuffle the order of the shards during training */
+  protected boolean shuffleShards = false;
+
+  /** Size of the shuffle buffer during training */
+  protected int shuffleBufferSize = 0;
+
+  /** The opened packed images */
+  protected transient PackedImageShards packedImageShards;
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.OPEN_DIALOG, directoriesOnly = false)
+  @OptionMetadata(
+    displayName = "packed images",
+    description = "The index file of the packed images (see PackedImageShards).",
+    commandLineParamName = "packedImages",
+    commandLineParamSynopsis = "-packedImages <string>",
+    displayOrder = 1
+  )
+  public File getPackedImages() {
+    return packedImages;
+  }
+
+  public void setPackedImages(File packedImages) {
+    this.packedImages = packedImages;
+    this.packedImageShards = null;
+  }
+
+  @OptionMetadata(
+    displayName = "shuffle shards",
+    description = "Visit the training images shard by shard in a random shard order instead of "
+        + "in dataset order (default = false).",
+    commandLineParamName = "shuffleShards",
+    commandLineParamSynopsis = "-shuffleShards",
+    commandLineParamIsFlag = true,
+    displayOrder = 11
+  )
+  public boolean getShuffleShards() {
+    return shuffleShards;
+  }
+
+  public void setShuffleShards(boolean shuffleShards) {
+    this.shuffleShards = shuffleShards;
+  }
+
+  @OptionMetadata(
+    displayName = "shuffle buffer size",
+    description = "Visit the training images in their packed order, shuffled by a buffer of "
+        + "this many images (default = 0).",
+    commandLineParamName = "shuffleBufferSize",
+    commandLineParamSynopsis = "-shuffleBufferSize <int>",
+    displayOrder = 12
+  )
+  public int getShuffleBufferSize() {
+    return shuffleBufferSize;
+  }
+
+  public void setShuffleBufferSize(int shuffleBufferSize) {
+    this.shuffleBufferSize = shuffleBufferSize;
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public File getImagesLocation() {
+    return super.getImagesLocation();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setImagesLocation(File imagesLocation) {
+    super.setImagesLocation(imagesLocation);
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public boolean getCacheDecodedImages() {
+    return false;
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setCacheDecodedImages(boolean cacheDecodedImages) {
+    // Packed images are read sequentially, caching the decoded images is not supported
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public File getDecodedImageCacheDirectory() {
+    return super.getDecodedImageCacheDirectory();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setDecodedImageCacheDirectory(File decodedImageCacheDirectory) {
+    super.setDecodedImageCacheDirectory(decodedImageCacheDirectory);
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public boolean getReducedDecoding() {
+    return false;
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setReducedDecoding(boolean reducedDecoding) {
+    // Reduced decoding needs the image files
+  }
+
+  /**
+   * Returns the packed images, opening them on first use.
+   *
+   * @return Packed images
+   * @throws IOException Packed images could not be opened
+   */
+  public PackedImageShards getPackedImageShards() throws IOException {
+    if (packedImageShards == null) {
+      packedImageShards = new PackedImageShards(resolve(getPackedImages()));
+    }
+    return packedImageShards;
+  }
+
+  /**
+   * Validates the input dataset
+   *
+   * @param data the input dataset
+   * @throws InvalidInputDataException if validation is unsuccessful
+   */
+  @Override
+  public void validate(Instances data) throws InvalidInputDataException {
+    if (!resolve(getPackedImages()).isFile()) {
+      throw new InvalidInputDataException(
+          "Packed images not found: " + resolve(getPackedImages()));
+    }
+    if (!(data.attribute(0).isString() && data.classIndex() == 1)) {
+      throw new InvalidInputDataException(
+          "An ARFF is required with a string attribute and a class attribute");
+    }
+  }
+
+  @Override
+  public DataSetIterator getDataSetIterator(Instances data, int seed, int batchSize)
+      throws Exception {
+    batchSize = Math.min(data.numInstances(), batchSize);
+    validate(data);
+    return getPackedDataSetIterator(data, batchSize, false);
+  }
+
+  @Override
+  public boolean isTrainDataRandomized() {
+    return super.isTrainDataRandomized() || getShuffleShards() || getShuffleBufferSize() > 1;
+  }
+
+  /**
+   * Returns an iterator for training that shuffles and augments the images as configured.
+   *
+   * @param data the dataset to use
+   * @param seed the seed for the shuffling and augmentation
+   * @param batchSize the batch size to use
+   * @return the iterator
+   * @throws Exception Packed images could not be read
+   */
+  @Override
+  public DataSetIterator getTrainDataSetIterator(Instances data, int seed, int batchSize)
+      throws Exception {
+    batchSize = Math.min(data.numInstances(), batchSize);
+    validate(data);
+    PackedImageDataSetIterator it = getPackedDataSetIterator(data, batchSize, true);
+    it.setAugmentation(getAugmentation(), seed);
+    it.setShuffle(getShuffleShards(), getShuffleBufferSize(), seed);
+    return it;
+  }
+
+  /**
+   * Returns an iterator over the packed images of the given instances.
+   *
+   * @param data the dataset to use
+   * @param batchSize the batch size to use
+   * @param training whether the iterator is used for training, which allows unordered batches
+   * @return the iterator
+   * @throws Exception Packed images could not be read or do not contain an image
+   */
+  protected PackedImageDataSetIterator getPackedDataSetIterator(
+      Instances data, int batchSize, boolean training) throws Exception {
+    PackedImageShards shards = getPackedImageShards();
+    int[] records = new int[data.numInstances()];
+    for (int i = 0; i < records.length; i++) {
+      final String name = data.instance(i).stringValue(0);
+      records[i] = shards.indexOf(name);
+      if (records[i] < 0) {
+        throw new InvalidInputDataException("Image " + name + " is not packed in " + packedImages);
+      }
+    }
+    List<String> sortedLabels = getSortedLabels(data);
+
+    final int channels = getNumChannels();
+    final int height = getHeight();
+    final int width = getWidth();
+    Supplier<ImageDecoder> decoders =
+        () -> new ImageDecoder(getNativeImageLoader(), channels, height, width, false, null);
+    PackedImageDataSetIterator it =
+        new PackedImageDataSetIterator(
+            shards,
+            records,
+            getLabelIndices(data, sortedLabels),
+            data.numClasses(),
+            sortedLabels,
+            channels,
+            height,
+            width,
+            decoders,
+            batchSize,
+            getNumDecodeWorkers(),
+            !(training && getUnorderedOutput()));
+    it.setPreProcessor(new ImagePreProcessingScaler(0, 1));
+    return it;
+  }
+
+  public String globalInfo() {
+    return "Instance iterator that reads images from packed shard files based on the meta-data "
+        + "given in the ARFF file.";
+  }
+}
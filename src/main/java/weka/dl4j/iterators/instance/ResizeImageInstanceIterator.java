@@ -20,11 +20,13 @@ package weka.dl4j.iterators.instance;
 
 import java.io.File;
 import org.datavec.api.split.CollectionInputSplit;
+import org.datavec.image.loader.NativeImageLoader;
 import org.datavec.image.recordreader.ImageRecordReader;
 import org.datavec.image.transform.ResizeImageTransform;
 import weka.core.Instances;
 import weka.core.OptionMetadata;
 import weka.dl4j.ArffMetaDataLabelGenerator;
+import weka.dl4j.iterators.dataset.ImageAugmentation;
 import weka.gui.ProgrammaticProperty;
 
 /**
@@ -138,6 +140,78 @@ public class ResizeImageInstanceIterator extends ImageInstanceIterator {
     iii.setImagesLocation(imagesLocation);
   }
 
+  @Override
+  @ProgrammaticProperty
+  public boolean getCacheDecodedImages() {
+    return iii.getCacheDecodedImages();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setCacheDecodedImages(boolean cacheDecodedImages) {
+    iii.setCacheDecodedImages(cacheDecodedImages);
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public File getDecodedImageCacheDirectory() {
+    return iii.getDecodedImageCacheDirectory();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setDecodedImageCacheDirectory(File decodedImageCacheDirectory) {
+    iii.setDecodedImageCacheDirectory(decodedImageCacheDirectory);
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public int getNumDecodeWorkers() {
+    return iii.getNumDecodeWorkers();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setNumDecodeWorkers(int numDecodeWorkers) {
+    iii.setNumDecodeWorkers(numDecodeWorkers);
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public boolean getUnorderedOutput() {
+    return iii.getUnorderedOutput();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setUnorderedOutput(boolean unorderedOutput) {
+    iii.setUnorderedOutput(unorderedOutput);
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public boolean getReducedDecoding() {
+    return iii.getReducedDecoding();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setReducedDecoding(boolean reducedDecoding) {
+    iii.setReducedDecoding(reducedDecoding);
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public ImageAugmentation getAugmentation() {
+    return iii.getAugmentation();
+  }
+
+  @Override
+  @ProgrammaticProperty
+  public void setAugmentation(ImageAugmentation augmentation) {
+    iii.setAugmentation(augmentation);
+  }
+
   /**
    * Default constructor with the new shape
    *
@@ -152,6 +226,12 @@ public class ResizeImageInstanceIterator extends ImageInstanceIterator {
     this.setTrainBatchSize(iii.getTrainBatchSize());
     this.setImagesLocation(iii.getImagesLocation());
     this.setNumChannels(iii.getNumChannels());
+    this.setCacheDecodedImages(iii.getCacheDecodedImages());
+    this.setDecodedImageCacheDirectory(iii.getDecodedImageCacheDirectory());
+    this.setNumDecodeWorkers(iii.getNumDecodeWorkers());
+    this.setUnorderedOutput(iii.getUnorderedOutput());
+    this.setReducedDecoding(iii.getReducedDecoding());
+    this.setAugmentation(iii.getAugmentation());
   }
 
   @Override
@@ -165,4 +245,15 @@ public class ResizeImageInstanceIterator extends ImageInstanceIterator {
     reader.initialize(cis);
     return reader;
   }
+
+  @Override
+  protected NativeImageLoader getNativeImageLoader() {
+    ResizeImageTransform rit = new ResizeImageTransform(getWidth(), getHeight());
+    return new NativeImageLoader(getHeight(), getWidth(), getNumChannels(), rit);
+  }
+
+  @Override
+  protected String getDecodedImageShardName() {
+    return super.getDecodedImageShardName() + "-resized";
+  }
 }
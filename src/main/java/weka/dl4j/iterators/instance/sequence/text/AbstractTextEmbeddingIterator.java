@@ -18,37 +18,48 @@
 
 package weka.dl4j.iterators.instance.sequence.text;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
-import java.util.zip.GZIPInputStream;
+import java.util.Set;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.io.FileUtils;
 import org.deeplearning4j.iterator.LabeledSentenceProvider;
 import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
 import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.deeplearning4j.nn.conf.layers.EmbeddingLayer;
+import org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer;
+import org.deeplearning4j.nn.conf.layers.misc.FrozenLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.OptionMetadata;
-import weka.core.converters.CSVSaver;
+import weka.core.WekaPackageManager;
+import weka.dl4j.WordVectorQuantization;
+import weka.dl4j.iterators.dataset.sequence.text.TokenizedDocumentCache;
 import weka.dl4j.iterators.instance.sequence.AbstractSequenceInstanceIterator;
 import weka.dl4j.iterators.provider.CollectionLabeledSentenceProvider;
 import weka.dl4j.text.stopwords.Dl4jAbstractStopwords;
 import weka.dl4j.text.stopwords.Dl4jRainbow;
 import weka.dl4j.text.tokenization.preprocessor.CommonPreProcessor;
 import weka.dl4j.text.tokenization.preprocessor.TokenPreProcess;
+import weka.dl4j.text.tokenization.tokenizer.factory.CharacterNGramTokenizerFactory;
 import weka.dl4j.text.tokenization.tokenizer.factory.DefaultTokenizerFactory;
 import weka.dl4j.text.tokenization.tokenizer.factory.TokenizerFactory;
+import weka.dl4j.text.wordvectors.PrunedWordVectors;
+import weka.dl4j.text.wordvectors.QuantizedWordVectors;
+import weka.dl4j.text.wordvectors.WordVectorCache;
+import weka.dl4j.text.wordvectors.WordVectorRegistry;
+import weka.gui.FilePropertyMetadata;
 import weka.gui.ProgrammaticProperty;
+import weka.gui.knowledgeflow.KFGUIConsts;
 
 /**
  * Abstract text iterator that provides variables and methods for text processing.
@@ -59,6 +70,8 @@ import weka.gui.ProgrammaticProperty;
 public abstract class AbstractTextEmbeddingIterator extends AbstractSequenceInstanceIterator {
 
   private static final long serialVersionUID = -7281727147475986632L;
+  /** Seed of the quantization, fixed so that reloaded models get the same quantized vectors */
+  private static final long QUANTIZATION_SEED = 42;
   /** Loaded word vectors */
   public transient WordVectors wordVectors;
   /** Word vector file location */
@@ -71,191 +84,226 @@ public abstract class AbstractTextEmbeddingIterator extends AbstractSequenceInst
   protected Dl4jAbstractStopwords stopwords = new Dl4jRainbow();
   /** Truncation length (maximum number of tokens per document) */
   protected int truncateLength = 100;
+  /** Whether to emit token indices that are looked up by an embedding layer in the network */
+  protected boolean tokenIndexMode = false;
+  /** Whether the embedding layer is trained in token index mode */
+  protected boolean trainEmbeddings = false;
+  /** Number of threads that tokenize the documents (non-positive: all available processors) */
+  protected int numTokenizerThreads = 0;
+  /** Whether the tokenized documents are stored on disk and reused across runs */
+  protected boolean persistTokens = false;
+  /** Directory of the binary word vector files */
+  protected File wordVectorCacheDirectory =
+      new File(
+          Paths.get(WekaPackageManager.WEKA_HOME.getAbsolutePath(), "word-vector-cache").toString());
+  /** Directory of the tokenized documents */
+  protected File tokenCacheDirectory =
+      new File(Paths.get(WekaPackageManager.WEKA_HOME.getAbsolutePath(), "token-cache").toString());
+  /** Whether the word vectors are pruned to the vocabulary of the training data */
+  protected boolean pruneVocabulary = false;
+  /** Word vectors pruned to the vocabulary of the training data, stored with the model */
+  protected PrunedWordVectors prunedWordVectors;
+  /** Compression of the word vectors */
+  protected WordVectorQuantization wordVectorQuantization = WordVectorQuantization.NONE;
+  /** Number of subspaces of the product quantization (non-positive: a tenth of the vector size) */
+  protected int numQuantizationSubspaces = 0;
+  /** Number of hash buckets of the tokens (non-positive: look up the tokens in the word vectors) */
+  protected int numHashBuckets = 0;
+  /** Size of the trained embeddings of the hash buckets */
+  protected int hashEmbeddingSize = 100;
 
-  /** Initialize the word vectors from the given file */
+  /**
+   * Initialize the word vectors from the given file. The word vectors are shared with all other
+   * iterators in the JVM that use the same file.
+   */
   public void initWordVectors() {
 
+    if (isHashingMode()) {
+      log.debug("Tokens are hashed, no word vectors needed.");
+      return;
+    }
+
     if (wordVectors != null) {
       log.debug("Word vectors already loaded, skipping initialization.");
       return;
     }
 
-    log.debug("Loading word vector model");
+    if (prunedWordVectors != null) {
+      wordVectors = quantize(prunedWordVectors.toWordVectors());
+      return;
+    }
 
-    final String path = wordVectorLocation.getAbsolutePath();
-    final String pathLower = path.toLowerCase();
-    if (pathLower.endsWith(".arff")) {
-      loadEmbeddingFromArff(path);
-    } else if (pathLower.endsWith(".csv")) {
-      // Check if file is CSV
-      boolean success = loadEmbeddingFromCSV(wordVectorLocation);
-      if (!success) {
-        throw new RuntimeException("Could not load the word vector file.");
+    log.debug("Loading word vector model");
+    try {
+      if (wordVectorQuantization == WordVectorQuantization.NONE) {
+        wordVectors = WordVectorRegistry.acquire(wordVectorLocation, this::loadWordVectors);
+      } else {
+        final String variant = wordVectorQuantization + " " + numQuantizationSubspaces;
+        wordVectors =
+            WordVectorRegistry.acquire(wordVectorLocation, variant, this::loadQuantizedWordVectors);
       }
-    } else if (pathLower.endsWith(".csv.gz")) {
-      loadGZipped();
-    } else {
-      // If no file extension was caught before, try loading as is
-      wordVectors = WordVectorSerializer.loadStaticModel(wordVectorLocation);
+    } catch (IOException e) {
+      throw new RuntimeException(
+          "Could not load the word vector file (" + wordVectorLocation + ")", e);
     }
   }
 
-  /** Load wordVectors from a gzipped csv file */
-  private void loadGZipped() {
+  /**
+   * Initialize the word vectors for training on the given data. If the vocabulary is pruned, only
+   * the word vectors of the tokens in the data are loaded, plus an all-zero vector to which all
+   * other tokens are mapped. Otherwise, this is the same as {@link #initWordVectors()}.
+   *
+   * @param data Training data
+   */
+  public void initWordVectors(Instances data) {
+    if (!pruneVocabulary || isHashingMode()) {
+      if (prunedWordVectors != null) {
+        prunedWordVectors = null;
+        setWordVectors(null);
+      }
+      initWordVectors();
+      return;
+    }
+
+    final Set<String> vocabulary = collectVocabulary(data);
+    setWordVectors(null);
     try {
-      wordVectors = WordVectorSerializer.loadStaticModel(wordVectorLocation);
-    } catch (RuntimeException re) {
-      // Dl4j format not found, continue with decompression by hand
-      try {
-        GZIPInputStream gzis = new GZIPInputStream(new FileInputStream(wordVectorLocation));
-        File tmpFile =
-            Paths.get(System.getProperty("java.io.tmpdir"), "wordmodel-tmp.csv").toFile();
-        tmpFile.delete();
-        FileOutputStream fos = new FileOutputStream(tmpFile);
-        int length;
-        byte[] buffer = new byte[1024];
-        while ((length = gzis.read(buffer)) > 0) {
-          fos.write(buffer, 0, length);
-        }
-        fos.close();
-        gzis.close();
+      prunedWordVectors = loadPrunedWordVectors(wordVectorLocation, vocabulary);
+    } catch (IOException e) {
+      throw new RuntimeException(
+          "Could not load the word vector file (" + wordVectorLocation + ")", e);
+    }
+    wordVectors = quantize(prunedWordVectors.toWordVectors());
+    log.info(
+        "Pruned word vectors to {} of {} distinct tokens in the training data",
+        prunedWordVectors.numWords() - 1,
+        vocabulary.size());
+  }
 
-        // Try loading decompressed CSV file
-        boolean success = loadEmbeddingFromCSV(tmpFile);
-        if (!success) {
-          throw new RuntimeException("Could not load the word vector file.");
+  /**
+   * Collect the tokens of the documents in the given data that are no stop words.
+   *
+   * @param data Data
+   * @return Distinct tokens
+   */
+  protected Set<String> collectVocabulary(Instances data) {
+    final org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory tf =
+        tokenizerFactory.getBackend();
+    tf.setTokenPreProcessor(tokenPreProcess.getBackend());
+    final LabeledSentenceProvider provider = getSentenceProvider(data);
+    Set<String> vocabulary = new HashSet<>();
+    while (provider.hasNext()) {
+      for (String token : tf.create(provider.nextSentence().getFirst()).getTokens()) {
+        if (!token.isEmpty() && !stopwords.isStopword(token)) {
+          vocabulary.add(token);
         }
+      }
+    }
+    return vocabulary;
+  }
+
+  /**
+   * Load the word vectors of a file, pruned to the given vocabulary. Text formats are pruned while
+   * reading their binary copy, other formats are loaded completely and pruned afterwards.
+   *
+   * @param file Word vector file
+   * @param vocabulary Words to keep
+   * @return Pruned word vectors
+   * @throws IOException Could not load the word vectors
+   */
+  protected PrunedWordVectors loadPrunedWordVectors(File file, Set<String> vocabulary)
+      throws IOException {
+    if (isTextFormat(file)) {
+      try {
+        return new WordVectorCache(wordVectorCacheDirectory).load(file, vocabulary);
       } catch (IOException e) {
-        e.printStackTrace();
+        if (!file.getName().toLowerCase().endsWith(".csv.gz")) {
+          throw e;
+        }
       }
     }
+    final WordVectors full = WordVectorRegistry.acquire(file, this::loadWordVectors);
+    try {
+      return PrunedWordVectors.prune(full, vocabulary);
+    } finally {
+      WordVectorRegistry.release(full);
+    }
   }
 
   /**
-   * Load the embedding from a given arff file. First converts the ARFF to a temporary CSV file and
-   * continues the loading mechanism with the CSV file afterwards
+   * Load the word vectors of a file and quantize them. The full precision word vectors are dropped
+   * afterwards, unless they are shared with other iterators.
    *
-   * @param path Path to the ARFF file
+   * @param file Word vector file
+   * @return Quantized word vectors
+   * @throws IOException Could not load the word vectors
    */
-  private void loadEmbeddingFromArff(String path) {
-    // Try loading ARFF file
+  protected WordVectors loadQuantizedWordVectors(File file) throws IOException {
+    final WordVectors full = WordVectorRegistry.acquire(file, this::loadWordVectors);
     try {
-      Instances insts = new Instances(new FileReader(path));
-      CSVSaver saver = new CSVSaver();
-      saver.setFieldSeparator(" ");
-      saver.setInstances(insts);
-      final File tmpFile =
-          Paths.get(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString(), ".csv")
-              .toFile();
-      saver.setFile(tmpFile);
-      saver.setNoHeaderRow(true);
-      saver.writeBatch();
-      loadEmbeddingFromCSV(tmpFile);
-      tmpFile.delete();
-    } catch (Exception e) {
-      throw new RuntimeException(
-          "ARFF file could not be read (" + wordVectorLocation.getAbsolutePath() + ")", e);
+      return quantize(full);
+    } finally {
+      WordVectorRegistry.release(full);
     }
   }
 
   /**
-   * Try to load the embedding from a CSV file. This iterates over different separators.
+   * Quantize word vectors with the configured method.
    *
-   * @param f CSV file
-   * @return True if loading was successful
+   * @param full Full precision word vectors
+   * @return Quantized word vectors, or the given word vectors if they are not quantized
    */
-  private boolean loadEmbeddingFromCSV(File f) {
-    // Try different separators
-    for (String sep : new String[] {" ", ";", ",", "\t", "\\w", ":"}) {
-      boolean success = loadEmbeddingFromCSV(sep, f);
-      if (success) {
-        return true;
-      }
+  protected WordVectors quantize(WordVectors full) {
+    if (wordVectorQuantization == WordVectorQuantization.NONE) {
+      return full;
     }
-    return false;
+    return QuantizedWordVectors.quantize(
+        full, wordVectorQuantization, numQuantizationSubspaces, QUANTIZATION_SEED);
   }
 
   /**
-   * Try to load the embedding from a CSV file.
+   * Check whether a word vector file is in one of the text formats that are converted to a binary
+   * file (ARFF, CSV or gzipped CSV).
    *
-   * @param separator Separator for CSV interpretation
-   * @param file CSV file
-   * @return
+   * @param file Word vector file
+   * @return True if the file is in a text format
    */
-  private boolean loadEmbeddingFromCSV(String separator, File file) {
-    try {
-      File augmentedCSVFile = Paths.get(file.getAbsolutePath() + ".aug").toFile();
-      augmentedCSVFile.delete();
-      BufferedReader br = new BufferedReader(new FileReader(file));
-      BufferedWriter bw = new BufferedWriter(new FileWriter(augmentedCSVFile));
-      String line;
-      // Replace separator with whitespace in each line for dl4j parsing
-      while ((line = br.readLine()) != null) {
-        if (!line.contains(separator)) return false; // Continue to the next separator
-        bw.write(line.replaceAll(separator, " "));
-        bw.newLine();
-      }
-      br.close();
-      bw.close();
+  protected boolean isTextFormat(File file) {
+    final String nameLower = file.getName().toLowerCase();
+    return nameLower.endsWith(".arff")
+        || nameLower.endsWith(".csv")
+        || nameLower.endsWith(".csv.gz");
+  }
 
-      // First try to load it as is
+  /**
+   * Load the word vectors of a file.
+   *
+   * @param file Word vector file
+   * @return Word vectors
+   * @throws IOException Could not load the word vectors
+   */
+  protected WordVectors loadWordVectors(File file) throws IOException {
+    if (isTextFormat(file)) {
+      // Text formats are converted to a binary file once and mapped on later loads
+      final WordVectorCache cache = new WordVectorCache(wordVectorCacheDirectory);
       try {
-        wordVectors = WordVectorSerializer.loadStaticModel(augmentedCSVFile);
-        if (wordVectors.vocab().words().size() != FileUtils.readLines(augmentedCSVFile).size()) {
-          throw new Exception("Something went wrong"); // Continue in catch clause
-        }
-        augmentedCSVFile.delete();
-        return true;
-      } catch (Exception e) {
-        // Failed: this might be due to DL4J expecting the word at pos [0] and the CSV file having
-        // the word at the last position
-
-        // Try to put the last token to the first position and reload the model
-        File augmentedCSVFileSwitched = Paths.get(file.getAbsolutePath() + ".aug2").toFile();
-        augmentedCSVFileSwitched.delete();
-        br = new BufferedReader(new FileReader(augmentedCSVFile));
-        bw = new BufferedWriter(new FileWriter(augmentedCSVFileSwitched));
-
-        // Replace separator with whitespace in each line for dl4j parsing
-        while ((line = br.readLine()) != null) {
-          String[] parts = line.split(" ");
-          // Join the parts, starting with the last one
-          StringBuilder sb = new StringBuilder();
-          sb.append(parts[parts.length - 1]);
-          for (int i = 0; i < parts.length - 1; i++) {
-            if (i < parts.length - 2) {
-              sb.append(" ");
-            }
-            sb.append(parts[i]);
-          }
-          bw.write(sb.toString());
-          bw.newLine();
-        }
-        br.close();
-        bw.close();
-
-        try {
-          wordVectors = WordVectorSerializer.loadStaticModel(augmentedCSVFileSwitched);
-          // Success
-          return true;
-        } catch (Exception ex) {
-          return false;
-        } finally {
-          augmentedCSVFile.delete();
-          augmentedCSVFileSwitched.delete();
+        return cache.load(file);
+      } catch (IOException e) {
+        if (!file.getName().toLowerCase().endsWith(".csv.gz")) {
+          throw e;
         }
-      } finally {
-        augmentedCSVFile.delete();
+        // Might be a gzipped file in one of the DL4J formats
+        return WordVectorSerializer.loadStaticModel(file);
       }
-    } catch (IOException e) {
-      // Not successful
-      return false;
     }
+    // If no file extension was caught before, try loading as is
+    return WordVectorSerializer.loadStaticModel(file);
   }
 
   @OptionMetadata(
     displayName = "truncation length",
-    description = "The maximum number of tokens per document (default = 100).",
+    description = "The maximum number of tokens per document (default = 100). For hashed "
+        + "character n-grams, the maximum number of characters.",
     commandLineParamName = "truncationLength",
     commandLineParamSynopsis = "-truncationLength <int>",
     displayOrder = 2
@@ -285,6 +333,10 @@ public abstract class AbstractTextEmbeddingIterator extends AbstractSequenceInst
    * @param file Word vector location
    */
   public void setWordVectorLocation(File file) {
+    if (!file.equals(wordVectorLocation)) {
+      prunedWordVectors = null;
+      setWordVectors(null);
+    }
     this.wordVectorLocation = file;
   }
 
@@ -333,6 +385,363 @@ public abstract class AbstractTextEmbeddingIterator extends AbstractSequenceInst
     this.stopwords = stopwords;
   }
 
+  @OptionMetadata(
+    displayName = "token index mode",
+    description = "Whether to emit the vocabulary indices of the tokens instead of their word "
+        + "vectors. The word vectors are then looked up by an embedding layer in the network "
+        + "(default = false).",
+    commandLineParamName = "tokenIndexMode",
+    commandLineParamSynopsis = "-tokenIndexMode",
+    commandLineParamIsFlag = true,
+    displayOrder = 6
+  )
+  public boolean isTokenIndexMode() {
+    return tokenIndexMode;
+  }
+
+  public void setTokenIndexMode(boolean tokenIndexMode) {
+    this.tokenIndexMode = tokenIndexMode;
+  }
+
+  @OptionMetadata(
+    displayName = "train embeddings",
+    description = "Whether the embedding layer is trained in token index mode. Otherwise the word "
+        + "vectors are frozen (default = false).",
+    commandLineParamName = "trainEmbeddings",
+    commandLineParamSynopsis = "-trainEmbeddings",
+    commandLineParamIsFlag = true,
+    displayOrder = 7
+  )
+  public boolean isTrainEmbeddings() {
+    return trainEmbeddings;
+  }
+
+  public void setTrainEmbeddings(boolean trainEmbeddings) {
+    this.trainEmbeddings = trainEmbeddings;
+  }
+
+  @OptionMetadata(
+    displayName = "number of tokenizer threads",
+    description = "The number of threads that tokenize the documents, non-positive for all "
+        + "available processors (default = 0).",
+    commandLineParamName = "numTokenizerThreads",
+    commandLineParamSynopsis = "-numTokenizerThreads <int>",
+    displayOrder = 8
+  )
+  public int getNumTokenizerThreads() {
+    return numTokenizerThreads;
+  }
+
+  public void setNumTokenizerThreads(int numTokenizerThreads) {
+    this.numTokenizerThreads = numTokenizerThreads;
+  }
+
+  @OptionMetadata(
+    displayName = "persist tokens",
+    description = "Whether the tokenized documents are stored in the token cache directory and "
+        + "reused by later runs with the same tokenizer, stop words and word vectors "
+        + "(default = false).",
+    commandLineParamName = "persistTokens",
+    commandLineParamSynopsis = "-persistTokens",
+    commandLineParamIsFlag = true,
+    displayOrder = 9
+  )
+  public boolean isPersistTokens() {
+    return persistTokens;
+  }
+
+  public void setPersistTokens(boolean persistTokens) {
+    this.persistTokens = persistTokens;
+  }
+
+  public File getTokenCacheDirectory() {
+    return tokenCacheDirectory;
+  }
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.SAVE_DIALOG, directoriesOnly = true)
+  @OptionMetadata(
+    displayName = "token cache directory",
+    description = "The directory of the tokenized documents if they are persisted "
+        + "(default = $WEKA_HOME/token-cache).",
+    commandLineParamName = "tokenCacheDir",
+    commandLineParamSynopsis = "-tokenCacheDir <string>",
+    displayOrder = 10
+  )
+  public void setTokenCacheDirectory(File tokenCacheDirectory) {
+    this.tokenCacheDirectory = tokenCacheDirectory;
+  }
+
+  public File getWordVectorCacheDirectory() {
+    return wordVectorCacheDirectory;
+  }
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.SAVE_DIALOG, directoriesOnly = true)
+  @OptionMetadata(
+    displayName = "word vector cache directory",
+    description = "The directory of the binary copies of word vectors in text formats (CSV, "
+        + "gzipped CSV and ARFF), which are loaded instead of the text file "
+        + "(default = $WEKA_HOME/word-vector-cache).",
+    commandLineParamName = "wordVectorCacheDir",
+    commandLineParamSynopsis = "-wordVectorCacheDir <string>",
+    displayOrder = 11
+  )
+  public void setWordVectorCacheDirectory(File wordVectorCacheDirectory) {
+    this.wordVectorCacheDirectory = wordVectorCacheDirectory;
+  }
+
+  @OptionMetadata(
+    displayName = "prune vocabulary",
+    description = "Whether to load only the word vectors of tokens that occur in the training "
+        + "data and store them with the model (default = false). All other tokens are mapped to "
+        + "a single all-zero vector.",
+    commandLineParamName = "pruneVocabulary",
+    commandLineParamSynopsis = "-pruneVocabulary",
+    commandLineParamIsFlag = true,
+    displayOrder = 12
+  )
+  public boolean isPruneVocabulary() {
+    return pruneVocabulary;
+  }
+
+  public void setPruneVocabulary(boolean pruneVocabulary) {
+    if (!pruneVocabulary && prunedWordVectors != null) {
+      prunedWordVectors = null;
+      setWordVectors(null);
+    }
+    this.pruneVocabulary = pruneVocabulary;
+  }
+
+  public WordVectorQuantization getWordVectorQuantization() {
+    return wordVectorQuantization;
+  }
+
+  @OptionMetadata(
+    displayName = "word vector quantization",
+    description = "The compression of the word vectors in memory, one of {NONE,INT8,PRODUCT} "
+        + "(default = NONE). INT8 stores a byte per component, PRODUCT a byte per subspace.",
+    commandLineParamName = "wordVectorQuantization",
+    commandLineParamSynopsis = "-wordVectorQuantization <string>",
+    displayOrder = 13
+  )
+  public void setWordVectorQuantization(WordVectorQuantization wordVectorQuantization) {
+    if (wordVectorQuantization != this.wordVectorQuantization) {
+      setWordVectors(null);
+    }
+    this.wordVectorQuantization = wordVectorQuantization;
+  }
+
+  @OptionMetadata(
+    displayName = "number of quantization subspaces",
+    description = "The number of subspaces of the PRODUCT quantization, i.e. the bytes per word "
+        + "(default = 0, a tenth of the vector size).",
+    commandLineParamName = "numQuantizationSubspaces",
+    commandLineParamSynopsis = "-numQuantizationSubspaces <int>",
+    displayOrder = 14
+  )
+  public int getNumQuantizationSubspaces() {
+    return numQuantizationSubspaces;
+  }
+
+  public void setNumQuantizationSubspaces(int numQuantizationSubspaces) {
+    if (numQuantizationSubspaces != this.numQuantizationSubspaces) {
+      setWordVectors(null);
+    }
+    this.numQuantizationSubspaces = numQuantizationSubspaces;
+  }
+
+  @OptionMetadata(
+    displayName = "number of hash buckets",
+    description = "The number of buckets into which the tokens are hashed, 0 to look up the "
+        + "tokens in the word vectors (default = 0). Hashed tokens are emitted as token indices "
+        + "into an embedding layer that is trained from scratch, no word vector file is needed.",
+    commandLineParamName = "numHashBuckets",
+    commandLineParamSynopsis = "-numHashBuckets <int>",
+    displayOrder = 15
+  )
+  public int getNumHashBuckets() {
+    return numHashBuckets;
+  }
+
+  public void setNumHashBuckets(int numHashBuckets) {
+    this.numHashBuckets = numHashBuckets;
+  }
+
+  @OptionMetadata(
+    displayName = "hash embedding size",
+    description = "The size of the trained embeddings of the hash buckets (default = 100).",
+    commandLineParamName = "hashEmbeddingSize",
+    commandLineParamSynopsis = "-hashEmbeddingSize <int>",
+    displayOrder = 16
+  )
+  public int getHashEmbeddingSize() {
+    return hashEmbeddingSize;
+  }
+
+  public void setHashEmbeddingSize(int hashEmbeddingSize) {
+    this.hashEmbeddingSize = hashEmbeddingSize;
+  }
+
+  /**
+   * Get the maximum number of positions per document. For hashed tokens of the {@link
+   * CharacterNGramTokenizerFactory}, every n-gram is a position of its own and one n-gram of each
+   * size starts at each character. The truncation length then counts characters and is multiplied
+   * by the number of n-gram sizes.
+   *
+   * @return Maximum sequence length
+   */
+  public int getSequenceLength() {
+    if (isHashingMode() && tokenizerFactory instanceof CharacterNGramTokenizerFactory) {
+      final CharacterNGramTokenizerFactory ngrams =
+          (CharacterNGramTokenizerFactory) tokenizerFactory;
+      return truncateLength * Math.max(1, ngrams.getNMax() - ngrams.getNMin() + 1);
+    }
+    return truncateLength;
+  }
+
+  /**
+   * Whether the tokens are hashed into buckets instead of being looked up in the word vectors.
+   *
+   * @return True if the number of hash buckets is positive
+   */
+  public boolean isHashingMode() {
+    return numHashBuckets > 0;
+  }
+
+  /**
+   * Whether the iterator emits token indices, either in token index mode or for hashed tokens.
+   *
+   * @return True if the network needs an embedding layer
+   */
+  public boolean isEmittingTokenIndices() {
+    return tokenIndexMode || isHashingMode();
+  }
+
+  /**
+   * Get the size of the vectors that represent the tokens.
+   *
+   * @return Hash embedding size for hashed tokens, the word vector size otherwise
+   */
+  public int getEmbeddingSize() {
+    if (isHashingMode()) {
+      return hashEmbeddingSize;
+    }
+    initWordVectors();
+    return wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+  }
+
+  /**
+   * Get the word vectors pruned to the vocabulary of the training data.
+   *
+   * @return Pruned word vectors, null if the vocabulary is not pruned
+   */
+  @ProgrammaticProperty
+  public PrunedWordVectors getPrunedWordVectors() {
+    return prunedWordVectors;
+  }
+
+  /**
+   * Create the cache of the tokenized documents for a dataset iterator. The documents are cached
+   * in memory across epochs and, if the tokens are persisted, on disk across runs.
+   *
+   * @return Token cache
+   */
+  public TokenizedDocumentCache createTokenCache() {
+    if (isHashingMode()) {
+      File file = null;
+      if (persistTokens) {
+        final String key =
+            TokenizedDocumentCache.computeKey(
+                tokenizerFactory, tokenPreProcess, stopwords, "hash " + numHashBuckets);
+        file = new File(tokenCacheDirectory, key + TokenizedDocumentCache.FILE_SUFFIX);
+      }
+      return new TokenizedDocumentCache(
+          tokenizerFactory.getBackend(), stopwords, numHashBuckets, numTokenizerThreads, file);
+    }
+    File file = null;
+    if (persistTokens) {
+      String key =
+          TokenizedDocumentCache.computeKey(
+              tokenizerFactory, tokenPreProcess, stopwords, wordVectorLocation, wordVectors);
+      if (prunedWordVectors != null) {
+        // Vocabulary indices of pruned word vectors depend on the training data
+        key += "-" + prunedWordVectors.getDigest().substring(0, 16);
+      }
+      file = new File(tokenCacheDirectory, key + TokenizedDocumentCache.FILE_SUFFIX);
+    }
+    return new TokenizedDocumentCache(
+        tokenizerFactory.getBackend(), stopwords, wordVectors, numTokenizerThreads, file);
+  }
+
+  /**
+   * Create the embedding layer that looks up the word vectors of the token indices in token index
+   * mode. It has one row per word of the vocabulary and an all-zero row for unknown words and
+   * padding. The rows are set by {@link #initEmbeddingLayer(ComputationGraph, String)}. For hashed
+   * tokens, it has one row per hash bucket plus the padding row and is always trained.
+   *
+   * @param sequence Whether the layer outputs a sequence of word vectors for recurrent layers,
+   *     otherwise it outputs one word vector per row for the {@link
+   *     weka.dl4j.preprocessors.EmbeddingToCnnPreProcessor}
+   * @return Embedding layer configuration
+   */
+  public org.deeplearning4j.nn.conf.layers.Layer createEmbeddingLayer(boolean sequence) {
+    final int numRows;
+    if (isHashingMode()) {
+      numRows = numHashBuckets + 1;
+    } else {
+      initWordVectors();
+      numRows = wordVectors.vocab().numWords() + 1;
+    }
+    final int vectorSize = getEmbeddingSize();
+    org.deeplearning4j.nn.conf.layers.Layer embedding;
+    if (sequence) {
+      embedding =
+          new EmbeddingSequenceLayer.Builder()
+              .nIn(numRows)
+              .nOut(vectorSize)
+              .inferInputLength(true)
+              .activation(Activation.IDENTITY)
+              .hasBias(false)
+              .build();
+    } else {
+      embedding =
+          new EmbeddingLayer.Builder()
+              .nIn(numRows)
+              .nOut(vectorSize)
+              .activation(Activation.IDENTITY)
+              .hasBias(false)
+              .build();
+    }
+    return trainEmbeddings || isHashingMode() ? embedding : new FrozenLayer(embedding);
+  }
+
+  /**
+   * Copy the word vectors into the embedding layer of an initialized network. The randomly
+   * initialized rows of hashed tokens are kept, only the padding row is set to zero.
+   *
+   * @param model Initialized network
+   * @param layerName Name of the layer created by {@link #createEmbeddingLayer(boolean)}
+   */
+  public void initEmbeddingLayer(ComputationGraph model, String layerName) {
+    if (isHashingMode()) {
+      model
+          .getLayer(layerName)
+          .getParam(DefaultParamInitializer.WEIGHT_KEY)
+          .getRow(numHashBuckets)
+          .assign(0);
+      return;
+    }
+    final VocabCache<?> vocab = wordVectors.vocab();
+    final int numWords = vocab.numWords();
+    List<String> words = new ArrayList<>(numWords);
+    for (int i = 0; i < numWords; i++) {
+      words.add(vocab.wordAtIndex(i));
+    }
+    INDArray weights = model.getLayer(layerName).getParam(DefaultParamInitializer.WEIGHT_KEY);
+    weights.get(NDArrayIndex.interval(0, numWords), NDArrayIndex.all())
+        .assign(wordVectors.getWordVectors(words));
+    weights.getRow(numWords).assign(0);
+  }
+
   @ProgrammaticProperty
   public WordVectors getWordVectors() {
     return wordVectors;
@@ -340,6 +749,9 @@ public abstract class AbstractTextEmbeddingIterator extends AbstractSequenceInst
 
   @ProgrammaticProperty
   public void setWordVectors(WordVectors wordVectors) {
+    if (this.wordVectors != wordVectors) {
+      WordVectorRegistry.release(this.wordVectors);
+    }
     this.wordVectors = wordVectors;
   }
 
@@ -42,19 +42,21 @@ public class CnnTextEmbeddingInstanceIterator extends AbstractTextEmbeddingItera
     LabeledSentenceProvider clsp = getSentenceProvider(data);
     return new CnnSentenceDataSetIterator.Builder()
             .stopwords(stopwords)
+            .tokenIndices(isEmittingTokenIndices())
             .wordVectors(wordVectors)
             .tokenizerFactory(tokenizerFactory.getBackend())
             .sentenceProvider(clsp)
             .minibatchSize(batchSize)
-            .maxSentenceLength(truncateLength)
+            .maxSentenceLength(getSequenceLength())
             .useNormalizedWordVectors(false)
             .sentencesAlongHeight(true)
+            .tokenCache(createTokenCache())
         .build();
   }
 
   @Override
   public void validate(Instances data) throws InvalidInputDataException {
-    if (!getWordVectorLocation().isFile()) {
+    if (!isHashingMode() && !getWordVectorLocation().isFile()) {
       throw new InvalidInputDataException("File not valid: " + getWordVectorLocation());
     }
   }
@@ -86,7 +86,9 @@ public class RnnTextEmbeddingInstanceIterator extends AbstractTextEmbeddingItera
         stopwords,
         prov,
         batchSize,
-        truncateLength);
+        getSequenceLength(),
+        isEmittingTokenIndices(),
+        createTokenCache());
   }
 
   @Override
@@ -20,6 +20,7 @@ package weka.dl4j.iterators.instance.sequence.text.rnn;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -33,6 +34,8 @@ import weka.core.Option;
 import weka.core.OptionMetadata;
 import weka.dl4j.iterators.dataset.sequence.text.rnn.RnnTextEmbeddingDataSetIterator;
 import weka.dl4j.iterators.provider.FileLabeledSentenceProvider;
+import weka.dl4j.iterators.provider.PackedLabeledSentenceProvider;
+import weka.dl4j.iterators.provider.PackedTextFiles;
 
 /**
  * Converts the given Instances object into a DataSet and then constructs and returns a
@@ -51,6 +54,14 @@ public class RnnTextFilesEmbeddingInstanceIterator extends RnnTextEmbeddingInsta
 
   private static final long serialVersionUID = -1065956690877737854L;
   private File textsLocation = new File(System.getProperty("user.dir"));
+  /** Charset of the text files */
+  private String charset = "UTF-8";
+  /** Number of threads that read the text files ahead of training */
+  private int readAheadThreads = 2;
+  /** Packed text files, ignored if it is not a file */
+  private File packedTexts = new File(System.getProperty("user.dir"));
+  /** The opened packed text files */
+  private transient PackedTextFiles packedTextFiles;
 
   @Override
   public DataSetIterator getDataSetIterator(Instances data, int seed, int batchSize)
@@ -66,12 +77,15 @@ public class RnnTextFilesEmbeddingInstanceIterator extends RnnTextEmbeddingInsta
         stopwords,
         sentenceProvider,
         batchSize,
-        truncateLength);
+        getSequenceLength(),
+        isEmittingTokenIndices(),
+        createTokenCache());
   }
 
   @Override
   public LabeledSentenceProvider getSentenceProvider(Instances data) {
     List<File> files = new ArrayList<>();
+    List<String> paths = new ArrayList<>();
     List<String> labels = new ArrayList<>();
     final int clsIdx = data.classIndex();
     for (Instance inst : data) {
@@ -79,9 +93,28 @@ public class RnnTextFilesEmbeddingInstanceIterator extends RnnTextEmbeddingInsta
       final String path = inst.stringValue(1 - clsIdx);
       final File file = Paths.get(textsLocation.getAbsolutePath(), path).toFile();
       files.add(file);
+      paths.add(path);
     }
 
-    return new FileLabeledSentenceProvider(files, labels, data.numClasses());
+    if (packedTexts.isFile()) {
+      try {
+        if (packedTextFiles == null) {
+          packedTextFiles = new PackedTextFiles(packedTexts);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Could not open packed text files: " + packedTexts, e);
+      }
+      return new PackedLabeledSentenceProvider(
+          files,
+          paths,
+          packedTextFiles,
+          labels,
+          data.numClasses(),
+          Charset.forName(charset),
+          readAheadThreads);
+    }
+    return new FileLabeledSentenceProvider(
+        files, labels, data.numClasses(), Charset.forName(charset), readAheadThreads);
   }
 
   /**
@@ -95,6 +128,9 @@ public class RnnTextFilesEmbeddingInstanceIterator extends RnnTextEmbeddingInsta
     if (!getTextsLocation().isDirectory()) {
       throw new InvalidInputDataException("Directory not valid: " + getTextsLocation());
     }
+    if (!Charset.isSupported(getCharset())) {
+      throw new InvalidInputDataException("Charset not supported: " + getCharset());
+    }
     if (!((data.attribute(0).isString() && data.classIndex() == 1)
         || (data.attribute(1).isString() && data.classIndex() == 0))) {
       throw new InvalidInputDataException(
@@ -117,6 +153,63 @@ public class RnnTextFilesEmbeddingInstanceIterator extends RnnTextEmbeddingInsta
     this.textsLocation = textsLocation;
   }
 
+  @OptionMetadata(
+    displayName = "charset",
+    description = "The charset of the text files (default = UTF-8).",
+    commandLineParamName = "charset",
+    commandLineParamSynopsis = "-charset <string>",
+    displayOrder = 17
+  )
+  public String getCharset() {
+    return charset;
+  }
+
+  public void setCharset(String charset) {
+    this.charset = charset;
+  }
+
+  @OptionMetadata(
+    displayName = "number of read-ahead threads",
+    description =
+        "The number of threads that read the text files ahead of training, 0 reads them on the "
+            + "training thread (default = 2).",
+    commandLineParamName = "readAheadThreads",
+    commandLineParamSynopsis = "-readAheadThreads <int>",
+    displayOrder = 18
+  )
+  public int getReadAheadThreads() {
+    return readAheadThreads;
+  }
+
+  public void setReadAheadThreads(int readAheadThreads) {
+    this.readAheadThreads = readAheadThreads;
+  }
+
+  @OptionMetadata(
+    displayName = "packed text files",
+    description =
+        "The packed text files (see PackedTextFiles), which are read instead of the files in the "
+            + "text directory. Ignored if it is not a file (default = user home).",
+    commandLineParamName = "packedTexts",
+    commandLineParamSynopsis = "-packedTexts <string>",
+    displayOrder = 19
+  )
+  public File getPackedTexts() {
+    return packedTexts;
+  }
+
+  public void setPackedTexts(File packedTexts) {
+    this.packedTexts = packedTexts;
+    if (this.packedTextFiles != null) {
+      try {
+        this.packedTextFiles.close();
+      } catch (IOException e) {
+        // The packed text files are not read anymore
+      }
+      this.packedTextFiles = null;
+    }
+  }
+
   /**
    * Returns an enumeration describing the available options.
    *
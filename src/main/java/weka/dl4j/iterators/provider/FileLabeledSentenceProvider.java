@@ -20,34 +20,81 @@ package weka.dl4j.iterators.provider;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.io.FileUtils;
 import org.deeplearning4j.iterator.LabeledSentenceProvider;
 import org.nd4j.linalg.primitives.Pair;
 
 /**
  * Implement LabeledSentenceProvider for loading labeled files.
  *
+ * <p>Files are decoded with an explicit charset and read ahead of the cursor on a small pool of
+ * I/O threads, so that the training thread does not wait for the disk. Files of at least {@link
+ * #MMAP_THRESHOLD} bytes are memory-mapped instead of copied into a byte array.
+ *
  * @author Steven Lang
  */
 @Log4j2
 public class FileLabeledSentenceProvider implements LabeledSentenceProvider {
 
+  /** Minimum file size in bytes for memory-mapped reads */
+  public static final long MMAP_THRESHOLD = 1L << 20;
+  /** Number of files that are read ahead per I/O thread */
+  private static final int READ_AHEAD_PER_THREAD = 4;
+
   private List<File> files;
   private List<String> labels;
   private List<String> allLabels;
   private int numClasses;
   private int cursor;
+  /** Charset of the files */
+  protected Charset charset;
+  /** Number of I/O threads, zero to read on the calling thread */
+  private int numIoThreads;
+  /** I/O threads, created on the first read ahead */
+  private ThreadPoolExecutor ioPool;
+  /** Pending reads of the files after the cursor, in file order */
+  private final Deque<Future<String>> pending = new ArrayDeque<>();
+  /** Index of the next file that is submitted for reading */
+  private int submitted;
 
   public FileLabeledSentenceProvider(List<File> files, List<String> labels, int numClasses) {
+    this(files, labels, numClasses, StandardCharsets.UTF_8, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param files Files of the documents
+   * @param labels Labels of the documents
+   * @param numClasses Number of classes
+   * @param charset Charset of the files
+   * @param numIoThreads Number of threads that read ahead, zero to read on the calling thread
+   */
+  public FileLabeledSentenceProvider(
+      List<File> files, List<String> labels, int numClasses, Charset charset, int numIoThreads) {
     this.files = files;
     this.labels = labels;
     this.allLabels = new ArrayList<>(new HashSet<>(labels));
     this.numClasses = numClasses;
     this.cursor = 0;
+    this.charset = charset;
+    this.numIoThreads = Math.max(0, numIoThreads);
   }
 
   @Override
@@ -62,7 +109,7 @@ public class FileLabeledSentenceProvider implements LabeledSentenceProvider {
 
     String sentence;
     try {
-      sentence = FileUtils.readFileToString(file);
+      sentence = numIoThreads == 0 ? readDocument(cursor) : nextReadAhead();
     } catch (IOException e) {
       log.error("File not found: " + file, e);
       throw new RuntimeException("File not found: " + file);
@@ -72,9 +119,84 @@ public class FileLabeledSentenceProvider implements LabeledSentenceProvider {
     return new Pair<>(sentence, label);
   }
 
+  /**
+   * Take the read of the file at the cursor and submit the reads of the following files.
+   *
+   * @return Content of the file at the cursor
+   * @throws IOException Could not read the file
+   */
+  private String nextReadAhead() throws IOException {
+    if (ioPool == null) {
+      ioPool =
+          new ThreadPoolExecutor(
+              numIoThreads,
+              numIoThreads,
+              10,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(),
+              r -> {
+                Thread t = new Thread(r, "file-sentence-reader");
+                t.setDaemon(true);
+                return t;
+              });
+      ioPool.allowCoreThreadTimeOut(true);
+    }
+    final int limit = Math.min(totalNumSentences(), cursor + numIoThreads * READ_AHEAD_PER_THREAD);
+    while (submitted < limit) {
+      final int index = submitted++;
+      pending.add(ioPool.submit(() -> readDocument(index)));
+    }
+
+    try {
+      return pending.poll().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading " + files.get(cursor), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Could not read " + files.get(cursor), e.getCause());
+    }
+  }
+
+  /**
+   * Read a document. Called concurrently by the I/O threads.
+   *
+   * @param index Index of the document
+   * @return Content of the document
+   * @throws IOException Could not read the document
+   */
+  protected String readDocument(int index) throws IOException {
+    return readFile(files.get(index));
+  }
+
+  /**
+   * Read and decode a file. Large files are memory-mapped.
+   *
+   * @param file File
+   * @return Content of the file
+   * @throws IOException Could not read the file
+   */
+  protected String readFile(File file) throws IOException {
+    if (file.length() < MMAP_THRESHOLD) {
+      return new String(Files.readAllBytes(file.toPath()), charset);
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return charset.decode(buffer).toString();
+    }
+  }
+
   @Override
   public void reset() {
     cursor = 0;
+    for (Future<String> read : pending) {
+      read.cancel(false);
+    }
+    pending.clear();
+    submitted = 0;
   }
 
   @Override
@@ -91,4 +213,4 @@ public class FileLabeledSentenceProvider implements LabeledSentenceProvider {
   public int numLabelClasses() {
     return numClasses;
   }
-}
\ No newline at end of file
+}
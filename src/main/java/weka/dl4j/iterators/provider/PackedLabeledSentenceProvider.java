@@ -0,0 +1,71 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PackedLabeledSentenceProvider.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Implement LabeledSentenceProvider for loading labeled documents from {@link PackedTextFiles}.
+ * Documents that are not packed are read from their files.
+ *
+ * @author Steven Lang
+ */
+public class PackedLabeledSentenceProvider extends FileLabeledSentenceProvider {
+
+  /** Paths of the documents in the meta data */
+  private final List<String> paths;
+  /** Packed documents */
+  private final PackedTextFiles packed;
+
+  /**
+   * Constructor.
+   *
+   * @param files Files of the documents, read if a document is not packed
+   * @param paths Paths of the documents in the meta data
+   * @param packed Packed documents
+   * @param labels Labels of the documents
+   * @param numClasses Number of classes
+   * @param charset Charset of the documents
+   * @param numIoThreads Number of threads that read ahead, zero to read on the calling thread
+   */
+  public PackedLabeledSentenceProvider(
+      List<File> files,
+      List<String> paths,
+      PackedTextFiles packed,
+      List<String> labels,
+      int numClasses,
+      Charset charset,
+      int numIoThreads) {
+    super(files, labels, numClasses, charset, numIoThreads);
+    this.paths = paths;
+    this.packed = packed;
+  }
+
+  @Override
+  protected String readDocument(int index) throws IOException {
+    final int record = packed.indexOf(paths.get(index));
+    if (record < 0) {
+      return super.readDocument(index);
+    }
+    return packed.read(record, charset);
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PackedTextFiles.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.iterators.provider;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.log4j.Log4j2;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * Text files packed into a single indexed file. Corpora of many small documents are then read
+ * with sequential reads from one file instead of opening one file per document. The documents are
+ * stored in the order of the meta data, which is the order in which they are read during training.
+ *
+ * <p>The file starts with an index that maps the path of each document in the meta data to its
+ * offset and length, followed by the raw bytes of the documents. Pack text files with
+ *
+ * <pre>
+ * java weka.dl4j.iterators.provider.PackedTextFiles -i meta.arff -texts texts/ -o texts.pack
+ * </pre>
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class PackedTextFiles implements Closeable {
+
+  /** File magic */
+  protected static final int MAGIC = 0x57545846;
+
+  /** Format version */
+  protected static final int VERSION = 1;
+
+  /** Record index of each document path */
+  protected final Map<String, Integer> records = new HashMap<>();
+
+  /** Offset of each record, relative to the end of the index */
+  protected final long[] recordOffsets;
+
+  /** Length of each record */
+  protected final int[] recordLengths;
+
+  /** Offset of the first record in the file */
+  protected final long dataOffset;
+
+  /** Channel of the packed file */
+  protected final FileChannel channel;
+
+  /**
+   * Open packed text files.
+   *
+   * @param file Packed file
+   * @throws IOException File could not be read
+   */
+  public PackedTextFiles(File file) throws IOException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      final ByteBuffer header = readFully(0, 12);
+      if (header.getInt() != MAGIC) {
+        throw new IOException(file + " is not a packed text file");
+      }
+      final int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported packed text file version " + version);
+      }
+      final int indexLength = header.getInt();
+      dataOffset = 12L + indexLength;
+
+      final DataInputStream in =
+          new DataInputStream(new ByteArrayInputStream(readFully(12, indexLength).array()));
+      final int numRecords = in.readInt();
+      recordOffsets = new long[numRecords];
+      recordLengths = new int[numRecords];
+      for (int i = 0; i < numRecords; i++) {
+        records.put(in.readUTF(), i);
+        recordOffsets[i] = in.readLong();
+        recordLengths[i] = in.readInt();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Number of packed documents.
+   *
+   * @return Number of records
+   */
+  public int getNumRecords() {
+    return recordOffsets.length;
+  }
+
+  /**
+   * Get the record of a document.
+   *
+   * @param path Path of the document in the meta data
+   * @return Record index, or -1 if the document is not packed
+   */
+  public int indexOf(String path) {
+    return records.getOrDefault(path, -1);
+  }
+
+  /**
+   * Read and decode a record. Thread-safe.
+   *
+   * @param record Record index
+   * @param charset Charset of the document
+   * @return Content of the document
+   * @throws IOException Record could not be read
+   */
+  public String read(int record, Charset charset) throws IOException {
+    final ByteBuffer buffer = readFully(dataOffset + recordOffsets[record], recordLengths[record]);
+    return charset.decode(buffer).toString();
+  }
+
+  /**
+   * Read bytes at an absolute position of the packed file.
+   *
+   * @param position Position
+   * @param length Number of bytes
+   * @return Flipped buffer with the bytes
+   * @throws IOException Bytes could not be read
+   */
+  protected ByteBuffer readFully(long position, int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Packed text file is truncated");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Pack the text files listed in a meta data ARFF file.
+   *
+   * @param metaData Meta data with the text file paths in the first string attribute
+   * @param textsLocation Directory containing the text files
+   * @param output Packed file to write
+   * @throws IOException Text files could not be packed
+   */
+  public static void pack(Instances metaData, File textsLocation, File output)
+      throws IOException {
+    int pathIndex = -1;
+    for (int i = 0; i < metaData.numAttributes() && pathIndex < 0; i++) {
+      if (metaData.attribute(i).isString()) {
+        pathIndex = i;
+      }
+    }
+    if (pathIndex < 0) {
+      throw new IOException("Meta data has no string attribute with the text file paths");
+    }
+    Set<String> unique = new LinkedHashSet<>();
+    for (int i = 0; i < metaData.numInstances(); i++) {
+      unique.add(metaData.instance(i).stringValue(pathIndex));
+    }
+    pack(new ArrayList<>(unique), textsLocation, output);
+  }
+
+  /**
+   * Pack text files.
+   *
+   * @param paths Paths of the text files, relative to the texts location
+   * @param textsLocation Directory containing the text files
+   * @param output Packed file to write
+   * @throws IOException Text files could not be packed
+   */
+  public static void pack(List<String> paths, File textsLocation, File output)
+      throws IOException {
+    final List<File> files = new ArrayList<>(paths.size());
+    final ByteArrayOutputStream index = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(index)) {
+      out.writeInt(paths.size());
+      long offset = 0;
+      for (String path : paths) {
+        final File file = Paths.get(textsLocation.getAbsolutePath(), path).toFile();
+        if (!file.isFile() || file.length() > Integer.MAX_VALUE) {
+          throw new IOException("Text file not found or too large: " + file);
+        }
+        files.add(file);
+        out.writeUTF(path);
+        out.writeLong(offset);
+        out.writeInt((int) file.length());
+        offset += file.length();
+      }
+    }
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(index.size());
+      index.writeTo(out);
+      for (File file : files) {
+        final long length = file.length();
+        if (Files.copy(file.toPath(), out) != length) {
+          throw new IOException("Text file changed while packing: " + file);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String input = Utils.getOption('i', args);
+    String texts = Utils.getOption("texts", args);
+    String output = Utils.getOption('o', args);
+    if (input.isEmpty() || texts.isEmpty() || output.isEmpty()) {
+      System.err.println(
+          "Usage: " + PackedTextFiles.class.getName()
+              + " -i <meta data ARFF> -texts <text files dir> -o <packed file>");
+      System.exit(1);
+    }
+
+    Instances metaData = DataSource.read(input);
+    pack(metaData, new File(texts), new File(output));
+    log.info("Packed the text files of {} instances into {}", metaData.numInstances(), output);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * EmbeddingSequencePreProcessor.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.preprocessors;
+
+import lombok.Data;
+import org.deeplearning4j.nn.api.MaskState;
+import org.deeplearning4j.nn.conf.InputPreProcessor;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.primitives.Pair;
+
+/**
+ * Passes sequences of token indices of shape {@code [batch x 1 x length]} unchanged to an
+ * EmbeddingSequenceLayer. The layer accepts such time series, but only declares a feed forward
+ * input type, so that DL4J would otherwise insert an RnnToFeedForwardPreProcessor that flattens the
+ * sequences.
+ *
+ * @author Steven Lang
+ */
+@Data
+public class EmbeddingSequencePreProcessor implements InputPreProcessor {
+
+  private static final long serialVersionUID = 3213597616328573517L;
+
+  @Override
+  public INDArray preProcess(INDArray input, int miniBatchSize, LayerWorkspaceMgr workspaceMgr) {
+    return input;
+  }
+
+  @Override
+  public INDArray backprop(INDArray output, int miniBatchSize, LayerWorkspaceMgr workspaceMgr) {
+    return output;
+  }
+
+  @Override
+  public InputType getOutputType(InputType inputType) {
+    if (inputType.getType() != InputType.Type.RNN) {
+      throw new IllegalStateException("Invalid input type: expected Recurrent, got " + inputType);
+    }
+    return InputType.feedForward(((InputType.InputTypeRecurrent) inputType).getSize());
+  }
+
+  @Override
+  public Pair<INDArray, MaskState> feedForwardMaskArray(
+      INDArray maskArray, MaskState currentMaskState, int minibatchSize) {
+    // The layer expects the time series mask of shape [batch x length]
+    return new Pair<>(maskArray, currentMaskState);
+  }
+
+  @Override
+  public EmbeddingSequencePreProcessor clone() {
+    return new EmbeddingSequencePreProcessor();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * EmbeddingToCnnPreProcessor.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.preprocessors;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.deeplearning4j.nn.api.MaskState;
+import org.deeplearning4j.nn.conf.InputPreProcessor;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.inputs.InputType.InputTypeFeedForward;
+import org.deeplearning4j.nn.workspace.ArrayType;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.shape.Shape;
+import org.nd4j.linalg.primitives.Pair;
+
+/**
+ * Reshapes the output of an embedding layer that looked up a sequence of token indices into the
+ * sentence image of the CNN text models. The embedding receives the token indices as a time series
+ * of shape {@code [batch x 1 x length]}, which is flattened to {@code [batch * length x 1]} (with
+ * the batch index varying fastest). Its output {@code [batch * length x vectorSize]} is reshaped to
+ * {@code [batch x 1 x length x vectorSize]}, that is, one word vector per row as produced by the
+ * CnnSentenceDataSetIterator.
+ *
+ * @author Steven Lang
+ */
+@Data
+@NoArgsConstructor
+public class EmbeddingToCnnPreProcessor implements InputPreProcessor {
+
+  private static final long serialVersionUID = -6079437466316284745L;
+
+  /** Maximum sequence length, only used to infer the output type */
+  protected long sequenceLength;
+
+  /**
+   * Constructor.
+   *
+   * @param sequenceLength Maximum sequence length, only used to infer the output type
+   */
+  public EmbeddingToCnnPreProcessor(long sequenceLength) {
+    this.sequenceLength = sequenceLength;
+  }
+
+  @Override
+  public INDArray preProcess(INDArray input, int miniBatchSize, LayerWorkspaceMgr workspaceMgr) {
+    if (input.ordering() != 'f' || !Shape.hasDefaultStridesForShape(input)) {
+      input = workspaceMgr.dup(ArrayType.ACTIVATIONS, input, 'f');
+    }
+    final long length = input.size(0) / miniBatchSize;
+    return workspaceMgr.leverageTo(
+        ArrayType.ACTIVATIONS, input.reshape('f', miniBatchSize, 1, length, input.size(1)));
+  }
+
+  @Override
+  public INDArray backprop(INDArray output, int miniBatchSize, LayerWorkspaceMgr workspaceMgr) {
+    if (output.ordering() != 'f' || !Shape.hasDefaultStridesForShape(output)) {
+      output = workspaceMgr.dup(ArrayType.ACTIVATION_GRAD, output, 'f');
+    }
+    return workspaceMgr.leverageTo(
+        ArrayType.ACTIVATION_GRAD,
+        output.reshape('f', output.size(0) * output.size(2), output.size(3)));
+  }
+
+  @Override
+  public InputType getOutputType(InputType inputType) {
+    if (inputType.getType() != InputType.Type.FF) {
+      throw new IllegalStateException("Invalid input type: expected FeedForward, got " + inputType);
+    }
+    return InputType.convolutional(
+        sequenceLength, ((InputTypeFeedForward) inputType).getSize(), 1);
+  }
+
+  @Override
+  public Pair<INDArray, MaskState> feedForwardMaskArray(
+      INDArray maskArray, MaskState currentMaskState, int minibatchSize) {
+    if (maskArray == null) {
+      return new Pair<>(null, currentMaskState);
+    }
+    // The time series mask was flattened in the same order as the input
+    final long length = maskArray.length() / minibatchSize;
+    INDArray mask = maskArray.dup('f').reshape('f', minibatchSize, 1, length, 1);
+    return new Pair<>(mask, currentMaskState);
+  }
+
+  @Override
+  public EmbeddingToCnnPreProcessor clone() {
+    return new EmbeddingToCnnPreProcessor(sequenceLength);
+  }
+}
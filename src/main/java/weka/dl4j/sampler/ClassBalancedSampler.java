@@ -0,0 +1,127 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * ClassBalancedSampler.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.sampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.log4j.Log4j2;
+import weka.core.Instances;
+
+/**
+ * Draws the same number of examples from every class in each epoch. Minority classes are
+ * oversampled by cycling through a reshuffled list of their examples, majority classes are
+ * undersampled. The number of examples per epoch stays equal to the dataset size.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class ClassBalancedSampler extends Sampler {
+
+  private static final long serialVersionUID = 4391749231095724083L;
+
+  /** Example indices per (non-empty) class */
+  protected int[][] classIndices;
+
+  /** Read position in each class's example list */
+  protected int[] classCursors;
+
+  public String globalInfo() {
+    return "Draws the same number of examples from every class in each epoch by oversampling "
+        + "minority and undersampling majority classes. Only applicable to nominal classes.";
+  }
+
+  @Override
+  public void initialize(Instances data, long seed) {
+    super.initialize(data, seed);
+
+    if (!data.classAttribute().isNominal()) {
+      log.warn("Class balanced sampling requires a nominal class, visiting all examples once.");
+      classIndices = new int[1][numInstances];
+      for (int i = 0; i < numInstances; i++) {
+        classIndices[0][i] = i;
+      }
+    } else {
+      List<List<Integer>> groups = new ArrayList<>();
+      for (int c = 0; c < data.numClasses(); c++) {
+        groups.add(new ArrayList<>());
+      }
+      for (int i = 0; i < numInstances; i++) {
+        groups.get((int) data.instance(i).classValue()).add(i);
+      }
+      classIndices =
+          groups
+              .stream()
+              .filter(g -> !g.isEmpty())
+              .map(g -> g.stream().mapToInt(Integer::intValue).toArray())
+              .toArray(int[][]::new);
+    }
+
+    classCursors = new int[classIndices.length];
+    for (int[] indices : classIndices) {
+      shuffle(indices, indices.length);
+    }
+  }
+
+  @Override
+  public int[] sample() {
+    final int numClasses = classIndices.length;
+    final int[] result = new int[numInstances];
+
+    // Distribute the remainder randomly so that no class is favoured across epochs
+    final int perClass = numInstances / numClasses;
+    final int remainder = numInstances % numClasses;
+    int[] classOrder = new int[numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      classOrder[c] = c;
+    }
+    shuffle(classOrder, numClasses);
+
+    int pos = 0;
+    for (int k = 0; k < numClasses; k++) {
+      int c = classOrder[k];
+      int count = perClass + (k < remainder ? 1 : 0);
+      int[] indices = classIndices[c];
+      for (int j = 0; j < count; j++) {
+        if (classCursors[c] == indices.length) {
+          shuffle(indices, indices.length);
+          classCursors[c] = 0;
+        }
+        result[pos++] = indices[classCursors[c]++];
+      }
+    }
+
+    shuffle(result, result.length);
+    return result;
+  }
+
+  /**
+   * Fisher-Yates shuffle of the first n elements.
+   *
+   * @param array Array to shuffle in place
+   * @param n Number of elements to shuffle
+   */
+  protected void shuffle(int[] array, int n) {
+    for (int i = n - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = array[i];
+      array[i] = array[j];
+      array[j] = tmp;
+    }
+  }
+}
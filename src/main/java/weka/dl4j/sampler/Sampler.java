@@ -0,0 +1,107 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Sampler.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.sampler;
+
+import java.io.Serializable;
+import java.util.Enumeration;
+import java.util.Random;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+
+/**
+ * Determines the order in which the examples of a dataset are visited in each epoch. A sampler
+ * only produces a permutation (or a multiset) of example indices; the iterator gathers the
+ * corresponding rows from its single feature buffer, so no instances are copied or duplicated.
+ *
+ * @author Steven Lang
+ */
+public abstract class Sampler implements OptionHandler, Serializable {
+
+  private static final long serialVersionUID = -2580372361563957734L;
+
+  /** Random number generator, seeded in {@link #initialize(Instances, long)} */
+  protected Random random;
+
+  /** Number of instances in the dataset */
+  protected int numInstances;
+
+  /**
+   * Initialize the sampler with the instances it is going to sample from. Implementations that need
+   * class values or instance weights must extract them here since the iterator only knows the
+   * tensors.
+   *
+   * @param data Instances in the same order as the examples of the iterated dataset
+   * @param seed Seed for the random number generator
+   */
+  public void initialize(Instances data, long seed) {
+    this.random = new Random(seed);
+    this.numInstances = data.numInstances();
+  }
+
+  /**
+   * Generate the example indices for the next epoch.
+   *
+   * @return Example indices into the dataset
+   */
+  public abstract int[] sample();
+
+  /**
+   * Whether this sampler visits the examples in their original order. Iterators can then serve
+   * batches as contiguous ranges and results may be cached across epochs.
+   *
+   * @return True if the sampler does not change the example order
+   */
+  public boolean isSequential() {
+    return false;
+  }
+
+  /**
+   * Returns an enumeration describing the available options.
+   *
+   * @return an enumeration of all the available options.
+   */
+  @Override
+  public Enumeration<Option> listOptions() {
+
+    return Option.listOptionsForClass(this.getClass()).elements();
+  }
+
+  /**
+   * Gets the current settings of the Classifier.
+   *
+   * @return an array of strings suitable for passing to setOptions
+   */
+  @Override
+  public String[] getOptions() {
+
+    return Option.getOptions(this, this.getClass());
+  }
+
+  /**
+   * Parses a given list of options.
+   *
+   * @param options the list of options as an array of strings
+   * @throws Exception if an option is not supported
+   */
+  public void setOptions(String[] options) throws Exception {
+
+    Option.setOptions(options, this, this.getClass());
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * SequentialSampler.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.sampler;
+
+/**
+ * Visits the examples in their original order in every epoch.
+ *
+ * @author Steven Lang
+ */
+public class SequentialSampler extends Sampler {
+
+  private static final long serialVersionUID = 3954213546092841736L;
+
+  public String globalInfo() {
+    return "Visits the examples in their original order in every epoch.";
+  }
+
+  @Override
+  public int[] sample() {
+    int[] indices = new int[numInstances];
+    for (int i = 0; i < numInstances; i++) {
+      indices[i] = i;
+    }
+    return indices;
+  }
+
+  @Override
+  public boolean isSequential() {
+    return true;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * ShuffleSampler.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.sampler;
+
+import weka.core.Instances;
+
+/**
+ * Visits every example exactly once per epoch in a new random order.
+ *
+ * @author Steven Lang
+ */
+public class ShuffleSampler extends Sampler {
+
+  private static final long serialVersionUID = -6420911567470370155L;
+
+  /** Permutation of the previous epoch, reshuffled in place */
+  protected int[] permutation;
+
+  public String globalInfo() {
+    return "Visits every example exactly once per epoch in a new random order.";
+  }
+
+  @Override
+  public void initialize(Instances data, long seed) {
+    super.initialize(data, seed);
+    permutation = null;
+  }
+
+  @Override
+  public int[] sample() {
+    if (permutation == null) {
+      permutation = new int[numInstances];
+      for (int i = 0; i < numInstances; i++) {
+        permutation[i] = i;
+      }
+    }
+
+    // Fisher-Yates shuffle
+    for (int i = permutation.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = permutation[i];
+      permutation[i] = permutation[j];
+      permutation[j] = tmp;
+    }
+    return permutation.clone();
+  }
+}
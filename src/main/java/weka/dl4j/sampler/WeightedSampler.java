@@ -0,0 +1,78 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * WeightedSampler.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.sampler;
+
+import java.util.Arrays;
+import weka.core.Instances;
+
+/**
+ * Draws examples with replacement with a probability proportional to their Weka instance weight.
+ * Heavily weighted examples are visited more often instead of being physically duplicated in the
+ * dataset.
+ *
+ * @author Steven Lang
+ */
+public class WeightedSampler extends Sampler {
+
+  private static final long serialVersionUID = -1794829451012337862L;
+
+  /** Cumulative instance weights */
+  protected double[] cumulativeWeights;
+
+  public String globalInfo() {
+    return "Draws examples with replacement with a probability proportional to their instance "
+        + "weight.";
+  }
+
+  @Override
+  public void initialize(Instances data, long seed) {
+    super.initialize(data, seed);
+    cumulativeWeights = new double[numInstances];
+    double sum = 0;
+    for (int i = 0; i < numInstances; i++) {
+      double weight = data.instance(i).weight();
+      if (weight < 0 || Double.isNaN(weight)) {
+        throw new IllegalArgumentException(
+            "Instance weights must be non-negative but instance " + i + " has weight " + weight);
+      }
+      sum += weight;
+      cumulativeWeights[i] = sum;
+    }
+    if (sum <= 0) {
+      throw new IllegalArgumentException("The sum of all instance weights must be positive.");
+    }
+  }
+
+  @Override
+  public int[] sample() {
+    final double total = cumulativeWeights[numInstances - 1];
+    int[] result = new int[numInstances];
+    for (int i = 0; i < numInstances; i++) {
+      double r = random.nextDouble() * total;
+      int idx = Arrays.binarySearch(cumulativeWeights, r);
+      // Find the first cumulative weight larger than r (skips zero-weight examples)
+      idx = idx < 0 ? -idx - 1 : idx;
+      while (idx < numInstances - 1 && cumulativeWeights[idx] <= r) {
+        idx++;
+      }
+      result[i] = idx;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,559 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * BoundedMemoryGlove.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.glove;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import lombok.extern.log4j.Log4j2;
+import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
+import org.deeplearning4j.models.sequencevectors.SequenceVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * GloVe model whose co-occurrence matrix does not have to fit into memory. The co-occurrences are
+ * counted with a {@link CooccurrenceCounter}, which spills to disk once the memory budget is
+ * reached, and training streams the merged shards in chunks of the same budget. Training uses
+ * AdaGrad as in the reference implementation, with the given number of workers updating the
+ * vectors of a chunk without locking.
+ *
+ * <p>The resulting word vectors are the sum of the word and context vectors divided by two. If a
+ * previous model is given, its vocabulary is kept and its word vectors initialize training.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class BoundedMemoryGlove extends SequenceVectors<VocabWord> {
+
+  private static final long serialVersionUID = 4571960830284016392L;
+
+  /** Sentences to train on */
+  protected transient SentenceIterator sentenceIterator;
+  /** Tokenizer of the sentences */
+  protected transient TokenizerFactory tokenizer;
+  /** Model to continue training, null to train a new model */
+  protected transient SequenceVectors<VocabWord> previous;
+  /** Memory budget of the co-occurrence counts in bytes */
+  protected long maxMemory = 256L << 20;
+  /** Number of co-occurrence shards */
+  protected int numShards = 16;
+  /** Whether co-occurrences are counted in both directions */
+  protected boolean symmetric = true;
+  /** Whether the co-occurrences of a chunk are shuffled before training on them */
+  protected boolean shuffle = true;
+  /** Cutoff of the weighting function */
+  protected double xMax = 100.0;
+  /** Exponent of the weighting function */
+  protected double alpha = 0.75;
+
+  /** Train the model. */
+  @Override
+  public void fit() {
+    final VocabCache<VocabWord> vocabCache =
+        previous != null ? previous.getVocab() : buildVocabulary();
+    final int numWords = vocabCache.numWords();
+    if (numWords == 0) {
+      throw new IllegalStateException("No word occurs at least " + minWordFrequency + " times");
+    }
+
+    Path directory = null;
+    try {
+      directory = Files.createTempDirectory("glove-cooccurrences");
+      try (CooccurrenceCounter counter =
+          new CooccurrenceCounter(numShards, window, symmetric, maxMemory, directory)) {
+        countCooccurrences(vocabCache, counter);
+        train(vocabCache, counter);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not count the co-occurrences", e);
+    } finally {
+      if (directory != null) {
+        directory.toFile().delete();
+      }
+    }
+    previous = null;
+  }
+
+  /**
+   * Count the word frequencies and keep the words that are frequent enough, most frequent first.
+   *
+   * @return Vocabulary
+   */
+  protected VocabCache<VocabWord> buildVocabulary() {
+    final Map<String, Integer> counts = new HashMap<>();
+    sentenceIterator.reset();
+    while (sentenceIterator.hasNext()) {
+      for (String token : tokenize(sentenceIterator.nextSentence())) {
+        counts.merge(token, 1, Integer::sum);
+      }
+    }
+    final List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+      if (entry.getValue() >= minWordFrequency) {
+        entries.add(entry);
+      }
+    }
+    entries.sort(
+        (a, b) ->
+            a.getValue().equals(b.getValue())
+                ? a.getKey().compareTo(b.getKey())
+                : Integer.compare(b.getValue(), a.getValue()));
+
+    final AbstractCache<VocabWord> vocabCache = new AbstractCache.Builder<VocabWord>().build();
+    for (int i = 0; i < entries.size(); i++) {
+      final String word = entries.get(i).getKey();
+      VocabWord vw = new VocabWord(entries.get(i).getValue(), word);
+      vw.setIndex(i);
+      vocabCache.addToken(vw);
+      vocabCache.addWordToIndex(i, word);
+    }
+    log.info("Built GloVe vocabulary of {} words", entries.size());
+    return vocabCache;
+  }
+
+  /**
+   * Count the co-occurrences of all sentences.
+   *
+   * @param vocabCache Vocabulary, other words are ignored
+   * @param counter Counter
+   * @throws IOException Could not spill the counts
+   */
+  protected void countCooccurrences(VocabCache<VocabWord> vocabCache, CooccurrenceCounter counter)
+      throws IOException {
+    sentenceIterator.reset();
+    while (sentenceIterator.hasNext()) {
+      final List<String> tokens = tokenize(sentenceIterator.nextSentence());
+      final int[] indices = new int[tokens.size()];
+      int n = 0;
+      for (String token : tokens) {
+        final int index = vocabCache.indexOf(token);
+        if (index >= 0) {
+          indices[n++] = index;
+        }
+      }
+      counter.count(n == indices.length ? indices : Arrays.copyOf(indices, n));
+    }
+    counter.finish();
+  }
+
+  /**
+   * Tokenize a sentence and remove the stop words.
+   *
+   * @param sentence Sentence
+   * @return Tokens
+   */
+  protected List<String> tokenize(String sentence) {
+    final List<String> tokens = tokenizer.create(sentence).getTokens();
+    if (!stopWords.isEmpty()) {
+      tokens.removeIf(stopWords::contains);
+    }
+    return tokens;
+  }
+
+  /**
+   * Train the word vectors on the merged co-occurrence shards.
+   *
+   * @param vocabCache Vocabulary
+   * @param counter Finished counter
+   * @throws IOException Could not read a shard
+   */
+  protected void train(VocabCache<VocabWord> vocabCache, CooccurrenceCounter counter)
+      throws IOException {
+    final int numWords = vocabCache.numWords();
+    final Random random = new Random(seed);
+    final Parameters params = new Parameters(numWords, layerSize);
+    if (previous != null) {
+      final float[] syn0 = previous.lookupTable().getWeights().dup('c').data().asFloat();
+      System.arraycopy(syn0, 0, params.w, 0, syn0.length);
+      System.arraycopy(syn0, 0, params.wContext, 0, syn0.length);
+    } else {
+      for (int i = 0; i < params.w.length; i++) {
+        params.w[i] = (float) ((random.nextDouble() - 0.5) / layerSize);
+        params.wContext[i] = (float) ((random.nextDouble() - 0.5) / layerSize);
+      }
+    }
+
+    final int chunkSize =
+        (int)
+            Math.min(
+                Integer.MAX_VALUE - 8,
+                Math.max(1024, maxMemory / CooccurrenceCounter.BYTES_PER_RECORD));
+    final ForkJoinPool pool = workers > 1 ? new ForkJoinPool(workers) : null;
+    try {
+      for (int epoch = 0; epoch < numEpochs; epoch++) {
+        double cost = 0;
+        long numRecords = 0;
+        for (int shard : shardOrder(counter.getNumShards(), random)) {
+          final int capacity = (int) Math.min(chunkSize, counter.getShardSize(shard));
+          final Chunk chunk = new Chunk(capacity);
+          try (CooccurrenceCounter.ShardReader reader = counter.openShard(shard)) {
+            while (chunk.fill(reader)) {
+              if (shuffle) {
+                chunk.shuffle(random);
+              }
+              cost += trainChunk(params, chunk, pool);
+              numRecords += chunk.size;
+            }
+          }
+        }
+        log.info("GloVe epoch {}: cost {}", epoch + 1, numRecords == 0 ? 0 : cost / numRecords);
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+
+    final float[] syn0 = new float[params.w.length];
+    for (int i = 0; i < syn0.length; i++) {
+      syn0[i] = (params.w[i] + params.wContext[i]) / 2;
+    }
+    InMemoryLookupTable<VocabWord> table =
+        new InMemoryLookupTable.Builder<VocabWord>()
+            .vectorLength(layerSize)
+            .useAdaGrad(false)
+            .cache(vocabCache)
+            .useHierarchicSoftmax(false)
+            .build();
+    table.setSyn0(Nd4j.create(syn0, new int[] {numWords, layerSize}, 'c'));
+    this.vocab = vocabCache;
+    this.lookupTable = table;
+  }
+
+  /**
+   * Get the order in which the shards are trained on.
+   *
+   * @param numShards Number of shards
+   * @param random Random number generator
+   * @return Shards
+   */
+  protected int[] shardOrder(int numShards, Random random) {
+    final int[] order = IntStream.range(0, numShards).toArray();
+    if (shuffle) {
+      for (int i = numShards - 1; i > 0; i--) {
+        final int j = random.nextInt(i + 1);
+        final int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Train on a chunk of co-occurrences, split among the workers.
+   *
+   * @param params Parameters
+   * @param chunk Chunk
+   * @param pool Pool of the workers, null to train in the calling thread
+   * @return Summed cost of the chunk
+   */
+  protected double trainChunk(Parameters params, Chunk chunk, ForkJoinPool pool) {
+    if (pool == null || chunk.size < workers) {
+      return trainRange(params, chunk, 0, chunk.size);
+    }
+    final int step = (chunk.size + workers - 1) / workers;
+    try {
+      return pool.submit(
+              () ->
+                  IntStream.range(0, workers)
+                      .parallel()
+                      .mapToDouble(
+                          w ->
+                              trainRange(
+                                  params, chunk, w * step, Math.min(chunk.size, (w + 1) * step)))
+                      .sum())
+          .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while training GloVe", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not train GloVe", e.getCause());
+    }
+  }
+
+  /**
+   * Train on a range of a chunk with AdaGrad.
+   *
+   * @param params Parameters
+   * @param chunk Chunk
+   * @param from First record, inclusive
+   * @param to Last record, exclusive
+   * @return Summed cost of the range
+   */
+  protected double trainRange(Parameters params, Chunk chunk, int from, int to) {
+    final float[] w = params.w;
+    final float[] wc = params.wContext;
+    final float[] gw = params.gradSq;
+    final float[] gwc = params.gradSqContext;
+    final double rate = learningRate.get();
+    double cost = 0;
+    for (int r = from; r < to; r++) {
+      final int row = chunk.rows[r] * layerSize;
+      final int col = chunk.cols[r] * layerSize;
+      final float count = chunk.counts[r];
+
+      float diff = params.bias[chunk.rows[r]] + params.biasContext[chunk.cols[r]];
+      for (int d = 0; d < layerSize; d++) {
+        diff += w[row + d] * wc[col + d];
+      }
+      diff -= Math.log(count);
+      final float weight = count > xMax ? 1.0f : (float) Math.pow(count / xMax, alpha);
+      final float fdiff = weight * diff;
+      cost += 0.5 * fdiff * diff;
+      if (Float.isNaN(fdiff) || Float.isInfinite(fdiff)) {
+        continue;
+      }
+
+      final float scaled = (float) (fdiff * rate);
+      for (int d = 0; d < layerSize; d++) {
+        final float gradW = scaled * wc[col + d];
+        final float gradC = scaled * w[row + d];
+        w[row + d] -= gradW / (float) Math.sqrt(gw[row + d]);
+        wc[col + d] -= gradC / (float) Math.sqrt(gwc[col + d]);
+        gw[row + d] += gradW * gradW;
+        gwc[col + d] += gradC * gradC;
+      }
+      params.bias[chunk.rows[r]] -= scaled / (float) Math.sqrt(params.gradSqBias[chunk.rows[r]]);
+      params.biasContext[chunk.cols[r]] -=
+          scaled / (float) Math.sqrt(params.gradSqBiasContext[chunk.cols[r]]);
+      params.gradSqBias[chunk.rows[r]] += scaled * scaled;
+      params.gradSqBiasContext[chunk.cols[r]] += scaled * scaled;
+    }
+    return cost;
+  }
+
+  /** Word and context vectors, biases and their squared gradient sums. */
+  protected static class Parameters {
+
+    final float[] w;
+    final float[] wContext;
+    final float[] bias;
+    final float[] biasContext;
+    final float[] gradSq;
+    final float[] gradSqContext;
+    final float[] gradSqBias;
+    final float[] gradSqBiasContext;
+
+    Parameters(int numWords, int layerSize) {
+      w = new float[numWords * layerSize];
+      wContext = new float[numWords * layerSize];
+      bias = new float[numWords];
+      biasContext = new float[numWords];
+      gradSq = ones(numWords * layerSize);
+      gradSqContext = ones(numWords * layerSize);
+      gradSqBias = ones(numWords);
+      gradSqBiasContext = ones(numWords);
+    }
+
+    private static float[] ones(int n) {
+      final float[] a = new float[n];
+      Arrays.fill(a, 1.0f);
+      return a;
+    }
+  }
+
+  /** Co-occurrence records of a shard that are trained on together. */
+  protected static class Chunk {
+
+    final int[] rows;
+    final int[] cols;
+    final float[] counts;
+    int size;
+
+    Chunk(int capacity) {
+      rows = new int[capacity];
+      cols = new int[capacity];
+      counts = new float[capacity];
+    }
+
+    /**
+     * Read the next records of a shard.
+     *
+     * @param reader Shard reader
+     * @return False if the shard is exhausted
+     * @throws IOException Could not read the shard
+     */
+    boolean fill(CooccurrenceCounter.ShardReader reader) throws IOException {
+      size = 0;
+      while (size < rows.length && reader.next()) {
+        rows[size] = reader.getRow();
+        cols[size] = reader.getCol();
+        counts[size] = reader.getCount();
+        size++;
+      }
+      return size > 0;
+    }
+
+    /**
+     * Shuffle the records.
+     *
+     * @param random Random number generator
+     */
+    void shuffle(Random random) {
+      for (int i = size - 1; i > 0; i--) {
+        final int j = random.nextInt(i + 1);
+        final int row = rows[i];
+        final int col = cols[i];
+        final float count = counts[i];
+        rows[i] = rows[j];
+        cols[i] = cols[j];
+        counts[i] = counts[j];
+        rows[j] = row;
+        cols[j] = col;
+        counts[j] = count;
+      }
+    }
+  }
+
+  /** Builder of a {@link BoundedMemoryGlove} model. */
+  public static class Builder {
+
+    private final BoundedMemoryGlove model = new BoundedMemoryGlove();
+
+    public Builder() {
+      model.stopWords = new HashSet<>();
+      model.minWordFrequency = 5;
+      model.layerSize = 100;
+      model.numEpochs = 1;
+      model.window = 5;
+      model.workers = 1;
+      model.seed = 1;
+      model.learningRate.set(0.05);
+    }
+
+    public Builder iterate(SentenceIterator iterator) {
+      model.sentenceIterator = iterator;
+      return this;
+    }
+
+    public Builder tokenizerFactory(TokenizerFactory tokenizerFactory) {
+      model.tokenizer = tokenizerFactory;
+      return this;
+    }
+
+    public Builder stopWords(Collection<String> stopWords) {
+      model.stopWords = new HashSet<>(stopWords);
+      return this;
+    }
+
+    public Builder previousModel(SequenceVectors<VocabWord> previous) {
+      model.previous = previous;
+      return this;
+    }
+
+    /**
+     * Set the memory budget of the co-occurrence counts and of the training chunks.
+     *
+     * @param maxMemory Budget in bytes
+     * @return Builder
+     */
+    public Builder maxMemory(long maxMemory) {
+      model.maxMemory = maxMemory;
+      return this;
+    }
+
+    public Builder numShards(int numShards) {
+      model.numShards = numShards;
+      return this;
+    }
+
+    public Builder windowSize(int windowSize) {
+      model.window = windowSize;
+      return this;
+    }
+
+    public Builder symmetric(boolean symmetric) {
+      model.symmetric = symmetric;
+      return this;
+    }
+
+    public Builder shuffle(boolean shuffle) {
+      model.shuffle = shuffle;
+      return this;
+    }
+
+    public Builder minWordFrequency(int minWordFrequency) {
+      model.minWordFrequency = minWordFrequency;
+      return this;
+    }
+
+    public Builder layerSize(int layerSize) {
+      model.layerSize = layerSize;
+      return this;
+    }
+
+    public Builder epochs(int epochs) {
+      model.numEpochs = epochs;
+      return this;
+    }
+
+    public Builder learningRate(double learningRate) {
+      model.learningRate.set(learningRate);
+      return this;
+    }
+
+    public Builder xMax(double xMax) {
+      model.xMax = xMax;
+      return this;
+    }
+
+    public Builder alpha(double alpha) {
+      model.alpha = alpha;
+      return this;
+    }
+
+    public Builder workers(int workers) {
+      model.workers = Math.max(1, workers);
+      return this;
+    }
+
+    public Builder seed(long seed) {
+      model.seed = seed;
+      return this;
+    }
+
+    public BoundedMemoryGlove build() {
+      if (model.sentenceIterator == null || model.tokenizer == null) {
+        throw new IllegalStateException("Sentence iterator and tokenizer factory are required");
+      }
+      if (model.maxMemory <= 0 || model.numShards <= 0) {
+        throw new IllegalStateException("Memory budget and number of shards must be positive");
+      }
+      return model;
+    }
+  }
+}
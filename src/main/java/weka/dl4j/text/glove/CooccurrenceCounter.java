@@ -0,0 +1,523 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CooccurrenceCounter.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.glove;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Counts the weighted co-occurrences of word indices in a context window with a bounded amount of
+ * memory.
+ *
+ * <p>The counts are kept in hash maps with primitive keys, sharded by the row (the center word).
+ * The memory budget covers the arrays of the maps at their full capacity, plus a reserve for the
+ * largest map to grow (the old and the new arrays are alive during a rehash) or to be sorted. When
+ * a map cannot grow within the budget, each shard is sorted and spilled to disk as a run. {@link
+ * #finish()} merges the runs of each shard in a streaming pass into one file of (row, column,
+ * count) records sorted by row and column, which is then read with a {@link ShardReader}.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class CooccurrenceCounter implements Closeable {
+
+  /** Heap bytes per map slot: key and value */
+  static final int BYTES_PER_SLOT = 12;
+  /** Heap bytes per slot of the largest map reserved for a rehash or a sorted copy of its keys */
+  static final int RESERVED_BYTES_PER_SLOT = 2 * BYTES_PER_SLOT;
+  /** Bytes per record in the run and shard files */
+  static final int BYTES_PER_RECORD = 12;
+
+  /** Number of shards */
+  protected final int numShards;
+  /** Size of the context window */
+  protected final int windowSize;
+  /** Whether the left context is also counted for the right context */
+  protected final boolean symmetric;
+  /** Memory budget of the maps in bytes */
+  protected final long maxMemory;
+  /** Directory of the run and shard files */
+  protected final Path directory;
+  /** Counts in memory, one map per shard */
+  protected final LongFloatMap[] maps;
+  /** Run files per shard */
+  protected final List<List<Path>> runs;
+  /** Heap bytes of the map arrays across all shards */
+  protected long numBytes;
+  /** Capacity of the largest map */
+  protected int maxCapacity;
+  /** Merged shard files, null until finished */
+  protected Path[] shards;
+  /** Number of records per merged shard */
+  protected long[] shardSizes;
+
+  /**
+   * Constructor.
+   *
+   * @param numShards Number of shards
+   * @param windowSize Size of the context window
+   * @param symmetric Whether the left context is also counted for the right context
+   * @param maxMemory Memory budget of the counts in bytes, raised to the minimum that lets each
+   *     map grow once
+   * @param directory Directory of the run and shard files, must exist
+   */
+  public CooccurrenceCounter(
+      int numShards, int windowSize, boolean symmetric, long maxMemory, Path directory) {
+    this.numShards = numShards;
+    this.windowSize = windowSize;
+    this.symmetric = symmetric;
+    final long minMemory =
+        (numShards + 1L) * LongFloatMap.INITIAL_CAPACITY * BYTES_PER_SLOT
+            + 2L * LongFloatMap.INITIAL_CAPACITY * RESERVED_BYTES_PER_SLOT;
+    this.maxMemory = Math.max(minMemory, maxMemory);
+    this.directory = directory;
+    this.maps = new LongFloatMap[numShards];
+    this.runs = new ArrayList<>(numShards);
+    for (int s = 0; s < numShards; s++) {
+      runs.add(new ArrayList<>());
+    }
+    clearMaps();
+  }
+
+  /** Replace the maps by empty ones and reset the memory accounting. */
+  protected void clearMaps() {
+    for (int s = 0; s < numShards; s++) {
+      maps[s] = new LongFloatMap();
+    }
+    numBytes = (long) numShards * LongFloatMap.INITIAL_CAPACITY * BYTES_PER_SLOT;
+    maxCapacity = LongFloatMap.INITIAL_CAPACITY;
+  }
+
+  /**
+   * Count the co-occurrences of a sentence. Each pair within the window is weighted by the
+   * inverse of its distance.
+   *
+   * @param indices Word indices of the sentence
+   * @throws IOException Could not spill the counts
+   */
+  public void count(int[] indices) throws IOException {
+    if (shards != null) {
+      throw new IllegalStateException("Counter is already finished");
+    }
+    for (int i = 0; i < indices.length; i++) {
+      for (int j = Math.max(0, i - windowSize); j < i; j++) {
+        final float weight = 1.0f / (i - j);
+        add(indices[i], indices[j], weight);
+        if (symmetric) {
+          add(indices[j], indices[i], weight);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add a weighted co-occurrence.
+   *
+   * @param row Center word
+   * @param col Context word
+   * @param weight Weight
+   * @throws IOException Could not spill the counts
+   */
+  protected void add(int row, int col, float weight) throws IOException {
+    final LongFloatMap map = maps[row % numShards];
+    map.add(((long) row << 32) | (col & 0xffffffffL), weight);
+    if (!map.isFull()) {
+      return;
+    }
+
+    // Grow only if the reserve for the next rehash or sort still fits into the budget afterwards
+    final int capacity = map.capacity();
+    final long grownBytes = numBytes + (long) capacity * BYTES_PER_SLOT;
+    final int grownMaxCapacity = Math.max(maxCapacity, 2 * capacity);
+    if (grownBytes + (long) grownMaxCapacity * RESERVED_BYTES_PER_SLOT > maxMemory) {
+      spill();
+    } else {
+      map.rehash();
+      numBytes = grownBytes;
+      maxCapacity = grownMaxCapacity;
+    }
+  }
+
+  /**
+   * Write the counts of each shard as a sorted run and clear the maps.
+   *
+   * @throws IOException Could not write a run
+   */
+  protected void spill() throws IOException {
+    for (int s = 0; s < numShards; s++) {
+      final LongFloatMap map = maps[s];
+      if (map.size() == 0) {
+        continue;
+      }
+      final Path run = directory.resolve("shard-" + s + "-run-" + runs.get(s).size());
+      final long[] keys = map.sortedKeys();
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+        for (long key : keys) {
+          out.writeLong(key);
+          out.writeFloat(map.get(key));
+        }
+      }
+      runs.get(s).add(run);
+    }
+    clearMaps();
+    log.debug("Spilled co-occurrence counts to run {}", runs.get(0).size());
+  }
+
+  /**
+   * Spill the remaining counts and merge the runs of each shard into a single file. The runs are
+   * deleted afterwards.
+   *
+   * @throws IOException Could not merge the runs
+   */
+  public void finish() throws IOException {
+    if (shards != null) {
+      return;
+    }
+    spill();
+    shards = new Path[numShards];
+    shardSizes = new long[numShards];
+    for (int s = 0; s < numShards; s++) {
+      shards[s] = directory.resolve("shard-" + s);
+      shardSizes[s] = merge(runs.get(s), shards[s]);
+      for (Path run : runs.get(s)) {
+        Files.deleteIfExists(run);
+      }
+      runs.get(s).clear();
+    }
+  }
+
+  /**
+   * Merge sorted runs in a streaming pass, summing the counts of equal keys.
+   *
+   * @param inputs Sorted runs
+   * @param output Merged file
+   * @return Number of merged records
+   * @throws IOException Could not read or write a file
+   */
+  protected static long merge(List<Path> inputs, Path output) throws IOException {
+    final PriorityQueue<RunReader> queue =
+        new PriorityQueue<>(Math.max(1, inputs.size()), (a, b) -> Long.compare(a.key, b.key));
+    long numRecords = 0;
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+      for (Path input : inputs) {
+        final RunReader reader = new RunReader(input);
+        if (reader.next()) {
+          queue.add(reader);
+        } else {
+          reader.close();
+        }
+      }
+      while (!queue.isEmpty()) {
+        final long key = queue.peek().key;
+        float value = 0;
+        while (!queue.isEmpty() && queue.peek().key == key) {
+          final RunReader reader = queue.poll();
+          value += reader.value;
+          if (reader.next()) {
+            queue.add(reader);
+          } else {
+            reader.close();
+          }
+        }
+        out.writeInt((int) (key >>> 32));
+        out.writeInt((int) key);
+        out.writeFloat(value);
+        numRecords++;
+      }
+    } finally {
+      for (RunReader reader : queue) {
+        reader.close();
+      }
+    }
+    return numRecords;
+  }
+
+  /**
+   * Get the number of shards.
+   *
+   * @return Number of shards
+   */
+  public int getNumShards() {
+    return numShards;
+  }
+
+  /**
+   * Get the number of records of a merged shard.
+   *
+   * @param shard Shard
+   * @return Number of records
+   */
+  public long getShardSize(int shard) {
+    checkFinished();
+    return shardSizes[shard];
+  }
+
+  /**
+   * Open a reader of a merged shard.
+   *
+   * @param shard Shard
+   * @return Reader of the (row, column, count) records, sorted by row and column
+   * @throws IOException Could not open the shard
+   */
+  public ShardReader openShard(int shard) throws IOException {
+    checkFinished();
+    return new ShardReader(shards[shard]);
+  }
+
+  /** Check that the counter is finished. */
+  protected void checkFinished() {
+    if (shards == null) {
+      throw new IllegalStateException("Counter is not finished");
+    }
+  }
+
+  /** Delete all run and shard files. */
+  @Override
+  public void close() throws IOException {
+    for (List<Path> shardRuns : runs) {
+      for (Path run : shardRuns) {
+        Files.deleteIfExists(run);
+      }
+    }
+    if (shards != null) {
+      for (Path shard : shards) {
+        Files.deleteIfExists(shard);
+      }
+    }
+  }
+
+  /** Reads the records of a merged shard. */
+  public static class ShardReader implements Closeable {
+
+    /** Input stream */
+    private final DataInputStream in;
+    /** Center word of the current record */
+    private int row;
+    /** Context word of the current record */
+    private int col;
+    /** Count of the current record */
+    private float count;
+
+    private ShardReader(Path shard) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(shard), 1 << 16));
+    }
+
+    /**
+     * Advance to the next record.
+     *
+     * @return False if there are no more records
+     * @throws IOException Could not read the shard
+     */
+    public boolean next() throws IOException {
+      try {
+        row = in.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      col = in.readInt();
+      count = in.readFloat();
+      return true;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    public int getCol() {
+      return col;
+    }
+
+    public float getCount() {
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /** Reads the records of a sorted run. */
+  private static class RunReader implements Closeable {
+
+    /** Input stream */
+    private final DataInputStream in;
+    /** Key of the current record */
+    private long key;
+    /** Value of the current record */
+    private float value;
+
+    private RunReader(Path run) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+    }
+
+    private boolean next() throws IOException {
+      try {
+        key = in.readLong();
+      } catch (EOFException e) {
+        return false;
+      }
+      value = in.readFloat();
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /** Open addressing hash map from non-negative long keys to float sums. */
+  static class LongFloatMap {
+
+    /** Capacity of a new map */
+    static final int INITIAL_CAPACITY = 16;
+    /** Marker of free slots, keys are never negative */
+    private static final long FREE = -1L;
+    /** Keys */
+    private long[] keys;
+    /** Values */
+    private float[] values;
+    /** Number of entries */
+    private int size;
+
+    LongFloatMap() {
+      keys = new long[INITIAL_CAPACITY];
+      values = new float[INITIAL_CAPACITY];
+      Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * Add a value to the sum of a key. The map does not grow by itself, the caller has to {@link
+     * #rehash()} it once it {@link #isFull()}.
+     *
+     * @param key Non-negative key
+     * @param value Value
+     */
+    void add(long key, float value) {
+      int slot = slot(key, keys.length);
+      while (keys[slot] != FREE) {
+        if (keys[slot] == key) {
+          values[slot] += value;
+          return;
+        }
+        slot = (slot + 1) & (keys.length - 1);
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      size++;
+    }
+
+    /**
+     * Get the sum of a key.
+     *
+     * @param key Key
+     * @return Sum, zero if the key is not in the map
+     */
+    float get(long key) {
+      int slot = slot(key, keys.length);
+      while (keys[slot] != FREE) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+        slot = (slot + 1) & (keys.length - 1);
+      }
+      return 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    int capacity() {
+      return keys.length;
+    }
+
+    /**
+     * Check whether the map exceeds its maximum load factor of 3/4.
+     *
+     * @return True if the map has to grow before the next insertion
+     */
+    boolean isFull() {
+      return size > keys.length * 3 / 4;
+    }
+
+    /**
+     * Get the keys in ascending order.
+     *
+     * @return Sorted keys
+     */
+    long[] sortedKeys() {
+      final long[] sorted = new long[size];
+      int n = 0;
+      for (long key : keys) {
+        if (key != FREE) {
+          sorted[n++] = key;
+        }
+      }
+      Arrays.sort(sorted);
+      return sorted;
+    }
+
+    /** Double the capacity. */
+    void rehash() {
+      final long[] oldKeys = keys;
+      final float[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new float[oldValues.length * 2];
+      Arrays.fill(keys, FREE);
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != FREE) {
+          int slot = slot(oldKeys[i], keys.length);
+          while (keys[slot] != FREE) {
+            slot = (slot + 1) & (keys.length - 1);
+          }
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+
+    /**
+     * Get the home slot of a key.
+     *
+     * @param key Key
+     * @param capacity Capacity, a power of two
+     * @return Slot
+     */
+    private static int slot(long key, int capacity) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 32) & (capacity - 1);
+    }
+  }
+}
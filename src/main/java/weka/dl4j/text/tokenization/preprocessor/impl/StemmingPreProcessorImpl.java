@@ -23,6 +23,7 @@ import java.util.Enumeration;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.OptionMetadata;
+import weka.core.SerializedObject;
 import weka.core.stemmers.NullStemmer;
 import weka.core.stemmers.Stemmer;
 
@@ -46,6 +47,12 @@ public class StemmingPreProcessorImpl
    */
   private Stemmer stemmer = new NullStemmer();
 
+  /**
+   * Copy of the stemmer per thread, Weka stemmers (e.g. the SnowballStemmer) keep state while
+   * stemming a word
+   */
+  private transient volatile ThreadLocal<Stemmer> threadStemmer;
+
   /**
    * Returns a string describing this object.
    *
@@ -91,7 +98,34 @@ public class StemmingPreProcessorImpl
   @Override
   public String preProcess(String token) {
     String prep = super.preProcess(token);
-    return stemmer.stem(prep);
+    return getThreadStemmer().stem(prep);
+  }
+
+  /**
+   * Get the copy of the stemmer of the current thread.
+   *
+   * @return Stemmer
+   */
+  private Stemmer getThreadStemmer() {
+    ThreadLocal<Stemmer> local = threadStemmer;
+    if (local == null) {
+      synchronized (this) {
+        if (threadStemmer == null) {
+          final Stemmer template = stemmer;
+          threadStemmer =
+              ThreadLocal.withInitial(
+                  () -> {
+                    try {
+                      return (Stemmer) new SerializedObject(template).getObject();
+                    } catch (Exception e) {
+                      throw new IllegalStateException("Could not copy the stemmer", e);
+                    }
+                  });
+        }
+        local = threadStemmer;
+      }
+    }
+    return local.get();
   }
 
   @OptionMetadata(
@@ -105,7 +139,8 @@ public class StemmingPreProcessorImpl
     return stemmer;
   }
 
-  public void setStemmer(Stemmer stemmer) {
+  public synchronized void setStemmer(Stemmer stemmer) {
     this.stemmer = stemmer;
+    this.threadStemmer = null;
   }
 }
\ No newline at end of file
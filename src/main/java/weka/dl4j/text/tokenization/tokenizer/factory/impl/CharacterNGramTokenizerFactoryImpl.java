@@ -50,17 +50,16 @@ public class CharacterNGramTokenizerFactoryImpl
    * The TokenPreProcess object
    */
   private TokenPreProcess tokenPreProcess;
-  private CharacterNGramTokenizer wekaTokenizer;
 
   /* (non-Javadoc)
    * @see org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory#create(java.lang.String)
    */
   @Override
   public Tokenizer create(String toTokenize) {
-
-    this.wekaTokenizer = new CharacterNGramTokenizer();
-    this.wekaTokenizer.setNGramMinSize(this.nMin);
-    this.wekaTokenizer.setNGramMaxSize(this.nMax);
+    // A new Weka tokenizer per document, so that documents can be tokenized concurrently
+    CharacterNGramTokenizer wekaTokenizer = new CharacterNGramTokenizer();
+    wekaTokenizer.setNGramMinSize(this.nMin);
+    wekaTokenizer.setNGramMaxSize(this.nMax);
 
     WekaTokenizer t = new WekaTokenizer(toTokenize, wekaTokenizer);
     t.setTokenPreProcessor(tokenPreProcess);
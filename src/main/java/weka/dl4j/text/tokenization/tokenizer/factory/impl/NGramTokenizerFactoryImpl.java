@@ -57,18 +57,17 @@ public class NGramTokenizerFactoryImpl implements TokenizerFactory, Serializable
    * The TokenPreProcess object
    */
   private TokenPreProcess tokenPreProcess;
-  private NGramTokenizer wekaTokenizer;
 
   /* (non-Javadoc)
    * @see org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory#create(java.lang.String)
    */
   @Override
   public Tokenizer create(String toTokenize) {
-
-    this.wekaTokenizer = new NGramTokenizer();
-    this.wekaTokenizer.setNGramMinSize(this.nMin);
-    this.wekaTokenizer.setNGramMaxSize(this.nMax);
-    this.wekaTokenizer.setDelimiters(this.delimiters);
+    // A new Weka tokenizer per document, so that documents can be tokenized concurrently
+    NGramTokenizer wekaTokenizer = new NGramTokenizer();
+    wekaTokenizer.setNGramMinSize(this.nMin);
+    wekaTokenizer.setNGramMaxSize(this.nMax);
+    wekaTokenizer.setDelimiters(this.delimiters);
 
     WekaTokenizer t = new WekaTokenizer(toTokenize, wekaTokenizer);
     t.setTokenPreProcessor(tokenPreProcess);
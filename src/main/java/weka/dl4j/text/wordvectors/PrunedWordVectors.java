@@ -0,0 +1,164 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PrunedWordVectors.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.dl4j.FileUtils;
+
+/**
+ * Word vectors pruned to the vocabulary of a corpus. Only the vectors of words that occur in the
+ * corpus are kept, followed by an all-zero vector for the out-of-vocabulary word {@link
+ * #OOV_WORD}, to which all other tokens are mapped.
+ *
+ * <p>The vectors are kept as a plain array, so that they are serialized with the model and the
+ * original word vector file is not needed after training.
+ *
+ * @author Steven Lang
+ */
+public class PrunedWordVectors implements Serializable {
+
+  private static final long serialVersionUID = -3024593262958458173L;
+
+  /** Word of the out-of-vocabulary vector */
+  public static final String OOV_WORD = "<OOV>";
+
+  /** Words in row order, the last one is {@link #OOV_WORD} */
+  private final String[] words;
+  /** Row-major word vector matrix, including the zero row of the OOV word */
+  private final float[] vectors;
+  /** Vector size */
+  private final int vectorSize;
+  /** Hex encoded SHA-256 digest of the words */
+  private final String digest;
+
+  /**
+   * Constructor.
+   *
+   * @param words Words in row order, without the OOV word
+   * @param vectors Row-major word vector matrix with an additional zero row for the OOV word
+   * @param vectorSize Vector size
+   */
+  public PrunedWordVectors(List<String> words, float[] vectors, int vectorSize) {
+    if (vectorSize <= 0 || vectors.length != (long) (words.size() + 1) * vectorSize) {
+      throw new IllegalArgumentException(
+          "Expected "
+              + (words.size() + 1)
+              + " word vectors of size "
+              + vectorSize
+              + ", got "
+              + vectors.length
+              + " values");
+    }
+    this.words = words.toArray(new String[words.size() + 1]);
+    this.words[words.size()] = OOV_WORD;
+    this.vectors = vectors;
+    this.vectorSize = vectorSize;
+    this.digest = computeDigest(this.words);
+  }
+
+  /**
+   * Prune loaded word vectors to the given vocabulary. The kept words are in the order of the
+   * original vocabulary.
+   *
+   * @param wordVectors Word vectors
+   * @param vocabulary Words to keep
+   * @return Pruned word vectors
+   */
+  public static PrunedWordVectors prune(WordVectors wordVectors, Set<String> vocabulary) {
+    final VocabCache<?> vocab = wordVectors.vocab();
+    final int vectorSize = wordVectors.getWordVector(vocab.wordAtIndex(0)).length;
+    List<String> kept = new ArrayList<>();
+    for (int i = 0; i < vocab.numWords(); i++) {
+      final String word = vocab.wordAtIndex(i);
+      if (vocabulary.contains(word) && !OOV_WORD.equals(word)) {
+        kept.add(word);
+      }
+    }
+    final float[] vectors = new float[(kept.size() + 1) * vectorSize];
+    for (int i = 0; i < kept.size(); i++) {
+      final double[] vector = wordVectors.getWordVector(kept.get(i));
+      for (int j = 0; j < vectorSize; j++) {
+        vectors[i * vectorSize + j] = (float) vector[j];
+      }
+    }
+    return new PrunedWordVectors(kept, vectors, vectorSize);
+  }
+
+  /**
+   * Create word vectors from the pruned matrix.
+   *
+   * @return Word vectors
+   */
+  public WordVectors toWordVectors() {
+    return WordVectorCache.create(
+        Arrays.asList(words), Nd4j.create(vectors, new int[] {words.length, vectorSize}, 'c'));
+  }
+
+  /**
+   * Get the number of words, including the OOV word.
+   *
+   * @return Number of words
+   */
+  public int numWords() {
+    return words.length;
+  }
+
+  /**
+   * Get the vector size.
+   *
+   * @return Vector size
+   */
+  public int getVectorSize() {
+    return vectorSize;
+  }
+
+  /**
+   * Get the digest of the words, which identifies the vocabulary indices of the pruned word
+   * vectors.
+   *
+   * @return Hex encoded SHA-256 digest
+   */
+  public String getDigest() {
+    return digest;
+  }
+
+  /**
+   * Compute the digest of the words.
+   *
+   * @param words Words in row order
+   * @return Hex encoded SHA-256 digest
+   */
+  private static String computeDigest(String[] words) {
+    MessageDigest md = FileUtils.sha256();
+    for (String word : words) {
+      md.update(word.getBytes(StandardCharsets.UTF_8));
+      md.update((byte) '\n');
+    }
+    return FileUtils.toHex(md.digest());
+  }
+}
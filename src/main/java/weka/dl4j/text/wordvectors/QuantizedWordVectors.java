@@ -0,0 +1,612 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * QuantizedWordVectors.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+import lombok.extern.log4j.Log4j2;
+import org.deeplearning4j.models.embeddings.WeightLookupTable;
+import org.deeplearning4j.models.embeddings.reader.ModelUtils;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.dl4j.WordVectorQuantization;
+
+/**
+ * Word vectors that are stored in compressed form and decoded on lookup.
+ *
+ * <ul>
+ *   <li>{@link WordVectorQuantization#INT8}: each component is stored as a byte, scaled by the
+ *       largest absolute component of the word (vector size + 4 bytes per word).
+ *   <li>{@link WordVectorQuantization#PRODUCT}: the vector is split into subspaces and each
+ *       subvector is replaced by the index of the nearest of 256 centroids, which are learned with
+ *       k-means on a sample of the words (one byte per subspace and word).
+ * </ul>
+ *
+ * <p>{@link #getWordVectors(Collection)}, which is used by the text iterators to build their
+ * batches, decodes all words of a batch into a single matrix. The relative squared reconstruction
+ * error of all words is computed during the quantization, see {@link #getReconstructionError()}.
+ * There is no full-precision weight matrix, so {@link #lookupTable()} is not supported.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class QuantizedWordVectors implements WordVectors {
+
+  private static final long serialVersionUID = -1883270562893591372L;
+
+  /** Maximum number of centroids per subspace */
+  protected static final int MAX_CENTROIDS = 256;
+  /** Maximum number of words the centroids are learned on */
+  protected static final int MAX_TRAINING_WORDS = 64 * MAX_CENTROIDS;
+  /** Number of k-means iterations */
+  protected static final int KMEANS_ITERATIONS = 15;
+  /** Number of words that are read from the source word vectors at once */
+  protected static final int CHUNK_SIZE = 4096;
+
+  /** Quantization method */
+  private final WordVectorQuantization method;
+  /** Words in row order */
+  private final String[] words;
+  /** Vocabulary */
+  private final AbstractCache<VocabWord> vocab;
+  /** Vector size */
+  private final int vectorSize;
+  /** Codes, one byte per component (INT8) or per subspace (PRODUCT) and word */
+  private final byte[] codes;
+  /** Scale per word (INT8) */
+  private float[] scales;
+  /** Start of each subspace plus the vector size at the end (PRODUCT) */
+  private int[] subspaceOffsets;
+  /** Number of centroids per subspace (PRODUCT) */
+  private int numCentroids;
+  /** Centroids of all subspaces, those of subspace s start at numCentroids * offset(s) */
+  private float[] codebooks;
+  /** Relative squared reconstruction error */
+  private double reconstructionError;
+  /** Word that represents unknown words */
+  private String unk = "UNK";
+
+  /**
+   * Constructor.
+   *
+   * @param method Quantization method
+   * @param words Words in row order
+   * @param vectorSize Vector size
+   * @param codeSize Number of codes per word
+   */
+  private QuantizedWordVectors(
+      WordVectorQuantization method, String[] words, int vectorSize, int codeSize) {
+    this.method = method;
+    this.words = words;
+    this.vectorSize = vectorSize;
+    this.codes = new byte[words.length * codeSize];
+    this.vocab = new AbstractCache.Builder<VocabWord>().build();
+    for (int i = 0; i < words.length; i++) {
+      VocabWord vw = new VocabWord(1.0, words[i]);
+      vw.setIndex(i);
+      vocab.addToken(vw);
+      vocab.addWordToIndex(i, words[i]);
+    }
+  }
+
+  /**
+   * Quantize word vectors.
+   *
+   * @param source Full precision word vectors
+   * @param method Quantization method, INT8 or PRODUCT
+   * @param numSubspaces Number of subspaces of the product quantization (bytes per word),
+   *     non-positive for a tenth of the vector size
+   * @param seed Seed of the word sample the centroids are learned on
+   * @return Quantized word vectors
+   */
+  public static QuantizedWordVectors quantize(
+      WordVectors source, WordVectorQuantization method, int numSubspaces, long seed) {
+    final VocabCache<?> sourceVocab = source.vocab();
+    final String[] words = new String[sourceVocab.numWords()];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = sourceVocab.wordAtIndex(i);
+    }
+    final int vectorSize = source.getWordVector(words[0]).length;
+
+    final QuantizedWordVectors quantized;
+    switch (method) {
+      case INT8:
+        quantized = new QuantizedWordVectors(method, words, vectorSize, vectorSize);
+        quantized.scales = new float[words.length];
+        break;
+      case PRODUCT:
+        int m = numSubspaces > 0 ? numSubspaces : Math.max(1, vectorSize / 10);
+        m = Math.min(m, vectorSize);
+        quantized = new QuantizedWordVectors(method, words, vectorSize, m);
+        quantized.subspaceOffsets = new int[m + 1];
+        for (int s = 0; s <= m; s++) {
+          quantized.subspaceOffsets[s] = (int) ((long) s * vectorSize / m);
+        }
+        quantized.trainCodebooks(source, new Random(seed));
+        break;
+      default:
+        throw new IllegalArgumentException("Not a quantization method: " + method);
+    }
+
+    // Encode the words chunk by chunk and accumulate the reconstruction error
+    double squaredError = 0;
+    double squaredNorm = 0;
+    for (int from = 0; from < words.length; from += CHUNK_SIZE) {
+      final int to = Math.min(words.length, from + CHUNK_SIZE);
+      final float[] chunk = getRows(source, words, from, to);
+      final int offset = from;
+      final double[][] errors =
+          IntStream.range(0, to - from)
+              .parallel()
+              .mapToObj(i -> quantized.encode(offset + i, chunk, i * vectorSize))
+              .toArray(double[][]::new);
+      for (double[] e : errors) {
+        squaredError += e[0];
+        squaredNorm += e[1];
+      }
+    }
+    quantized.reconstructionError = squaredNorm > 0 ? squaredError / squaredNorm : 0;
+    log.info(
+        "Quantized {} word vectors with {} to {} bytes per word, relative reconstruction error {}",
+        words.length,
+        method,
+        quantized.getBytesPerWord(),
+        quantized.reconstructionError);
+    return quantized;
+  }
+
+  /**
+   * Learn the centroids of each subspace with k-means on a sample of the words.
+   *
+   * @param source Full precision word vectors
+   * @param rand Random number generator
+   */
+  protected void trainCodebooks(WordVectors source, Random rand) {
+    final int numWords = words.length;
+    final int numSamples = Math.min(numWords, MAX_TRAINING_WORDS);
+    List<String> sampleWords = new ArrayList<>(numSamples);
+    if (numSamples == numWords) {
+      sampleWords.addAll(Arrays.asList(words));
+    } else {
+      final Set<Integer> sample = new HashSet<>();
+      while (sample.size() < numSamples) {
+        sample.add(rand.nextInt(numWords));
+      }
+      for (int i : sample) {
+        sampleWords.add(words[i]);
+      }
+    }
+    final String[] sampleArray = sampleWords.toArray(new String[0]);
+    final float[] data = getRows(source, sampleArray, 0, sampleArray.length);
+
+    numCentroids = Math.min(MAX_CENTROIDS, numSamples);
+    codebooks = new float[numCentroids * vectorSize];
+    final int numSubspaces = subspaceOffsets.length - 1;
+    final long[] seeds = rand.longs(numSubspaces).toArray();
+    IntStream.range(0, numSubspaces)
+        .parallel()
+        .forEach(s -> trainSubspace(s, data, numSamples, new Random(seeds[s])));
+  }
+
+  /**
+   * Learn the centroids of one subspace with k-means.
+   *
+   * @param s Subspace
+   * @param data Row-major sample of the word vectors
+   * @param numSamples Number of sampled words
+   * @param rand Random number generator
+   */
+  protected void trainSubspace(int s, float[] data, int numSamples, Random rand) {
+    final int start = subspaceOffsets[s];
+    final int dim = subspaceOffsets[s + 1] - start;
+    final int base = numCentroids * start;
+
+    // Initialize the centroids with distinct random samples
+    final int[] perm = IntStream.range(0, numSamples).toArray();
+    for (int k = 0; k < numCentroids; k++) {
+      final int j = k + rand.nextInt(numSamples - k);
+      final int tmp = perm[k];
+      perm[k] = perm[j];
+      perm[j] = tmp;
+      System.arraycopy(data, perm[k] * vectorSize + start, codebooks, base + k * dim, dim);
+    }
+
+    final int[] assignment = new int[numSamples];
+    Arrays.fill(assignment, -1);
+    final double[] sums = new double[numCentroids * dim];
+    final int[] counts = new int[numCentroids];
+    for (int iter = 0; iter < KMEANS_ITERATIONS; iter++) {
+      boolean changed = false;
+      for (int i = 0; i < numSamples; i++) {
+        final int k = nearestCentroid(s, data, i * vectorSize + start);
+        changed |= assignment[i] != k;
+        assignment[i] = k;
+      }
+      if (!changed) {
+        break;
+      }
+
+      Arrays.fill(sums, 0);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < numSamples; i++) {
+        final int k = assignment[i];
+        counts[k]++;
+        for (int d = 0; d < dim; d++) {
+          sums[k * dim + d] += data[i * vectorSize + start + d];
+        }
+      }
+      for (int k = 0; k < numCentroids; k++) {
+        if (counts[k] == 0) {
+          // Move empty clusters to a random sample
+          final int i = rand.nextInt(numSamples);
+          System.arraycopy(data, i * vectorSize + start, codebooks, base + k * dim, dim);
+          continue;
+        }
+        for (int d = 0; d < dim; d++) {
+          codebooks[base + k * dim + d] = (float) (sums[k * dim + d] / counts[k]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the nearest centroid of a subvector.
+   *
+   * @param s Subspace
+   * @param vector Array that holds the subvector
+   * @param offset Position of the subvector in the array
+   * @return Index of the nearest centroid
+   */
+  protected int nearestCentroid(int s, float[] vector, int offset) {
+    final int dim = subspaceOffsets[s + 1] - subspaceOffsets[s];
+    final int base = numCentroids * subspaceOffsets[s];
+    int best = 0;
+    double bestDistance = Double.MAX_VALUE;
+    for (int k = 0; k < numCentroids; k++) {
+      double distance = 0;
+      final int c = base + k * dim;
+      for (int d = 0; d < dim && distance < bestDistance; d++) {
+        final double diff = vector[offset + d] - codebooks[c + d];
+        distance += diff * diff;
+      }
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = k;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Encode the vector of a word.
+   *
+   * @param row Row of the word
+   * @param vector Array that holds the vector
+   * @param offset Position of the vector in the array
+   * @return Squared reconstruction error and squared norm of the vector
+   */
+  protected double[] encode(int row, float[] vector, int offset) {
+    if (method == WordVectorQuantization.INT8) {
+      float max = 0;
+      for (int d = 0; d < vectorSize; d++) {
+        max = Math.max(max, Math.abs(vector[offset + d]));
+      }
+      scales[row] = max / 127f;
+      for (int d = 0; d < vectorSize; d++) {
+        codes[row * vectorSize + d] =
+            max == 0 ? 0 : (byte) Math.round(vector[offset + d] / scales[row]);
+      }
+    } else {
+      final int numSubspaces = subspaceOffsets.length - 1;
+      for (int s = 0; s < numSubspaces; s++) {
+        codes[row * numSubspaces + s] =
+            (byte) nearestCentroid(s, vector, offset + subspaceOffsets[s]);
+      }
+    }
+
+    final float[] decoded = new float[vectorSize];
+    decode(row, decoded, 0);
+    double error = 0;
+    double norm = 0;
+    for (int d = 0; d < vectorSize; d++) {
+      final double diff = vector[offset + d] - decoded[d];
+      error += diff * diff;
+      norm += (double) vector[offset + d] * vector[offset + d];
+    }
+    return new double[] {error, norm};
+  }
+
+  /**
+   * Decode the vector of a word.
+   *
+   * @param row Row of the word
+   * @param target Target array
+   * @param offset Position of the vector in the target array
+   */
+  protected void decode(int row, float[] target, int offset) {
+    if (method == WordVectorQuantization.INT8) {
+      final float scale = scales[row];
+      final int start = row * vectorSize;
+      for (int d = 0; d < vectorSize; d++) {
+        target[offset + d] = codes[start + d] * scale;
+      }
+    } else {
+      final int numSubspaces = subspaceOffsets.length - 1;
+      for (int s = 0; s < numSubspaces; s++) {
+        final int dim = subspaceOffsets[s + 1] - subspaceOffsets[s];
+        final int k = codes[row * numSubspaces + s] & 0xFF;
+        System.arraycopy(
+            codebooks,
+            numCentroids * subspaceOffsets[s] + k * dim,
+            target,
+            offset + subspaceOffsets[s],
+            dim);
+      }
+    }
+  }
+
+  /**
+   * Decode the vectors of the given rows into a single matrix.
+   *
+   * @param rows Rows of the words
+   * @return Matrix of shape {@code [rows x vectorSize]}
+   */
+  public INDArray decode(int[] rows) {
+    final float[] data = new float[rows.length * vectorSize];
+    for (int i = 0; i < rows.length; i++) {
+      decode(rows[i], data, i * vectorSize);
+    }
+    return Nd4j.create(data, new int[] {rows.length, vectorSize}, 'c');
+  }
+
+  /**
+   * Get the relative squared reconstruction error of all words, i.e. the sum of the squared
+   * differences between the original and the decoded vectors divided by the sum of the squared
+   * norms of the original vectors.
+   *
+   * @return Relative squared reconstruction error
+   */
+  public double getReconstructionError() {
+    return reconstructionError;
+  }
+
+  /**
+   * Get the number of bytes per word of the codes, without the shared centroids.
+   *
+   * @return Bytes per word
+   */
+  public int getBytesPerWord() {
+    return method == WordVectorQuantization.INT8 ? vectorSize + 4 : subspaceOffsets.length - 1;
+  }
+
+  /**
+   * Get the quantization method.
+   *
+   * @return Quantization method
+   */
+  public WordVectorQuantization getMethod() {
+    return method;
+  }
+
+  /**
+   * Read a range of word vectors from full precision word vectors.
+   *
+   * @param source Full precision word vectors
+   * @param words Words
+   * @param from First word (inclusive)
+   * @param to Last word (exclusive)
+   * @return Row-major word vectors
+   */
+  protected static float[] getRows(WordVectors source, String[] words, int from, int to) {
+    final INDArray rows = source.getWordVectors(Arrays.asList(words).subList(from, to));
+    return rows.dup('c').data().asFloat();
+  }
+
+  @Override
+  public String getUNK() {
+    return unk;
+  }
+
+  @Override
+  public void setUNK(String newUNK) {
+    this.unk = newUNK;
+  }
+
+  @Override
+  public boolean hasWord(String word) {
+    return vocab.containsWord(word);
+  }
+
+  @Override
+  public int indexOf(String word) {
+    return vocab.indexOf(word);
+  }
+
+  @Override
+  public double[] getWordVector(String word) {
+    final INDArray vector = getWordVectorMatrix(word);
+    return vector == null ? null : vector.toDoubleVector();
+  }
+
+  @Override
+  public INDArray getWordVectorMatrix(String word) {
+    final int index = indexOf(word);
+    return index < 0 ? null : decode(new int[] {index});
+  }
+
+  @Override
+  public INDArray getWordVectorMatrixNormalized(String word) {
+    final INDArray vector = getWordVectorMatrix(word);
+    return vector == null ? null : vector.div(Math.max(vector.norm2Number().doubleValue(), 1e-12));
+  }
+
+  @Override
+  public INDArray getWordVectors(Collection<String> labels) {
+    final int[] rows = new int[labels.size()];
+    int numRows = 0;
+    for (String label : labels) {
+      final int index = indexOf(label);
+      if (index >= 0) {
+        rows[numRows++] = index;
+      }
+    }
+    return decode(Arrays.copyOf(rows, numRows));
+  }
+
+  @Override
+  public INDArray getWordVectorsMean(Collection<String> labels) {
+    return getWordVectors(labels).mean(0);
+  }
+
+  @Override
+  public double similarity(String word, String word2) {
+    final INDArray a = getWordVectorMatrixNormalized(word);
+    final INDArray b = getWordVectorMatrixNormalized(word2);
+    if (a == null || b == null) {
+      return Double.NaN;
+    }
+    return a.mul(b).sumNumber().doubleValue();
+  }
+
+  @Override
+  public Collection<String> wordsNearest(String word, int n) {
+    return wordsNearest(Collections.singletonList(word), Collections.emptyList(), n);
+  }
+
+  @Override
+  public Collection<String> wordsNearest(
+      Collection<String> positive, Collection<String> negative, int top) {
+    INDArray query = Nd4j.zeros(1, vectorSize);
+    for (String word : positive) {
+      if (hasWord(word)) {
+        query.addi(getWordVectorMatrixNormalized(word));
+      }
+    }
+    for (String word : negative) {
+      if (hasWord(word)) {
+        query.subi(getWordVectorMatrixNormalized(word));
+      }
+    }
+    Set<String> exclude = new HashSet<>(positive);
+    exclude.addAll(negative);
+    return nearest(query, top, exclude);
+  }
+
+  @Override
+  public Collection<String> wordsNearest(INDArray words, int top) {
+    return nearest(words, top, Collections.emptySet());
+  }
+
+  @Override
+  public Collection<String> wordsNearestSum(INDArray words, int top) {
+    return nearest(words, top, Collections.emptySet());
+  }
+
+  @Override
+  public Collection<String> wordsNearestSum(String word, int n) {
+    return wordsNearest(word, n);
+  }
+
+  @Override
+  public Collection<String> wordsNearestSum(
+      Collection<String> positive, Collection<String> negative, int top) {
+    return wordsNearest(positive, negative, top);
+  }
+
+  /**
+   * Find the words with the highest cosine similarity to a vector by decoding all words.
+   *
+   * @param query Query vector
+   * @param top Number of words
+   * @param exclude Words that are excluded from the result
+   * @return Nearest words, most similar first
+   */
+  protected List<String> nearest(INDArray query, int top, Set<String> exclude) {
+    final float[] q = query.dup('c').data().asFloat();
+    double qNorm = 0;
+    for (float v : q) {
+      qNorm += v * v;
+    }
+    qNorm = Math.max(Math.sqrt(qNorm), 1e-12);
+    final float[] decoded = new float[vectorSize];
+    PriorityQueue<double[]> heap = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+    for (int row = 0; row < words.length; row++) {
+      if (exclude.contains(words[row])) {
+        continue;
+      }
+      decode(row, decoded, 0);
+      double dot = 0;
+      double norm = 0;
+      for (int d = 0; d < vectorSize; d++) {
+        dot += decoded[d] * q[d];
+        norm += decoded[d] * decoded[d];
+      }
+      heap.add(new double[] {dot / (qNorm * Math.max(Math.sqrt(norm), 1e-12)), row});
+      if (heap.size() > top) {
+        heap.poll();
+      }
+    }
+    final String[] result = new String[heap.size()];
+    for (int i = result.length - 1; i >= 0; i--) {
+      result[i] = words[(int) heap.poll()[1]];
+    }
+    return Arrays.asList(result);
+  }
+
+  @Override
+  public Map<String, Double> accuracy(List<String> questions) {
+    throw new UnsupportedOperationException("Not supported by quantized word vectors.");
+  }
+
+  @Override
+  public List<String> similarWordsInVocabTo(String word, double accuracy) {
+    throw new UnsupportedOperationException("Not supported by quantized word vectors.");
+  }
+
+  @Override
+  public VocabCache<VocabWord> vocab() {
+    return vocab;
+  }
+
+  @Override
+  public WeightLookupTable<VocabWord> lookupTable() {
+    throw new UnsupportedOperationException(
+        "Quantized word vectors have no weight matrix, use getWordVectors(Collection).");
+  }
+
+  // The parameter is raw in the WordVectors interface
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void setModelUtils(ModelUtils utils) {
+    // Nearest words are found by decoding all words
+  }
+}
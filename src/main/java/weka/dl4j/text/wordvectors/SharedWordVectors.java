@@ -0,0 +1,191 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * SharedWordVectors.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.deeplearning4j.models.embeddings.WeightLookupTable;
+import org.deeplearning4j.models.embeddings.reader.ModelUtils;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Read-only view of word vectors that are shared through the {@link WordVectorRegistry}. Lookups
+ * are passed through to the shared word vectors, setters are rejected. Queries for nearest words
+ * are serialized, since the model utils of DL4J lazily normalize the word vectors on first use.
+ *
+ * <p>The vocabulary and the lookup table are the shared instances and must not be modified.
+ *
+ * @author Steven Lang
+ */
+public class SharedWordVectors implements WordVectors {
+
+  private static final long serialVersionUID = 4428150364624306263L;
+  /** Shared word vectors */
+  private final WordVectors delegate;
+  /** Registry key of the word vectors */
+  private final String key;
+
+  /**
+   * Constructor.
+   *
+   * @param delegate Shared word vectors
+   * @param key Registry key of the word vectors
+   */
+  SharedWordVectors(WordVectors delegate, String key) {
+    this.delegate = delegate;
+    this.key = key;
+  }
+
+  /**
+   * Get the registry key of the word vectors.
+   *
+   * @return Registry key
+   */
+  String getKey() {
+    return key;
+  }
+
+  @Override
+  public String getUNK() {
+    return delegate.getUNK();
+  }
+
+  @Override
+  public void setUNK(String newUNK) {
+    throw new UnsupportedOperationException("Shared word vectors are read-only.");
+  }
+
+  @Override
+  public boolean hasWord(String word) {
+    return delegate.hasWord(word);
+  }
+
+  @Override
+  public Collection<String> wordsNearest(INDArray words, int top) {
+    synchronized (delegate) {
+      return delegate.wordsNearest(words, top);
+    }
+  }
+
+  @Override
+  public Collection<String> wordsNearestSum(INDArray words, int top) {
+    synchronized (delegate) {
+      return delegate.wordsNearestSum(words, top);
+    }
+  }
+
+  @Override
+  public Collection<String> wordsNearestSum(String word, int n) {
+    synchronized (delegate) {
+      return delegate.wordsNearestSum(word, n);
+    }
+  }
+
+  @Override
+  public Collection<String> wordsNearestSum(
+      Collection<String> positive, Collection<String> negative, int top) {
+    synchronized (delegate) {
+      return delegate.wordsNearestSum(positive, negative, top);
+    }
+  }
+
+  @Override
+  public Map<String, Double> accuracy(List<String> questions) {
+    synchronized (delegate) {
+      return delegate.accuracy(questions);
+    }
+  }
+
+  @Override
+  public int indexOf(String word) {
+    return delegate.indexOf(word);
+  }
+
+  @Override
+  public List<String> similarWordsInVocabTo(String word, double accuracy) {
+    synchronized (delegate) {
+      return delegate.similarWordsInVocabTo(word, accuracy);
+    }
+  }
+
+  @Override
+  public double[] getWordVector(String word) {
+    return delegate.getWordVector(word);
+  }
+
+  @Override
+  public INDArray getWordVectorMatrixNormalized(String word) {
+    return delegate.getWordVectorMatrixNormalized(word);
+  }
+
+  @Override
+  public INDArray getWordVectorMatrix(String word) {
+    return delegate.getWordVectorMatrix(word);
+  }
+
+  @Override
+  public INDArray getWordVectors(Collection<String> labels) {
+    return delegate.getWordVectors(labels);
+  }
+
+  @Override
+  public INDArray getWordVectorsMean(Collection<String> labels) {
+    return delegate.getWordVectorsMean(labels);
+  }
+
+  @Override
+  public Collection<String> wordsNearest(
+      Collection<String> positive, Collection<String> negative, int top) {
+    synchronized (delegate) {
+      return delegate.wordsNearest(positive, negative, top);
+    }
+  }
+
+  @Override
+  public Collection<String> wordsNearest(String word, int n) {
+    synchronized (delegate) {
+      return delegate.wordsNearest(word, n);
+    }
+  }
+
+  @Override
+  public double similarity(String word, String word2) {
+    return delegate.similarity(word, word2);
+  }
+
+  @Override
+  public VocabCache<?> vocab() {
+    return delegate.vocab();
+  }
+
+  @Override
+  public WeightLookupTable<?> lookupTable() {
+    return delegate.lookupTable();
+  }
+
+  // The parameter is raw in the WordVectors interface
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void setModelUtils(ModelUtils utils) {
+    throw new UnsupportedOperationException("Shared word vectors are read-only.");
+  }
+}
@@ -0,0 +1,647 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * WordVectorCache.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import lombok.extern.log4j.Log4j2;
+import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.primitives.Pair;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.dl4j.FileUtils;
+
+/**
+ * Converts word vectors in text formats (CSV with different separators, gzipped CSV and ARFF) into
+ * a compact binary file, so that later loads skip the parsing. Loading maps the binary file in
+ * chunks and copies the vectors into an ND4J matrix, the loaded vectors do not refer to the file.
+ *
+ * <p>The text file is parsed in a single pass: the separator and whether the word is in the first
+ * or last column are detected from the first line. The binary file consists of a header, the word
+ * vectors as little-endian float matrix with one row per word and the vocabulary in row order. It
+ * is stored in the cache directory under a key derived from the path, size and modification time
+ * of the source file, so that a changed source file is converted again.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class WordVectorCache {
+
+  /** Magic number of the binary format ("WVEC") */
+  public static final int MAGIC = 0x57564543;
+
+  /** Version of the binary format. Bump to invalidate all existing cache files. */
+  public static final int FORMAT_VERSION = 1;
+
+  /** File name suffix of cache files */
+  public static final String FILE_SUFFIX = ".wvec";
+
+  /** Size of the header in bytes */
+  protected static final int HEADER_BYTES = 24;
+
+  /** Maximum number of bytes that are mapped at once */
+  protected static final long MAX_MAPPING_BYTES = Integer.MAX_VALUE;
+
+  /** Supported separators of CSV files */
+  protected static final Pattern[] SEPARATORS = {
+    Pattern.compile("[ \t]+"),
+    Pattern.compile(";"),
+    Pattern.compile(","),
+    Pattern.compile(":")
+  };
+
+  /** Directory of the binary files */
+  protected final File cacheDirectory;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheDirectory Directory of the binary files
+   */
+  public WordVectorCache(File cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  /**
+   * Load the word vectors of a text file (.csv, .csv.gz or .arff). The file is converted to the
+   * binary format on the first load, later loads map the binary file.
+   *
+   * @param source Word vector file
+   * @return Word vectors
+   * @throws IOException Source file could not be read or has an unsupported format
+   */
+  public WordVectors load(File source) throws IOException {
+    return load(source, WordVectorCache::read);
+  }
+
+  /**
+   * Load the word vectors of a text file (.csv, .csv.gz or .arff), pruned to the given vocabulary.
+   * The file is converted to the binary format on the first load, later loads map the binary file.
+   *
+   * @param source Word vector file
+   * @param vocabulary Words to keep
+   * @return Pruned word vectors
+   * @throws IOException Source file could not be read or has an unsupported format
+   */
+  public PrunedWordVectors load(File source, Set<String> vocabulary) throws IOException {
+    return load(source, binary -> readPruned(binary, vocabulary));
+  }
+
+  /**
+   * Read the binary file of a text file, after converting the text file if necessary.
+   *
+   * @param source Word vector file
+   * @param reader Reader of the binary file
+   * @param <T> Type of the read word vectors
+   * @return Read word vectors
+   * @throws IOException Source file could not be read or has an unsupported format
+   */
+  protected <T> T load(File source, BinaryReader<T> reader) throws IOException {
+    final File binary = getCacheFile(source);
+    if (binary.isFile()) {
+      try {
+        return reader.read(binary);
+      } catch (IOException e) {
+        log.warn("Could not read word vector cache {}, converting {} again", binary, source);
+      }
+    }
+
+    log.info("Converting word vectors {} to {}", source, binary);
+    final String name = source.getName().toLowerCase();
+    FileUtils.writeAtomically(
+        binary.toPath(),
+        tmp -> {
+          if (name.endsWith(".arff")) {
+            try (BufferedReader br = new BufferedReader(new FileReader(source))) {
+              writeInstances(new Instances(br), tmp.toFile());
+            }
+          } else {
+            InputStream in = new FileInputStream(source);
+            if (name.endsWith(".gz")) {
+              in = new GZIPInputStream(in);
+            }
+            try (BufferedReader br =
+                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+              writeText(br, tmp.toFile());
+            }
+          }
+        });
+    return reader.read(binary);
+  }
+
+  /**
+   * Get the binary file of a word vector file.
+   *
+   * @param source Word vector file
+   * @return Binary file in the cache directory
+   */
+  public File getCacheFile(File source) {
+    return new File(cacheDirectory, computeKey(source) + FILE_SUFFIX);
+  }
+
+  /**
+   * Compute the cache key of a word vector file from its path, size and modification time.
+   *
+   * @param source Word vector file
+   * @return Hex encoded SHA-256 key
+   */
+  public static String computeKey(File source) {
+    final String config =
+        FORMAT_VERSION
+            + "\n"
+            + source.getAbsolutePath()
+            + "\n"
+            + source.length()
+            + " "
+            + source.lastModified();
+    return FileUtils.toHex(FileUtils.sha256().digest(config.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Convert word vectors in CSV format to the binary format. Each line holds a word and its vector,
+   * separated by whitespace, semicolons, commas or colons. The word may be in the first or the last
+   * column. An optional header line with the number of words and the vector size is skipped.
+   *
+   * @param reader CSV reader
+   * @param binary Binary file
+   * @throws IOException Reader could not be read or has an unsupported format
+   */
+  public static void writeText(BufferedReader reader, File binary) throws IOException {
+    try (Writer writer = new Writer(binary)) {
+      Pattern separator = null;
+      boolean wordFirst = true;
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (separator == null) {
+          separator = detectSeparator(line);
+          if (separator == null) {
+            throw new IOException("Could not detect the separator of the word vector file");
+          }
+          final String[] parts = separator.split(line);
+          if (parts.length == 2 && isNumber(parts[0]) && isNumber(parts[1])) {
+            // Header of the word2vec text format
+            continue;
+          }
+          wordFirst = !isNumber(parts[0]) || isNumber(parts[parts.length - 1]);
+        }
+
+        final String[] parts = separator.split(line);
+        final int vectorSize = parts.length - 1;
+        final float[] vector = new float[vectorSize];
+        final int offset = wordFirst ? 1 : 0;
+        try {
+          for (int i = 0; i < vectorSize; i++) {
+            vector[i] = Float.parseFloat(parts[i + offset]);
+          }
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid word vector in line " + lineNumber, e);
+        }
+        writer.add(wordFirst ? parts[0] : parts[vectorSize], vector);
+      }
+    }
+  }
+
+  /**
+   * Convert word vectors in ARFF format to the binary format. The word is the string or nominal
+   * attribute, the vector consists of all numeric attributes.
+   *
+   * @param data Word vectors
+   * @param binary Binary file
+   * @throws IOException Binary file could not be written
+   */
+  public static void writeInstances(Instances data, File binary) throws IOException {
+    int wordIdx = -1;
+    List<Integer> vectorIdx = new ArrayList<>();
+    for (int i = 0; i < data.numAttributes(); i++) {
+      final Attribute att = data.attribute(i);
+      if (att.isNumeric()) {
+        vectorIdx.add(i);
+      } else if (wordIdx < 0 && (att.isString() || att.isNominal())) {
+        wordIdx = i;
+      }
+    }
+    if (wordIdx < 0 || vectorIdx.isEmpty()) {
+      throw new IOException("Word vectors need a string attribute and numeric attributes");
+    }
+
+    try (Writer writer = new Writer(binary)) {
+      final float[] vector = new float[vectorIdx.size()];
+      for (Instance inst : data) {
+        for (int j = 0; j < vector.length; j++) {
+          vector[j] = (float) inst.value(vectorIdx.get(j));
+        }
+        writer.add(inst.stringValue(wordIdx), vector);
+      }
+    }
+  }
+
+  /**
+   * Read word vectors from a binary file. The word vector matrix is copied from the mapped file in
+   * bulk.
+   *
+   * @param binary Binary file
+   * @return Word vectors
+   * @throws IOException File could not be read or is no word vector cache file
+   */
+  public static WordVectors read(File binary) throws IOException {
+    try (FileChannel channel = FileChannel.open(binary.toPath(), StandardOpenOption.READ)) {
+      final Header header = readHeader(channel, binary);
+      final List<String> words = readVocabulary(channel, header);
+
+      // Copy the matrix in chunks of rows, a single mapping is limited to 2GB
+      final int numWords = header.numWords;
+      final int vectorSize = header.vectorSize;
+      final INDArray syn0 = Nd4j.create(numWords, vectorSize);
+      final long rowBytes = 4L * vectorSize;
+      final int rowsPerChunk = (int) Math.max(1, MAX_MAPPING_BYTES / rowBytes);
+      final boolean floatBuffer = syn0.data().dataType() == DataBuffer.Type.FLOAT;
+      final FloatBuffer target = floatBuffer ? syn0.data().asNioFloat() : null;
+      for (int row = 0; row < numWords; row += rowsPerChunk) {
+        final int rows = Math.min(rowsPerChunk, numWords - row);
+        final FloatBuffer chunk = mapRows(channel, header, row, rows);
+        if (floatBuffer) {
+          target.position(row * vectorSize);
+          target.put(chunk);
+        } else {
+          final float[] values = new float[rows * vectorSize];
+          chunk.get(values);
+          syn0.get(NDArrayIndex.interval(row, row + rows), NDArrayIndex.all())
+              .assign(Nd4j.create(values, new int[] {rows, vectorSize}, 'c'));
+        }
+      }
+      return create(words, syn0);
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt word vector cache file: " + binary, e);
+    }
+  }
+
+  /**
+   * Read the word vectors of the given words from a binary file. The vocabulary is read first and
+   * only the matrix rows of the given words are copied from the mapped file.
+   *
+   * @param binary Binary file
+   * @param vocabulary Words to keep
+   * @return Pruned word vectors in the row order of the file
+   * @throws IOException File could not be read or is no word vector cache file
+   */
+  public static PrunedWordVectors readPruned(File binary, Set<String> vocabulary)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(binary.toPath(), StandardOpenOption.READ)) {
+      final Header header = readHeader(channel, binary);
+      final List<String> allWords = readVocabulary(channel, header);
+      List<String> words = new ArrayList<>();
+      List<Integer> rowIndices = new ArrayList<>();
+      for (int i = 0; i < allWords.size(); i++) {
+        final String word = allWords.get(i);
+        if (vocabulary.contains(word) && !PrunedWordVectors.OOV_WORD.equals(word)) {
+          words.add(word);
+          rowIndices.add(i);
+        }
+      }
+
+      // Copy the kept rows chunk by chunk, the last row stays zero for the OOV word
+      final int vectorSize = header.vectorSize;
+      final float[] vectors = new float[(words.size() + 1) * vectorSize];
+      final int rowsPerChunk = (int) Math.max(1, MAX_MAPPING_BYTES / (4L * vectorSize));
+      int k = 0;
+      while (k < rowIndices.size()) {
+        final int first = rowIndices.get(k);
+        final int rows = Math.min(rowsPerChunk, header.numWords - first);
+        final FloatBuffer chunk = mapRows(channel, header, first, rows);
+        for (; k < rowIndices.size() && rowIndices.get(k) < first + rows; k++) {
+          chunk.position((rowIndices.get(k) - first) * vectorSize);
+          chunk.get(vectors, k * vectorSize, vectorSize);
+        }
+      }
+      log.debug("Read {} of {} word vectors from {}", words.size(), header.numWords, binary);
+      return new PrunedWordVectors(words, vectors, vectorSize);
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt word vector cache file: " + binary, e);
+    }
+  }
+
+  /**
+   * Create word vectors from a vocabulary and a word vector matrix.
+   *
+   * @param words Words in row order
+   * @param syn0 Word vector matrix with one row per word
+   * @return Word vectors
+   */
+  static WordVectors create(List<String> words, INDArray syn0) {
+    final AbstractCache<VocabWord> vocab = new AbstractCache.Builder<VocabWord>().build();
+    for (int i = 0; i < words.size(); i++) {
+      final String word = words.get(i);
+      VocabWord vw = new VocabWord(1.0, word);
+      vw.setIndex(i);
+      vocab.addToken(vw);
+      vocab.addWordToIndex(i, word);
+    }
+
+    InMemoryLookupTable<VocabWord> lookupTable =
+        new InMemoryLookupTable.Builder<VocabWord>()
+            .vectorLength(syn0.columns())
+            .useAdaGrad(false)
+            .cache(vocab)
+            .useHierarchicSoftmax(false)
+            .build();
+    lookupTable.setSyn0(syn0);
+    return WordVectorSerializer.fromPair(Pair.makePair(lookupTable, vocab));
+  }
+
+  /**
+   * Read and validate the header of a binary file.
+   *
+   * @param channel Channel of the binary file
+   * @param binary Binary file
+   * @return Header
+   * @throws IOException File could not be read or is no word vector cache file
+   */
+  protected static Header readHeader(FileChannel channel, File binary) throws IOException {
+    final ByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+      throw new IOException("Not a word vector cache file: " + binary);
+    }
+    final Header header = new Header();
+    header.numWords = buffer.getInt();
+    header.vectorSize = buffer.getInt();
+    header.vocabOffset = buffer.getLong();
+    if (header.numWords <= 0 || header.vectorSize <= 0
+        || header.vocabOffset != HEADER_BYTES + 4L * header.numWords * header.vectorSize
+        || header.vocabOffset > channel.size()) {
+      throw new IOException("Corrupt word vector cache file: " + binary);
+    }
+    return header;
+  }
+
+  /**
+   * Read the vocabulary of a binary file.
+   *
+   * @param channel Channel of the binary file
+   * @param header Header of the binary file
+   * @return Words in row order
+   * @throws IOException File could not be read
+   */
+  protected static List<String> readVocabulary(FileChannel channel, Header header)
+      throws IOException {
+    final MappedByteBuffer vocabBuffer =
+        channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            header.vocabOffset,
+            channel.size() - header.vocabOffset);
+    vocabBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    List<String> words = new ArrayList<>(header.numWords);
+    for (int i = 0; i < header.numWords; i++) {
+      final byte[] bytes = new byte[vocabBuffer.getInt()];
+      vocabBuffer.get(bytes);
+      words.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+    return words;
+  }
+
+  /**
+   * Map consecutive rows of the word vector matrix of a binary file.
+   *
+   * @param channel Channel of the binary file
+   * @param header Header of the binary file
+   * @param row First row
+   * @param rows Number of rows
+   * @return Float view of the mapped rows
+   * @throws IOException File could not be mapped
+   */
+  protected static FloatBuffer mapRows(FileChannel channel, Header header, int row, int rows)
+      throws IOException {
+    final long rowBytes = 4L * header.vectorSize;
+    return channel
+        .map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + row * rowBytes, rows * rowBytes)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .asFloatBuffer();
+  }
+
+  /**
+   * Detect the separator of a CSV line: the first separator that splits the line into a word and
+   * at least one number.
+   *
+   * @param line Line of the CSV file
+   * @return Separator or null
+   */
+  protected static Pattern detectSeparator(String line) {
+    for (Pattern separator : SEPARATORS) {
+      final String[] parts = separator.split(line);
+      if (parts.length < 2) {
+        continue;
+      }
+      int numNumbers = 0;
+      for (String part : parts) {
+        numNumbers += isNumber(part) ? 1 : 0;
+      }
+      if (numNumbers >= parts.length - 1) {
+        return separator;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check whether a string is a floating point number.
+   *
+   * @param s String
+   * @return True if it is a number
+   */
+  protected static boolean isNumber(String s) {
+    try {
+      Float.parseFloat(s);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /** Header of a binary file. */
+  protected static class Header {
+
+    /** Number of words */
+    int numWords;
+    /** Vector size */
+    int vectorSize;
+    /** Offset of the vocabulary in bytes */
+    long vocabOffset;
+  }
+
+  /**
+   * Reads word vectors from a binary file.
+   *
+   * @param <T> Type of the read word vectors
+   */
+  @FunctionalInterface
+  protected interface BinaryReader<T> {
+
+    /**
+     * Read word vectors from a binary file.
+     *
+     * @param binary Binary file
+     * @return Word vectors
+     * @throws IOException File could not be read or is no word vector cache file
+     */
+    T read(File binary) throws IOException;
+  }
+
+  /** Writes the binary format: the header, the matrix rows as they are added and the vocabulary. */
+  protected static class Writer implements AutoCloseable {
+
+    /** Output channel */
+    private final FileChannel channel;
+    /** Buffer of the matrix rows */
+    private final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    /** Words in row order */
+    private final List<String> words = new ArrayList<>();
+    /** Words that were already added */
+    private final Set<String> seen = new HashSet<>();
+    /** Vector size, -1 until the first row was added */
+    private int vectorSize = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param file Binary file
+     * @throws IOException File could not be created
+     */
+    Writer(File file) throws IOException {
+      channel =
+          FileChannel.open(
+              file.toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE);
+      channel.position(HEADER_BYTES);
+    }
+
+    /**
+     * Add a word and its vector. Repeated words keep their first vector.
+     *
+     * @param word Word
+     * @param vector Word vector
+     * @throws IOException Row could not be written or has a different vector size
+     */
+    void add(String word, float[] vector) throws IOException {
+      if (vectorSize < 0) {
+        vectorSize = vector.length;
+      } else if (vector.length != vectorSize) {
+        throw new IOException(
+            "Word vector of \""
+                + word
+                + "\" has size "
+                + vector.length
+                + ", expected "
+                + vectorSize);
+      }
+      if (!seen.add(word)) {
+        return;
+      }
+      words.add(word);
+      for (float v : vector) {
+        if (buffer.remaining() < 4) {
+          flushBuffer();
+        }
+        buffer.putFloat(v);
+      }
+    }
+
+    /**
+     * Write the buffered rows to the channel.
+     *
+     * @throws IOException Rows could not be written
+     */
+    private void flushBuffer() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (words.isEmpty()) {
+          throw new IOException("The word vector file is empty");
+        }
+        flushBuffer();
+        final long vocabOffset = channel.position();
+        for (String word : words) {
+          final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+          if (buffer.remaining() < 4 + bytes.length) {
+            flushBuffer();
+          }
+          if (buffer.remaining() < 4 + bytes.length) {
+            throw new IOException("Word is too long: " + word.substring(0, 100));
+          }
+          buffer.putInt(bytes.length);
+          buffer.put(bytes);
+        }
+        flushBuffer();
+
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(words.size()).putInt(vectorSize);
+        buffer.putLong(vocabOffset);
+        buffer.flip();
+        channel.position(0);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        buffer.clear();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+}
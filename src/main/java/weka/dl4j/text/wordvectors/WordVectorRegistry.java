@@ -0,0 +1,253 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * WordVectorRegistry.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import lombok.extern.log4j.Log4j2;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+
+/**
+ * JVM-wide registry of loaded word vectors. Word vectors are loaded once per file and handed out
+ * as read-only {@link SharedWordVectors} views, so that e.g. the training and validation
+ * iterators and the classifier copies of a cross-validation share a single matrix.
+ *
+ * <p>Files are identified by their canonical path, size, modification time and a checksum of
+ * their first and last block. Each view counts as one reference: it is returned with {@link
+ * #release(WordVectors)}, or when it becomes unreachable. The registry drops the word vectors as
+ * soon as no reference is left.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public final class WordVectorRegistry {
+
+  /** Size of the blocks at the start and the end of a file that enter its checksum */
+  private static final int CHECKSUM_BLOCK_SIZE = 1 << 20;
+  /** Registered word vectors by file key */
+  private static final Map<String, Entry> ENTRIES = new HashMap<>();
+  /** Queue of views that were garbage collected without being released */
+  private static final ReferenceQueue<SharedWordVectors> COLLECTED = new ReferenceQueue<>();
+
+  private WordVectorRegistry() {}
+
+  /**
+   * Get a view of the word vectors of the given file. The word vectors are loaded with the given
+   * loader if they are not registered yet.
+   *
+   * @param file Word vector file
+   * @param loader Loader that is called if the file is not registered
+   * @return Read-only view of the shared word vectors
+   * @throws IOException Could not read the file or load the word vectors
+   */
+  public static WordVectors acquire(File file, Loader loader) throws IOException {
+    return acquire(file, "", loader);
+  }
+
+  /**
+   * Get a view of a variant of the word vectors of the given file, e.g. quantized word vectors.
+   * Each variant of a file is loaded and shared separately.
+   *
+   * @param file Word vector file
+   * @param variant Name of the variant, empty for the word vectors as stored in the file
+   * @param loader Loader of the variant that is called if it is not registered
+   * @return Read-only view of the shared word vectors
+   * @throws IOException Could not read the file or load the word vectors
+   */
+  public static WordVectors acquire(File file, String variant, Loader loader)
+      throws IOException {
+    final String key = variant.isEmpty() ? computeKey(file) : computeKey(file) + "|" + variant;
+    final Entry entry;
+    synchronized (ENTRIES) {
+      expungeCollected();
+      entry = ENTRIES.computeIfAbsent(key, k -> new Entry(k));
+      entry.numReferences++;
+    }
+
+    // Load outside of the registry lock, so that other files can be acquired in the meantime
+    try {
+      synchronized (entry) {
+        if (entry.wordVectors == null) {
+          log.debug("Loading shared word vectors from {}", file);
+          entry.wordVectors = loader.load(file);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      synchronized (ENTRIES) {
+        decrement(entry);
+      }
+      throw e;
+    }
+
+    final SharedWordVectors view = new SharedWordVectors(entry.wordVectors, key);
+    synchronized (ENTRIES) {
+      entry.views.put(new ViewReference(view, entry), Boolean.TRUE);
+    }
+    return view;
+  }
+
+  /**
+   * Return a view that was handed out by {@link #acquire(File, Loader)}. Word vectors that were
+   * not acquired from the registry are ignored.
+   *
+   * @param wordVectors Word vectors to release
+   */
+  public static void release(WordVectors wordVectors) {
+    if (!(wordVectors instanceof SharedWordVectors)) {
+      return;
+    }
+    synchronized (ENTRIES) {
+      expungeCollected();
+      final Entry entry = ENTRIES.get(((SharedWordVectors) wordVectors).getKey());
+      if (entry == null) {
+        return;
+      }
+      for (ViewReference ref : entry.views.keySet()) {
+        if (ref.get() == wordVectors) {
+          entry.views.remove(ref);
+          ref.clear();
+          decrement(entry);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the number of references to the word vectors of the given file.
+   *
+   * @param file Word vector file
+   * @return Number of references, zero if the file is not registered
+   * @throws IOException Could not read the file
+   */
+  public static int getNumReferences(File file) throws IOException {
+    final String key = computeKey(file);
+    synchronized (ENTRIES) {
+      expungeCollected();
+      final Entry entry = ENTRIES.get(key);
+      return entry == null ? 0 : entry.numReferences;
+    }
+  }
+
+  /**
+   * Compute the registry key of a word vector file.
+   *
+   * @param file Word vector file
+   * @return Key from the canonical path, size, modification time and checksum of the file
+   * @throws IOException Could not read the file
+   */
+  static String computeKey(File file) throws IOException {
+    final CRC32 crc = new CRC32();
+    final long length;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      length = raf.length();
+      final byte[] block = new byte[(int) Math.min(CHECKSUM_BLOCK_SIZE, length)];
+      raf.readFully(block);
+      crc.update(block);
+      if (length > block.length) {
+        raf.seek(Math.max(block.length, length - CHECKSUM_BLOCK_SIZE));
+        final int remaining = (int) (length - raf.getFilePointer());
+        raf.readFully(block, 0, remaining);
+        crc.update(block, 0, remaining);
+      }
+    }
+    return file.getCanonicalPath()
+        + "|"
+        + length
+        + "|"
+        + file.lastModified()
+        + "|"
+        + Long.toHexString(crc.getValue());
+  }
+
+  /** Release the references of views that were garbage collected. */
+  private static void expungeCollected() {
+    Reference<? extends SharedWordVectors> ref;
+    while ((ref = COLLECTED.poll()) != null) {
+      final ViewReference view = (ViewReference) ref;
+      if (view.entry.views.remove(view) != null) {
+        log.debug("Releasing unreachable view of {}", view.entry.key);
+        decrement(view.entry);
+      }
+    }
+  }
+
+  /**
+   * Decrement the references of an entry and remove it if none are left.
+   *
+   * @param entry Registry entry
+   */
+  private static void decrement(Entry entry) {
+    entry.numReferences--;
+    if (entry.numReferences == 0 && ENTRIES.get(entry.key) == entry) {
+      log.debug("Dropping shared word vectors of {}", entry.key);
+      ENTRIES.remove(entry.key);
+    }
+  }
+
+  /** Loads word vectors from a file. */
+  @FunctionalInterface
+  public interface Loader {
+
+    /**
+     * Load the word vectors of a file.
+     *
+     * @param file Word vector file
+     * @return Loaded word vectors
+     * @throws IOException Could not load the word vectors
+     */
+    WordVectors load(File file) throws IOException;
+  }
+
+  /** Registered word vectors of a single file. */
+  private static class Entry {
+
+    /** File key */
+    private final String key;
+    /** Live views */
+    private final Map<ViewReference, Boolean> views = new HashMap<>();
+    /** Number of references, including views that are still being created */
+    private int numReferences;
+    /** Shared word vectors, null until loaded */
+    private volatile WordVectors wordVectors;
+
+    private Entry(String key) {
+      this.key = key;
+    }
+  }
+
+  /** Weak reference to a view that knows its registry entry. */
+  private static class ViewReference extends WeakReference<SharedWordVectors> {
+
+    /** Registry entry of the view */
+    private final Entry entry;
+
+    private ViewReference(SharedWordVectors view, Entry entry) {
+      super(view, COLLECTED);
+      this.entry = entry;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * AbstractZooModel.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.zoo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import weka.core.OptionMetadata;
+import weka.core.WekaPackageManager;
+import weka.gui.FilePropertyMetadata;
+import weka.gui.knowledgeflow.KFGUIConsts;
+
+/**
+ * Base class of the zoo models that can be initialized with pretrained weights from a local
+ * weights directory (see {@link PretrainedWeights}).
+ *
+ * @author Steven Lang
+ */
+public abstract class AbstractZooModel implements ZooModel {
+
+  private static final long serialVersionUID = -4213628946470834915L;
+
+  /** Whether to load pretrained weights */
+  protected boolean pretrained = false;
+
+  /** Directory of the pretrained weights */
+  protected File pretrainedWeightsDirectory =
+      new File(Paths.get(WekaPackageManager.WEKA_HOME.getAbsolutePath(), "zoo-weights").toString());
+
+  /**
+   * Loads the weights file {@code <model name>.weights} from the weights directory if pretrained
+   * weights are enabled.
+   *
+   * @param graph Initialized graph
+   * @throws IOException Weights are missing, corrupt or could not be read
+   */
+  @Override
+  public void loadPretrainedWeights(ComputationGraph graph) throws IOException {
+    if (pretrained) {
+      PretrainedWeights.open(pretrainedWeightsDirectory, getClass().getSimpleName()).load(graph);
+    }
+  }
+
+  @OptionMetadata(
+    displayName = "pretrained",
+    description = "Whether to initialize the model with the pretrained weights "
+        + "in the weights directory (default = false).",
+    commandLineParamName = "pretrained",
+    commandLineParamSynopsis = "-pretrained",
+    commandLineParamIsFlag = true,
+    displayOrder = 1
+  )
+  public boolean isPretrained() {
+    return pretrained;
+  }
+
+  public void setPretrained(boolean pretrained) {
+    this.pretrained = pretrained;
+  }
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.OPEN_DIALOG, directoriesOnly = true)
+  @OptionMetadata(
+    displayName = "pretrained weights directory",
+    description = "The directory of the pretrained weights "
+        + "(default = $WEKA_HOME/zoo-weights).",
+    commandLineParamName = "pretrainedWeightsDir",
+    commandLineParamSynopsis = "-pretrainedWeightsDir <string>",
+    displayOrder = 2
+  )
+  public File getPretrainedWeightsDirectory() {
+    return pretrainedWeightsDirectory;
+  }
+
+  public void setPretrainedWeightsDirectory(File pretrainedWeightsDirectory) {
+    this.pretrainedWeightsDirectory = pretrainedWeightsDirectory;
+  }
+}
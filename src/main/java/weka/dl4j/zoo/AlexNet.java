@@ -19,6 +19,7 @@
 package weka.dl4j.zoo;
 
 import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.layers.ConvolutionLayer.AlgoMode;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.zoo.model.AlexNet.AlexNetBuilder;
@@ -30,7 +31,7 @@ import weka.dl4j.Preferences;
  *
  * @author Steven Lang
  */
-public class AlexNet implements ZooModel {
+public class AlexNet extends AbstractZooModel {
 
   private static final long serialVersionUID = -520668505548861661L;
 
@@ -42,7 +43,7 @@ public class AlexNet implements ZooModel {
         .inputShape(shape)
         .numClasses(numLabels)
         .build();
-    org.deeplearning4j.nn.conf.MultiLayerConfiguration conf = net.conf();
+    MultiLayerConfiguration conf = net.conf();
     return mlpToCG(conf, shape);
   }
 
@@ -19,6 +19,7 @@
 package weka.dl4j.zoo;
 
 import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import weka.dl4j.Preferences;
 
@@ -27,7 +28,7 @@ import weka.dl4j.Preferences;
  *
  * @author Steven Lang
  */
-public class Darknet19 implements ZooModel {
+public class Darknet19 extends AbstractZooModel {
 
   private static final long serialVersionUID = -520668505548861661L;
 
@@ -39,7 +40,8 @@ public class Darknet19 implements ZooModel {
         .inputShape(shape)
         .numClasses(numLabels)
         .build();
-    return net.init();
+    ComputationGraphConfiguration conf = net.conf();
+    return new ComputationGraph(conf);
   }
 
   @Override
@@ -19,7 +19,14 @@
 package weka.dl4j.zoo;
 
 import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.graph.L2NormalizeVertex;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.CenterLossOutputLayer;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
 import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
 import weka.dl4j.Preferences;
 
 /**
@@ -27,10 +34,13 @@ import weka.dl4j.Preferences;
  *
  * @author Steven Lang
  */
-public class InceptionResNetV1 implements ZooModel {
+public class InceptionResNetV1 extends AbstractZooModel {
 
   private static final long serialVersionUID = -520668505548861661L;
 
+  /** Size of the face embeddings */
+  protected static final int EMBEDDING_SIZE = 128;
+
   @Override
   public ComputationGraph init(int numLabels, long seed, int[] shape) {
     org.deeplearning4j.zoo.model.InceptionResNetV1 net = org.deeplearning4j.zoo.model.InceptionResNetV1.builder()
@@ -39,7 +49,33 @@ public class InceptionResNetV1 implements ZooModel {
         .inputShape(shape)
         .numClasses(numLabels)
         .build();
-    return net.init();
+
+    // Same head as in net.init(), which would also initialize the parameters
+    ComputationGraphConfiguration conf =
+        net.graphBuilder("input1")
+            .addInputs("input1")
+            .setInputTypes(InputType.convolutional(shape[1], shape[2], shape[0]))
+            .addLayer(
+                "bottleneck",
+                new DenseLayer.Builder().nIn(5376).nOut(EMBEDDING_SIZE).build(),
+                "avgpool")
+            .addVertex("embeddings", new L2NormalizeVertex(new int[] {1}, 1e-10), "bottleneck")
+            .addLayer(
+                "outputLayer",
+                new CenterLossOutputLayer.Builder()
+                    .lossFunction(LossFunction.NEGATIVELOGLIKELIHOOD)
+                    .activation(Activation.SOFTMAX)
+                    .alpha(0.9)
+                    .lambda(1e-4)
+                    .nIn(EMBEDDING_SIZE)
+                    .nOut(numLabels)
+                    .build(),
+                "embeddings")
+            .setOutputs("outputLayer")
+            .backprop(true)
+            .pretrain(false)
+            .build();
+    return new ComputationGraph(conf);
   }
 
   @Override
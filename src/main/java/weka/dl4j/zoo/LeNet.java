@@ -19,6 +19,7 @@
 package weka.dl4j.zoo;
 
 import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.learning.config.Adam;
 import weka.dl4j.Preferences;
@@ -28,7 +29,7 @@ import weka.dl4j.Preferences;
  *
  * @author Steven Lang
  */
-public class LeNet implements ZooModel {
+public class LeNet extends AbstractZooModel {
   private static final long serialVersionUID = 7790142171346455139L;
 
   @Override
@@ -39,7 +40,7 @@ public class LeNet implements ZooModel {
         .inputShape(shape)
         .numClasses(numLabels)
         .build();
-    org.deeplearning4j.nn.conf.MultiLayerConfiguration conf = net.conf();
+    MultiLayerConfiguration conf = net.conf();
     return mlpToCG(conf, shape);
   }
 
@@ -0,0 +1,178 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * MobileNet.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.zoo;
+
+import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration.GraphBuilder;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.ActivationLayer;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DepthwiseConvolution2D;
+import org.deeplearning4j.nn.conf.layers.GlobalPoolingLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.layers.PoolingType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+import weka.core.OptionMetadata;
+import weka.dl4j.Preferences;
+
+/**
+ * MobileNet v1 (Howard et al., 2017). Each block applies a 3x3 depthwise convolution followed by a
+ * 1x1 pointwise convolution, which is much cheaper than a full 3x3 convolution and makes the model
+ * suitable for CPU inference. The width multiplier thins the number of filters of all layers.
+ *
+ * @author Steven Lang
+ */
+public class MobileNet extends AbstractZooModel {
+
+  private static final long serialVersionUID = -1586224710523478342L;
+
+  /** Number of pointwise filters and stride of the depthwise convolution of each block */
+  protected static final int[][] BLOCKS = {
+    {64, 1}, {128, 2}, {128, 1}, {256, 2}, {256, 1}, {512, 2}, {512, 1}, {512, 1}, {512, 1},
+    {512, 1}, {512, 1}, {1024, 2}, {1024, 1}
+  };
+
+  /** Width multiplier */
+  protected double widthMultiplier = 1.0;
+
+  @Override
+  public ComputationGraph init(int numLabels, long seed, int[] shape) {
+    GraphBuilder gb =
+        new NeuralNetConfiguration.Builder()
+            .seed(seed)
+            .updater(new Adam(1e-3))
+            .weightInit(WeightInit.RELU)
+            .convolutionMode(ConvolutionMode.Same)
+            .cacheMode(CacheMode.NONE)
+            .trainingWorkspaceMode(Preferences.WORKSPACE_MODE)
+            .inferenceWorkspaceMode(Preferences.WORKSPACE_MODE)
+            .graphBuilder()
+            .addInputs("input")
+            .setInputTypes(InputType.convolutional(shape[1], shape[2], shape[0]))
+            .addLayer(
+                "conv1",
+                new ConvolutionLayer.Builder(3, 3)
+                    .stride(2, 2)
+                    .nOut(filters(32))
+                    .activation(Activation.IDENTITY)
+                    .hasBias(false)
+                    .build(),
+                "input");
+    String input = batchNormRelu(gb, "conv1");
+    int channels = filters(32);
+
+    for (int i = 0; i < BLOCKS.length; i++) {
+      final String dw = "conv_dw_" + (i + 1);
+      final String pw = "conv_pw_" + (i + 1);
+      final int stride = BLOCKS[i][1];
+      gb.addLayer(
+          dw,
+          new DepthwiseConvolution2D.Builder(3, 3)
+              .stride(stride, stride)
+              .depthMultiplier(1)
+              .nIn(channels)
+              .activation(Activation.IDENTITY)
+              .hasBias(false)
+              .build(),
+          input);
+      input = batchNormRelu(gb, dw);
+      gb.addLayer(
+          pw,
+          new ConvolutionLayer.Builder(1, 1)
+              .nOut(filters(BLOCKS[i][0]))
+              .activation(Activation.IDENTITY)
+              .hasBias(false)
+              .build(),
+          input);
+      input = batchNormRelu(gb, pw);
+      channels = filters(BLOCKS[i][0]);
+    }
+
+    ComputationGraphConfiguration conf =
+        gb.addLayer(
+                "global_pooling", new GlobalPoolingLayer.Builder(PoolingType.AVG).build(), input)
+            .addLayer(
+                "predictions",
+                new OutputLayer.Builder(LossFunction.MCXENT)
+                    .nOut(numLabels)
+                    .activation(Activation.SOFTMAX)
+                    .weightInit(WeightInit.XAVIER)
+                    .build(),
+                "global_pooling")
+            .setOutputs("predictions")
+            .backprop(true)
+            .pretrain(false)
+            .build();
+    return new ComputationGraph(conf);
+  }
+
+  /**
+   * Add batch normalization and a ReLU6 activation after a convolution.
+   *
+   * @param gb Graph builder
+   * @param input Convolution layer
+   * @return Output vertex
+   */
+  protected static String batchNormRelu(GraphBuilder gb, String input) {
+    gb.addLayer(input + "_bn", new BatchNormalization.Builder().build(), input)
+        .addLayer(
+            input + "_relu",
+            new ActivationLayer.Builder().activation(Activation.RELU6).build(),
+            input + "_bn");
+    return input + "_relu";
+  }
+
+  /**
+   * Number of filters of a layer after applying the width multiplier.
+   *
+   * @param filters Number of filters at width 1
+   * @return Number of filters
+   */
+  protected int filters(int filters) {
+    return Math.max(1, (int) Math.round(filters * widthMultiplier));
+  }
+
+  @OptionMetadata(
+    displayName = "width multiplier",
+    description = "Multiplier of the number of filters of each layer (default = 1.0).",
+    commandLineParamName = "widthMultiplier",
+    commandLineParamSynopsis = "-widthMultiplier <double>",
+    displayOrder = 3
+  )
+  public double getWidthMultiplier() {
+    return widthMultiplier;
+  }
+
+  public void setWidthMultiplier(double widthMultiplier) {
+    this.widthMultiplier = widthMultiplier;
+  }
+
+  @Override
+  public int[][] getShape() {
+    return new int[][] {{3, 224, 224}};
+  }
+}
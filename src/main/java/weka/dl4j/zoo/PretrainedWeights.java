@@ -0,0 +1,475 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PretrainedWeights.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.zoo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.log4j.Log4j2;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.core.Utils;
+import weka.dl4j.FileUtils;
+
+/**
+ * Pretrained parameters of a zoo model, stored in a local directory so that they can be used
+ * without network access. The parameters of each layer are stored by layer name and parameter
+ * key as little endian floats in a {@code .weights} file. A {@code .weights.sha256} file next to
+ * it holds the SHA-256 checksum of the weights file (in the format of {@code sha256sum}), which is
+ * verified when the file is opened.
+ *
+ * <p>The parameters are read from memory-mapped regions of the weights file. Each file is opened
+ * and its checksum verified only once per JVM. The parameters are copied into the parameters of
+ * each graph, since a DL4J graph keeps all of its parameters in a single writable array.
+ *
+ * <p>The {@link #main(String[])} method converts a DL4J model file (e.g. the pretrained models of
+ * the DL4J model zoo, downloaded on a machine with network access) into a weights file.
+ *
+ * @author Steven Lang
+ */
+@Log4j2
+public class PretrainedWeights {
+
+  /** Magic number of the weights file */
+  public static final int MAGIC = 0x57505457;
+
+  /** Format version of the weights file */
+  public static final int VERSION = 1;
+
+  /** Weights file suffix */
+  public static final String WEIGHTS_SUFFIX = ".weights";
+
+  /** Checksum file suffix */
+  public static final String CHECKSUM_SUFFIX = ".sha256";
+
+  /** Alignment of the parameter arrays in the weights file */
+  protected static final int ALIGNMENT = 64;
+
+  /** Open weights files, by canonical file */
+  protected static final Map<File, PretrainedWeights> OPEN_WEIGHTS = new HashMap<>();
+
+  /** The weights file */
+  protected final File file;
+
+  /** Modification time of the file when it was opened */
+  protected final long lastModified;
+
+  /** Stored parameters by layer name and parameter key */
+  protected final Map<String, Entry> entries = new LinkedHashMap<>();
+
+  /** Mapped regions of the parameters, mapped on first use */
+  protected final Map<String, ByteBuffer> regions = new HashMap<>();
+
+  /**
+   * Get the pretrained weights of the given zoo model from a weights directory.
+   *
+   * @param directory Weights directory
+   * @param modelName Name of the zoo model
+   * @return Weights
+   * @throws IOException Weights are missing, corrupt or could not be read
+   */
+  public static PretrainedWeights open(File directory, String modelName) throws IOException {
+    return open(new File(directory, modelName + WEIGHTS_SUFFIX));
+  }
+
+  /**
+   * Get the pretrained weights stored in the given file. The checksum is verified the first time
+   * the file is opened in this JVM, or after it was modified.
+   *
+   * @param file Weights file
+   * @return Weights
+   * @throws IOException Weights are missing, corrupt or could not be read
+   */
+  public static synchronized PretrainedWeights open(File file) throws IOException {
+    File canonical = file.getCanonicalFile();
+    PretrainedWeights weights = OPEN_WEIGHTS.get(canonical);
+    if (weights == null || weights.lastModified != canonical.lastModified()) {
+      weights = new PretrainedWeights(canonical);
+      OPEN_WEIGHTS.put(canonical, weights);
+    }
+    return weights;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param file Weights file
+   * @throws IOException Weights are missing, corrupt or could not be read
+   */
+  protected PretrainedWeights(File file) throws IOException {
+    this.file = file;
+    this.lastModified = file.lastModified();
+    if (!file.isFile()) {
+      throw new IOException("Pretrained weights not found: " + file);
+    }
+    verifyChecksum(file);
+    try (DataInputStream in =
+        new DataInputStream(Files.newInputStream(file.toPath(), StandardOpenOption.READ))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a weights file");
+      }
+      final int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException(file + " has the unsupported version " + version);
+      }
+      final int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        final String layerName = in.readUTF();
+        final String paramKey = in.readUTF();
+        final long[] shape = new long[in.readInt()];
+        for (int d = 0; d < shape.length; d++) {
+          shape[d] = in.readLong();
+        }
+        final long offset = in.readLong();
+        entries.put(key(layerName, paramKey), new Entry(shape, offset));
+      }
+    }
+  }
+
+  /**
+   * Copy the stored parameters into a graph by layer name and parameter key. Parameters that are
+   * not stored or have a different shape (e.g. the output layer of a model with a different number
+   * of classes) keep their initialization.
+   *
+   * @param graph Initialized graph
+   * @return Number of loaded parameter arrays
+   * @throws IOException Weights could not be read
+   */
+  public int load(ComputationGraph graph) throws IOException {
+    int loaded = 0;
+    int total = 0;
+    List<String> skipped = new ArrayList<>();
+    for (Layer layer : graph.getLayers()) {
+      final String layerName = layer.conf().getLayer().getLayerName();
+      for (Map.Entry<String, INDArray> param : layer.paramTable().entrySet()) {
+        total++;
+        final String key = key(layerName, param.getKey());
+        Entry entry = entries.get(key);
+        if (entry == null || !Arrays.equals(entry.shape, param.getValue().shape())) {
+          skipped.add(key);
+          continue;
+        }
+        param.getValue().assign(read(key, entry));
+        loaded++;
+      }
+    }
+    log.info("Loaded {} of {} pretrained parameter arrays from {}", loaded, total, file);
+    if (!skipped.isEmpty()) {
+      log.info("Parameters that keep their initialization: {}", skipped);
+    }
+    return loaded;
+  }
+
+  /**
+   * Read a stored parameter array from its mapped region.
+   *
+   * @param key Layer name and parameter key
+   * @param entry Stored parameter
+   * @return Parameter array
+   * @throws IOException Weights could not be mapped
+   */
+  protected INDArray read(String key, Entry entry) throws IOException {
+    ByteBuffer region;
+    synchronized (this) {
+      region = regions.get(key);
+      if (region == null) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+          region = channel.map(MapMode.READ_ONLY, entry.offset, entry.length() * Float.BYTES);
+        }
+        regions.put(key, region);
+      }
+    }
+    ByteBuffer view = region.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    final int length = (int) entry.length();
+    if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+      DataBuffer buffer = Nd4j.createBuffer(view, DataBuffer.Type.FLOAT, length);
+      return Nd4j.create(buffer, entry.shape);
+    }
+    float[] values = new float[length];
+    view.asFloatBuffer().get(values);
+    return Nd4j.create(values, entry.shape, 'c');
+  }
+
+  /**
+   * Write the parameters of the given layers into a weights file and its checksum file.
+   *
+   * @param layers Layers
+   * @param file Weights file
+   * @throws IOException Weights could not be written
+   */
+  public static void write(Layer[] layers, File file) throws IOException {
+    List<String> keys = new ArrayList<>();
+    List<INDArray> params = new ArrayList<>();
+    for (Layer layer : layers) {
+      final String layerName = layer.conf().getLayer().getLayerName();
+      for (Map.Entry<String, INDArray> param : layer.paramTable().entrySet()) {
+        keys.add(key(layerName, param.getKey()));
+        params.add(param.getValue());
+      }
+    }
+
+    // The header size does not depend on the offsets
+    final long headerSize = header(keys, params, new long[params.size()]).length;
+    final long[] offsets = new long[params.size()];
+    long offset = align(headerSize);
+    for (int i = 0; i < params.size(); i++) {
+      offsets[i] = offset;
+      offset = align(offset + params.get(i).length() * Float.BYTES);
+    }
+
+    MessageDigest digest = FileUtils.sha256();
+    try (FileChannel channel =
+        FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      long position = 0;
+      position = write(channel, position, ByteBuffer.wrap(header(keys, params, offsets)), digest);
+      for (int i = 0; i < params.size(); i++) {
+        position = write(channel, position, ByteBuffer.allocate((int) (offsets[i] - position)),
+            digest);
+        float[] values = params.get(i).dup('c').data().asFloat();
+        ByteBuffer data = ByteBuffer.allocate(values.length * Float.BYTES);
+        data.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(values);
+        position = write(channel, position, data, digest);
+      }
+    }
+    try (OutputStream out =
+        new BufferedOutputStream(new FileOutputStream(checksumFile(file)))) {
+      out.write(
+          (FileUtils.toHex(digest.digest()) + "  " + file.getName() + "\n")
+              .getBytes(StandardCharsets.US_ASCII));
+    }
+  }
+
+  /**
+   * Serialize the header of a weights file.
+   *
+   * @param keys Layer names and parameter keys
+   * @param params Parameter arrays
+   * @param offsets Offsets of the parameter arrays
+   * @return Header
+   * @throws IOException Header could not be serialized
+   */
+  protected static byte[] header(List<String> keys, List<INDArray> params, long[] offsets)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        final String[] parts = keys.get(i).split("\u0000", 2);
+        out.writeUTF(parts[0]);
+        out.writeUTF(parts[1]);
+        final long[] shape = params.get(i).shape();
+        out.writeInt(shape.length);
+        for (long size : shape) {
+          out.writeLong(size);
+        }
+        out.writeLong(offsets[i]);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Write a buffer at the given position and add it to the digest.
+   *
+   * @param channel Channel
+   * @param position Position
+   * @param data Data
+   * @param digest Digest
+   * @return Position after the data
+   * @throws IOException Data could not be written
+   */
+  protected static long write(
+      FileChannel channel, long position, ByteBuffer data, MessageDigest digest)
+      throws IOException {
+    digest.update(data.duplicate());
+    while (data.hasRemaining()) {
+      position += channel.write(data, position);
+    }
+    return position;
+  }
+
+  /**
+   * Verify the checksum of a weights file.
+   *
+   * @param file Weights file
+   * @throws IOException Checksum is missing or does not match
+   */
+  protected static void verifyChecksum(File file) throws IOException {
+    File checksumFile = checksumFile(file);
+    if (!checksumFile.isFile()) {
+      throw new IOException("Checksum of the pretrained weights not found: " + checksumFile);
+    }
+    final String expected =
+        new String(Files.readAllBytes(checksumFile.toPath()), StandardCharsets.US_ASCII)
+            .trim()
+            .split("\\s+")[0];
+    MessageDigest digest = FileUtils.sha256();
+    try (InputStream in =
+        new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+      final byte[] buffer = new byte[1 << 16];
+      while (in.read(buffer) >= 0) {
+        // Only the digest is needed
+      }
+    }
+    final String actual = FileUtils.toHex(digest.digest());
+    if (!actual.equalsIgnoreCase(expected)) {
+      throw new IOException(
+          "Checksum mismatch for " + file + ": expected " + expected + " but got " + actual);
+    }
+  }
+
+  /**
+   * Get the checksum file of a weights file.
+   *
+   * @param file Weights file
+   * @return Checksum file
+   */
+  public static File checksumFile(File file) {
+    return new File(file.getPath() + CHECKSUM_SUFFIX);
+  }
+
+  /**
+   * Round an offset up to the alignment.
+   *
+   * @param offset Offset
+   * @return Aligned offset
+   */
+  protected static long align(long offset) {
+    return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  /**
+   * Key of a stored parameter.
+   *
+   * @param layerName Layer name
+   * @param paramKey Parameter key
+   * @return Key
+   */
+  protected static String key(String layerName, String paramKey) {
+    return layerName + "\u0000" + paramKey;
+  }
+
+  /**
+   * Number of stored parameter arrays.
+   *
+   * @return Number of parameter arrays
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the weights file.
+   *
+   * @return Weights file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Convert a DL4J model file into a weights file. Usage: {@code -i <model zip> -o <weights
+   * file>}.
+   *
+   * @param args Command line arguments
+   * @throws Exception Model could not be read or weights could not be written
+   */
+  public static void main(String[] args) throws Exception {
+    String input = Utils.getOption('i', args);
+    String output = Utils.getOption('o', args);
+    if (input.isEmpty() || output.isEmpty()) {
+      System.err.println(
+          "Usage: " + PretrainedWeights.class.getName() + " -i <model zip> -o <weights file>");
+      System.exit(1);
+    }
+    Layer[] layers;
+    try {
+      layers = ModelSerializer.restoreComputationGraph(new File(input), false).getLayers();
+    } catch (Exception e) {
+      layers = ModelSerializer.restoreMultiLayerNetwork(new File(input), false).getLayers();
+    }
+    write(layers, new File(output));
+    log.info("Wrote the parameters of {} layers to {}", layers.length, output);
+  }
+
+  /** A stored parameter array */
+  protected static class Entry {
+
+    /** Shape of the array */
+    final long[] shape;
+
+    /** Offset of the array in the weights file */
+    final long offset;
+
+    /**
+     * Constructor.
+     *
+     * @param shape Shape
+     * @param offset Offset
+     */
+    Entry(long[] shape, long offset) {
+      this.shape = shape;
+      this.offset = offset;
+    }
+
+    /**
+     * Number of values.
+     *
+     * @return Length
+     */
+    long length() {
+      long length = 1;
+      for (long size : shape) {
+        length *= size;
+      }
+      return length;
+    }
+  }
+}
@@ -19,6 +19,7 @@
 package weka.dl4j.zoo;
 
 import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.WorkspaceMode;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import weka.dl4j.Preferences;
@@ -28,7 +29,7 @@ import weka.dl4j.Preferences;
  *
  * @author Steven Lang
  */
-public class ResNet50 implements ZooModel {
+public class ResNet50 extends AbstractZooModel {
   private static final long serialVersionUID = -520668505548861661L;
 
   @Override
@@ -39,7 +40,8 @@ public class ResNet50 implements ZooModel {
         .inputShape(shape)
         .numClasses(numLabels)
         .build();
-    return net.init();
+    ComputationGraphConfiguration conf = net.graphBuilder().build();
+    return new ComputationGraph(conf);
   }
 
   @Override
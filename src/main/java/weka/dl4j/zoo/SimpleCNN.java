@@ -19,6 +19,7 @@
 package weka.dl4j.zoo;
 
 import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import weka.dl4j.Preferences;
 
@@ -27,7 +28,7 @@ import weka.dl4j.Preferences;
  *
  * @author Steven Lang
  */
-public class SimpleCNN implements ZooModel {
+public class SimpleCNN extends AbstractZooModel {
   private static final long serialVersionUID = 4217466716595669736L;
 
   @Override
@@ -38,7 +39,7 @@ public class SimpleCNN implements ZooModel {
         .inputShape(shape)
         .numClasses(numLabels)
         .build();
-    org.deeplearning4j.nn.conf.MultiLayerConfiguration conf = net.conf();
+    MultiLayerConfiguration conf = net.conf();
     return mlpToCG(conf, shape);
   }
 
@@ -0,0 +1,161 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * SqueezeNet.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.zoo;
+
+import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration.GraphBuilder;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.graph.MergeVertex;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DropoutLayer;
+import org.deeplearning4j.nn.conf.layers.GlobalPoolingLayer;
+import org.deeplearning4j.nn.conf.layers.LossLayer;
+import org.deeplearning4j.nn.conf.layers.PoolingType;
+import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+import weka.dl4j.Preferences;
+
+/**
+ * SqueezeNet v1.1 (Iandola et al., 2016). A small CNN built from fire modules, which squeeze the
+ * channels with 1x1 convolutions before expanding them with 1x1 and 3x3 convolutions. It reaches
+ * AlexNet accuracy with a fraction of the parameters and operations, which makes it suitable for
+ * CPU inference.
+ *
+ * <p>The graph is defined here since the configuration of DeepLearning4j's SqueezeNet cannot be
+ * built in the DeepLearning4j version used by this package.
+ *
+ * @author Steven Lang
+ */
+public class SqueezeNet extends AbstractZooModel {
+
+  private static final long serialVersionUID = 3367829464135981163L;
+
+  @Override
+  public ComputationGraph init(int numLabels, long seed, int[] shape) {
+    GraphBuilder gb =
+        new NeuralNetConfiguration.Builder()
+            .seed(seed)
+            .updater(new Adam(1e-3))
+            .weightInit(WeightInit.RELU)
+            .convolutionMode(ConvolutionMode.Truncate)
+            .cacheMode(CacheMode.NONE)
+            .trainingWorkspaceMode(Preferences.WORKSPACE_MODE)
+            .inferenceWorkspaceMode(Preferences.WORKSPACE_MODE)
+            .graphBuilder()
+            .addInputs("input")
+            .setInputTypes(InputType.convolutional(shape[1], shape[2], shape[0]))
+            .addLayer(
+                "conv1",
+                new ConvolutionLayer.Builder(3, 3)
+                    .stride(2, 2)
+                    .nOut(64)
+                    .activation(Activation.RELU)
+                    .build(),
+                "input")
+            .addLayer("pool1", maxPooling(), "conv1");
+
+    String input = fire(gb, 2, 16, 64, "pool1");
+    input = fire(gb, 3, 16, 64, input);
+    gb.addLayer("pool3", maxPooling(), input);
+    input = fire(gb, 4, 32, 128, "pool3");
+    input = fire(gb, 5, 32, 128, input);
+    gb.addLayer("pool5", maxPooling(), input);
+    input = fire(gb, 6, 48, 192, "pool5");
+    input = fire(gb, 7, 48, 192, input);
+    input = fire(gb, 8, 64, 256, input);
+    input = fire(gb, 9, 64, 256, input);
+
+    ComputationGraphConfiguration conf =
+        gb.addLayer("drop9", new DropoutLayer.Builder(0.5).build(), input)
+            .addLayer(
+                "conv10",
+                new ConvolutionLayer.Builder(1, 1)
+                    .nOut(numLabels)
+                    .activation(Activation.RELU)
+                    .build(),
+                "drop9")
+            .addLayer(
+                "avg_pool",
+                new GlobalPoolingLayer.Builder(PoolingType.AVG).build(),
+                "conv10")
+            .addLayer(
+                "loss",
+                new LossLayer.Builder(LossFunction.MCXENT).activation(Activation.SOFTMAX).build(),
+                "avg_pool")
+            .setOutputs("loss")
+            .backprop(true)
+            .pretrain(false)
+            .build();
+    return new ComputationGraph(conf);
+  }
+
+  /**
+   * Add a fire module: a 1x1 squeeze convolution followed by 1x1 and 3x3 expand convolutions,
+   * whose outputs are concatenated.
+   *
+   * @param gb Graph builder
+   * @param id Module number
+   * @param squeeze Number of squeeze filters
+   * @param expand Number of filters of each expand convolution
+   * @param input Input vertex
+   * @return Output vertex of the module
+   */
+  protected static String fire(GraphBuilder gb, int id, int squeeze, int expand, String input) {
+    final String prefix = "fire" + id;
+    gb.addLayer(
+            prefix + "_sq1x1",
+            new ConvolutionLayer.Builder(1, 1).nOut(squeeze).activation(Activation.RELU).build(),
+            input)
+        .addLayer(
+            prefix + "_exp1x1",
+            new ConvolutionLayer.Builder(1, 1).nOut(expand).activation(Activation.RELU).build(),
+            prefix + "_sq1x1")
+        .addLayer(
+            prefix + "_exp3x3",
+            new ConvolutionLayer.Builder(3, 3)
+                .padding(1, 1)
+                .nOut(expand)
+                .activation(Activation.RELU)
+                .build(),
+            prefix + "_sq1x1")
+        .addVertex(prefix, new MergeVertex(), prefix + "_exp1x1", prefix + "_exp3x3");
+    return prefix;
+  }
+
+  /**
+   * 3x3 max pooling with stride 2.
+   *
+   * @return Pooling layer
+   */
+  protected static SubsamplingLayer maxPooling() {
+    return new SubsamplingLayer.Builder(PoolingType.MAX).kernelSize(3, 3).stride(2, 2).build();
+  }
+
+  @Override
+  public int[][] getShape() {
+    return new int[][] {{3, 227, 227}};
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * TinyYOLO.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.zoo;
+
+import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration.GraphBuilder;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.GradientNormalization;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.GlobalPoolingLayer;
+import org.deeplearning4j.nn.conf.layers.LossLayer;
+import org.deeplearning4j.nn.conf.layers.PoolingType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.deeplearning4j.zoo.model.helper.DarknetHelper;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+import weka.dl4j.Preferences;
+
+/**
+ * The backbone of DeepLearning4j's TinyYOLO ZooModel with a classification head. The detection
+ * head of TinyYOLO is replaced by a 1x1 convolution with one filter per class followed by global
+ * average pooling, as in Darknet19. The backbone has the layer names of TinyYOLO, so its
+ * pretrained weights can be loaded.
+ *
+ * @author Steven Lang
+ */
+public class TinyYOLO extends AbstractZooModel {
+
+  private static final long serialVersionUID = 6419825839306375126L;
+
+  @Override
+  public ComputationGraph init(int numLabels, long seed, int[] shape) {
+    GraphBuilder gb =
+        new NeuralNetConfiguration.Builder()
+            .seed(seed)
+            .gradientNormalization(GradientNormalization.RenormalizeL2PerLayer)
+            .gradientNormalizationThreshold(1.0)
+            .updater(new Adam(1e-3))
+            .l2(0.00001)
+            .activation(Activation.IDENTITY)
+            .cacheMode(CacheMode.NONE)
+            .trainingWorkspaceMode(Preferences.WORKSPACE_MODE)
+            .inferenceWorkspaceMode(Preferences.WORKSPACE_MODE)
+            .graphBuilder()
+            .addInputs("input")
+            .setInputTypes(InputType.convolutional(shape[1], shape[2], shape[0]));
+
+    // Same backbone as org.deeplearning4j.zoo.model.TinyYOLO
+    DarknetHelper.addLayers(gb, 1, 3, shape[0], 16, 2, 2);
+    DarknetHelper.addLayers(gb, 2, 3, 16, 32, 2, 2);
+    DarknetHelper.addLayers(gb, 3, 3, 32, 64, 2, 2);
+    DarknetHelper.addLayers(gb, 4, 3, 64, 128, 2, 2);
+    DarknetHelper.addLayers(gb, 5, 3, 128, 256, 2, 2);
+    DarknetHelper.addLayers(gb, 6, 3, 256, 512, 2, 1);
+    DarknetHelper.addLayers(gb, 7, 3, 512, 1024, 0, 0);
+    DarknetHelper.addLayers(gb, 8, 3, 1024, 1024, 0, 0);
+
+    ComputationGraphConfiguration conf =
+        gb.addLayer(
+                "convolution2d_9",
+                new ConvolutionLayer.Builder(1, 1)
+                    .nIn(1024)
+                    .nOut(numLabels)
+                    .weightInit(WeightInit.RELU)
+                    .stride(1, 1)
+                    .convolutionMode(ConvolutionMode.Same)
+                    .activation(Activation.IDENTITY)
+                    .build(),
+                "activation_8")
+            .addLayer(
+                "globalpooling",
+                new GlobalPoolingLayer.Builder(PoolingType.AVG).build(),
+                "convolution2d_9")
+            .addLayer(
+                "loss",
+                new LossLayer.Builder(LossFunction.MCXENT).activation(Activation.SOFTMAX).build(),
+                "globalpooling")
+            .setOutputs("loss")
+            .backprop(true)
+            .pretrain(false)
+            .build();
+    return new ComputationGraph(conf);
+  }
+
+  @Override
+  public int[][] getShape() {
+    return org.deeplearning4j.zoo.model.TinyYOLO.builder().build().metaData().getInputShape();
+  }
+}
@@ -19,6 +19,7 @@
 package weka.dl4j.zoo;
 
 import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import weka.dl4j.Preferences;
 
@@ -27,7 +28,7 @@ import weka.dl4j.Preferences;
  *
  * @author Steven Lang
  */
-public class VGG19 implements ZooModel {
+public class VGG19 extends AbstractZooModel {
   private static final long serialVersionUID = -4452023767749633607L;
 
   @Override
@@ -38,7 +39,7 @@ public class VGG19 implements ZooModel {
         .inputShape(shape)
         .numClasses(numLabels)
         .build();
-    org.deeplearning4j.nn.conf.ComputationGraphConfiguration conf = net.conf();
+    ComputationGraphConfiguration conf = net.conf();
     return new ComputationGraph(conf);
   }
 
@@ -21,13 +21,17 @@ package weka.dl4j.zoo;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
 import org.deeplearning4j.nn.conf.inputs.InputType;
 import org.deeplearning4j.nn.conf.layers.Layer;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import weka.core.Option;
 import weka.core.OptionHandler;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import weka.dl4j.Preferences;
@@ -39,17 +43,64 @@ import weka.dl4j.Preferences;
  */
 public interface ZooModel extends Serializable, OptionHandler {
   /**
-   * Initialize the ZooModel as MLP
+   * Initialize the ZooModel as ComputationGraph. The parameters of the returned graph are not
+   * allocated yet, so that the configuration can be inspected cheaply; call {@link
+   * ComputationGraph#init()} before using it.
    *
    * @param numLabels Number of labels to adjust the output
    * @param seed Seed
-   * @param shape
-   * @return MultiLayerNetwork of the specified ZooModel
+   * @param shape Input shape: channels, height, width
+   * @return ComputationGraph of the specified ZooModel
    * @throws UnsupportedOperationException Init(...) was not supported (only CustomNet)
    */
   ComputationGraph init(int numLabels, long seed, int[] shape)
       throws UnsupportedOperationException;
 
+  /**
+   * Get the configuration of the ZooModel without allocating its parameters.
+   *
+   * @param numLabels Number of labels to adjust the output
+   * @param seed Seed
+   * @param shape Input shape: channels, height, width
+   * @return Configuration of the specified ZooModel
+   * @throws UnsupportedOperationException Init(...) was not supported (only CustomNet)
+   */
+  default ComputationGraphConfiguration getConfiguration(int numLabels, long seed, int[] shape)
+      throws UnsupportedOperationException {
+    return init(numLabels, seed, shape).getConfiguration();
+  }
+
+  /**
+   * Get the layer configurations of the ZooModel in the order of {@link
+   * ComputationGraph#getLayers()}, without allocating the parameters.
+   *
+   * @param numLabels Number of labels to adjust the output
+   * @param seed Seed
+   * @param shape Input shape: channels, height, width
+   * @return Layer configurations
+   * @throws UnsupportedOperationException Init(...) was not supported (only CustomNet)
+   */
+  default List<Layer> getLayerConfigurations(int numLabels, long seed, int[] shape)
+      throws UnsupportedOperationException {
+    List<Layer> layers = new ArrayList<>();
+    for (GraphVertex vertex : getConfiguration(numLabels, seed, shape).getVertices().values()) {
+      if (vertex instanceof LayerVertex) {
+        layers.add(((LayerVertex) vertex).getLayerConf().getLayer());
+      }
+    }
+    return layers;
+  }
+
+  /**
+   * Load pretrained weights into an initialized graph of this ZooModel. Parameters without
+   * pretrained weights of the same shape, such as the output layer, keep their initialization.
+   * Does nothing by default.
+   *
+   * @param graph Initialized graph
+   * @throws IOException Pretrained weights could not be loaded
+   */
+  default void loadPretrainedWeights(ComputationGraph graph) throws IOException {}
+
   /**
    * Convert a MultiLayerConfiguration into a Computation graph
    *
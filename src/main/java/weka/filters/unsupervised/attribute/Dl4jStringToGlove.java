@@ -19,13 +19,14 @@
 package weka.filters.unsupervised.attribute;
 
 import org.deeplearning4j.models.glove.Glove;
+import org.deeplearning4j.models.sequencevectors.SequenceVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
 import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
-import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionMetadata;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Type;
-import weka.dl4j.text.sentenceiterator.WekaInstanceSentenceIterator;
+import weka.dl4j.text.glove.BoundedMemoryGlove;
 
 import java.util.Enumeration;
 
@@ -89,6 +90,12 @@ public class Dl4jStringToGlove extends Dl4jStringToWordEmbeddings {
    */
   protected int batchSize = 1000;
 
+  /**
+   * Memory budget of the co-occurrence counts in MB. If positive, the co-occurrences are spilled
+   * to disk once the budget is reached, otherwise the matrix is built in memory.
+   */
+  protected int cooccurrenceMemory = 0;
+
   /**
    * Returns a string describing this filter.
    *
@@ -151,22 +158,34 @@ public class Dl4jStringToGlove extends Dl4jStringToWordEmbeddings {
   }
 
   /* (non-Javadoc)
-   * @see Dl4jStringToWordEmbeddings#initiliazeVectors(weka.core.Instances)
+   * @see Dl4jStringToWordEmbeddings#buildModel(SentenceIterator, SequenceVectors)
    */
   @Override
-  void initiliazeVectors(Instances instances) {
-    SentenceIterator iter = new WekaInstanceSentenceIterator(instances, this.textIndex - 1);
-
-    // sets the tokenizer
-    this.tokenizerFactory.getBackend().setTokenPreProcessor(this.preprocessor.getBackend());
-
-    // initializes stopwords
-    this.stopWordsHandler.initialize();
-
-    // Building model
-    this.vec =
+  SequenceVectors<VocabWord> buildModel(
+      SentenceIterator iter, SequenceVectors<VocabWord> previous) {
+    if (this.cooccurrenceMemory > 0) {
+      return new BoundedMemoryGlove.Builder()
+          .tokenizerFactory(this.tokenizerFactory.getBackend())
+          .alpha(this.alpha)
+          .learningRate(this.learningRate)
+          .epochs(this.epochs)
+          .layerSize(this.layerSize)
+          .minWordFrequency(this.minWordFrequency)
+          .stopWords(this.stopWordsHandler.getStopList())
+          .windowSize(this.windowSize)
+          .workers(this.workers)
+          .xMax(this.xMax)
+          .shuffle(this.shuffle)
+          .symmetric(this.symmetric)
+          .seed(this.seed)
+          .maxMemory((long) this.cooccurrenceMemory << 20)
+          .previousModel(previous)
+          .iterate(iter)
+          .build();
+    }
+
+    Glove.Builder builder =
         new Glove.Builder()
-            .iterate(iter)
             .tokenizerFactory(this.tokenizerFactory.getBackend())
             .alpha(this.alpha)
             .learningRate(this.learningRate)
@@ -183,10 +202,13 @@ public class Dl4jStringToGlove extends Dl4jStringToWordEmbeddings {
             .batchSize(this.batchSize)
             .shuffle(this.shuffle)
             .symmetric(this.symmetric)
-            .build();
+            .iterate(iter);
 
-    // fit model
-    this.vec.fit();
+    // continue with the vocabulary and weights of a trained model
+    if (previous != null) {
+      builder.vocabCache(previous.getVocab()).lookupTable(previous.getLookupTable());
+    }
+    return builder.resetModel(previous == null).build();
   }
 
   @OptionMetadata(
@@ -315,4 +337,22 @@ public class Dl4jStringToGlove extends Dl4jStringToWordEmbeddings {
   public void setBatchSize(int m_batchSize) {
     this.batchSize = m_batchSize;
   }
+
+  @OptionMetadata(
+    displayName = "cooccurrenceMemory",
+    description =
+        "Memory budget of the co-occurrence counts in MB. If positive, the counts are spilled to "
+            + "disk once the budget is reached and training streams the merged counts, so that "
+            + "corpora larger than the heap can be used (default = 0, build in memory).",
+    commandLineParamName = "cooccurrenceMemory",
+    commandLineParamSynopsis = "-cooccurrenceMemory <int>",
+    displayOrder = 23
+  )
+  public int getCooccurrenceMemory() {
+    return cooccurrenceMemory;
+  }
+
+  public void setCooccurrenceMemory(int cooccurrenceMemory) {
+    this.cooccurrenceMemory = cooccurrenceMemory;
+  }
 }
@@ -18,14 +18,14 @@
 
 package weka.filters.unsupervised.attribute;
 
+import org.deeplearning4j.models.sequencevectors.SequenceVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
 import org.deeplearning4j.models.word2vec.Word2Vec;
 import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
-import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionMetadata;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Type;
-import weka.dl4j.text.sentenceiterator.WekaInstanceSentenceIterator;
 
 import java.util.Enumeration;
 
@@ -152,20 +152,12 @@ public class Dl4jStringToWord2Vec extends Dl4jStringToWordEmbeddings {
   }
 
   /* (non-Javadoc)
-   * @see Dl4jStringToWordEmbeddings#initiliazeVectors(weka.core.Instances)
+   * @see Dl4jStringToWordEmbeddings#buildModel(SentenceIterator, SequenceVectors)
    */
   @Override
-  void initiliazeVectors(Instances instances) {
-    SentenceIterator iter = new WekaInstanceSentenceIterator(instances, this.textIndex - 1);
-
-    // sets the tokenizer
-    this.tokenizerFactory.getBackend().setTokenPreProcessor(this.preprocessor.getBackend());
-
-    // initializes stopwords
-    this.stopWordsHandler.initialize();
-
-    // Building model
-    this.vec =
+  SequenceVectors<VocabWord> buildModel(
+      SentenceIterator iter, SequenceVectors<VocabWord> previous) {
+    Word2Vec.Builder builder =
         new Word2Vec.Builder()
             .minWordFrequency(this.minWordFrequency)
             .useAdaGrad(this.useAdaGrad)
@@ -181,13 +173,15 @@ public class Dl4jStringToWord2Vec extends Dl4jStringToWordEmbeddings {
             .layerSize(this.layerSize)
             .seed(this.seed)
             .windowSize(this.windowSize)
-            .iterate(iter)
             .stopWords(this.stopWordsHandler.getStopList())
             .tokenizerFactory(this.tokenizerFactory.getBackend())
-            .build();
+            .iterate(iter);
 
-    // fit model
-    this.vec.fit();
+    // continue with the vocabulary and weights of a trained model
+    if (previous != null) {
+      builder.vocabCache(previous.getVocab()).lookupTable(previous.getLookupTable());
+    }
+    return builder.resetModel(previous == null).build();
   }
 
   @OptionMetadata(
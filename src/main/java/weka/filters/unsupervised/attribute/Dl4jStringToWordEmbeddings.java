@@ -18,10 +18,17 @@
 
 package weka.filters.unsupervised.attribute;
 
+import lombok.extern.log4j.Log4j2;
 import org.deeplearning4j.models.sequencevectors.SequenceVectors;
 import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
+import org.nd4j.linalg.factory.Nd4j;
 import weka.core.*;
 import weka.core.Capabilities.Capability;
+import weka.dl4j.FileUtils;
+import weka.dl4j.text.sentenceiterator.WekaInstanceSentenceIterator;
 import weka.dl4j.text.stopwords.Dl4jAbstractStopwords;
 import weka.dl4j.text.stopwords.Dl4jNull;
 import weka.dl4j.text.tokenization.preprocessor.CommonPreProcessor;
@@ -30,12 +37,25 @@ import weka.dl4j.text.tokenization.tokenizer.factory.DefaultTokenizerFactory;
 import weka.dl4j.text.tokenization.tokenizer.factory.TokenizerFactory;
 import weka.filters.Filter;
 import weka.filters.SimpleBatchFilter;
+import weka.gui.FilePropertyMetadata;
+import weka.gui.knowledgeflow.KFGUIConsts;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -45,6 +65,7 @@ import java.util.List;
  *
  * @author Felipe Bravo-Marquez (fjb11@students.waikato.ac.nz)
  */
+@Log4j2
 public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
 
   /** For serialization */
@@ -83,6 +104,14 @@ public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
   protected int windowSize = 5;
   /** Random number seed */
   protected int seed = 1;
+  /** Whether trained models are stored in the model cache directory and reused */
+  protected boolean cacheModel = false;
+  /** Directory of the trained models */
+  protected File modelCacheDirectory =
+      new File(
+          Paths.get(WekaPackageManager.WEKA_HOME.getAbsolutePath(), "embedding-cache").toString());
+  /** Whether the model continues training on each batch after the first one */
+  protected boolean incremental = false;
 
   /* (non-Javadoc)
    * @see weka.filters.Filter#listOptions()
@@ -185,11 +214,135 @@ public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
   }
 
   /**
-   * Calculates word embeddings from Weka Instances
+   * Builds the model that calculates the word embeddings of the given sentences.
+   *
+   * @param iter the sentences to train on
+   * @param previous a trained model whose vocabulary and weights are trained further, null to
+   *     build the vocabulary and weights from scratch
+   * @return the model, not fitted yet
+   */
+  abstract SequenceVectors<VocabWord> buildModel(
+      SentenceIterator iter, SequenceVectors<VocabWord> previous);
+
+  /**
+   * Calculates word embeddings from Weka Instances. If models are cached, a model that was trained
+   * on the same text with the same options is loaded instead.
+   *
+   * @param instances the Weka Instances object
+   */
+  void initiliazeVectors(Instances instances) {
+    SentenceIterator iter = new WekaInstanceSentenceIterator(instances, this.textIndex - 1);
+
+    // sets the tokenizer
+    this.tokenizerFactory.getBackend().setTokenPreProcessor(this.preprocessor.getBackend());
+
+    // initializes stopwords
+    this.stopWordsHandler.initialize();
+
+    File cacheFile = null;
+    if (this.cacheModel) {
+      cacheFile = new File(this.modelCacheDirectory, computeModelKey(instances) + ".model");
+      if (cacheFile.isFile()) {
+        try {
+          this.vec = readModel(cacheFile);
+          log.info("Loaded cached embedding model {}", cacheFile);
+          return;
+        } catch (Exception e) {
+          // A corrupt model is trained again
+          log.warn("Could not read cached embedding model {}, training it again", cacheFile);
+        }
+      }
+    }
+
+    // Building and fitting the model
+    this.vec = buildModel(iter, null);
+    this.vec.fit();
+
+    if (cacheFile != null) {
+      writeModel(cacheFile);
+    }
+  }
+
+  /**
+   * Continues training the current model on a further batch. The vocabulary is kept, words that
+   * are not in it are ignored.
    *
    * @param instances the Weka Instances object
    */
-  abstract void initiliazeVectors(Instances instances);
+  void updateVectors(Instances instances) {
+    SentenceIterator iter = new WekaInstanceSentenceIterator(instances, this.textIndex - 1);
+    this.vec = buildModel(iter, this.vec);
+    this.vec.fit();
+  }
+
+  /**
+   * Computes the name of the cached model for the given training data. The key covers the class,
+   * the options that affect training and the text of all instances.
+   *
+   * @param instances the training data
+   * @return hex encoded SHA-256 key
+   */
+  protected String computeModelKey(Instances instances) {
+    MessageDigest md = FileUtils.sha256();
+    String[] options = getOptions();
+    try {
+      // options that only affect the output or the cache itself
+      for (String option : new String[] {"action", "concat_words", "embedding_prefix",
+          "modelCacheDir"}) {
+        Utils.getOption(option, options);
+      }
+      Utils.getFlag("cacheModel", options);
+      Utils.getFlag("incremental", options);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    md.update((getClass().getName() + " " + Utils.joinOptions(options) + "\n")
+        .getBytes(StandardCharsets.UTF_8));
+    final int textIdx = this.textIndex - 1;
+    for (Instance inst : instances) {
+      if (!inst.isMissing(textIdx)) {
+        md.update(inst.stringValue(textIdx).getBytes(StandardCharsets.UTF_8));
+      }
+      md.update((byte) 0);
+    }
+
+    return FileUtils.toHex(md.digest());
+  }
+
+  /**
+   * Reads a cached model.
+   *
+   * @param file the model file
+   * @return the model
+   * @throws Exception if the model could not be read
+   */
+  @SuppressWarnings("unchecked")
+  protected SequenceVectors<VocabWord> readModel(File file) throws Exception {
+    return (SequenceVectors<VocabWord>) SerializationHelper.read(file.getAbsolutePath());
+  }
+
+  /**
+   * Writes the current model to the cache. The model is written to a temporary file first and
+   * atomically moved into place, so that concurrent runs never read a partial file. A model that
+   * cannot be written is only logged.
+   *
+   * @param file the model file
+   */
+  protected void writeModel(File file) {
+    try {
+      FileUtils.writeAtomically(
+          file.toPath(),
+          tmp -> {
+            try (ObjectOutputStream out =
+                new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+              out.writeObject(this.vec);
+            }
+          });
+      log.debug("Wrote embedding model to {}", file);
+    } catch (IOException e) {
+      log.warn("Could not write embedding model to " + file, e);
+    }
+  }
 
   /* (non-Javadoc)
    * @see weka.filters.SimpleFilter#process(weka.core.Instances)
@@ -224,9 +377,11 @@ public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
     if (!instances.attribute(this.textIndex - 1).isString())
       throw new IOException("Given attribute is not String.");
 
-    // create Embeddings in the first batch
+    // create Embeddings in the first batch, continue training on later batches if incremental
     if (!isFirstBatchDone()) {
       this.initiliazeVectors(instances);
+    } else if (this.incremental) {
+      this.updateVectors(instances);
     }
 
     // outputs the word vectors
@@ -235,13 +390,14 @@ public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
       String[] words = this.vec.getVocab().words().toArray(new String[0]);
       Arrays.sort(words);
 
-      for (String word : words) {
+      final Attribute wordId = result.attribute("word_id");
+      final INDArray vectors = gatherWordVectors(Arrays.asList(words));
+      final int vectorSize = vectors.columns();
+      final double[] rows = vectors.data().asDouble();
+      for (int w = 0; w < words.length; w++) {
         double[] values = new double[result.numAttributes()];
-
-        for (int i = 0; i < this.vec.getWordVector(word).length; i++)
-          values[i] = this.vec.getWordVector(word)[i];
-
-        values[result.numAttributes() - 1] = result.attribute("word_id").addStringValue(word);
+        System.arraycopy(rows, w * vectorSize, values, 0, vectorSize);
+        values[result.numAttributes() - 1] = wordId.addStringValue(words[w]);
 
         Instance inst = new DenseInstance(1, values);
 
@@ -254,39 +410,26 @@ public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
     // outputs doc vectors using the embeddings
     else {
       // reference to the content of the message, users index start from zero
-      Attribute attrCont = instances.attribute(this.textIndex - 1);
-
-      // copy all previous attributes
-      for (int i = 0; i < instances.numInstances(); i++) {
-        double[] values = new double[result.numAttributes()];
-        for (int n = 0; n < instances.numAttributes(); n++)
-          values[n] = instances.instance(i).value(n);
-
-        String content = instances.instance(i).stringValue(attrCont);
-        List<String> words = this.tokenizerFactory.getBackend().create(content).getTokens();
-
-        int m = 0;
-        for (String word : words) {
-          if (this.vec.hasWord(word)) {
-            int j = 0;
-            for (double embDimVal : this.vec.getWordVector(word)) {
-              if (this.action == Action.DOC_VECTOR_AVERAGE) {
-                values[result.attribute(embeddingPrefix + j).index()] +=
-                    embDimVal / words.size();
-              } else if (this.action == Action.DOC_VECTOR_ADD) {
-                values[result.attribute(embeddingPrefix + j).index()] += embDimVal;
-              } else if (this.action == Action.DOC_VECTOR_CONCAT) {
-                if (m < this.concatWords) {
-                  values[result.attribute(embeddingPrefix + m + "," + j).index()] += embDimVal;
+      final Attribute attrCont = instances.attribute(this.textIndex - 1);
+      // the embedding attributes follow the input attributes, see determineOutputFormat
+      final int offset = instances.numAttributes();
+      final int numAttributes = result.numAttributes();
+
+      final double[][] allValues =
+          computeInParallel(
+              instances.numInstances(),
+              i -> {
+                final Instance instance = instances.instance(i);
+                double[] values = new double[numAttributes];
+                // copy all previous attributes
+                for (int n = 0; n < instances.numAttributes(); n++) {
+                  values[n] = instance.value(n);
                 }
-              }
-
-              j++;
-            }
-          }
-          m++;
-        }
+                addDocumentVector(instance.stringValue(attrCont), values, offset);
+                return values;
+              });
 
+      for (double[] values : allValues) {
         Instance inst = new DenseInstance(1, values);
 
         inst.setDataset(result);
@@ -300,6 +443,94 @@ public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
     return result;
   }
 
+  /**
+   * Add the document vector of the given text to the embedding attributes. The vectors of the
+   * known tokens are gathered into one matrix, which is then reduced according to the action.
+   *
+   * @param content Text of the document
+   * @param values Attribute values of the output instance
+   * @param offset Index of the first embedding attribute
+   */
+  protected void addDocumentVector(String content, double[] values, int offset) {
+    final List<String> words = this.tokenizerFactory.getBackend().create(content).getTokens();
+    final boolean concat = this.action == Action.DOC_VECTOR_CONCAT;
+
+    // collect the known tokens and, for concatenation, their positions in the document
+    List<String> known = new ArrayList<>(words.size());
+    int[] positions = new int[words.size()];
+    for (int m = 0; m < words.size() && (!concat || m < this.concatWords); m++) {
+      if (this.vec.hasWord(words.get(m))) {
+        positions[known.size()] = m;
+        known.add(words.get(m));
+      }
+    }
+    if (known.isEmpty()) {
+      return;
+    }
+
+    final INDArray vectors = gatherWordVectors(known);
+    final int vectorSize = vectors.columns();
+    if (concat) {
+      final double[] rows = vectors.data().asDouble();
+      for (int k = 0; k < known.size(); k++) {
+        System.arraycopy(
+            rows, k * vectorSize, values, offset + positions[k] * vectorSize, vectorSize);
+      }
+    } else {
+      INDArray sum = vectors.sum(0);
+      if (this.action == Action.DOC_VECTOR_AVERAGE) {
+        // average over all tokens, unknown tokens count as zero vectors
+        sum.divi(words.size());
+      }
+      System.arraycopy(sum.toDoubleVector(), 0, values, offset, vectorSize);
+    }
+  }
+
+  /**
+   * Gather the vectors of the given words from the lookup table.
+   *
+   * @param words Words in the vocabulary
+   * @return Row-major matrix with one row per word
+   */
+  protected INDArray gatherWordVectors(List<String> words) {
+    final VocabCache<VocabWord> vocab = this.vec.getVocab();
+    final int[] indices = new int[words.size()];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = vocab.indexOf(words.get(i));
+    }
+    return Nd4j.pullRows(this.vec.lookupTable().getWeights(), 1, indices, 'c');
+  }
+
+  /**
+   * Compute a result per document with the configured number of workers.
+   *
+   * @param numDocuments Number of documents
+   * @param fn Function that computes the result of a document
+   * @return Results in document order
+   */
+  protected double[][] computeInParallel(int numDocuments, IntFunction<double[]> fn) {
+    if (this.workers <= 1 || numDocuments <= 1) {
+      return IntStream.range(0, numDocuments).mapToObj(fn).toArray(double[][]::new);
+    }
+    ForkJoinPool pool = new ForkJoinPool(this.workers);
+    try {
+      return pool.submit(
+              () ->
+                  IntStream.range(0, numDocuments)
+                      .parallel()
+                      .mapToObj(fn)
+                      .toArray(double[][]::new))
+          .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while computing document vectors", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not compute document vectors", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   public int getConcatWords() {
     return concatWords;
   }
@@ -546,6 +777,56 @@ public abstract class Dl4jStringToWordEmbeddings extends SimpleBatchFilter {
     this.embeddingPrefix = embeddingPrefix;
   }
 
+  @OptionMetadata(
+    displayName = "cache model",
+    description = "Whether trained models are stored in the model cache directory and reused by "
+        + "later runs on the same text with the same options (default = false).",
+    commandLineParamName = "cacheModel",
+    commandLineParamSynopsis = "-cacheModel",
+    commandLineParamIsFlag = true,
+    displayOrder = 30
+  )
+  public boolean isCacheModel() {
+    return cacheModel;
+  }
+
+  public void setCacheModel(boolean cacheModel) {
+    this.cacheModel = cacheModel;
+  }
+
+  public File getModelCacheDirectory() {
+    return modelCacheDirectory;
+  }
+
+  @FilePropertyMetadata(fileChooserDialogType = KFGUIConsts.SAVE_DIALOG, directoriesOnly = true)
+  @OptionMetadata(
+    displayName = "model cache directory",
+    description = "The directory of the cached models (default = $WEKA_HOME/embedding-cache).",
+    commandLineParamName = "modelCacheDir",
+    commandLineParamSynopsis = "-modelCacheDir <string>",
+    displayOrder = 31
+  )
+  public void setModelCacheDirectory(File modelCacheDirectory) {
+    this.modelCacheDirectory = modelCacheDirectory;
+  }
+
+  @OptionMetadata(
+    displayName = "incremental",
+    description = "Whether the model continues training on each batch after the first one, with "
+        + "the vocabulary of the first batch (default = false).",
+    commandLineParamName = "incremental",
+    commandLineParamSynopsis = "-incremental",
+    commandLineParamIsFlag = true,
+    displayOrder = 32
+  )
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
   /** Possible actions to perform on the embeddings. */
   protected enum Action {
     WORD_VECTOR,
@@ -33,16 +33,19 @@ import weka.dl4j.ConvolutionMode;
 import weka.dl4j.layers.Layer;
 import weka.dl4j.PoolingType;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weka.core.Instances;
 import weka.core.InvalidNetworkArchitectureException;
 import weka.core.MissingOutputLayerException;
 import weka.core.WrongIteratorException;
+import weka.dl4j.CacheCompression;
 import weka.dl4j.CacheMode;
 import weka.dl4j.NeuralNetConfiguration;
 import weka.dl4j.activations.ActivationIdentity;
@@ -50,6 +53,8 @@ import weka.dl4j.activations.ActivationReLU;
 import weka.dl4j.activations.ActivationSoftmax;
 import weka.dl4j.dropout.Dropout;
 import weka.dl4j.earlystopping.EarlyStopping;
+import weka.dl4j.iterators.dataset.ImageAugmentation;
+import weka.dl4j.iterators.dataset.PrefetchingDataSetIterator;
 import weka.dl4j.iterators.instance.ConvolutionInstanceIterator;
 import weka.dl4j.iterators.instance.DefaultInstanceIterator;
 import weka.dl4j.iterators.instance.ImageInstanceIterator;
@@ -64,6 +69,7 @@ import weka.dl4j.layers.SubsamplingLayer;
 import weka.dl4j.listener.EpochListener;
 import weka.dl4j.lossfunctions.LossMCXENT;
 import weka.dl4j.lossfunctions.LossMSE;
+import weka.dl4j.sampler.ShuffleSampler;
 import weka.dl4j.updater.Adam;
 import weka.dl4j.zoo.LeNet;
 import weka.filters.Filter;
@@ -347,6 +353,62 @@ public class Dl4jMlpTest {
     clf.setQueueSize(4);
     clf.buildClassifier(dataIris);
   }
+
+  /** Test prefetching with several threads, a sampler and early stopping */
+  @Test
+  public void testPrefetchingWithEarlyStopping() throws Exception {
+    EarlyStopping es = new EarlyStopping(2, 20);
+    clf.setEarlyStopping(es);
+    clf.setSampler(new ShuffleSampler());
+    clf.setQueueSize(2);
+    clf.setNumPrefetchThreads(3);
+    clf.setNumEpochs(3);
+    TestUtil.holdout(clf, dataIris);
+  }
+
+  /** Test that in-memory batches are prepared by several threads with the memory cache */
+  @Test
+  public void testPrefetchingWithMemoryCache() throws Exception {
+    clf.setCacheMode(CacheMode.MEMORY);
+    clf.setQueueSize(2);
+    clf.setNumPrefetchThreads(3);
+    DataSetIterator it = clf.getDataSetIterator(dataIris);
+    Assert.assertTrue(it instanceof PrefetchingDataSetIterator);
+    Assert.assertEquals(3, ((PrefetchingDataSetIterator) it).getNumProducers());
+
+    int numExamples = 0;
+    while (it.hasNext()) {
+      numExamples += it.next().numExamples();
+    }
+    Assert.assertEquals(dataIris.numInstances(), numExamples);
+  }
+
+  /** Test parallel image decoding with augmented training images */
+  @Test
+  public void testParallelDecodingWithAugmentation() throws Exception {
+    ImageAugmentation augmentation = new ImageAugmentation();
+    augmentation.setCropPadding(2);
+    augmentation.setBrightnessJitter(0.1);
+    idiMnist.setAugmentation(augmentation);
+    idiMnist.setNumDecodeWorkers(2);
+    clf.setInstanceIterator(idiMnist);
+    DenseLayer denseLayer = new DenseLayer();
+    denseLayer.setNOut(32);
+    clf.setLayers(denseLayer, new OutputLayer());
+    clf.setNumEpochs(2);
+    TestUtil.holdout(clf, dataMnist);
+  }
+
+  /** Test per-epoch reshuffling with early stopping */
+  @Test
+  public void testShuffleSamplerWithEarlyStopping() throws Exception {
+    EarlyStopping es = new EarlyStopping();
+    es.setValidationSetPercentage(20);
+    clf.setEarlyStopping(es);
+    clf.setSampler(new ShuffleSampler());
+    clf.setNumEpochs(3);
+    TestUtil.holdout(clf, dataIris);
+  }
   /** Test zoo model with wrong iterator */
   @Test(expected = WrongIteratorException.class)
   public void testZooModelWithoutImageIterator() throws Exception {
@@ -644,4 +706,37 @@ public class Dl4jMlpTest {
     clf.setCacheMode(CacheMode.FILESYSTEM);
     TestUtil.holdout(clf, dataMnist);
   }
+
+  @Test
+  public void testHybridCacheMode() throws Exception {
+    DenseLayer denseLayer = new DenseLayer();
+    denseLayer.setNOut(8);
+    OutputLayer outputLayer = new OutputLayer();
+    clf.setLayers(denseLayer, outputLayer);
+    clf.setNumEpochs(3);
+
+    // Small budget to force spilling part of the batches
+    clf.setCacheMode(CacheMode.HYBRID);
+    clf.setCacheMemoryBudget(0);
+    clf.setCacheCompression(CacheCompression.FLOAT16);
+    TestUtil.holdout(clf, dataIris);
+  }
+
+  @Test
+  public void testHybridCacheModeActivations() throws Exception {
+    DenseLayer denseLayer = new DenseLayer();
+    denseLayer.setNOut(8);
+    denseLayer.setLayerName("dense");
+    OutputLayer outputLayer = new OutputLayer();
+    clf.setLayers(denseLayer, outputLayer);
+    clf.setNumEpochs(1);
+    clf.setCacheMode(CacheMode.HYBRID);
+    clf.buildClassifier(dataIris);
+    Assert.assertNull(clf.hybridCache);
+
+    // Inference must not open a hybrid cache that is never closed
+    final Instances activations = clf.getActivationsAtLayer("dense", dataIris);
+    Assert.assertEquals(dataIris.numInstances(), activations.numInstances());
+    Assert.assertNull(clf.hybridCache);
+  }
 }
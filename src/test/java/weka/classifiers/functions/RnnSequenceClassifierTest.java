@@ -37,11 +37,13 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestName;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SerializationHelper;
 import weka.core.stemmers.SnowballStemmer;
 import weka.dl4j.NeuralNetConfiguration;
 import weka.dl4j.activations.ActivationIdentity;
@@ -80,6 +82,8 @@ public class RnnSequenceClassifierTest {
 
   /** Current name */
   @Rule public TestName name = new TestName();
+  /** Temporary folder for the serialized models */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
   /** Model path slim */
   private static File modelSlim;
   /** Classifier */
@@ -293,6 +297,38 @@ public class RnnSequenceClassifierTest {
     TestUtil.holdout(clf, data, 3);
   }
 
+  @Test
+  public void testSerialization() throws Exception {
+    data = TestUtil
+        .makeTestDatasetRelational(TestUtil.SEED, 100, 2, Attribute.NOMINAL, 1, 2, 2, 2, 20);
+    data.setClassIndex(data.numAttributes() - 1);
+
+    LSTM lstm = new LSTM();
+    lstm.setNOut(8);
+    lstm.setActivationFunction(new ActivationTanH());
+
+    final RelationalInstanceIterator rii = new RelationalInstanceIterator();
+    rii.setTruncateLength(20);
+    rii.setTrainBatchSize(16);
+    rii.setRelationalAttributeIndex(0);
+    clf.setInstanceIterator(rii);
+    clf.setLayers(lstm, new RnnOutputLayer());
+    clf.setNumEpochs(1);
+    clf.buildClassifier(data);
+
+    // The network is only written if the classifier is marked as initialized
+    final double[][] expected = clf.distributionsForInstances(data);
+    final File file = folder.newFile("model.ser");
+    SerializationHelper.write(file.getAbsolutePath(), clf);
+    final RnnSequenceClassifier read =
+        (RnnSequenceClassifier) SerializationHelper.read(file.getAbsolutePath());
+    Assert.assertNotNull(read.getModel());
+    final double[][] actual = read.distributionsForInstances(data);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertArrayEquals(expected[i], actual[i], 1e-6);
+    }
+  }
+
   @Test
   public void testConfigRotation() throws Exception {
     Map<String, String> failedConfigs = new HashMap<>();
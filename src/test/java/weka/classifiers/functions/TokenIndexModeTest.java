@@ -0,0 +1,352 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * TokenIndexModeTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.classifiers.functions;
+
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.point;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.dl4j.ConvolutionMode;
+import weka.dl4j.activations.ActivationReLU;
+import weka.dl4j.activations.ActivationTanH;
+import weka.dl4j.iterators.instance.sequence.text.AbstractTextEmbeddingIterator;
+import weka.dl4j.iterators.instance.sequence.text.cnn.CnnTextEmbeddingInstanceIterator;
+import weka.dl4j.iterators.instance.sequence.text.rnn.RnnTextEmbeddingInstanceIterator;
+import weka.dl4j.layers.ConvolutionLayer;
+import weka.dl4j.layers.GlobalPoolingLayer;
+import weka.dl4j.layers.LSTM;
+import weka.dl4j.layers.OutputLayer;
+import weka.dl4j.layers.RnnOutputLayer;
+import weka.dl4j.text.stopwords.Dl4jNull;
+import weka.dl4j.text.tokenization.tokenizer.factory.CharacterNGramTokenizerFactory;
+import weka.util.DatasetLoader;
+import weka.util.TestUtil;
+
+/**
+ * JUnit tests for the token index mode of the text embedding iterators, in which the word vectors
+ * are looked up by an embedding layer in the network.
+ *
+ * @author Steven Lang
+ */
+public class TokenIndexModeTest {
+
+  /** Size of the word vectors */
+  private static final int VECTOR_SIZE = 8;
+  /** Truncation length */
+  private static final int TRUNCATE_LENGTH = 20;
+  /** Temporary folder for the word vectors */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Dataset reuters */
+  private Instances data;
+  /** Word vectors of the reuters vocabulary */
+  private File wordVectors;
+
+  @Before
+  public void before() throws Exception {
+    data = DatasetLoader.loadReutersMinimal();
+    data.randomize(new Random(TestUtil.SEED));
+    wordVectors = writeWordVectors(data);
+  }
+
+  @Test
+  public void testRnnTokenIndices() throws Exception {
+    RnnTextEmbeddingInstanceIterator vectors = new RnnTextEmbeddingInstanceIterator();
+    RnnTextEmbeddingInstanceIterator indices = new RnnTextEmbeddingInstanceIterator();
+    indices.setTokenIndexMode(true);
+    assertSameEmbeddings(vectors, indices);
+  }
+
+  @Test
+  public void testCnnTokenIndices() throws Exception {
+    CnnTextEmbeddingInstanceIterator vectors = new CnnTextEmbeddingInstanceIterator();
+    CnnTextEmbeddingInstanceIterator indices = new CnnTextEmbeddingInstanceIterator();
+    indices.setTokenIndexMode(true);
+    assertSameEmbeddings(vectors, indices);
+  }
+
+  @Test
+  public void testCnnClassifier() throws Exception {
+    CnnTextEmbeddingInstanceIterator cnnTextIter = new CnnTextEmbeddingInstanceIterator();
+    cnnTextIter.setTokenIndexMode(true);
+    init(cnnTextIter);
+
+    ConvolutionLayer conv1 = new ConvolutionLayer();
+    conv1.setKernelSize(new int[] {3, VECTOR_SIZE});
+    conv1.setNOut(10);
+    conv1.setStride(new int[] {1, VECTOR_SIZE});
+    conv1.setConvolutionMode(ConvolutionMode.Same);
+    conv1.setActivationFunction(new ActivationReLU());
+
+    ConvolutionLayer conv2 = new ConvolutionLayer();
+    conv2.setKernelSize(new int[] {2, VECTOR_SIZE});
+    conv2.setNOut(10);
+    conv2.setStride(new int[] {1, VECTOR_SIZE});
+    conv2.setConvolutionMode(ConvolutionMode.Same);
+    conv2.setActivationFunction(new ActivationReLU());
+
+    Dl4jMlpClassifier clf = new Dl4jMlpClassifier();
+    clf.setSeed(TestUtil.SEED);
+    clf.setNumEpochs(2);
+    clf.setInstanceIterator(cnnTextIter);
+    clf.setLayers(conv1, conv2, new GlobalPoolingLayer(), new OutputLayer());
+    assertTrainsWithFrozenEmbeddings(clf);
+  }
+
+  @Test
+  public void testRnnClassifier() throws Exception {
+    RnnTextEmbeddingInstanceIterator rnnTextIter = new RnnTextEmbeddingInstanceIterator();
+    rnnTextIter.setTokenIndexMode(true);
+    init(rnnTextIter);
+
+    LSTM lstm = new LSTM();
+    lstm.setNOut(3);
+    lstm.setActivationFunction(new ActivationTanH());
+
+    RnnSequenceClassifier clf = new RnnSequenceClassifier();
+    clf.setSeed(TestUtil.SEED);
+    clf.setNumEpochs(2);
+    clf.setInstanceIterator(rnnTextIter);
+    clf.setLayers(lstm, new RnnOutputLayer());
+    assertTrainsWithFrozenEmbeddings(clf);
+  }
+
+  @Test
+  public void testPrunedVocabulary() throws Exception {
+    RnnTextEmbeddingInstanceIterator rnnTextIter = new RnnTextEmbeddingInstanceIterator();
+    rnnTextIter.setTokenIndexMode(true);
+    rnnTextIter.setPruneVocabulary(true);
+    init(rnnTextIter);
+    final int numWords = rnnTextIter.getWordVectors().vocab().numWords();
+
+    LSTM lstm = new LSTM();
+    lstm.setNOut(3);
+    lstm.setActivationFunction(new ActivationTanH());
+
+    RnnSequenceClassifier clf = new RnnSequenceClassifier();
+    clf.setSeed(TestUtil.SEED);
+    clf.setNumEpochs(1);
+    clf.setInstanceIterator(rnnTextIter);
+    clf.setLayers(lstm, new RnnOutputLayer());
+    clf.buildClassifier(data);
+
+    // Stop words are pruned, the pruned word vectors are stored with the model
+    final int numPruned = rnnTextIter.getWordVectors().vocab().numWords();
+    Assert.assertTrue(numPruned < numWords);
+    Assert.assertEquals(numPruned, rnnTextIter.getPrunedWordVectors().numWords());
+    final double[][] expected = clf.distributionsForInstances(data);
+    final File file = folder.newFile("model.ser");
+    SerializationHelper.write(file.getAbsolutePath(), clf);
+    Assert.assertTrue(wordVectors.delete());
+    final Dl4jMlpClassifier read =
+        (Dl4jMlpClassifier) SerializationHelper.read(file.getAbsolutePath());
+    final double[][] actual = read.distributionsForInstances(data);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertArrayEquals(expected[i], actual[i], 1e-6);
+    }
+  }
+
+  @Test
+  public void testHashedCharacterNGrams() throws Exception {
+    CharacterNGramTokenizerFactory ngrams = new CharacterNGramTokenizerFactory();
+    ngrams.setNMin(3);
+    ngrams.setNMax(4);
+    CnnTextEmbeddingInstanceIterator cnnTextIter = new CnnTextEmbeddingInstanceIterator();
+    cnnTextIter.setTokenizerFactory(ngrams);
+    cnnTextIter.setStopwords(new Dl4jNull());
+    cnnTextIter.setNumHashBuckets(500);
+    cnnTextIter.setHashEmbeddingSize(VECTOR_SIZE);
+    cnnTextIter.setWordVectorLocation(new File(folder.getRoot(), "missing.csv"));
+    cnnTextIter.setTruncateLength(TRUNCATE_LENGTH);
+    cnnTextIter.setTrainBatchSize(16);
+
+    // The truncation length counts characters, each emits a 3-gram and a 4-gram
+    Assert.assertEquals(2 * TRUNCATE_LENGTH, cnnTextIter.getSequenceLength());
+
+    ConvolutionLayer conv = new ConvolutionLayer();
+    conv.setKernelSize(new int[] {3, VECTOR_SIZE});
+    conv.setNOut(10);
+    conv.setStride(new int[] {1, VECTOR_SIZE});
+    conv.setConvolutionMode(ConvolutionMode.Same);
+    conv.setActivationFunction(new ActivationReLU());
+
+    Dl4jMlpClassifier clf = new Dl4jMlpClassifier();
+    clf.setSeed(TestUtil.SEED);
+    clf.setNumEpochs(1);
+    clf.setInstanceIterator(cnnTextIter);
+    clf.setLayers(conv, new GlobalPoolingLayer(), new OutputLayer());
+    clf.buildClassifier(data);
+
+    // The embedding table has a row per bucket, the padding row stays zero
+    Assert.assertNull(cnnTextIter.getWordVectors());
+    final INDArray table =
+        clf.getModel().getLayer(Dl4jMlpClassifier.EMBEDDING_LAYER_NAME).getParam("W");
+    Assert.assertArrayEquals(new long[] {501, VECTOR_SIZE}, table.shape());
+    Assert.assertEquals(0.0, table.getRow(500).norm1Number().doubleValue(), 0.0);
+    Assert.assertTrue(table.getRow(0).norm1Number().doubleValue() > 0);
+
+    final double[][] expected = clf.distributionsForInstances(data);
+    final File file = folder.newFile("model.ser");
+    SerializationHelper.write(file.getAbsolutePath(), clf);
+    final Dl4jMlpClassifier read =
+        (Dl4jMlpClassifier) SerializationHelper.read(file.getAbsolutePath());
+    final double[][] actual = read.distributionsForInstances(data);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertArrayEquals(expected[i], actual[i], 1e-6);
+    }
+  }
+
+  /**
+   * Train the classifier and check that the embedding layer holds the word vectors, that it was
+   * not updated and that the model survives serialization.
+   *
+   * @param clf Classifier in token index mode
+   * @throws Exception Could not train the classifier
+   */
+  private void assertTrainsWithFrozenEmbeddings(Dl4jMlpClassifier clf) throws Exception {
+    clf.buildClassifier(data);
+    final AbstractTextEmbeddingIterator iter =
+        (AbstractTextEmbeddingIterator) clf.getInstanceIterator();
+    final WordVectors wv = iter.getWordVectors();
+    final ComputationGraph model = clf.getModel();
+    final INDArray table = model.getLayer(Dl4jMlpClassifier.EMBEDDING_LAYER_NAME).getParam("W");
+    final int numWords = wv.vocab().numWords();
+    Assert.assertArrayEquals(new long[] {numWords + 1, VECTOR_SIZE}, table.shape());
+    for (int i = 0; i < numWords; i += 97) {
+      final String word = wv.vocab().wordAtIndex(i);
+      Assert.assertTrue(wv.getWordVectorMatrix(word).equalsWithEps(table.getRow(i), 1e-6));
+    }
+    Assert.assertEquals(0.0, table.getRow(numWords).norm1Number().doubleValue(), 0.0);
+
+    final double[][] expected = clf.distributionsForInstances(data);
+    final File file = folder.newFile("model.ser");
+    SerializationHelper.write(file.getAbsolutePath(), clf);
+    final Dl4jMlpClassifier read =
+        (Dl4jMlpClassifier) SerializationHelper.read(file.getAbsolutePath());
+    final double[][] actual = read.distributionsForInstances(data);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertArrayEquals(expected[i], actual[i], 1e-6);
+    }
+  }
+
+  /**
+   * Check that looking up the token indices of the index mode iterator in the word vectors gives
+   * the features of the vector mode iterator.
+   *
+   * @param vectors Iterator in vector mode
+   * @param indices Iterator in token index mode
+   * @throws Exception Could not build the batches
+   */
+  private void assertSameEmbeddings(
+      AbstractTextEmbeddingIterator vectors, AbstractTextEmbeddingIterator indices)
+      throws Exception {
+    init(vectors);
+    init(indices);
+    final WordVectors wv = indices.getWordVectors();
+    final int numWords = wv.vocab().numWords();
+    final DataSetIterator vit = vectors.getDataSetIterator(data, TestUtil.SEED, 8);
+    final DataSetIterator iit = indices.getDataSetIterator(data, TestUtil.SEED, 8);
+    Assert.assertEquals(1, iit.inputColumns());
+
+    int numTokens = 0;
+    while (vit.hasNext()) {
+      final DataSet v = vit.next();
+      final DataSet t = iit.next();
+      final INDArray vf = v.getFeatures();
+      final INDArray tf = t.getFeatures();
+      Assert.assertEquals(3, tf.rank());
+      Assert.assertEquals(1, tf.size(1));
+      Assert.assertEquals(v.getLabels(), t.getLabels());
+      final boolean cnn = vf.rank() == 4;
+      for (int i = 0; i < tf.size(0); i++) {
+        for (int j = 0; j < tf.size(2); j++) {
+          final int index = tf.getInt(i, 0, j);
+          // Padding and unknown words point to the zero row after the vocabulary
+          if (index < numWords && t.getFeaturesMaskArray().getDouble(i, j) == 1.0) {
+            final INDArray expected =
+                cnn ? vf.get(point(i), point(0), point(j)) : vf.get(point(i), all(), point(j));
+            final INDArray actual = wv.getWordVectorMatrix(wv.vocab().wordAtIndex(index));
+            Assert.assertTrue(expected.equalsWithEps(actual.reshape(expected.shape()), 1e-6));
+            numTokens++;
+          }
+        }
+      }
+    }
+    Assert.assertFalse(iit.hasNext());
+    Assert.assertTrue(numTokens > 0);
+  }
+
+  /**
+   * Initialize an iterator with the reuters word vectors.
+   *
+   * @param iter Iterator
+   */
+  private void init(AbstractTextEmbeddingIterator iter) {
+    iter.setWordVectorLocation(wordVectors);
+    iter.setTruncateLength(TRUNCATE_LENGTH);
+    iter.setTrainBatchSize(16);
+    iter.initialize();
+  }
+
+  /**
+   * Write random word vectors for the words of the given documents.
+   *
+   * @param data Documents
+   * @return Word vectors file
+   * @throws Exception Could not write the file
+   */
+  private File writeWordVectors(Instances data) throws Exception {
+    final Set<String> words = new LinkedHashSet<>();
+    for (Instance inst : data) {
+      for (String word : inst.stringValue(0).toLowerCase().split("[^a-z]+")) {
+        if (!word.isEmpty()) {
+          words.add(word);
+        }
+      }
+    }
+    final File file = folder.newFile("reuters-vectors.csv");
+    final Random rand = new Random(TestUtil.SEED);
+    try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+      for (String word : words) {
+        StringBuilder line = new StringBuilder(word);
+        for (int i = 0; i < VECTOR_SIZE; i++) {
+          line.append(' ').append(rand.nextFloat() - 0.5f);
+        }
+        pw.println(line);
+      }
+    }
+    return file;
+  }
+}
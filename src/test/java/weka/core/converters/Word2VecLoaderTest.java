@@ -0,0 +1,251 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Word2VecLoaderTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.core.converters;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.deeplearning4j.text.sentenceiterator.CollectionSentenceIterator;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * JUnit tests for the {@link Word2VecLoader}.
+ *
+ * @author Steven Lang
+ */
+public class Word2VecLoaderTest {
+
+  /** Words of the test model */
+  private static final String[] WORDS = {"the", "cat", "sat", "mat", "über"};
+  /** Size of the word vectors */
+  private static final int VECTOR_SIZE = 3;
+
+  /** Temporary folder for the word vector files */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testBinaryFormat() throws Exception {
+    final File binary = folder.newFile("vectors.bin");
+    try (OutputStream out = new FileOutputStream(binary)) {
+      writeBinary(out);
+    }
+    checkBatch(binary);
+    checkIncremental(binary);
+
+    // Compare with the word vectors as loaded by DL4J
+    final Word2Vec vec = WordVectorSerializer.readWord2VecModel(binary);
+    final Word2VecLoader loader = new Word2VecLoader();
+    loader.setSource(binary);
+    final Instances data = loader.getDataSet();
+    for (Instance inst : data) {
+      final double[] expected = vec.getWordVector(inst.stringValue(VECTOR_SIZE));
+      for (int i = 0; i < VECTOR_SIZE; i++) {
+        Assert.assertEquals(expected[i], inst.value(i), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testCompressedBinaryFormat() throws Exception {
+    final File binary = folder.newFile("vectors.bin.gz");
+    try (OutputStream out = new GZIPOutputStream(new FileOutputStream(binary))) {
+      writeBinary(out);
+    }
+    checkBatch(binary);
+    checkIncremental(binary);
+  }
+
+  @Test
+  public void testTextFormat() throws Exception {
+    final File text = folder.newFile("vectors.vec");
+    try (PrintWriter pw = new PrintWriter(text, "UTF-8")) {
+      pw.println(WORDS.length + " " + VECTOR_SIZE);
+      writeText(pw);
+    }
+    checkBatch(text);
+    checkIncremental(text);
+  }
+
+  @Test
+  public void testTextFormatWithoutHeader() throws Exception {
+    final File text = folder.newFile("glove.vec");
+    try (PrintWriter pw = new PrintWriter(text, "UTF-8")) {
+      writeText(pw);
+    }
+    checkBatch(text);
+    checkIncremental(text);
+  }
+
+  @Test
+  public void testDl4jModel() throws Exception {
+    final Word2Vec vec =
+        new Word2Vec.Builder()
+            .minWordFrequency(1)
+            .layerSize(VECTOR_SIZE)
+            .epochs(1)
+            .seed(1)
+            .iterate(new CollectionSentenceIterator(Arrays.asList(String.join(" ", WORDS))))
+            .tokenizerFactory(new DefaultTokenizerFactory())
+            .build();
+    vec.fit();
+    final File model = folder.newFile("model.zip");
+    WordVectorSerializer.writeWord2VecModel(vec, model);
+
+    final Word2VecLoader loader = new Word2VecLoader();
+    loader.setSource(model);
+    final Instances data = loader.getDataSet();
+    Assert.assertEquals(VECTOR_SIZE + 1, data.numAttributes());
+    Assert.assertEquals(vec.getVocab().numWords(), data.numInstances());
+    for (Instance inst : data) {
+      final double[] expected = vec.getWordVector(inst.stringValue(VECTOR_SIZE));
+      for (int i = 0; i < VECTOR_SIZE; i++) {
+        Assert.assertEquals(expected[i], inst.value(i), 1e-6);
+      }
+    }
+
+    final Word2VecLoader incremental = new Word2VecLoader();
+    incremental.setSource(model);
+    final Instances structure = incremental.getStructure();
+    int numInstances = 0;
+    while (incremental.getNextInstance(structure) != null) {
+      numInstances++;
+    }
+    Assert.assertEquals(vec.getVocab().numWords(), numInstances);
+  }
+
+  @Test
+  public void testRepeatedBatchLoading() throws Exception {
+    final File text = folder.newFile("vectors.vec");
+    try (PrintWriter pw = new PrintWriter(text, "UTF-8")) {
+      pw.println(WORDS.length + " " + VECTOR_SIZE);
+      writeText(pw);
+    }
+    final Word2VecLoader loader = new Word2VecLoader();
+    loader.setSource(text);
+    Assert.assertEquals(WORDS.length, loader.getDataSet().numInstances());
+    final Instances data = loader.getDataSet();
+    Assert.assertEquals(WORDS.length, data.numInstances());
+    for (int w = 0; w < WORDS.length; w++) {
+      checkInstance(w, data.instance(w));
+    }
+  }
+
+  /**
+   * Load a file in batch mode and check the word vectors.
+   *
+   * @param file Word vector file
+   */
+  private void checkBatch(File file) throws Exception {
+    final Word2VecLoader loader = new Word2VecLoader();
+    loader.setSource(file);
+    final Instances data = loader.getDataSet();
+    Assert.assertEquals(VECTOR_SIZE + 1, data.numAttributes());
+    Assert.assertEquals(WORDS.length, data.numInstances());
+    for (int w = 0; w < WORDS.length; w++) {
+      checkInstance(w, data.instance(w));
+    }
+  }
+
+  /**
+   * Load a file incrementally and check the word vectors.
+   *
+   * @param file Word vector file
+   */
+  private void checkIncremental(File file) throws Exception {
+    final Word2VecLoader loader = new Word2VecLoader();
+    loader.setSource(file);
+    final Instances structure = loader.getStructure();
+    for (int w = 0; w < WORDS.length; w++) {
+      checkInstance(w, loader.getNextInstance(structure));
+    }
+    Assert.assertNull(loader.getNextInstance(structure));
+  }
+
+  /**
+   * Check the instance of a word.
+   *
+   * @param w Index of the word
+   * @param inst Loaded instance
+   */
+  private void checkInstance(int w, Instance inst) {
+    Assert.assertEquals(WORDS[w], inst.stringValue(VECTOR_SIZE));
+    for (int i = 0; i < VECTOR_SIZE; i++) {
+      Assert.assertEquals(value(w, i), inst.value(i), 1e-6);
+    }
+  }
+
+  /**
+   * Write the test model in the binary format.
+   *
+   * @param out Output stream
+   */
+  private void writeBinary(OutputStream out) throws Exception {
+    out.write((WORDS.length + " " + VECTOR_SIZE + "\n").getBytes(StandardCharsets.UTF_8));
+    final ByteBuffer buffer = ByteBuffer.allocate(VECTOR_SIZE * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int w = 0; w < WORDS.length; w++) {
+      out.write((WORDS[w] + " ").getBytes(StandardCharsets.UTF_8));
+      buffer.clear();
+      for (int i = 0; i < VECTOR_SIZE; i++) {
+        buffer.putFloat(value(w, i));
+      }
+      out.write(buffer.array());
+      out.write('\n');
+    }
+  }
+
+  /**
+   * Write the records of the test model in the text format.
+   *
+   * @param pw Writer
+   */
+  private void writeText(PrintWriter pw) {
+    for (int w = 0; w < WORDS.length; w++) {
+      pw.print(WORDS[w]);
+      for (int i = 0; i < VECTOR_SIZE; i++) {
+        pw.print(" " + value(w, i));
+      }
+      pw.println();
+    }
+  }
+
+  /**
+   * Get a value of the test model.
+   *
+   * @param w Index of the word
+   * @param i Dimension
+   * @return Value
+   */
+  private static float value(int w, int i) {
+    return (w + 1) * 0.25f - i * 1.5f;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * FileUtilsTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit tests for the {@link FileUtils}.
+ *
+ * @author Steven Lang
+ */
+public class FileUtilsTest {
+
+  /** Temporary folder for the written files */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSha256Hex() {
+    Assert.assertEquals(
+        "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+        FileUtils.toHex(FileUtils.sha256().digest()));
+    Assert.assertEquals(
+        "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+        FileUtils.toHex(FileUtils.sha256().digest("abc".getBytes(StandardCharsets.US_ASCII))));
+  }
+
+  @Test
+  public void testWriteAtomically() throws Exception {
+    final Path target = folder.getRoot().toPath().resolve("sub").resolve("file");
+    FileUtils.writeAtomically(target, tmp -> Files.write(tmp, new byte[] {1}));
+    FileUtils.writeAtomically(target, tmp -> Files.write(tmp, new byte[] {2, 3}));
+    Assert.assertArrayEquals(new byte[] {2, 3}, Files.readAllBytes(target));
+    Assert.assertEquals(1, target.getParent().toFile().list().length);
+  }
+
+  @Test
+  public void testFailedWriteKeepsTarget() throws Exception {
+    final Path target = folder.getRoot().toPath().resolve("file");
+    FileUtils.writeAtomically(target, tmp -> Files.write(tmp, new byte[] {1}));
+    try {
+      FileUtils.writeAtomically(
+          target,
+          tmp -> {
+            Files.write(tmp, new byte[] {2});
+            throw new IOException("Write failed");
+          });
+      Assert.fail("The write should have failed");
+    } catch (IOException e) {
+      Assert.assertEquals("Write failed", e.getMessage());
+    }
+    Assert.assertArrayEquals(new byte[] {1}, Files.readAllBytes(target));
+    Assert.assertEquals(1, folder.getRoot().list().length);
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * SamplerTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.sampler;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import weka.classifiers.functions.Dl4jMlpClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.dl4j.iterators.dataset.DefaultDataSetIterator;
+import weka.dl4j.iterators.instance.DefaultInstanceIterator;
+import weka.util.DatasetLoader;
+import weka.util.TestUtil;
+
+/**
+ * JUnit tests for the {@link Sampler} implementations and their use in the {@link
+ * DefaultDataSetIterator}.
+ *
+ * @author Steven Lang
+ */
+public class SamplerTest {
+
+  /** Dataset iris */
+  private Instances dataIris;
+
+  @Before
+  public void before() throws Exception {
+    dataIris = DatasetLoader.loadIris();
+  }
+
+  @Test
+  public void testSequentialSampler() {
+    Sampler sampler = new SequentialSampler();
+    sampler.initialize(dataIris, TestUtil.SEED);
+    int[] indices = sampler.sample();
+    for (int i = 0; i < indices.length; i++) {
+      Assert.assertEquals(i, indices[i]);
+    }
+  }
+
+  @Test
+  public void testShuffleSamplerIsPermutationPerEpoch() {
+    Sampler sampler = new ShuffleSampler();
+    sampler.initialize(dataIris, TestUtil.SEED);
+    int[] first = sampler.sample();
+    int[] second = sampler.sample();
+
+    Assert.assertFalse(Arrays.equals(first, second));
+    int[] sorted = first.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      Assert.assertEquals(i, sorted[i]);
+    }
+  }
+
+  @Test
+  public void testClassBalancedSampler() {
+    // Make the classes imbalanced: 50, 10 and 5 instances
+    Instances data = new Instances(dataIris, 0);
+    int[] counts = new int[dataIris.numClasses()];
+    int[] limits = {50, 10, 5};
+    for (Instance inst : dataIris) {
+      int c = (int) inst.classValue();
+      if (counts[c]++ < limits[c]) {
+        data.add(inst);
+      }
+    }
+
+    Sampler sampler = new ClassBalancedSampler();
+    sampler.initialize(data, TestUtil.SEED);
+    int[] sampledCounts = new int[data.numClasses()];
+    int[] indices = sampler.sample();
+    Assert.assertEquals(data.numInstances(), indices.length);
+    for (int idx : indices) {
+      sampledCounts[(int) data.instance(idx).classValue()]++;
+    }
+    for (int c : sampledCounts) {
+      Assert.assertTrue(Math.abs(c - data.numInstances() / 3.0) <= 1);
+    }
+  }
+
+  @Test
+  public void testWeightedSampler() {
+    Instances data = new Instances(dataIris);
+    for (int i = 0; i < data.numInstances(); i++) {
+      data.instance(i).setWeight(i % 2 == 0 ? 0 : 1);
+    }
+
+    Sampler sampler = new WeightedSampler();
+    sampler.initialize(data, TestUtil.SEED);
+    for (int epoch = 0; epoch < 10; epoch++) {
+      for (int idx : sampler.sample()) {
+        Assert.assertEquals(1, idx % 2);
+      }
+    }
+  }
+
+  @Test
+  public void testIteratorGathersSampledRows() throws Exception {
+    final int batchSize = 16;
+    DefaultInstanceIterator dii = new DefaultInstanceIterator();
+    DefaultDataSetIterator it =
+        (DefaultDataSetIterator) dii.getDataSetIterator(dataIris, TestUtil.SEED, batchSize);
+    DataSet all = it.next(dataIris.numInstances());
+    it.reset();
+
+    Sampler sampler = new ShuffleSampler();
+    sampler.initialize(dataIris, TestUtil.SEED);
+    it.setSampler(sampler);
+
+    // Replay the sampler to know the expected order of the first two epochs
+    Sampler expected = new ShuffleSampler();
+    expected.initialize(dataIris, TestUtil.SEED);
+    for (int epoch = 0; epoch < 2; epoch++) {
+      int[] order = expected.sample();
+      int pos = 0;
+      while (it.hasNext()) {
+        DataSet batch = it.next();
+        for (int i = 0; i < batchSize; i++) {
+          INDArray expectedRow = all.getFeatures().getRow(order[pos + i]);
+          Assert.assertEquals(expectedRow, batch.getFeatures().getRow(i));
+        }
+        pos += batchSize;
+      }
+      Assert.assertEquals(dataIris.numInstances() / batchSize * batchSize, pos);
+      it.reset();
+    }
+  }
+
+  @Test
+  public void testIteratorClampsLastBatch() throws Exception {
+    final int batchSize = 16;
+    final int num = batchSize * 8;
+    DefaultInstanceIterator dii = new DefaultInstanceIterator();
+    DataSet all =
+        ((DefaultDataSetIterator) dii.getDataSetIterator(dataIris, TestUtil.SEED, batchSize))
+            .next(dataIris.numInstances());
+    for (boolean sampled : new boolean[] {false, true}) {
+      DefaultDataSetIterator it =
+          (DefaultDataSetIterator) dii.getDataSetIterator(dataIris, TestUtil.SEED, batchSize);
+      int[] order = new int[dataIris.numInstances()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      if (sampled) {
+        Sampler sampler = new ShuffleSampler();
+        sampler.initialize(dataIris, TestUtil.SEED);
+        it.setSampler(sampler);
+        Sampler expected = new ShuffleSampler();
+        expected.initialize(dataIris, TestUtil.SEED);
+        order = expected.sample();
+      }
+
+      // Fewer than num examples are left for the second call
+      int pos = 0;
+      while (it.hasNext()) {
+        DataSet batch = it.next(num);
+        for (int i = 0; i < batch.numExamples(); i++) {
+          INDArray expectedRow = all.getFeatures().getRow(order[pos + i]);
+          Assert.assertEquals(expectedRow, batch.getFeatures().getRow(i));
+        }
+        pos += batch.numExamples();
+      }
+      Assert.assertEquals(dataIris.numInstances(), pos);
+    }
+  }
+
+  @Test
+  public void testStratifiedSplit() {
+    Instances[] split = Dl4jMlpClassifier.splitTrainVal(dataIris, 20);
+    Instances train = split[0];
+    Instances val = split[1];
+    Assert.assertEquals(dataIris.numInstances(), train.numInstances() + val.numInstances());
+
+    int[] valCounts = new int[dataIris.numClasses()];
+    for (Instance inst : val) {
+      valCounts[(int) inst.classValue()]++;
+    }
+    for (int c : valCounts) {
+      Assert.assertEquals(10, c);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * BoundedMemoryGloveTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.glove;
+
+import java.util.Arrays;
+import org.deeplearning4j.models.sequencevectors.SequenceVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.text.sentenceiterator.CollectionSentenceIterator;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import weka.core.Instances;
+import weka.dl4j.text.sentenceiterator.WekaInstanceSentenceIterator;
+import weka.util.DatasetLoader;
+
+/**
+ * JUnit tests for the {@link BoundedMemoryGlove}.
+ *
+ * @author Steven Lang
+ */
+public class BoundedMemoryGloveTest {
+
+  @Test
+  public void testFitAndContinue() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final SequenceVectors<VocabWord> model =
+        new BoundedMemoryGlove.Builder()
+            .iterate(new WekaInstanceSentenceIterator(data, 0))
+            .tokenizerFactory(new DefaultTokenizerFactory())
+            .layerSize(10)
+            .minWordFrequency(2)
+            .epochs(3)
+            .maxMemory(4096)
+            .workers(2)
+            .build();
+    model.fit();
+    Assert.assertTrue(model.getVocab().numWords() > 0);
+    Assert.assertEquals(model.getVocab().numWords(), model.lookupTable().getWeights().rows());
+    final String word = model.getVocab().wordAtIndex(0);
+    for (double value : model.getWordVector(word)) {
+      Assert.assertFalse(Double.isNaN(value));
+    }
+
+    // continue with the vocabulary of the trained model
+    final SequenceVectors<VocabWord> updated =
+        new BoundedMemoryGlove.Builder()
+            .iterate(new CollectionSentenceIterator(Arrays.asList(word + " " + word)))
+            .tokenizerFactory(new DefaultTokenizerFactory())
+            .layerSize(10)
+            .previousModel(model)
+            .build();
+    updated.fit();
+    Assert.assertEquals(model.getVocab().numWords(), updated.getVocab().numWords());
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CooccurrenceCounterTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.glove;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit tests for the {@link CooccurrenceCounter}.
+ *
+ * @author Steven Lang
+ */
+public class CooccurrenceCounterTest {
+
+  /** Temporary folder for the runs and shards */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSpilledCountsEqualInMemoryCounts() throws Exception {
+    final Random random = new Random(42);
+    final int[][] sentences = new int[200][];
+    for (int i = 0; i < sentences.length; i++) {
+      sentences[i] = random.ints(5 + random.nextInt(20), 0, 300).toArray();
+    }
+
+    final Map<Long, Float> expected = count(sentences, Long.MAX_VALUE, folder.newFolder());
+    final File spillDir = folder.newFolder();
+    final Map<Long, Float> actual = count(sentences, 2048, spillDir);
+    Assert.assertEquals(expected.size(), actual.size());
+    for (Map.Entry<Long, Float> entry : expected.entrySet()) {
+      Assert.assertEquals(entry.getValue(), actual.get(entry.getKey()), 1e-4);
+    }
+    Assert.assertEquals(0, spillDir.list().length);
+  }
+
+  @Test
+  public void testMemoryStaysWithinBudget() throws Exception {
+    final Random random = new Random(42);
+    final long maxMemory = 16 << 10;
+    try (CooccurrenceCounter counter =
+        new CooccurrenceCounter(4, 5, true, maxMemory, folder.newFolder().toPath())) {
+      long maxCapacity = 0;
+      for (int i = 0; i < 500; i++) {
+        counter.count(random.ints(5 + random.nextInt(20), 0, 1000).toArray());
+        Assert.assertTrue(
+            counter.numBytes
+                    + (long) counter.maxCapacity * CooccurrenceCounter.RESERVED_BYTES_PER_SLOT
+                <= maxMemory);
+        long numBytes = 0;
+        for (CooccurrenceCounter.LongFloatMap map : counter.maps) {
+          numBytes += (long) map.capacity() * CooccurrenceCounter.BYTES_PER_SLOT;
+          maxCapacity = Math.max(maxCapacity, map.capacity());
+        }
+        Assert.assertEquals(numBytes, counter.numBytes);
+      }
+      // The maps grew before they were spilled
+      Assert.assertTrue(maxCapacity > CooccurrenceCounter.LongFloatMap.INITIAL_CAPACITY);
+    }
+  }
+
+  /**
+   * Count the co-occurrences of the given sentences.
+   *
+   * @param sentences Sentences of word indices
+   * @param maxMemory Memory budget in bytes
+   * @param dir Directory of the runs and shards
+   * @return Counts by row and column
+   */
+  private Map<Long, Float> count(int[][] sentences, long maxMemory, File dir) throws Exception {
+    final Map<Long, Float> counts = new HashMap<>();
+    try (CooccurrenceCounter counter =
+        new CooccurrenceCounter(4, 5, true, maxMemory, dir.toPath())) {
+      for (int[] sentence : sentences) {
+        counter.count(sentence);
+      }
+      counter.finish();
+      for (int shard = 0; shard < counter.getNumShards(); shard++) {
+        long previous = -1;
+        try (CooccurrenceCounter.ShardReader reader = counter.openShard(shard)) {
+          while (reader.next()) {
+            final long key = ((long) reader.getRow() << 32) | reader.getCol();
+            Assert.assertTrue(key > previous);
+            Assert.assertEquals(shard, reader.getRow() % counter.getNumShards());
+            counts.put(key, reader.getCount());
+            previous = key;
+          }
+        }
+      }
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PrunedWordVectorsTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.core.Instances;
+import weka.core.SerializedObject;
+import weka.dl4j.iterators.dataset.sequence.text.TokenizedDocumentCache;
+import weka.dl4j.iterators.instance.sequence.text.rnn.RnnTextEmbeddingInstanceIterator;
+import weka.util.DatasetLoader;
+
+/**
+ * JUnit tests for the {@link PrunedWordVectors}.
+ *
+ * @author Steven Lang
+ */
+public class PrunedWordVectorsTest {
+
+  /** Temporary folder for the word vectors */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Word vector file */
+  private File source;
+  /** Cache directory */
+  private File cacheDir;
+
+  @Before
+  public void before() throws Exception {
+    source = folder.newFile("vectors.csv");
+    try (PrintWriter pw = new PrintWriter(source, "UTF-8")) {
+      pw.println("a 1 2");
+      pw.println("b 3 4");
+      pw.println("c 5 6");
+      pw.println("d 7 8");
+    }
+    cacheDir = folder.newFolder("cache");
+  }
+
+  @Test
+  public void testReadPruned() throws Exception {
+    final Set<String> vocabulary = new HashSet<>(Arrays.asList("d", "b", "unknown"));
+    final PrunedWordVectors pruned = new WordVectorCache(cacheDir).load(source, vocabulary);
+    assertPruned(pruned);
+
+    // Same result from the binary file and from loaded word vectors
+    final PrunedWordVectors fromBinary = new WordVectorCache(cacheDir).load(source, vocabulary);
+    Assert.assertEquals(pruned.getDigest(), fromBinary.getDigest());
+    final WordVectors full = new WordVectorCache(cacheDir).load(source);
+    Assert.assertEquals(pruned.getDigest(), PrunedWordVectors.prune(full, vocabulary).getDigest());
+  }
+
+  @Test
+  public void testUnknownTokensMapToOov() throws Exception {
+    final WordVectors wv =
+        new WordVectorCache(cacheDir)
+            .load(source, new HashSet<>(Arrays.asList("a", "b")))
+            .toWordVectors();
+    final TokenizedDocumentCache cache =
+        new TokenizedDocumentCache(new DefaultTokenizerFactory(), null, wv, 1, null);
+    final int oov = wv.indexOf(PrunedWordVectors.OOV_WORD);
+    Assert.assertArrayEquals(
+        new int[] {wv.indexOf("b"), oov, wv.indexOf("a")}, cache.getTokenIndices("b c a"));
+  }
+
+  @Test
+  public void testIteratorStoresPrunedVectors() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final File reuters = folder.newFile("reuters.csv");
+    try (PrintWriter pw = new PrintWriter(reuters, "UTF-8")) {
+      pw.println("dollar 1 2");
+      pw.println("the 3 4");
+      pw.println("notinthecorpus 5 6");
+    }
+
+    RnnTextEmbeddingInstanceIterator iter = new RnnTextEmbeddingInstanceIterator();
+    iter.setWordVectorCacheDirectory(cacheDir);
+    iter.setWordVectorLocation(reuters);
+    iter.setPruneVocabulary(true);
+    iter.initWordVectors(data);
+
+    // Stop words and words that are not in the corpus are pruned
+    final WordVectors wv = iter.getWordVectors();
+    Assert.assertEquals(2, wv.vocab().numWords());
+    Assert.assertArrayEquals(new double[] {1, 2}, wv.getWordVector("dollar"), 0.0);
+    Assert.assertFalse(wv.hasWord("notinthecorpus"));
+
+    // The pruned word vectors are stored with the iterator
+    Assert.assertTrue(reuters.delete());
+    RnnTextEmbeddingInstanceIterator copy =
+        (RnnTextEmbeddingInstanceIterator) new SerializedObject(iter).getObject();
+    Assert.assertNull(copy.getWordVectors());
+    copy.initWordVectors();
+    Assert.assertArrayEquals(
+        new double[] {1, 2}, copy.getWordVectors().getWordVector("dollar"), 0.0);
+    Assert.assertTrue(copy.getDataSetIterator(data, 1, 8).hasNext());
+
+    // Disabling the pruning drops the pruned word vectors
+    copy.setPruneVocabulary(false);
+    Assert.assertNull(copy.getPrunedWordVectors());
+    Assert.assertNull(copy.getWordVectors());
+  }
+
+  /**
+   * Check the word vectors pruned to the words "b" and "d".
+   *
+   * @param pruned Pruned word vectors
+   */
+  private void assertPruned(PrunedWordVectors pruned) {
+    Assert.assertEquals(3, pruned.numWords());
+    Assert.assertEquals(2, pruned.getVectorSize());
+    final WordVectors wv = pruned.toWordVectors();
+    Assert.assertEquals(0, wv.indexOf("b"));
+    Assert.assertEquals(1, wv.indexOf("d"));
+    Assert.assertEquals(2, wv.indexOf(PrunedWordVectors.OOV_WORD));
+    Assert.assertFalse(wv.hasWord("a"));
+    Assert.assertArrayEquals(new double[] {3, 4}, wv.getWordVector("b"), 0.0);
+    Assert.assertArrayEquals(new double[] {7, 8}, wv.getWordVector("d"), 0.0);
+    Assert.assertArrayEquals(
+        new double[] {0, 0}, wv.getWordVector(PrunedWordVectors.OOV_WORD), 0.0);
+  }
+}
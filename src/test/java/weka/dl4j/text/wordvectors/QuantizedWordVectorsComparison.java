@@ -0,0 +1,207 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * QuantizedWordVectorsComparison.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.deeplearning4j.text.sentenceiterator.CollectionSentenceIterator;
+import org.deeplearning4j.text.tokenization.tokenizer.preprocessor.CommonPreprocessor;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import weka.classifiers.Evaluation;
+import weka.classifiers.functions.RnnSequenceClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.dl4j.WordVectorQuantization;
+import weka.dl4j.activations.ActivationTanH;
+import weka.dl4j.iterators.instance.sequence.text.rnn.RnnTextEmbeddingInstanceIterator;
+import weka.dl4j.layers.LSTM;
+import weka.dl4j.layers.RnnOutputLayer;
+import weka.util.DatasetLoader;
+
+/**
+ * Compares the accuracy of a text classifier with full precision and quantized word vectors. It
+ * is not a JUnit test, run it from the project root with the test classpath:
+ *
+ * <pre>
+ * java -cp &lt;test classpath&gt; weka.dl4j.text.wordvectors.QuantizedWordVectorsComparison
+ * </pre>
+ *
+ * <p>The dataset is balanced from ReutersCorn-train-full: all documents about corn and as many
+ * randomly drawn other documents. The word vectors are trained with word2vec on all documents of
+ * ReutersCorn-train-full (without labels) by a single worker, so that they are reproducible. An
+ * LSTM is evaluated with {@link #NUM_REPETITIONS} times repeated {@link #NUM_FOLDS}-fold cross
+ * validation on the same folds for each quantization.
+ *
+ * @author Steven Lang
+ */
+public class QuantizedWordVectorsComparison {
+
+  /** Size of the word vectors */
+  private static final int VECTOR_SIZE = 100;
+  /** Number of cross validation folds */
+  private static final int NUM_FOLDS = 10;
+  /** Maximum number of tokens per document */
+  private static final int TRUNCATE_LENGTH = 100;
+  /** Number of cross validation repetitions */
+  private static final int NUM_REPETITIONS = 3;
+  /** Quantizations and number of product quantization subspaces (0: default) */
+  private static final Object[][] VARIANTS = {
+    {WordVectorQuantization.NONE, 0},
+    {WordVectorQuantization.INT8, 0},
+    {WordVectorQuantization.PRODUCT, 0},
+    {WordVectorQuantization.PRODUCT, 25}
+  };
+
+  public static void main(String[] args) throws Exception {
+    final Instances all = DatasetLoader.loadReutersFull();
+    final Instances data = balance(all, new Random(1));
+    final File dir = Files.createTempDirectory("quantization-comparison").toFile();
+    final File vectors = new File(dir, "vectors.csv");
+    trainWordVectors(all, vectors);
+
+    System.out.printf(
+        "%d documents (%d per class), %d-dim word2vec vectors, %dx %d-fold CV%n",
+        data.numInstances(), data.numInstances() / 2, VECTOR_SIZE, NUM_REPETITIONS, NUM_FOLDS);
+    double[] baseline = null;
+    for (Object[] variant : VARIANTS) {
+      final double[] accuracy = new double[NUM_REPETITIONS];
+      double auc = 0;
+      for (int r = 0; r < NUM_REPETITIONS; r++) {
+        final RnnSequenceClassifier clf =
+            createClassifier(
+                vectors, new File(dir, "cache"), (WordVectorQuantization) variant[0],
+                (Integer) variant[1]);
+        final Evaluation eval = new Evaluation(data);
+        eval.crossValidateModel(clf, data, NUM_FOLDS, new Random(r + 1));
+        accuracy[r] = eval.pctCorrect();
+        auc += eval.weightedAreaUnderROC() / NUM_REPETITIONS;
+      }
+      if (baseline == null) {
+        baseline = accuracy;
+      }
+      double mean = 0;
+      double delta = 0;
+      for (int r = 0; r < NUM_REPETITIONS; r++) {
+        mean += accuracy[r] / NUM_REPETITIONS;
+        delta += (accuracy[r] - baseline[r]) / NUM_REPETITIONS;
+      }
+      System.out.printf(
+          "%-8s %2s subspaces: accuracy %.2f%% (%+.2f vs NONE), AUC %.4f%n",
+          variant[0], variant[1], mean, delta, auc);
+    }
+  }
+
+  /**
+   * Keep all documents of the minority class and as many random ones of the majority class.
+   *
+   * @param data Binary class dataset
+   * @param random Random number generator
+   * @return Balanced dataset
+   */
+  private static Instances balance(Instances data, Random random) {
+    final List<Instance> minority = new ArrayList<>();
+    final List<Instance> majority = new ArrayList<>();
+    final int[] counts = data.attributeStats(data.classIndex()).nominalCounts;
+    final int minorityClass = counts[0] < counts[1] ? 0 : 1;
+    for (Instance inst : data) {
+      ((int) inst.classValue() == minorityClass ? minority : majority).add(inst);
+    }
+    Collections.shuffle(majority, random);
+    final Instances balanced = new Instances(data, 2 * minority.size());
+    balanced.addAll(minority);
+    balanced.addAll(majority.subList(0, minority.size()));
+    return balanced;
+  }
+
+  /**
+   * Train word2vec on the documents and write the vectors as CSV.
+   *
+   * @param data Documents
+   * @param file Target file
+   * @throws Exception Could not write the vectors
+   */
+  private static void trainWordVectors(Instances data, File file) throws Exception {
+    final List<String> documents = new ArrayList<>();
+    for (Instance inst : data) {
+      documents.add(inst.stringValue(0));
+    }
+    final DefaultTokenizerFactory tokenizerFactory = new DefaultTokenizerFactory();
+    tokenizerFactory.setTokenPreProcessor(new CommonPreprocessor());
+    final Word2Vec w2v =
+        new Word2Vec.Builder()
+            .minWordFrequency(2)
+            .layerSize(VECTOR_SIZE)
+            .windowSize(5)
+            .epochs(3)
+            .seed(1)
+            .workers(1)
+            .iterate(new CollectionSentenceIterator(documents))
+            .tokenizerFactory(tokenizerFactory)
+            .build();
+    w2v.fit();
+    try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+      for (String word : w2v.vocab().words()) {
+        StringBuilder line = new StringBuilder(word);
+        for (double d : w2v.getWordVector(word)) {
+          line.append(' ').append((float) d);
+        }
+        pw.println(line);
+      }
+    }
+  }
+
+  /**
+   * Create the LSTM classifier.
+   *
+   * @param vectors Word vector file
+   * @param cacheDir Word vector cache directory
+   * @param quantization Quantization of the word vectors
+   * @param numSubspaces Number of product quantization subspaces
+   * @return Classifier
+   */
+  private static RnnSequenceClassifier createClassifier(
+      File vectors, File cacheDir, WordVectorQuantization quantization, int numSubspaces) {
+    final RnnTextEmbeddingInstanceIterator iterator = new RnnTextEmbeddingInstanceIterator();
+    iterator.setWordVectorLocation(vectors);
+    iterator.setWordVectorCacheDirectory(cacheDir);
+    iterator.setWordVectorQuantization(quantization);
+    iterator.setNumQuantizationSubspaces(numSubspaces);
+    iterator.setTruncateLength(TRUNCATE_LENGTH);
+    iterator.setTrainBatchSize(16);
+
+    final LSTM lstm = new LSTM();
+    lstm.setNOut(32);
+    lstm.setActivationFunction(new ActivationTanH());
+    final RnnSequenceClassifier clf = new RnnSequenceClassifier();
+    clf.setSeed(1);
+    clf.setNumEpochs(10);
+    // Back propagate through whole documents
+    clf.settBPTTforwardLength(TRUNCATE_LENGTH);
+    clf.settBPTTbackwardLength(TRUNCATE_LENGTH);
+    clf.setInstanceIterator(iterator);
+    clf.setLayers(lstm, new RnnOutputLayer());
+    return clf;
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * QuantizedWordVectorsTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import weka.core.Instances;
+import weka.dl4j.WordVectorQuantization;
+import weka.dl4j.iterators.instance.sequence.text.rnn.RnnTextEmbeddingInstanceIterator;
+import weka.util.DatasetLoader;
+
+/**
+ * JUnit tests for the {@link QuantizedWordVectors}.
+ *
+ * @author Steven Lang
+ */
+public class QuantizedWordVectorsTest {
+
+  /** Number of words */
+  private static final int NUM_WORDS = 1000;
+  /** Vector size */
+  private static final int VECTOR_SIZE = 40;
+  /** Temporary folder for the word vectors */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Word vector file */
+  private File source;
+  /** Cache directory */
+  private File cacheDir;
+  /** Full precision word vectors */
+  private WordVectors full;
+
+  @Before
+  public void before() throws Exception {
+    // Words around a few cluster centers, as in real embeddings
+    final Random rand = new Random(1);
+    final float[][] centers = new float[20][VECTOR_SIZE];
+    for (float[] center : centers) {
+      for (int d = 0; d < VECTOR_SIZE; d++) {
+        center[d] = (float) rand.nextGaussian();
+      }
+    }
+    source = folder.newFile("vectors.csv");
+    try (PrintWriter pw = new PrintWriter(source, "UTF-8")) {
+      for (int i = 0; i < NUM_WORDS; i++) {
+        StringBuilder line = new StringBuilder("w" + i);
+        final float[] center = centers[rand.nextInt(centers.length)];
+        for (int d = 0; d < VECTOR_SIZE; d++) {
+          line.append(' ').append(center[d] + 0.1f * (float) rand.nextGaussian());
+        }
+        pw.println(line);
+      }
+    }
+    cacheDir = folder.newFolder("cache");
+    full = new WordVectorCache(cacheDir).load(source);
+  }
+
+  @Test
+  public void testInt8() {
+    final QuantizedWordVectors int8 =
+        QuantizedWordVectors.quantize(full, WordVectorQuantization.INT8, 0, 1);
+    Assert.assertEquals(VECTOR_SIZE + 4, int8.getBytesPerWord());
+    Assert.assertTrue(int8.getReconstructionError() < 1e-3);
+    assertDecodes(int8, 0.05);
+  }
+
+  @Test
+  public void testProduct() {
+    final QuantizedWordVectors pq =
+        QuantizedWordVectors.quantize(full, WordVectorQuantization.PRODUCT, 0, 1);
+    Assert.assertEquals(VECTOR_SIZE / 10, pq.getBytesPerWord());
+    Assert.assertTrue(pq.getReconstructionError() < 0.05);
+    assertDecodes(pq, 1.0);
+    Assert.assertEquals(
+        pq.getReconstructionError(),
+        QuantizedWordVectors.quantize(full, WordVectorQuantization.PRODUCT, 0, 1)
+            .getReconstructionError(),
+        0.0);
+
+    final QuantizedWordVectors fine =
+        QuantizedWordVectors.quantize(full, WordVectorQuantization.PRODUCT, 20, 1);
+    Assert.assertEquals(20, fine.getBytesPerWord());
+    Assert.assertTrue(fine.getReconstructionError() < pq.getReconstructionError());
+  }
+
+  @Test
+  public void testWordVectorsInterface() {
+    final QuantizedWordVectors int8 =
+        QuantizedWordVectors.quantize(full, WordVectorQuantization.INT8, 0, 1);
+    Assert.assertEquals(NUM_WORDS, int8.vocab().numWords());
+    Assert.assertEquals(full.indexOf("w7"), int8.indexOf("w7"));
+    Assert.assertFalse(int8.hasWord("unknown"));
+    Assert.assertNull(int8.getWordVectorMatrix("unknown"));
+    Assert.assertEquals(2, int8.getWordVectors(Arrays.asList("w1", "unknown", "w2")).rows());
+    final INDArray w3 = full.getWordVectorMatrix("w3");
+    Assert.assertEquals("w3", int8.wordsNearest(w3, 1).iterator().next());
+    Assert.assertEquals(full.similarity("w3", "w4"), int8.similarity("w3", "w4"), 1e-2);
+    Assert.assertFalse(int8.wordsNearest("w3", 5).contains("w3"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testNoLookupTable() {
+    QuantizedWordVectors.quantize(full, WordVectorQuantization.INT8, 0, 1).lookupTable();
+  }
+
+  @Test
+  public void testIterator() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final File reuters = folder.newFile("reuters.csv");
+    try (PrintWriter pw = new PrintWriter(reuters, "UTF-8")) {
+      pw.println("dollar 0.5 -1.0 0.25");
+      pw.println("said 1.0 0.75 -0.5");
+      pw.println("corn -0.1 0.2 0.3");
+    }
+    RnnTextEmbeddingInstanceIterator vectors = new RnnTextEmbeddingInstanceIterator();
+    RnnTextEmbeddingInstanceIterator quantized = new RnnTextEmbeddingInstanceIterator();
+    quantized.setWordVectorQuantization(WordVectorQuantization.INT8);
+    for (RnnTextEmbeddingInstanceIterator iter : Arrays.asList(vectors, quantized)) {
+      iter.setWordVectorCacheDirectory(cacheDir);
+      iter.setWordVectorLocation(reuters);
+      iter.initialize();
+    }
+    Assert.assertEquals(3, quantized.getWordVectors().vocab().numWords());
+
+    final DataSetIterator vit = vectors.getDataSetIterator(data, 1, 16);
+    final DataSetIterator qit = quantized.getDataSetIterator(data, 1, 16);
+    while (vit.hasNext()) {
+      final INDArray expected = vit.next().getFeatures();
+      final DataSet actual = qit.next();
+      Assert.assertTrue(expected.equalsWithEps(actual.getFeatures(), 1e-2));
+    }
+    Assert.assertFalse(qit.hasNext());
+  }
+
+  /**
+   * Check that decoding the quantized word vectors is close to the original vectors.
+   *
+   * @param quantized Quantized word vectors
+   * @param eps Maximum absolute difference per component
+   */
+  private void assertDecodes(QuantizedWordVectors quantized, double eps) {
+    final int[] rows = {0, 17, NUM_WORDS - 1};
+    final INDArray decoded = quantized.decode(rows);
+    for (int i = 0; i < rows.length; i++) {
+      final String word = full.vocab().wordAtIndex(rows[i]);
+      final INDArray expected = full.getWordVectorMatrix(word);
+      Assert.assertTrue(expected.equalsWithEps(decoded.getRow(i), eps));
+      Assert.assertTrue(
+          decoded.getRow(i).equalsWithEps(quantized.getWordVectorMatrix(word), 0.0));
+    }
+  }
+}
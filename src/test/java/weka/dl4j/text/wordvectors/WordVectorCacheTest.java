@@ -0,0 +1,120 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * WordVectorCacheTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.dl4j.iterators.instance.sequence.text.rnn.RnnTextEmbeddingInstanceIterator;
+
+/**
+ * JUnit tests for the {@link WordVectorCache}.
+ *
+ * @author Steven Lang
+ */
+public class WordVectorCacheTest {
+
+  /** Temporary folder for the cache */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Cache directory */
+  private File cacheDir;
+
+  @Before
+  public void before() throws Exception {
+    cacheDir = folder.newFolder("cache");
+  }
+
+  @Test
+  public void testSmallEmbeddings() throws Exception {
+    final File[] embeddings = new File("src/test/resources/embeddings/small").listFiles();
+    final Set<String> words = new HashSet<>(Arrays.asList("snowball", "christmas", "tree"));
+    Assert.assertTrue(embeddings.length > 0);
+    for (File f : embeddings) {
+      final WordVectorCache cache = new WordVectorCache(cacheDir);
+      final WordVectors wv = cache.load(f);
+      Assert.assertEquals(f.getName(), words, new HashSet<>(wv.vocab().words()));
+      Assert.assertArrayEquals(
+          f.getName(), new double[] {4, 5, 6, 7}, wv.getWordVector("christmas"), 0.0);
+      Assert.assertTrue(cache.getCacheFile(f).isFile());
+    }
+    Assert.assertEquals(embeddings.length, cacheDir.listFiles().length);
+  }
+
+  @Test
+  public void testBinaryRoundTrip() throws Exception {
+    final File source = folder.newFile("vectors.csv");
+    try (PrintWriter pw = new PrintWriter(source, "UTF-8")) {
+      pw.println("3 2");
+      pw.println("a 0.5 -1.5");
+      pw.println("b 1e-3 2");
+      pw.println("a 9 9");
+      pw.println("c 3 4");
+    }
+    final WordVectorCache cache = new WordVectorCache(cacheDir);
+    final WordVectors first = cache.load(source);
+    Assert.assertEquals(3, first.vocab().numWords());
+    Assert.assertEquals(0, first.indexOf("a"));
+    Assert.assertArrayEquals(new double[] {0.5, -1.5}, first.getWordVector("a"), 1e-6);
+    Assert.assertArrayEquals(new double[] {0.001, 2}, first.getWordVector("b"), 1e-6);
+    Assert.assertArrayEquals(
+        new double[] {3, 4}, first.lookupTable().vector("c").toDoubleVector(), 1e-6);
+
+    // A changed source file gets a new binary file
+    final File binary = cache.getCacheFile(source);
+    final long lastModified = source.lastModified();
+    try (PrintWriter pw = new PrintWriter(source, "UTF-8")) {
+      pw.println("x 1 1");
+    }
+    source.setLastModified(lastModified);
+    Assert.assertNotEquals(binary, cache.getCacheFile(source));
+    final WordVectors second = WordVectorCache.read(binary);
+    Assert.assertEquals(3, second.vocab().numWords());
+    Assert.assertArrayEquals(first.getWordVector("c"), second.getWordVector("c"), 0.0);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidFile() throws Exception {
+    final File source = folder.newFile("invalid.csv");
+    try (PrintWriter pw = new PrintWriter(source, "UTF-8")) {
+      pw.println("a 1 2");
+      pw.println("b 1");
+    }
+    new WordVectorCache(cacheDir).load(source);
+  }
+
+  @Test
+  public void testIterator() throws Exception {
+    RnnTextEmbeddingInstanceIterator iter = new RnnTextEmbeddingInstanceIterator();
+    iter.setWordVectorCacheDirectory(cacheDir);
+    iter.setWordVectorLocation(new File("src/test/resources/embeddings/small/comma-sep-emb.arff"));
+    iter.initWordVectors();
+    Assert.assertArrayEquals(
+        new double[] {1, 2, 3, 4}, iter.getWordVectors().getWordVector("snowball"), 0.0);
+    Assert.assertEquals(1, cacheDir.listFiles().length);
+  }
+}
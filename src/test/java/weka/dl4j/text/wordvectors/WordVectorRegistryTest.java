@@ -0,0 +1,155 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * WordVectorRegistryTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.dl4j.text.wordvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.dl4j.iterators.instance.sequence.text.cnn.CnnTextEmbeddingInstanceIterator;
+import weka.dl4j.iterators.instance.sequence.text.rnn.RnnTextEmbeddingInstanceIterator;
+
+/**
+ * JUnit tests for the {@link WordVectorRegistry}.
+ *
+ * @author Steven Lang
+ */
+public class WordVectorRegistryTest {
+
+  /** Temporary folder for the word vectors */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Word vector file */
+  private File source;
+  /** Cache directory */
+  private File cacheDir;
+  /** Number of loads */
+  private AtomicInteger numLoads;
+
+  @Before
+  public void before() throws Exception {
+    source = folder.newFile("vectors.csv");
+    try (PrintWriter pw = new PrintWriter(source, "UTF-8")) {
+      pw.println("a 1 2");
+      pw.println("b 3 4");
+    }
+    cacheDir = folder.newFolder("cache");
+    numLoads = new AtomicInteger();
+  }
+
+  @Test
+  public void testSharedAndReferenceCounted() throws Exception {
+    final WordVectors first = WordVectorRegistry.acquire(source, this::load);
+    final WordVectors second = WordVectorRegistry.acquire(source, this::load);
+    Assert.assertEquals(1, numLoads.get());
+    Assert.assertNotSame(first, second);
+    Assert.assertSame(first.lookupTable(), second.lookupTable());
+    Assert.assertArrayEquals(new double[] {3, 4}, second.getWordVector("b"), 0.0);
+    Assert.assertEquals(2, WordVectorRegistry.getNumReferences(source));
+
+    WordVectorRegistry.release(first);
+    WordVectorRegistry.release(first);
+    Assert.assertEquals(1, WordVectorRegistry.getNumReferences(source));
+    WordVectorRegistry.release(second);
+    Assert.assertEquals(0, WordVectorRegistry.getNumReferences(source));
+
+    // Without references, the word vectors are loaded again
+    final WordVectors third = WordVectorRegistry.acquire(source, this::load);
+    Assert.assertEquals(2, numLoads.get());
+    WordVectorRegistry.release(third);
+  }
+
+  @Test
+  public void testChangedFile() throws Exception {
+    final WordVectors first = WordVectorRegistry.acquire(source, this::load);
+    try (PrintWriter pw = new PrintWriter(source, "UTF-8")) {
+      pw.println("a 5 6");
+      pw.println("b 7 8");
+    }
+    source.setLastModified(source.lastModified() + 2000);
+    final WordVectors second = WordVectorRegistry.acquire(source, this::load);
+    Assert.assertEquals(2, numLoads.get());
+    Assert.assertArrayEquals(new double[] {1, 2}, first.getWordVector("a"), 0.0);
+    Assert.assertArrayEquals(new double[] {5, 6}, second.getWordVector("a"), 0.0);
+    WordVectorRegistry.release(first);
+    WordVectorRegistry.release(second);
+  }
+
+  @Test
+  public void testFailedLoad() throws Exception {
+    try {
+      WordVectorRegistry.acquire(
+          source,
+          f -> {
+            throw new IOException("test");
+          });
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertEquals(0, WordVectorRegistry.getNumReferences(source));
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReadOnly() throws Exception {
+    final WordVectors wv = WordVectorRegistry.acquire(source, this::load);
+    try {
+      wv.setUNK("unknown");
+    } finally {
+      WordVectorRegistry.release(wv);
+    }
+  }
+
+  @Test
+  public void testIterators() throws Exception {
+    final CnnTextEmbeddingInstanceIterator cnn = new CnnTextEmbeddingInstanceIterator();
+    final RnnTextEmbeddingInstanceIterator rnn = new RnnTextEmbeddingInstanceIterator();
+    cnn.setWordVectorCacheDirectory(cacheDir);
+    cnn.setWordVectorLocation(source);
+    rnn.setWordVectorCacheDirectory(cacheDir);
+    rnn.setWordVectorLocation(source);
+    cnn.initWordVectors();
+    rnn.initWordVectors();
+    Assert.assertSame(cnn.getWordVectors().lookupTable(), rnn.getWordVectors().lookupTable());
+    Assert.assertEquals(2, WordVectorRegistry.getNumReferences(source));
+
+    // Changing the location releases the word vectors
+    cnn.setWordVectorLocation(folder.newFile("other.csv"));
+    Assert.assertNull(cnn.getWordVectors());
+    Assert.assertEquals(1, WordVectorRegistry.getNumReferences(source));
+    rnn.setWordVectors(null);
+    Assert.assertEquals(0, WordVectorRegistry.getNumReferences(source));
+  }
+
+  /**
+   * Load the word vectors and count the loads.
+   *
+   * @param file Word vector file
+   * @return Word vectors
+   * @throws IOException Could not load the file
+   */
+  private WordVectors load(File file) throws IOException {
+    numLoads.incrementAndGet();
+    return new WordVectorCache(cacheDir).load(file);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Dl4jStringToGloveTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.filters.unsupervised.attribute;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.core.Instances;
+import weka.dl4j.text.glove.BoundedMemoryGlove;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Dl4jStringToWordEmbeddings.Action;
+import weka.util.DatasetLoader;
+
+/**
+ * JUnit tests for the Dl4jStringToGlove Filter.
+ *
+ * @author Steven Lang
+ */
+public class Dl4jStringToGloveTest {
+
+  /** Size of the word vectors */
+  private static final int LAYER_SIZE = 10;
+  /** Temporary folder for the model cache */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testBoundedMemoryWordVectors() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final Dl4jStringToGlove filter = createFilter(Action.WORD_VECTOR);
+    filter.setInputFormat(data);
+    final Instances result = Filter.useFilter(data, filter);
+    Assert.assertTrue(filter.vec instanceof BoundedMemoryGlove);
+    Assert.assertTrue(result.numInstances() > 0);
+    Assert.assertEquals(filter.vec.getVocab().numWords(), result.numInstances());
+    for (int i = 0; i < result.numInstances(); i++) {
+      final String word = result.instance(i).stringValue(LAYER_SIZE);
+      final double[] expected = filter.vec.getWordVector(word);
+      for (int j = 0; j < LAYER_SIZE; j++) {
+        Assert.assertFalse(Double.isNaN(result.instance(i).value(j)));
+        Assert.assertEquals(expected[j], result.instance(i).value(j), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testBoundedMemoryDocumentVectors() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final Dl4jStringToGlove filter = createFilter(Action.DOC_VECTOR_AVERAGE);
+    filter.setInputFormat(data);
+    final Instances result = Filter.useFilter(data, filter);
+    Assert.assertEquals(data.numInstances(), result.numInstances());
+    Assert.assertEquals(data.numAttributes() + LAYER_SIZE, result.numAttributes());
+    for (int i = 0; i < result.numInstances(); i++) {
+      Assert.assertEquals(data.instance(i).classValue(), result.instance(i).classValue(), 0.0);
+    }
+  }
+
+  @Test
+  public void testCachedModel() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final File cacheDir = folder.newFolder("cache");
+    final Dl4jStringToGlove first = createFilter(Action.DOC_VECTOR_AVERAGE);
+    first.setCacheModel(true);
+    first.setModelCacheDirectory(cacheDir);
+    first.setInputFormat(data);
+    final Instances expected = Filter.useFilter(data, first);
+    Assert.assertEquals(1, cacheDir.listFiles().length);
+
+    // The same options reuse the cached model
+    final Dl4jStringToGlove second = createFilter(Action.DOC_VECTOR_AVERAGE);
+    second.setCacheModel(true);
+    second.setModelCacheDirectory(cacheDir);
+    second.setInputFormat(data);
+    final Instances actual = Filter.useFilter(data, second);
+    Assert.assertEquals(1, cacheDir.listFiles().length);
+    for (int i = 0; i < data.numInstances(); i++) {
+      Assert.assertArrayEquals(
+          expected.instance(i).toDoubleArray(), actual.instance(i).toDoubleArray(), 0.0);
+    }
+
+    // Other options train another model
+    final Dl4jStringToGlove third = createFilter(Action.DOC_VECTOR_AVERAGE);
+    third.setCacheModel(true);
+    third.setModelCacheDirectory(cacheDir);
+    third.setXMax(50);
+    third.setInputFormat(data);
+    Filter.useFilter(data, third);
+    Assert.assertEquals(2, cacheDir.listFiles().length);
+  }
+
+  @Test
+  public void testIncremental() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final Dl4jStringToGlove filter = createFilter(Action.DOC_VECTOR_AVERAGE);
+    filter.setIncremental(true);
+    filter.setInputFormat(data);
+    Filter.useFilter(data, filter);
+    final int numWords = filter.vec.getVocab().numWords();
+    final String word = filter.vec.getVocab().wordAtIndex(0);
+    final double[] before = filter.vec.getWordVector(word);
+
+    // The second batch continues training with the same vocabulary
+    for (int i = 0; i < data.numInstances(); i++) {
+      filter.input(data.instance(i));
+    }
+    filter.batchFinished();
+    Assert.assertEquals(data.numInstances(), filter.numPendingOutput());
+    Assert.assertEquals(numWords, filter.vec.getVocab().numWords());
+    Assert.assertFalse(Arrays.equals(before, filter.vec.getWordVector(word)));
+  }
+
+  /**
+   * Create a small GloVe filter that counts the co-occurrences with a bounded amount of memory.
+   *
+   * @param action Action on the embeddings
+   * @return Filter
+   */
+  private Dl4jStringToGlove createFilter(Action action) {
+    Dl4jStringToGlove filter = new Dl4jStringToGlove();
+    filter.setAction(action);
+    filter.setLayerSize(LAYER_SIZE);
+    filter.setMinWordFrequency(2);
+    filter.setEpochs(2);
+    filter.setWorkers(1);
+    filter.setCooccurrenceMemory(1);
+    return filter;
+  }
+}
@@ -18,9 +18,18 @@
 
 package weka.filters.unsupervised.attribute;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils;
 import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Dl4jStringToWordEmbeddings.Action;
+import weka.util.DatasetLoader;
 
 /**
  * JUnit tests for the Dl4jStringToWord2Vec Filter.
@@ -29,6 +38,11 @@ import weka.filters.Filter;
  */
 public class Dl4jStringToWord2VecTest {
 
+  /** Size of the word vectors */
+  private static final int LAYER_SIZE = 10;
+  /** Temporary folder for the model cache */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
   //    @Test
   public void testReuters() throws Exception {
     final String arffPath = "datasets/text/ReutersCorn-train.arff";
@@ -38,4 +52,145 @@ public class Dl4jStringToWord2VecTest {
     dl4jw2v.setInputFormat(data);
     Instances d = Filter.useFilter(data, dl4jw2v);
   }
+
+  @Test
+  public void testWordVectors() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final Dl4jStringToWord2Vec filter = createFilter(Action.WORD_VECTOR, 2);
+    filter.setInputFormat(data);
+    final Instances result = Filter.useFilter(data, filter);
+    Assert.assertEquals(filter.vec.getVocab().numWords(), result.numInstances());
+    for (int i = 0; i < result.numInstances(); i += 17) {
+      final String word = result.instance(i).stringValue(LAYER_SIZE);
+      final double[] expected = filter.vec.getWordVector(word);
+      for (int j = 0; j < LAYER_SIZE; j++) {
+        Assert.assertEquals(expected[j], result.instance(i).value(j), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testDocumentVectors() throws Exception {
+    for (Action action :
+        new Action[] {Action.DOC_VECTOR_AVERAGE, Action.DOC_VECTOR_ADD, Action.DOC_VECTOR_CONCAT}) {
+      final Instances data = DatasetLoader.loadReutersMinimal();
+      final Dl4jStringToWord2Vec parallel = createFilter(action, 4);
+      parallel.setInputFormat(data);
+      final Instances result = Filter.useFilter(data, parallel);
+      Assert.assertEquals(data.numInstances(), result.numInstances());
+
+      // Same result as adding up the word vectors one dimension at a time
+      for (int i = 0; i < data.numInstances(); i++) {
+        final double[] expected = computeDocumentVector(parallel, data.instance(i).stringValue(0));
+        for (int j = 0; j < expected.length; j++) {
+          Assert.assertEquals(
+              expected[j], result.instance(i).value(data.numAttributes() + j), 1e-4);
+        }
+        Assert.assertEquals(data.instance(i).stringValue(0), result.instance(i).stringValue(0));
+        Assert.assertEquals(data.instance(i).classValue(), result.instance(i).classValue(), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testCachedModel() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final File cacheDir = folder.newFolder("cache");
+    final Dl4jStringToWord2Vec first = createFilter(Action.DOC_VECTOR_AVERAGE, 1);
+    first.setCacheModel(true);
+    first.setModelCacheDirectory(cacheDir);
+    first.setInputFormat(data);
+    final Instances expected = Filter.useFilter(data, first);
+    Assert.assertEquals(1, cacheDir.listFiles().length);
+
+    // A different action reuses the cached model
+    final Dl4jStringToWord2Vec second = createFilter(Action.WORD_VECTOR, 1);
+    second.setCacheModel(true);
+    second.setModelCacheDirectory(cacheDir);
+    second.setInputFormat(data);
+    second.setAction(Action.DOC_VECTOR_AVERAGE);
+    final Instances actual = Filter.useFilter(data, second);
+    Assert.assertEquals(1, cacheDir.listFiles().length);
+    for (int i = 0; i < data.numInstances(); i++) {
+      Assert.assertArrayEquals(
+          expected.instance(i).toDoubleArray(), actual.instance(i).toDoubleArray(), 0.0);
+    }
+
+    // Other options train another model
+    final Dl4jStringToWord2Vec third = createFilter(Action.DOC_VECTOR_AVERAGE, 1);
+    third.setCacheModel(true);
+    third.setModelCacheDirectory(cacheDir);
+    third.setWindowSize(3);
+    third.setInputFormat(data);
+    Filter.useFilter(data, third);
+    Assert.assertEquals(2, cacheDir.listFiles().length);
+  }
+
+  @Test
+  public void testIncremental() throws Exception {
+    final Instances data = DatasetLoader.loadReutersMinimal();
+    final Dl4jStringToWord2Vec filter = createFilter(Action.DOC_VECTOR_AVERAGE, 1);
+    filter.setIncremental(true);
+    filter.setInputFormat(data);
+    Filter.useFilter(data, filter);
+    final int numWords = filter.vec.getVocab().numWords();
+    final String word = filter.vec.getVocab().wordAtIndex(0);
+    final double[] before = filter.vec.getWordVector(word);
+
+    // The second batch continues training with the same vocabulary
+    for (int i = 0; i < data.numInstances(); i++) {
+      filter.input(data.instance(i));
+    }
+    filter.batchFinished();
+    Assert.assertEquals(data.numInstances(), filter.numPendingOutput());
+    Assert.assertEquals(numWords, filter.vec.getVocab().numWords());
+    Assert.assertFalse(Arrays.equals(before, filter.vec.getWordVector(word)));
+  }
+
+  /**
+   * Compute the expected document vector with the word vectors of the trained filter.
+   *
+   * @param filter Trained filter
+   * @param content Document
+   * @return Embedding attribute values
+   */
+  private double[] computeDocumentVector(Dl4jStringToWord2Vec filter, String content) {
+    final List<String> words =
+        filter.getTokenizerFactory().getBackend().create(content).getTokens();
+    final boolean concat = filter.getAction() == Action.DOC_VECTOR_CONCAT;
+    final double[] values = new double[concat ? filter.getConcatWords() * LAYER_SIZE : LAYER_SIZE];
+    for (int m = 0; m < words.size(); m++) {
+      if (!filter.vec.hasWord(words.get(m)) || (concat && m >= filter.getConcatWords())) {
+        continue;
+      }
+      final double[] vector = filter.vec.getWordVector(words.get(m));
+      for (int j = 0; j < LAYER_SIZE; j++) {
+        if (concat) {
+          values[m * LAYER_SIZE + j] += vector[j];
+        } else if (filter.getAction() == Action.DOC_VECTOR_ADD) {
+          values[j] += vector[j];
+        } else {
+          values[j] += vector[j] / words.size();
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Create a small Word2Vec filter.
+   *
+   * @param action Action on the embeddings
+   * @param workers Number of threads
+   * @return Filter
+   */
+  private Dl4jStringToWord2Vec createFilter(Action action, int workers) {
+    Dl4jStringToWord2Vec filter = new Dl4jStringToWord2Vec();
+    filter.setAction(action);
+    filter.setLayerSize(LAYER_SIZE);
+    filter.setMinWordFrequency(2);
+    filter.setWorkers(workers);
+    filter.setConcatWords(5);
+    return filter;
+  }
 }
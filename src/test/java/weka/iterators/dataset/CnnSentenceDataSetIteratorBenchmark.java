@@ -0,0 +1,158 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CnnSentenceDataSetIteratorBenchmark.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.dataset;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.dl4j.iterators.dataset.sequence.text.cnn.CnnSentenceDataSetIterator;
+import weka.dl4j.iterators.provider.CollectionLabeledSentenceProvider;
+import weka.util.DatasetLoader;
+
+/**
+ * Measures the batches per second of the {@link CnnSentenceDataSetIterator} in word vector and
+ * token index mode, next to DL4J's CnnSentenceDataSetIterator, which looks up the vector of each
+ * token separately. It is not a JUnit test, run it from the project root with the test classpath:
+ *
+ * <pre>
+ * java -cp &lt;test classpath&gt; weka.iterators.dataset.CnnSentenceDataSetIteratorBenchmark
+ * </pre>
+ *
+ * <p>The documents of ReutersCorn-train-full are repeated {@link #COPIES} times and translated
+ * with random word vectors of size {@link #VECTOR_SIZE} for the corpus vocabulary, in batches of
+ * {@link #BATCH_SIZE} with at most {@link #MAX_LENGTH} tokens and without stop word removal. Each
+ * iterator is reset between epochs like during training, the first {@link #WARMUP_EPOCHS} epochs
+ * are not timed.
+ *
+ * @author Steven Lang
+ */
+public class CnnSentenceDataSetIteratorBenchmark {
+
+  /** Number of copies of the documents */
+  private static final int COPIES = 20;
+  /** Size of the word vectors */
+  private static final int VECTOR_SIZE = 300;
+  /** Batch size */
+  private static final int BATCH_SIZE = 32;
+  /** Maximum number of tokens per document */
+  private static final int MAX_LENGTH = 100;
+  /** Epochs that are not timed */
+  private static final int WARMUP_EPOCHS = 2;
+  /** Epochs that are timed */
+  private static final int EPOCHS = 4;
+
+  public static void main(String[] args) throws Exception {
+    final Instances data = DatasetLoader.loadReutersFull();
+    final List<String> documents = new ArrayList<>();
+    final List<String> labels = new ArrayList<>();
+    for (int i = 0; i < COPIES; i++) {
+      for (Instance inst : data) {
+        documents.add(inst.stringValue(0));
+        labels.add(inst.stringValue(inst.classIndex()));
+      }
+    }
+
+    final TokenizerFactory tokenizerFactory = new DefaultTokenizerFactory();
+    final Set<String> vocabulary = new LinkedHashSet<>();
+    for (String document : documents.subList(0, data.numInstances())) {
+      vocabulary.addAll(tokenizerFactory.create(document).getTokens());
+    }
+    final File file = File.createTempFile("benchmark-vectors", ".txt");
+    file.deleteOnExit();
+    final Random random = new Random(42);
+    try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+      for (String word : vocabulary) {
+        StringBuilder line = new StringBuilder(word);
+        for (int j = 0; j < VECTOR_SIZE; j++) {
+          line.append(' ').append(random.nextFloat() - 0.5f);
+        }
+        pw.println(line);
+      }
+    }
+    final WordVectors wordVectors = WordVectorSerializer.readWord2VecModel(file);
+    final int numClasses = data.numClasses();
+
+    System.out.printf(
+        "%d documents, %d words, vector size %d, batch size %d, max length %d%n",
+        documents.size(), vocabulary.size(), VECTOR_SIZE, BATCH_SIZE, MAX_LENGTH);
+
+    final DataSetIterator reference =
+        new org.deeplearning4j.iterator.CnnSentenceDataSetIterator.Builder()
+            .sentenceProvider(new CollectionLabeledSentenceProvider(documents, labels, numClasses))
+            .wordVectors(wordVectors)
+            .tokenizerFactory(tokenizerFactory)
+            .minibatchSize(BATCH_SIZE)
+            .maxSentenceLength(MAX_LENGTH)
+            .useNormalizedWordVectors(false)
+            .build();
+    report("DL4J CnnSentenceDataSetIterator", reference);
+
+    for (boolean tokenIndices : new boolean[] {false, true}) {
+      final DataSetIterator iterator =
+          new CnnSentenceDataSetIterator.Builder()
+              .sentenceProvider(
+                  new CollectionLabeledSentenceProvider(documents, labels, numClasses))
+              .wordVectors(wordVectors)
+              .tokenizerFactory(tokenizerFactory)
+              .minibatchSize(BATCH_SIZE)
+              .maxSentenceLength(MAX_LENGTH)
+              .useNormalizedWordVectors(false)
+              .tokenIndices(tokenIndices)
+              .build();
+      report(
+          "CnnSentenceDataSetIterator (" + (tokenIndices ? "token indices" : "word vectors") + ")",
+          iterator);
+    }
+  }
+
+  /**
+   * Iterate the epochs and print the batches per second of the timed ones.
+   *
+   * @param name Name of the iterator
+   * @param iterator Iterator
+   */
+  private static void report(String name, DataSetIterator iterator) {
+    int batches = 0;
+    long start = 0;
+    for (int epoch = 0; epoch < WARMUP_EPOCHS + EPOCHS; epoch++) {
+      if (epoch == WARMUP_EPOCHS) {
+        batches = 0;
+        start = System.nanoTime();
+      }
+      iterator.reset();
+      while (iterator.hasNext()) {
+        iterator.next();
+        batches++;
+      }
+    }
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-50s %8.1f batches/s%n", name, batches / seconds);
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CnnSentenceDataSetIteratorTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.dataset;
+
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.point;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import org.deeplearning4j.iterator.CnnSentenceDataSetIterator.UnknownWordHandling;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.core.stopwords.Rainbow;
+import weka.dl4j.iterators.dataset.sequence.text.cnn.CnnSentenceDataSetIterator;
+import weka.dl4j.iterators.provider.CollectionLabeledSentenceProvider;
+
+/**
+ * JUnit tests for the {@link CnnSentenceDataSetIterator}.
+ *
+ * @author Steven Lang
+ */
+public class CnnSentenceDataSetIteratorTest {
+
+  /** Sentences */
+  private static final List<String> SENTENCES =
+      Arrays.asList("the cat sat on the mat", "dog barks", "unknown zebra", "cat dog cat");
+  /** Words with vectors, "the" and "on" are stop words */
+  private static final String[] WORDS = {"the", "cat", "sat", "on", "mat", "dog", "barks"};
+  /** Size of the word vectors */
+  private static final int VECTOR_SIZE = 3;
+  /** Temporary folder for the word vectors */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Word vectors */
+  private WordVectors wordVectors;
+
+  @Before
+  public void before() throws Exception {
+    final File file = folder.newFile("vectors.txt");
+    try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+      for (int i = 0; i < WORDS.length; i++) {
+        pw.println(WORDS[i] + " " + (i + 1) + " " + (-i) + " " + (0.5 * i));
+      }
+    }
+    wordVectors = WordVectorSerializer.readWord2VecModel(file);
+  }
+
+  @Test
+  public void testWordVectorFeatures() {
+    final CnnSentenceDataSetIterator it = builder(Arrays.asList("a", "b", "a", "b")).build();
+    Assert.assertEquals(VECTOR_SIZE, it.inputColumns());
+    Assert.assertEquals(2, it.totalOutcomes());
+
+    final DataSet ds = it.next();
+    Assert.assertFalse(it.hasNext());
+    final INDArray features = ds.getFeatures();
+    final INDArray mask = ds.getFeaturesMaskArray();
+    // Longest sentence after stop word removal: "cat sat mat" and "cat dog cat"
+    Assert.assertArrayEquals(new long[] {4, 1, 3, VECTOR_SIZE}, features.shape());
+    Assert.assertArrayEquals(new long[] {4, 1, 3, 1}, mask.shape());
+
+    final String[][] expected = {
+      {"cat", "sat", "mat"}, {"dog", "barks", null}, {null, null, null}, {"cat", "dog", "cat"}
+    };
+    final double[][] expectedMask = {{1, 1, 1}, {1, 1, 0}, {1, 0, 0}, {1, 1, 1}};
+    for (int i = 0; i < expected.length; i++) {
+      for (int j = 0; j < expected[i].length; j++) {
+        final INDArray actual = features.get(point(i), point(0), point(j), all());
+        final INDArray vector =
+            expected[i][j] == null
+                ? Nd4j.zeros(VECTOR_SIZE)
+                : wordVectors.getWordVectorMatrix(expected[i][j]);
+        Assert.assertTrue(vector.equalsWithEps(actual.reshape(vector.shape()), 1e-6));
+        Assert.assertEquals(expectedMask[i][j], mask.getDouble(i, 0, j, 0), 0.0);
+      }
+    }
+
+    Assert.assertEquals(
+        Nd4j.create(new double[][] {{1, 0}, {0, 1}, {1, 0}, {0, 1}}), ds.getLabels());
+  }
+
+  @Test
+  public void testNormalizedAndAlongWidth() {
+    final CnnSentenceDataSetIterator it =
+        builder(Arrays.asList("a", "b", "a", "b"))
+            .useNormalizedWordVectors(true)
+            .sentencesAlongHeight(false)
+            .maxSentenceLength(2)
+            .build();
+    final DataSet ds = it.next();
+    final INDArray features = ds.getFeatures();
+    Assert.assertArrayEquals(new long[] {4, 1, VECTOR_SIZE, 2}, features.shape());
+    Assert.assertArrayEquals(new long[] {4, 1, 1, 2}, ds.getFeaturesMaskArray().shape());
+
+    final INDArray expected = wordVectors.getWordVectorMatrixNormalized("sat");
+    final INDArray actual = features.get(point(0), point(0), all(), point(1));
+    Assert.assertTrue(expected.equalsWithEps(actual.reshape(expected.shape()), 1e-6));
+  }
+
+  @Test
+  public void testRegressionAndBatches() {
+    final CnnSentenceDataSetIterator it =
+        builder(Arrays.asList("0.5", "1.5", "2.5", "3.5")).minibatchSize(3).build();
+    Assert.assertEquals(1, it.totalOutcomes());
+
+    final DataSet first = it.next();
+    Assert.assertEquals(Nd4j.create(new double[][] {{0.5}, {1.5}, {2.5}}), first.getLabels());
+    final DataSet second = it.next();
+    Assert.assertEquals(1, second.numExamples());
+    Assert.assertEquals(3.5, second.getLabels().getDouble(0), 0.0);
+    // All sentences of the batch have the same length
+    Assert.assertNull(second.getFeaturesMaskArray());
+    Assert.assertFalse(it.hasNext());
+
+    it.reset();
+    Assert.assertTrue(it.hasNext());
+    Assert.assertEquals(first.getFeatures(), it.next().getFeatures());
+  }
+
+  @Test
+  public void testTokenIndices() {
+    final CnnSentenceDataSetIterator it =
+        builder(Arrays.asList("a", "b", "a", "b")).tokenIndices(true).build();
+    Assert.assertEquals(1, it.inputColumns());
+
+    final DataSet ds = it.next();
+    final int pad = WORDS.length;
+    final INDArray expected =
+        Nd4j.create(
+                new double[][] {
+                  {idx("cat"), idx("sat"), idx("mat")},
+                  {idx("dog"), idx("barks"), pad},
+                  {pad, pad, pad},
+                  {idx("cat"), idx("dog"), idx("cat")}
+                })
+            .reshape(4, 1, 3);
+    Assert.assertEquals(expected, ds.getFeatures());
+    Assert.assertEquals(
+        Nd4j.create(new double[][] {{1, 1, 1}, {1, 1, 0}, {1, 0, 0}, {1, 1, 1}}),
+        ds.getFeaturesMaskArray());
+  }
+
+  @Test
+  public void testUnknownWordVector() {
+    final CnnSentenceDataSetIterator it =
+        builder(Arrays.asList("a", "b", "a", "b"))
+            .unknownWordHandling(UnknownWordHandling.UseUnknownVector)
+            .build();
+    final DataSet ds = it.next();
+    // "unknown zebra" keeps both positions, there is no unknown word so they are zero
+    final INDArray mask = ds.getFeaturesMaskArray();
+    Assert.assertEquals(1.0, mask.getDouble(2, 0, 0, 0), 0.0);
+    Assert.assertEquals(1.0, mask.getDouble(2, 0, 1, 0), 0.0);
+    Assert.assertEquals(0.0, mask.getDouble(2, 0, 2, 0), 0.0);
+    final INDArray unknown = ds.getFeatures().get(point(2), point(0), all(), all());
+    Assert.assertEquals(0.0, unknown.norm1Number().doubleValue(), 0.0);
+    Assert.assertTrue(
+        wordVectors
+            .getWordVectorMatrix("dog")
+            .equalsWithEps(
+                ds.getFeatures().get(point(1), point(0), point(0), all()).reshape(1, VECTOR_SIZE),
+                1e-6));
+
+    final CnnSentenceDataSetIterator indices =
+        builder(Arrays.asList("a", "b", "a", "b"))
+            .unknownWordHandling(UnknownWordHandling.UseUnknownVector)
+            .tokenIndices(true)
+            .build();
+    final DataSet indexed = indices.next();
+    final int pad = WORDS.length;
+    Assert.assertEquals(
+        Nd4j.create(new double[] {pad, pad, pad}).reshape(1, 3),
+        indexed.getFeatures().get(point(2), point(0), all()).reshape(1, 3));
+    Assert.assertEquals(
+        Nd4j.create(new double[] {1, 1, 0}).reshape(1, 3),
+        indexed.getFeaturesMaskArray().getRow(2).reshape(1, 3));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBuildWithoutWordVectors() {
+    builder(Arrays.asList("a", "b", "a", "b")).wordVectors(null).build();
+  }
+
+  /**
+   * Vocabulary index of a word.
+   *
+   * @param word Word
+   * @return Index
+   */
+  private int idx(String word) {
+    return wordVectors.indexOf(word);
+  }
+
+  /**
+   * Create an iterator builder over the test sentences.
+   *
+   * @param labels Label of each sentence
+   * @return Builder
+   */
+  private CnnSentenceDataSetIterator.Builder builder(List<String> labels) {
+    final int numClasses = (int) labels.stream().distinct().count();
+    return new CnnSentenceDataSetIterator.Builder()
+        .sentenceProvider(
+            new CollectionLabeledSentenceProvider(
+                SENTENCES, labels, numClasses == labels.size() ? 1 : numClasses))
+        .wordVectors(wordVectors)
+        .tokenizerFactory(new DefaultTokenizerFactory())
+        .stopwords(new Rainbow())
+        .useNormalizedWordVectors(false)
+        .minibatchSize(4);
+  }
+}
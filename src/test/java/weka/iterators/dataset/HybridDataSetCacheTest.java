@@ -0,0 +1,175 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * HybridDataSetCacheTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.dataset;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.CachingDataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import weka.core.Instances;
+import weka.dl4j.CacheCompression;
+import weka.dl4j.iterators.dataset.cache.DataSetCodec;
+import weka.dl4j.iterators.dataset.cache.HybridDataSetCache;
+import weka.dl4j.iterators.instance.DefaultInstanceIterator;
+import weka.util.DatasetLoader;
+import weka.util.TestUtil;
+
+/**
+ * JUnit tests for the {@link HybridDataSetCache} and the {@link DataSetCodec}.
+ *
+ * @author Steven Lang
+ */
+public class HybridDataSetCacheTest {
+
+  /** Spill directory */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Dataset iris */
+  private Instances dataIris;
+  /** Instance iterator */
+  private DefaultInstanceIterator dii;
+
+  @Before
+  public void before() throws Exception {
+    dataIris = DatasetLoader.loadIris();
+    dii = new DefaultInstanceIterator();
+    dii.setTrainBatchSize(16);
+  }
+
+  @Test
+  public void testCodecRoundTrip() throws Exception {
+    DataSet ds = dii.getDataSetIterator(dataIris, TestUtil.SEED).next();
+    for (CacheCompression compression : CacheCompression.values()) {
+      DataSetCodec codec = new DataSetCodec(compression);
+      DataSet decoded = codec.decode(codec.encode(ds));
+      Assert.assertArrayEquals(ds.getFeatures().shape(), decoded.getFeatures().shape());
+      Assert.assertEquals(ds.getLabels(), decoded.getLabels());
+      if (compression == CacheCompression.FLOAT16) {
+        Assert.assertTrue(ds.getFeatures().equalsWithEps(decoded.getFeatures(), 1e-2));
+      } else {
+        Assert.assertEquals(ds.getFeatures(), decoded.getFeatures());
+      }
+    }
+  }
+
+  @Test
+  public void testHalfPrecisionConversion() {
+    for (float f : new float[] {0f, -0f, 1f, -2.5f, 65504f, 6.1035156e-5f, 5.9604645e-8f}) {
+      Assert.assertEquals(f, DataSetCodec.fromHalf(DataSetCodec.toHalf(f)), 0f);
+    }
+    Assert.assertEquals(
+        Float.POSITIVE_INFINITY, DataSetCodec.fromHalf(DataSetCodec.toHalf(1e6f)), 0f);
+    Assert.assertTrue(Float.isNaN(DataSetCodec.fromHalf(DataSetCodec.toHalf(Float.NaN))));
+    Assert.assertEquals(0.1f, DataSetCodec.fromHalf(DataSetCodec.toHalf(0.1f)), 1e-4f);
+  }
+
+  @Test
+  public void testSpillToDisk() throws Exception {
+    try (HybridDataSetCache cache =
+        new HybridDataSetCache(2048, CacheCompression.LZ4, folder.getRoot(), 2)) {
+      DataSetIterator first =
+          new CachingDataSetIterator(dii.getDataSetIterator(dataIris, TestUtil.SEED), cache, "ns");
+      List<DataSet> expected = new ArrayList<>();
+      while (first.hasNext()) {
+        expected.add(first.next());
+      }
+      Assert.assertTrue(cache.isComplete("ns"));
+      Assert.assertTrue(cache.getMemoryUsed() <= 2048);
+      Assert.assertTrue(cache.getMemoryUsed() > 0);
+      Assert.assertTrue(cache.getNumSpilled() > 0);
+
+      // Second pass is served by both tiers
+      DataSetIterator second =
+          new CachingDataSetIterator(dii.getDataSetIterator(dataIris, TestUtil.SEED), cache, "ns");
+      int i = 0;
+      while (second.hasNext()) {
+        DataSet ds = second.next();
+        Assert.assertEquals(expected.get(i).getFeatures(), ds.getFeatures());
+        Assert.assertEquals(expected.get(i).getLabels(), ds.getLabels());
+        i++;
+      }
+      Assert.assertEquals(expected.size(), i);
+    }
+  }
+
+  @Test
+  public void testPrefetchPerNamespace() throws Exception {
+    try (HybridDataSetCache cache =
+        new HybridDataSetCache(0, CacheCompression.NONE, folder.getRoot(), 2)) {
+      for (String namespace : new String[] {"train", "validation"}) {
+        DataSetIterator it =
+            new CachingDataSetIterator(
+                dii.getDataSetIterator(dataIris, TestUtil.SEED), cache, namespace);
+        while (it.hasNext()) {
+          it.next();
+        }
+      }
+
+      // Reading the namespaces in turns keeps the read-ahead batches of both
+      cache.get(key("train", 0));
+      Assert.assertEquals(2, cache.getNumPrefetched());
+      cache.get(key("validation", 0));
+      Assert.assertEquals(4, cache.getNumPrefetched());
+      cache.get(key("train", 1));
+      Assert.assertEquals(4, cache.getNumPrefetched());
+
+      // Skipped batches of a namespace are dropped
+      cache.get(key("train", 5));
+      Assert.assertEquals(4, cache.getNumPrefetched());
+      cache.get(key("validation", 3));
+      Assert.assertEquals(4, cache.getNumPrefetched());
+    }
+  }
+
+  @Test
+  public void testCloseRemovesSpilledBatches() throws Exception {
+    final HybridDataSetCache cache =
+        new HybridDataSetCache(0, CacheCompression.NONE, folder.getRoot(), 2);
+    DataSetIterator it =
+        new CachingDataSetIterator(dii.getDataSetIterator(dataIris, TestUtil.SEED), cache, "ns");
+    while (it.hasNext()) {
+      it.next();
+    }
+    Assert.assertTrue(cache.getNumSpilled() > 0);
+    try (Stream<Path> files = Files.list(cache.getSpillDir())) {
+      Assert.assertTrue(files.count() > 0);
+    }
+    cache.close();
+    Assert.assertFalse(Files.exists(cache.getSpillDir()));
+  }
+
+  /**
+   * Get the key of a cached batch.
+   *
+   * @param namespace Namespace
+   * @param index Batch index
+   * @return Key
+   */
+  private static String key(String namespace, int index) {
+    return String.format("data-set-cache-%s-%06d.bin", namespace, index);
+  }
+}
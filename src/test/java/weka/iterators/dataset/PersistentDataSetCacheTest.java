@@ -0,0 +1,135 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PersistentDataSetCacheTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.dataset;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.CachingDataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import weka.core.Instances;
+import weka.dl4j.iterators.dataset.LazyDataSetIterator;
+import weka.dl4j.iterators.dataset.cache.PersistentDataSetCache;
+import weka.dl4j.iterators.instance.DefaultInstanceIterator;
+import weka.util.DatasetLoader;
+import weka.util.TestUtil;
+
+/**
+ * JUnit tests for the {@link PersistentDataSetCache}.
+ *
+ * @author Steven Lang
+ */
+public class PersistentDataSetCacheTest {
+
+  /** Cache directory */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Dataset iris */
+  private Instances dataIris;
+  /** Instance iterator */
+  private DefaultInstanceIterator dii;
+
+  @Before
+  public void before() throws Exception {
+    dataIris = DatasetLoader.loadIris();
+    dii = new DefaultInstanceIterator();
+    dii.setTrainBatchSize(16);
+  }
+
+  @Test
+  public void testKeyCoversDataAndConfiguration() {
+    String key = PersistentDataSetCache.computeKey(dataIris, dii, TestUtil.SEED, 16);
+    Assert.assertEquals(key, PersistentDataSetCache.computeKey(dataIris, dii, TestUtil.SEED, 16));
+    Assert.assertNotEquals(key, PersistentDataSetCache.computeKey(dataIris, dii, TestUtil.SEED, 8));
+
+    Instances changed = new Instances(dataIris);
+    changed.instance(3).setValue(0, 42.0);
+    Assert.assertNotEquals(
+        key, PersistentDataSetCache.computeKey(changed, dii, TestUtil.SEED, 16));
+  }
+
+  @Test
+  public void testBatchesAreReusedAcrossIterators() throws Exception {
+    File dir = folder.newFolder("cache");
+    String ns = PersistentDataSetCache.computeKey(dataIris, dii, TestUtil.SEED, 16);
+
+    // First run fills the cache
+    DataSetIterator first =
+        new CachingDataSetIterator(
+            dii.getDataSetIterator(dataIris, TestUtil.SEED),
+            new PersistentDataSetCache(dir, 0),
+            ns);
+    List<DataSet> expected = new ArrayList<>();
+    while (first.hasNext()) {
+      expected.add(first.next());
+    }
+    Assert.assertTrue(new PersistentDataSetCache(dir, 0).isComplete(ns));
+
+    // Second run must not touch the source iterator
+    DataSetIterator source =
+        new LazyDataSetIterator(
+            () -> {
+              throw new IllegalStateException("Source iterator must not be created");
+            },
+            16);
+    DataSetIterator second =
+        new CachingDataSetIterator(source, new PersistentDataSetCache(dir, 0), ns);
+    int i = 0;
+    while (second.hasNext()) {
+      DataSet ds = second.next();
+      Assert.assertEquals(expected.get(i).getFeatures(), ds.getFeatures());
+      Assert.assertEquals(expected.get(i).getLabels(), ds.getLabels());
+      i++;
+    }
+    Assert.assertEquals(expected.size(), i);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws Exception {
+    File dir = folder.newFolder("cache");
+    PersistentDataSetCache cache = new PersistentDataSetCache(dir, 0);
+    DataSet ds = dii.getDataSetIterator(dataIris, TestUtil.SEED).next();
+    for (String ns : new String[] {"old", "new"}) {
+      cache.put("data-set-cache-" + ns + "-000000.bin", ds);
+      cache.setComplete(ns, true);
+    }
+
+    // Pretend both entries were last used before the grace period, "old" before "new"
+    long now = System.currentTimeMillis();
+    Path oldMarker = dir.toPath().resolve("old").resolve(PersistentDataSetCache.COMPLETE_MARKER);
+    Path newMarker = dir.toPath().resolve("new").resolve(PersistentDataSetCache.COMPLETE_MARKER);
+    Files.setLastModifiedTime(oldMarker, FileTime.fromMillis(now - 3 * 60 * 60 * 1000L));
+    Files.setLastModifiedTime(newMarker, FileTime.fromMillis(now - 2 * 60 * 60 * 1000L));
+
+    long entrySize = cache.listEntries().get(0).sizeBytes;
+    cache.evict(entrySize + 1);
+
+    Assert.assertFalse(cache.isComplete("old"));
+    Assert.assertTrue(cache.isComplete("new"));
+    Assert.assertEquals(1, cache.listEntries().size());
+  }
+}
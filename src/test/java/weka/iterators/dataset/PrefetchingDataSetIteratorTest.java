@@ -0,0 +1,171 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PrefetchingDataSetIteratorTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.dataset;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.core.Instances;
+import weka.dl4j.iterators.dataset.DefaultDataSetIterator;
+import weka.dl4j.iterators.dataset.LazyDataSetIterator;
+import weka.dl4j.iterators.dataset.PrefetchingDataSetIterator;
+import weka.dl4j.iterators.instance.DefaultInstanceIterator;
+import weka.dl4j.sampler.ShuffleSampler;
+import weka.util.DatasetLoader;
+import weka.util.TestUtil;
+
+/**
+ * JUnit tests for the {@link PrefetchingDataSetIterator}.
+ *
+ * @author Steven Lang
+ */
+public class PrefetchingDataSetIteratorTest {
+
+  /** Dataset iris */
+  private Instances dataIris;
+  /** Instance iterator */
+  private DefaultInstanceIterator dii;
+
+  @Before
+  public void before() throws Exception {
+    dataIris = DatasetLoader.loadIris();
+    dii = new DefaultInstanceIterator();
+    dii.setTrainBatchSize(16);
+  }
+
+  @Test
+  public void testParallelProducersKeepOrder() throws Exception {
+    DataSetIterator expected = dii.getDataSetIterator(dataIris, TestUtil.SEED);
+    DataSetIterator it =
+        new PrefetchingDataSetIterator(dii.getDataSetIterator(dataIris, TestUtil.SEED), 2, 4);
+
+    // The second epoch reuses the batches of the first one
+    for (int epoch = 0; epoch < 3; epoch++) {
+      assertSameBatches(expected, it);
+      expected.reset();
+      it.reset();
+    }
+  }
+
+  @Test
+  public void testReusedMultiDimensionalBatches() {
+    DataSet data = new DataSet(Nd4j.rand(new int[] {40, 2, 3, 3}), Nd4j.rand(40, 4));
+    DataSetIterator expected = new DefaultDataSetIterator(data, 8);
+    DataSetIterator it = new PrefetchingDataSetIterator(new DefaultDataSetIterator(data, 8), 1, 2);
+    for (int epoch = 0; epoch < 2; epoch++) {
+      assertSameBatches(expected, it);
+      expected.reset();
+      it.reset();
+    }
+  }
+
+  @Test
+  public void testSampledEpochs() throws Exception {
+    DefaultDataSetIterator expected =
+        (DefaultDataSetIterator) dii.getDataSetIterator(dataIris, TestUtil.SEED);
+    DefaultDataSetIterator source =
+        (DefaultDataSetIterator) dii.getDataSetIterator(dataIris, TestUtil.SEED);
+    ShuffleSampler expectedSampler = new ShuffleSampler();
+    expectedSampler.initialize(dataIris, TestUtil.SEED);
+    expected.setSampler(expectedSampler);
+    ShuffleSampler sampler = new ShuffleSampler();
+    sampler.initialize(dataIris, TestUtil.SEED);
+    source.setSampler(sampler);
+
+    DataSetIterator it = new PrefetchingDataSetIterator(source, 3, 3);
+    for (int epoch = 0; epoch < 3; epoch++) {
+      assertSameBatches(expected, it);
+      expected.reset();
+      it.reset();
+    }
+  }
+
+  @Test
+  public void testSequentialSource() throws Exception {
+    DataSetIterator expected = dii.getDataSetIterator(dataIris, TestUtil.SEED);
+    DataSetIterator it =
+        new PrefetchingDataSetIterator(
+            new LazyDataSetIterator(() -> dii.getDataSetIterator(dataIris, TestUtil.SEED), 16),
+            2,
+            4);
+    for (int epoch = 0; epoch < 2; epoch++) {
+      assertSameBatches(expected, it);
+      expected.reset();
+      it.reset();
+    }
+  }
+
+  @Test
+  public void testResetWithinEpoch() throws Exception {
+    DataSetIterator expected = dii.getDataSetIterator(dataIris, TestUtil.SEED);
+    DataSetIterator it =
+        new PrefetchingDataSetIterator(dii.getDataSetIterator(dataIris, TestUtil.SEED), 4, 2);
+    it.next();
+    it.next();
+    it.reset();
+    assertSameBatches(expected, it);
+  }
+
+  @Test
+  public void testNextNumMergesBatches() throws Exception {
+    DataSetIterator expected = dii.getDataSetIterator(dataIris, TestUtil.SEED);
+    DataSetIterator it =
+        new PrefetchingDataSetIterator(dii.getDataSetIterator(dataIris, TestUtil.SEED), 2, 2);
+    DataSet merged = it.next(16 * 3 + 5);
+    Assert.assertEquals(48, merged.numExamples());
+    INDArray expectedFeatures = expected.next(48).getFeatures();
+    Assert.assertEquals(expectedFeatures, merged.getFeatures());
+    Assert.assertEquals(expected.next().getFeatures(), it.next().getFeatures());
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testProducerFailure() {
+    DataSet data = new DataSet(Nd4j.rand(40, 3), Nd4j.rand(40, 2));
+    DefaultDataSetIterator source = new DefaultDataSetIterator(data, 8);
+    source.setPreProcessor(
+        ds -> {
+          throw new IllegalStateException("Broken preprocessor");
+        });
+    new PrefetchingDataSetIterator(source, 2, 2).next();
+  }
+
+  /**
+   * Assert that two iterators return the same batches in one epoch.
+   *
+   * @param expected Expected batches
+   * @param actual Actual batches
+   */
+  private static void assertSameBatches(DataSetIterator expected, DataSetIterator actual) {
+    int numBatches = 0;
+    while (expected.hasNext()) {
+      DataSet e = expected.next();
+      Assert.assertTrue(actual.hasNext());
+      DataSet a = actual.next();
+      Assert.assertEquals(e.getFeatures(), a.getFeatures());
+      Assert.assertEquals(e.getLabels(), a.getLabels());
+      numBatches++;
+    }
+    Assert.assertFalse(actual.hasNext());
+    Assert.assertTrue(numBatches > 0);
+  }
+}
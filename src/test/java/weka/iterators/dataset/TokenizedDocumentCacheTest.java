@@ -0,0 +1,248 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * TokenizedDocumentCacheTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.dataset;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizer.TokenPreProcess;
+import org.deeplearning4j.text.tokenization.tokenizer.Tokenizer;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.stopwords.Rainbow;
+import weka.dl4j.iterators.dataset.sequence.text.TokenizedDocumentCache;
+import weka.dl4j.text.tokenization.tokenizer.factory.impl.NGramTokenizerFactoryImpl;
+import weka.util.DatasetLoader;
+
+/**
+ * JUnit tests for the {@link TokenizedDocumentCache}.
+ *
+ * @author Steven Lang
+ */
+public class TokenizedDocumentCacheTest {
+
+  /** Temporary folder for the word vectors and cache files */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Documents of the reuters dataset */
+  private List<String> documents;
+  /** Word vectors of the reuters vocabulary */
+  private WordVectors wordVectors;
+
+  @Before
+  public void before() throws Exception {
+    Instances data = DatasetLoader.loadReutersMinimal();
+    documents = new ArrayList<>();
+    final Set<String> words = new LinkedHashSet<>();
+    for (Instance inst : data) {
+      final String document = inst.stringValue(0);
+      documents.add(document);
+      for (String word : document.split("\\s+")) {
+        words.add(word);
+      }
+    }
+    final File file = folder.newFile("vectors.txt");
+    try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+      int i = 0;
+      for (String word : words) {
+        if (!word.isEmpty()) {
+          pw.println(word + " " + i++ + " 1.0");
+        }
+      }
+    }
+    wordVectors = WordVectorSerializer.readWord2VecModel(file);
+  }
+
+  @Test
+  public void testParallelEqualsSequential() {
+    NGramTokenizerFactoryImpl ngrams = new NGramTokenizerFactoryImpl();
+    ngrams.setNMax(1);
+    final int[][] expected =
+        new TokenizedDocumentCache(ngrams, new Rainbow(), wordVectors, 1, null)
+            .getTokenIndices(documents);
+    final TokenizedDocumentCache cache =
+        new TokenizedDocumentCache(ngrams, new Rainbow(), wordVectors, 4, null);
+    final int[][] actual = cache.getTokenIndices(documents);
+    cache.close();
+
+    int numTokens = 0;
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertArrayEquals(expected[i], actual[i]);
+      numTokens += actual[i].length;
+    }
+    Assert.assertTrue(numTokens > 0);
+    Assert.assertEquals(documents.size(), cache.size());
+  }
+
+  @Test
+  public void testCachesSharePool() {
+    NGramTokenizerFactoryImpl ngrams = new NGramTokenizerFactoryImpl();
+    ngrams.setNMax(1);
+    final Set<String> poolsBefore = tokenizerPools();
+    for (int i = 0; i < 10; i++) {
+      // Caches that are never closed, like those of the iterators built for predictions
+      new TokenizedDocumentCache(ngrams, new Rainbow(), wordVectors, 3, null)
+          .getTokenIndices(documents);
+    }
+    final Set<String> poolsAfter = tokenizerPools();
+    poolsAfter.removeAll(poolsBefore);
+    Assert.assertTrue(poolsAfter.size() <= 1);
+  }
+
+  /**
+   * Get the names of the ForkJoinPools that have live worker threads.
+   *
+   * @return Pool names
+   */
+  private static Set<String> tokenizerPools() {
+    final Set<String> pools = new LinkedHashSet<>();
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      final String name = t.getName();
+      if (name.startsWith("ForkJoinPool-") && name.contains("-worker-")) {
+        pools.add(name.substring(0, name.indexOf("-worker-")));
+      }
+    }
+    return pools;
+  }
+
+  @Test
+  public void testTokensAreFilteredAndCached() {
+    CountingTokenizerFactory counting = new CountingTokenizerFactory();
+    final TokenizedDocumentCache cache =
+        new TokenizedDocumentCache(counting, new Rainbow(), wordVectors, 1, null);
+    final int[] tokens = cache.getTokenIndices("the dollar fell and the unknownword rose");
+    Assert.assertArrayEquals(
+        new int[] {wordVectors.indexOf("dollar"), wordVectors.indexOf("fell")},
+        firstTwo(tokens));
+    for (int index : tokens) {
+      final String word = wordVectors.vocab().wordAtIndex(index);
+      Assert.assertNotEquals("the", word);
+      Assert.assertNotEquals("and", word);
+    }
+
+    cache.getTokenIndices(documents);
+    cache.getTokenIndices(documents);
+    Assert.assertEquals(1 + new LinkedHashSet<>(documents).size(), counting.numCalls);
+  }
+
+  @Test
+  public void testHashedTokens() {
+    final TokenizedDocumentCache cache =
+        new TokenizedDocumentCache(new DefaultTokenizerFactory(), new Rainbow(), 16, 1, null);
+    final int[] tokens = cache.getTokenIndices("the dollar fell and the unknownword rose");
+    Assert.assertEquals(16, cache.getNumIndices());
+    Assert.assertArrayEquals(
+        new int[] {
+          TokenizedDocumentCache.bucketOf("dollar", 16),
+          TokenizedDocumentCache.bucketOf("fell", 16),
+          TokenizedDocumentCache.bucketOf("unknownword", 16),
+          TokenizedDocumentCache.bucketOf("rose", 16)
+        },
+        tokens);
+    for (int[] indices : cache.getTokenIndices(documents)) {
+      for (int index : indices) {
+        Assert.assertTrue(index >= 0 && index < 16);
+      }
+    }
+    // FNV-1a reference value of "a"
+    Assert.assertEquals(0xe40c292cL % 1000, TokenizedDocumentCache.bucketOf("a", 1000));
+  }
+
+  @Test
+  public void testPersistedAcrossRuns() throws Exception {
+    final File file =
+        new File(folder.newFolder("cache"), "test" + TokenizedDocumentCache.FILE_SUFFIX);
+    final TokenizedDocumentCache first =
+        new TokenizedDocumentCache(
+            new DefaultTokenizerFactory(), new Rainbow(), wordVectors, 2, file);
+    final int[][] expected = first.getTokenIndices(documents);
+    first.close();
+    Assert.assertTrue(file.isFile());
+
+    CountingTokenizerFactory counting = new CountingTokenizerFactory();
+    final TokenizedDocumentCache second =
+        new TokenizedDocumentCache(counting, new Rainbow(), wordVectors, 2, file);
+    final int[][] actual = second.getTokenIndices(documents);
+    Assert.assertEquals(0, counting.numCalls);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertArrayEquals(expected[i], actual[i]);
+    }
+
+    // New documents are appended to the file
+    second.getTokenIndices("dollar");
+    second.flush();
+    Assert.assertEquals(1, counting.numCalls);
+    final TokenizedDocumentCache third =
+        new TokenizedDocumentCache(counting, new Rainbow(), wordVectors, 1, file);
+    third.getTokenIndices("dollar");
+    Assert.assertEquals(1, counting.numCalls);
+  }
+
+  /**
+   * Get the first two elements of an array.
+   *
+   * @param a Array
+   * @return First two elements
+   */
+  private int[] firstTwo(int[] a) {
+    return new int[] {a[0], a[1]};
+  }
+
+  /** Tokenizer factory that counts the tokenized documents. */
+  private static class CountingTokenizerFactory implements TokenizerFactory {
+
+    /** Backing tokenizer factory */
+    private final DefaultTokenizerFactory delegate = new DefaultTokenizerFactory();
+    /** Number of tokenized documents */
+    private int numCalls;
+
+    @Override
+    public synchronized Tokenizer create(String toTokenize) {
+      numCalls++;
+      return delegate.create(toTokenize);
+    }
+
+    @Override
+    public Tokenizer create(InputStream toTokenize) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTokenPreProcessor(TokenPreProcess preProcessor) {
+      delegate.setTokenPreProcessor(preProcessor);
+    }
+
+    @Override
+    public TokenPreProcess getTokenPreProcessor() {
+      return delegate.getTokenPreProcessor();
+    }
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * CompiledInstanceIteratorTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.instance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import weka.classifiers.functions.Dl4jMlpClassifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.CompiledDataSetLoader;
+import weka.core.converters.CompiledDataSetSaver;
+import weka.dl4j.activations.ActivationIdentity;
+import weka.dl4j.iterators.dataset.CompiledDataSetIterator;
+import weka.dl4j.iterators.dataset.CompiledDataSetPreProcessor;
+import weka.dl4j.iterators.dataset.CompiledDataSetPreProcessor.Scaling;
+import weka.dl4j.iterators.instance.CompiledInstanceIterator;
+import weka.dl4j.layers.DenseLayer;
+import weka.dl4j.layers.OutputLayer;
+import weka.dl4j.lossfunctions.LossMSE;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.NominalToBinary;
+import weka.filters.unsupervised.attribute.Normalize;
+import weka.filters.unsupervised.attribute.ReplaceMissingValues;
+import weka.filters.unsupervised.attribute.Standardize;
+import weka.util.DatasetLoader;
+import weka.util.TestUtil;
+
+/**
+ * JUnit tests for the {@link CompiledInstanceIterator} and the compiled dataset converters.
+ *
+ * @author Steven Lang
+ */
+public class CompiledInstanceIteratorTest {
+
+  /** Directory of the compiled datasets */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Dataset iris */
+  private Instances dataIris;
+  /** Compiled iris dataset */
+  private File compiledIris;
+  /** Iterator */
+  private CompiledInstanceIterator cii;
+
+  @Before
+  public void before() throws Exception {
+    dataIris = DatasetLoader.loadIris();
+    compiledIris = compile(dataIris);
+    cii = new CompiledInstanceIterator();
+    cii.setCompiledFile(compiledIris);
+    cii.setTrainBatchSize(16);
+  }
+
+  /**
+   * Compile the given dataset into a temporary file.
+   *
+   * @param data Dataset
+   * @return Compiled file
+   * @throws Exception Dataset could not be compiled
+   */
+  private File compile(Instances data) throws Exception {
+    File file =
+        new File(folder.getRoot(), data.relationName() + CompiledDataSetSaver.FILE_EXTENSION);
+    CompiledDataSetSaver saver = new CompiledDataSetSaver();
+    saver.setInstances(data);
+    saver.setFile(file);
+    saver.writeBatch();
+    return file;
+  }
+
+  /**
+   * Load the row references of a compiled dataset.
+   *
+   * @param file Compiled file
+   * @return Instances referencing the rows
+   * @throws Exception Dataset could not be loaded
+   */
+  private Instances load(File file) throws Exception {
+    CompiledDataSetLoader loader = new CompiledDataSetLoader();
+    loader.setSource(file);
+    return loader.getDataSet();
+  }
+
+  @Test
+  public void testLoaderRestoresClassValues() throws Exception {
+    Instances rows = load(compiledIris);
+    Assert.assertEquals(DatasetLoader.NUM_INSTANCES_IRIS, rows.numInstances());
+    Assert.assertEquals(1, rows.classIndex());
+    Assert.assertEquals(dataIris.classAttribute().toString(), rows.classAttribute().toString());
+    for (int i = 0; i < rows.numInstances(); i++) {
+      Assert.assertEquals(i, rows.instance(i).value(0), 0);
+      Assert.assertEquals(dataIris.instance(i).classValue(), rows.instance(i).classValue(), 0);
+    }
+  }
+
+  @Test
+  public void testBatchesMatchSourceData() throws Exception {
+    Instances rows = load(compiledIris);
+    // Reverse the order to test gathered batches besides the consecutive views
+    for (Instances data : new Instances[] {rows, reversed(rows)}) {
+      DataSetIterator it = cii.getDataSetIterator(data, TestUtil.SEED);
+      int offset = 0;
+      while (it.hasNext()) {
+        DataSet ds = it.next();
+        for (int i = 0; i < ds.numExamples(); i++) {
+          int row = (int) data.instance(offset + i).value(0);
+          for (int j = 0; j < 4; j++) {
+            Assert.assertEquals(
+                dataIris.instance(row).value(j), ds.getFeatures().getDouble(i, j), 1e-6);
+          }
+          int label = (int) data.instance(offset + i).classValue();
+          Assert.assertEquals(1.0, ds.getLabels().getDouble(i, label), 0);
+        }
+        offset += ds.numExamples();
+      }
+      Assert.assertEquals(DatasetLoader.NUM_INSTANCES_IRIS, offset);
+    }
+  }
+
+  @Test
+  public void testNominalAttributesAreEncoded() throws Exception {
+    ArrayList<Attribute> atts = new ArrayList<>();
+    atts.add(new Attribute("num"));
+    atts.add(new Attribute("color", Arrays.asList("r", "g", "b")));
+    atts.add(new Attribute("flag", Arrays.asList("y", "n")));
+    atts.add(new Attribute("class", Arrays.asList("a", "b")));
+    Instances data = new Instances("nominal", atts, 2);
+    data.setClassIndex(3);
+    data.add(new DenseInstance(1, new double[] {0.5, 2, 1, 0}));
+    final double missing = Utils.missingValue();
+    data.add(new DenseInstance(1, new double[] {missing, missing, 0, 1}));
+
+    cii.setCompiledFile(compile(data));
+    DataSet ds = cii.getDataSetIterator(load(cii.getCompiledFile()), TestUtil.SEED, 2).next();
+    // Binary nominal attributes are a single column, others are one-hot encoded
+    Assert.assertEquals(Nd4j.create(new double[] {0.5, 0, 0, 1, 1}), ds.getFeatures().getRow(0));
+    // Missing values are NaN in all columns of the attribute
+    for (int j = 0; j < 4; j++) {
+      Assert.assertTrue(Double.isNaN(ds.getFeatures().getDouble(1, j)));
+    }
+    Assert.assertEquals(0, ds.getFeatures().getDouble(1, 4), 0);
+  }
+
+  @Test
+  public void testPreProcessingMatchesFilters() throws Exception {
+    Instances fish = DatasetLoader.loadFishCatch();
+    File compiled = compile(fish);
+    Instances rows = load(compiled);
+    cii.setCompiledFile(compiled);
+    final int numFeatures = cii.getCompiledDataSet().getNumFeatures();
+
+    for (Scaling scaling : Scaling.values()) {
+      Instances expected = fish;
+      for (Filter filter : filters(scaling)) {
+        filter.setInputFormat(expected);
+        expected = Filter.useFilter(expected, filter);
+      }
+      Assert.assertEquals(numFeatures + 1, expected.numAttributes());
+
+      DataSetIterator it = cii.getDataSetIterator(rows, TestUtil.SEED, rows.numInstances());
+      it.setPreProcessor(
+          CompiledDataSetPreProcessor.fit(
+              cii.getCompiledDataSet(), CompiledInstanceIterator.rows(rows), scaling));
+      DataSet ds = it.next();
+      for (int i = 0; i < rows.numInstances(); i++) {
+        for (int j = 0; j < numFeatures; j++) {
+          Assert.assertEquals(
+              scaling + " row " + i + " column " + j,
+              expected.instance(i).value(j),
+              ds.getFeatures().getDouble(i, j),
+              1e-4);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBatchesAreShuffledAsBlocks() throws Exception {
+    final int numRows = dataIris.numInstances();
+    final long[] rows = new long[numRows];
+    final float[] positions = new float[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rows[i] = i;
+      positions[i] = i;
+    }
+    DataSetIterator it =
+        new CompiledDataSetIterator(cii.getCompiledDataSet(), rows, positions, 1, 16, 42);
+
+    List<Integer> previousOrder = null;
+    for (int epoch = 0; epoch < 2; epoch++) {
+      List<Integer> order = new ArrayList<>();
+      int numExamples = 0;
+      while (it.hasNext()) {
+        DataSet ds = it.next();
+        final int first = ds.getLabels().getInt(0, 0);
+        Assert.assertEquals(0, first % 16);
+        for (int i = 0; i < ds.numExamples(); i++) {
+          // Consecutive rows within a batch
+          Assert.assertEquals(first + i, ds.getLabels().getInt(i, 0));
+          Assert.assertEquals(
+              dataIris.instance(first + i).value(0), ds.getFeatures().getDouble(i, 0), 1e-6);
+        }
+        order.add(first / 16);
+        numExamples += ds.numExamples();
+      }
+      Assert.assertEquals(numRows, numExamples);
+      Assert.assertNotEquals(previousOrder, order);
+      previousOrder = order;
+      it.reset();
+    }
+  }
+
+  @Test
+  public void testTrainIteratorVisitsRowsInFileOrder() throws Exception {
+    Instances rows = reversed(load(compiledIris));
+    DataSetIterator it = cii.getTrainDataSetIterator(rows, TestUtil.SEED, 16);
+    int numExamples = 0;
+    while (it.hasNext()) {
+      DataSet ds = it.next();
+      boolean isBlock = false;
+      for (int first = 0; first < dataIris.numInstances() && !isBlock; first += 16) {
+        isBlock = true;
+        for (int i = 0; i < ds.numExamples() && isBlock; i++) {
+          for (int j = 0; j < 4; j++) {
+            isBlock &=
+                Math.abs(dataIris.instance(first + i).value(j) - ds.getFeatures().getDouble(i, j))
+                    < 1e-6;
+          }
+        }
+      }
+      Assert.assertTrue(isBlock);
+      numExamples += ds.numExamples();
+    }
+    Assert.assertEquals(DatasetLoader.NUM_INSTANCES_IRIS, numExamples);
+  }
+
+  @Test
+  public void testTrainOnCompiledData() throws Exception {
+    Dl4jMlpClassifier clf = new Dl4jMlpClassifier();
+    clf.setSeed(TestUtil.SEED);
+    clf.setNumEpochs(TestUtil.DEFAULT_NUM_EPOCHS);
+    clf.setInstanceIterator(cii);
+    DenseLayer dense = new DenseLayer();
+    dense.setNOut(8);
+    clf.setLayers(dense, new OutputLayer());
+    TestUtil.holdout(clf, load(compiledIris));
+  }
+
+  @Test
+  public void testTrainRegressionOnCompiledData() throws Exception {
+    cii.setCompiledFile(compile(DatasetLoader.loadFishCatch()));
+    Dl4jMlpClassifier clf = new Dl4jMlpClassifier();
+    clf.setSeed(TestUtil.SEED);
+    clf.setNumEpochs(TestUtil.DEFAULT_NUM_EPOCHS);
+    clf.setInstanceIterator(cii);
+    DenseLayer dense = new DenseLayer();
+    dense.setNOut(8);
+    OutputLayer output = new OutputLayer();
+    output.setActivationFunction(new ActivationIdentity());
+    output.setLossFn(new LossMSE());
+    clf.setLayers(dense, output);
+    TestUtil.holdout(clf, load(cii.getCompiledFile()));
+  }
+
+  /**
+   * The filters the classifier applies to ARFF datasets.
+   *
+   * @param scaling Rescaling of the columns
+   * @return Filters
+   * @throws Exception Filter options are invalid
+   */
+  private static List<Filter> filters(Scaling scaling) throws Exception {
+    List<Filter> filters = new ArrayList<>();
+    filters.add(new ReplaceMissingValues());
+    filters.add(new NominalToBinary());
+    if (scaling != Scaling.NONE) {
+      Filter filter = scaling == Scaling.STANDARDIZE ? new Standardize() : new Normalize();
+      filter.setOptions(new String[] {"-unset-class-temporarily"});
+      filters.add(filter);
+    }
+    return filters;
+  }
+
+  /**
+   * Reverse the order of the given instances.
+   *
+   * @param data Instances
+   * @return Reversed copy
+   */
+  private static Instances reversed(Instances data) {
+    Instances result = new Instances(data, data.numInstances());
+    for (int i = data.numInstances() - 1; i >= 0; i--) {
+      result.add(data.instance(i));
+    }
+    return result;
+  }
+}
@@ -21,13 +21,18 @@ package weka.iterators.instance;
 import org.datavec.image.recordreader.ImageRecordReader;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.ops.transforms.Transforms;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.InvalidInputDataException;
+import weka.dl4j.iterators.dataset.ImageAugmentation;
+import weka.dl4j.iterators.dataset.cache.DecodedImageCache;
 import weka.dl4j.iterators.instance.ImageInstanceIterator;
 import weka.util.DatasetLoader;
 
@@ -35,7 +40,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InvalidObjectException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -52,6 +60,8 @@ public class ImageInstanceIteratorTest {
   private static final int SEED = 42;
   /** ImageInstanceIterator object */
   private ImageInstanceIterator idi;
+  /** Directory of the decoded image cache and copied images */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
 
   /** Initialize iterator */
   @Before
@@ -149,6 +159,203 @@ public class ImageInstanceIteratorTest {
     Assert.assertTrue(collect.containsAll(labels));
   }
 
+  /**
+   * Test that the decoded image cache returns the same batches as the image record reader.
+   *
+   * @throws Exception Could not load mnist meta data
+   */
+  @Test
+  public void testDecodedImageCacheMatchesRecordReader() throws Exception {
+    final Instances metaData = DatasetLoader.loadMiniMnistMeta();
+    final int batchSize = 7;
+    final DataSetIterator expected = this.idi.getDataSetIterator(metaData, SEED, batchSize);
+    this.idi.setCacheDecodedImages(true);
+    this.idi.setDecodedImageCacheDirectory(folder.getRoot());
+    final DataSetIterator cached = this.idi.getDataSetIterator(metaData, SEED, batchSize);
+
+    // The first epoch decodes the images, the second one reads them from the cache
+    for (int epoch = 0; epoch < 2; epoch++) {
+      expected.reset();
+      cached.reset();
+      while (expected.hasNext()) {
+        DataSet e = expected.next();
+        DataSet c = cached.next();
+        Assert.assertArrayEquals(e.getFeatures().shape(), c.getFeatures().shape());
+        Assert.assertTrue(e.getFeatures().equalsWithEps(c.getFeatures(), 1e-6));
+        Assert.assertEquals(e.getLabels(), c.getLabels());
+      }
+      Assert.assertFalse(cached.hasNext());
+    }
+    Assert.assertEquals(expected.getLabels(), cached.getLabels());
+    Assert.assertEquals(
+        metaData.numInstances(),
+        DecodedImageCache.open(folder.getRoot(), "images-1x28x28", 28 * 28).size());
+  }
+
+  /**
+   * Test that modified images are decoded again.
+   *
+   * @throws Exception Could not load mnist meta data
+   */
+  @Test
+  public void testDecodedImageCacheDetectsModifiedImages() throws Exception {
+    final Instances metaData = DatasetLoader.loadMiniMnistMeta();
+    final File images = folder.newFolder("images");
+    final String first = metaData.instance(0).stringValue(0);
+    final String second = metaData.instance(1).stringValue(0);
+    File image = new File(images, first);
+    Files.copy(new File("datasets/nominal/mnist-minimal", first).toPath(), image.toPath());
+    Instances single = new Instances(metaData, 0, 1);
+
+    this.idi.setImagesLocation(images);
+    this.idi.setCacheDecodedImages(true);
+    this.idi.setDecodedImageCacheDirectory(folder.newFolder("cache"));
+    final DataSet before = this.idi.getDataSetIterator(single, SEED, 1).next();
+
+    // Replace the image by another one with a new modification time
+    Files.copy(
+        new File("datasets/nominal/mnist-minimal", second).toPath(),
+        image.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    Assert.assertTrue(image.setLastModified(image.lastModified() + 2000));
+    final DataSet after = this.idi.getDataSetIterator(single, SEED, 1).next();
+
+    this.idi.setImagesLocation(new File("datasets/nominal/mnist-minimal"));
+    this.idi.setCacheDecodedImages(false);
+    final DataSet expected =
+        this.idi.getDataSetIterator(new Instances(metaData, 1, 1), SEED, 1).next();
+    Assert.assertNotEquals(before.getFeatures(), after.getFeatures());
+    Assert.assertTrue(expected.getFeatures().equalsWithEps(after.getFeatures(), 1e-6));
+  }
+
+  /**
+   * Test that the decode workers return the same batches as the image record reader.
+   *
+   * @throws Exception Could not load mnist meta data
+   */
+  @Test
+  public void testParallelDecodingMatchesRecordReader() throws Exception {
+    final Instances metaData = DatasetLoader.loadMiniMnistMeta();
+    final int batchSize = 16;
+    final DataSetIterator expected = this.idi.getDataSetIterator(metaData, SEED, batchSize);
+    this.idi.setNumDecodeWorkers(3);
+    final DataSetIterator ordered = this.idi.getDataSetIterator(metaData, SEED, batchSize);
+    this.idi.setUnorderedOutput(true);
+    Assert.assertTrue(this.idi.isTrainDataRandomized());
+    final DataSetIterator unordered = this.idi.getTrainDataSetIterator(metaData, SEED, batchSize);
+
+    List<Double> expectedSums = new ArrayList<>();
+    List<Double> unorderedSums = new ArrayList<>();
+    for (int epoch = 0; epoch < 2; epoch++) {
+      expected.reset();
+      ordered.reset();
+      unordered.reset();
+      while (expected.hasNext()) {
+        DataSet e = expected.next();
+        DataSet o = ordered.next();
+        Assert.assertTrue(e.getFeatures().equalsWithEps(o.getFeatures(), 1e-6));
+        Assert.assertEquals(e.getLabels(), o.getLabels());
+        expectedSums.add(e.getFeatures().sumNumber().doubleValue());
+        unorderedSums.add(unordered.next().getFeatures().sumNumber().doubleValue());
+      }
+      Assert.assertFalse(ordered.hasNext());
+      Assert.assertFalse(unordered.hasNext());
+    }
+    // Unordered batches are complete but may arrive in a different order
+    Collections.sort(expectedSums);
+    Collections.sort(unorderedSums);
+    for (int i = 0; i < expectedSums.size(); i++) {
+      Assert.assertEquals(expectedSums.get(i), unorderedSums.get(i), 1e-3);
+    }
+  }
+
+  /**
+   * Test that the augmentation is reproducible and changes with each epoch.
+   *
+   * @throws Exception Could not load mnist meta data
+   */
+  @Test
+  public void testAugmentationIsDeterministic() throws Exception {
+    final Instances metaData = DatasetLoader.loadMiniMnistMeta();
+    ImageAugmentation augmentation = new ImageAugmentation();
+    augmentation.setCropPadding(2);
+    augmentation.setFlipHorizontally(true);
+    augmentation.setBrightnessJitter(0.1);
+    augmentation.setContrastJitter(0.2);
+    this.idi.setAugmentation(augmentation);
+    this.idi.setNumDecodeWorkers(2);
+
+    final DataSetIterator first = this.idi.getTrainDataSetIterator(metaData, SEED, 32);
+    final DataSetIterator second = this.idi.getTrainDataSetIterator(metaData, SEED, 32);
+    final DataSet original = this.idi.getDataSetIterator(metaData, SEED, 32).next();
+    final DataSet epoch0 = first.next();
+    Assert.assertEquals(epoch0.getFeatures(), second.next().getFeatures());
+    Assert.assertEquals(original.getLabels(), epoch0.getLabels());
+    Assert.assertNotEquals(original.getFeatures(), epoch0.getFeatures());
+    Assert.assertTrue(epoch0.getFeatures().minNumber().doubleValue() >= 0);
+    Assert.assertTrue(epoch0.getFeatures().maxNumber().doubleValue() <= 1);
+
+    first.reset();
+    Assert.assertNotEquals(epoch0.getFeatures(), first.next().getFeatures());
+  }
+
+  /**
+   * Test the augmentation of a single image.
+   */
+  @Test
+  public void testAugmentationFlipAndCrop() {
+    ImageAugmentation augmentation = new ImageAugmentation();
+    augmentation.setFlipHorizontally(true);
+    final byte[] pixels = {1, 2, 3, 4, 5, 6};
+    float[] result = new float[pixels.length];
+    // Find a seed that flips the image
+    int index = 0;
+    do {
+      augmentation.apply(pixels, result, 0, 1, 2, 3, ImageAugmentation.random(SEED, 0, index++));
+    } while (result[0] == 1);
+    Assert.assertArrayEquals(new float[] {3, 2, 1, 6, 5, 4}, result, 0);
+
+    augmentation.setFlipHorizontally(false);
+    augmentation.setCropPadding(1);
+    for (int i = 0; i < 20; i++) {
+      augmentation.apply(pixels, result, 0, 1, 2, 3, ImageAugmentation.random(SEED, 0, i));
+      // Shifted pixels keep their neighbours, padded pixels are zero
+      for (int y = 0; y < 2; y++) {
+        for (int x = 1; x < 3; x++) {
+          final float left = result[y * 3 + x - 1];
+          final float right = result[y * 3 + x];
+          Assert.assertTrue(left == 0 || right == 0 || right == left + 1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Test that JPEG images can be decoded at a reduced size.
+   *
+   * @throws Exception Could not load mnist meta data
+   */
+  @Test
+  public void testReducedDecoding() throws Exception {
+    final Instances all = DatasetLoader.loadMiniMnistMeta();
+    final Instances metaData = new Instances(all, 0);
+    for (int i = 0; i < all.numInstances(); i += 21) {
+      metaData.add(all.instance(i));
+    }
+    this.idi.setWidth(14);
+    this.idi.setHeight(14);
+    final DataSet full = this.idi.getDataSetIterator(metaData, SEED, 20).next();
+    this.idi.setReducedDecoding(true);
+    final DataSet reduced = this.idi.getDataSetIterator(metaData, SEED, 20).next();
+
+    Assert.assertArrayEquals(full.getFeatures().shape(), reduced.getFeatures().shape());
+    Assert.assertEquals(full.getLabels(), reduced.getLabels());
+    // Both are downscaled versions of the same images
+    final double meanError =
+        Transforms.abs(full.getFeatures().sub(reduced.getFeatures())).meanNumber().doubleValue();
+    Assert.assertTrue("Mean error " + meanError, meanError < 0.1);
+  }
+
   /**
    * Test image instance iterator mnist.
    *
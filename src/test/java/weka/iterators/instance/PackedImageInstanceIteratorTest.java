@@ -0,0 +1,152 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PackedImageInstanceIteratorTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.instance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.datavec.image.loader.NativeImageLoader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import weka.core.Instances;
+import weka.dl4j.iterators.dataset.ImageDecoder;
+import weka.dl4j.iterators.dataset.PackedImageShards;
+import weka.dl4j.iterators.instance.ImageInstanceIterator;
+import weka.dl4j.iterators.instance.PackedImageInstanceIterator;
+import weka.util.DatasetLoader;
+
+/**
+ * JUnit tests for the {@link PackedImageInstanceIterator} and {@link PackedImageShards}.
+ *
+ * @author Steven Lang
+ */
+public class PackedImageInstanceIteratorTest {
+
+  /** Seed */
+  private static final int SEED = 42;
+  /** Shard size that splits the mini mnist images into several shards */
+  private static final long SHARD_SIZE = 64 * 1024;
+  /** Directory of the packed images */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Images directory */
+  private final File images = new File("datasets/nominal/mnist-minimal");
+  /** Mnist meta data */
+  private Instances metaData;
+  /** Reference iterator reading the image files */
+  private ImageInstanceIterator idi;
+  /** Iterator */
+  private PackedImageInstanceIterator pii;
+
+  @Before
+  public void before() throws Exception {
+    metaData = DatasetLoader.loadMiniMnistMeta();
+    idi = new ImageInstanceIterator();
+    idi.setImagesLocation(images);
+    pii = new PackedImageInstanceIterator();
+    pii.setNumDecodeWorkers(2);
+  }
+
+  @Test
+  public void testEncodedShardsMatchImageFiles() throws Exception {
+    File index = folder.newFile("mnist.pack");
+    PackedImageShards.pack(metaData, images, index, SHARD_SIZE, null, SEED);
+    Assert.assertTrue(new PackedImageShards(index).getNumRecords() > 0);
+    Assert.assertTrue(new File(folder.getRoot(), "mnist-00001.shard").isFile());
+    pii.setPackedImages(index);
+    assertSameBatches(
+        idi.getDataSetIterator(metaData, SEED, 32), pii.getDataSetIterator(metaData, SEED, 32));
+  }
+
+  @Test
+  public void testDecodedShardsMatchImageFiles() throws Exception {
+    File index = folder.newFile("mnist-decoded.pack");
+    ImageDecoder decoder =
+        new ImageDecoder(new NativeImageLoader(28, 28, 1), 1, 28, 28, false, null);
+    PackedImageShards.pack(metaData, images, index, SHARD_SIZE, decoder, SEED);
+    Assert.assertTrue(new PackedImageShards(index).isDecoded());
+    pii.setPackedImages(index);
+    assertSameBatches(
+        idi.getDataSetIterator(metaData, SEED, 32), pii.getDataSetIterator(metaData, SEED, 32));
+  }
+
+  @Test
+  public void testShuffledTrainingBatches() throws Exception {
+    File index = folder.newFile("mnist.pack");
+    PackedImageShards.pack(metaData, images, index, SHARD_SIZE, null, SEED);
+    pii.setPackedImages(index);
+    pii.setShuffleShards(true);
+    pii.setShuffleBufferSize(16);
+    Assert.assertTrue(pii.isTrainDataRandomized());
+
+    final DataSetIterator expected = pii.getDataSetIterator(metaData, SEED, 32);
+    final DataSetIterator it = pii.getTrainDataSetIterator(metaData, SEED, 32);
+    final DataSetIterator same = pii.getTrainDataSetIterator(metaData, SEED, 32);
+    final INDArray labelCounts = labelCounts(expected);
+    final INDArray firstBatch = it.next().getFeatures();
+    Assert.assertEquals(firstBatch, same.next().getFeatures());
+    Assert.assertNotEquals(firstBatch, expected.next().getFeatures());
+
+    // Each epoch visits all images once, in a different order
+    it.reset();
+    Assert.assertEquals(labelCounts, labelCounts(it));
+    it.reset();
+    Assert.assertNotEquals(firstBatch, it.next().getFeatures());
+  }
+
+  /**
+   * Count the labels of an epoch.
+   *
+   * @param it Iterator
+   * @return Number of examples per label
+   */
+  private static INDArray labelCounts(DataSetIterator it) {
+    List<INDArray> counts = new ArrayList<>();
+    while (it.hasNext()) {
+      counts.add(it.next().getLabels().sum(0));
+    }
+    it.reset();
+    INDArray result = counts.get(0).dup();
+    for (int i = 1; i < counts.size(); i++) {
+      result.addi(counts.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Assert that two iterators return the same batches.
+   *
+   * @param expected Expected batches
+   * @param actual Actual batches
+   */
+  private static void assertSameBatches(DataSetIterator expected, DataSetIterator actual) {
+    while (expected.hasNext()) {
+      DataSet e = expected.next();
+      DataSet a = actual.next();
+      Assert.assertTrue(e.getFeatures().equalsWithEps(a.getFeatures(), 1e-6));
+      Assert.assertEquals(e.getLabels(), a.getLabels());
+    }
+    Assert.assertFalse(actual.hasNext());
+  }
+}
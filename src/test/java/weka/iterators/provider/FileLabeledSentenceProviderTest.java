@@ -0,0 +1,157 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * FileLabeledSentenceProviderTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.iterators.provider;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.deeplearning4j.iterator.LabeledSentenceProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.primitives.Pair;
+import weka.dl4j.iterators.provider.FileLabeledSentenceProvider;
+import weka.dl4j.iterators.provider.PackedLabeledSentenceProvider;
+import weka.dl4j.iterators.provider.PackedTextFiles;
+
+/**
+ * JUnit tests for the {@link FileLabeledSentenceProvider} and the {@link PackedTextFiles}.
+ *
+ * @author Steven Lang
+ */
+public class FileLabeledSentenceProviderTest {
+
+  /** Number of documents */
+  private static final int NUM_DOCUMENTS = 50;
+
+  /** Temporary folder for the documents */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  /** Directory of the documents */
+  private File textsLocation;
+  /** Paths of the documents */
+  private List<String> paths;
+  /** Files of the documents */
+  private List<File> files;
+  /** Labels of the documents */
+  private List<String> labels;
+  /** Contents of the documents */
+  private List<String> contents;
+
+  @Before
+  public void before() throws Exception {
+    textsLocation = folder.newFolder("texts");
+    paths = new ArrayList<>();
+    files = new ArrayList<>();
+    labels = new ArrayList<>();
+    contents = new ArrayList<>();
+    for (int i = 0; i < NUM_DOCUMENTS; i++) {
+      final String path = "doc-" + i + ".txt";
+      final StringBuilder content = new StringBuilder("Grüße aus Neuseeland " + i);
+      if (i == 7) {
+        // Large enough to be memory-mapped
+        while (content.length() <= FileLabeledSentenceProvider.MMAP_THRESHOLD) {
+          content.append(" große Datei");
+        }
+      }
+      final File file = new File(textsLocation, path);
+      Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.ISO_8859_1));
+      paths.add(path);
+      files.add(file);
+      labels.add(String.valueOf(i % 3));
+      contents.add(content.toString());
+    }
+  }
+
+  @Test
+  public void testReadAhead() throws Exception {
+    for (int numIoThreads : new int[] {0, 1, 3}) {
+      final LabeledSentenceProvider provider =
+          new FileLabeledSentenceProvider(
+              files, labels, 3, StandardCharsets.ISO_8859_1, numIoThreads);
+      checkAll(provider);
+
+      // Reset in the middle of an epoch
+      for (int i = 0; i < 10; i++) {
+        provider.nextSentence();
+      }
+      provider.reset();
+      checkAll(provider);
+    }
+  }
+
+  @Test
+  public void testCharset() {
+    final LabeledSentenceProvider provider =
+        new FileLabeledSentenceProvider(files, labels, 3, StandardCharsets.UTF_8, 1);
+    Assert.assertNotEquals(contents.get(0), provider.nextSentence().getFirst());
+  }
+
+  @Test
+  public void testPackedTextFiles() throws Exception {
+    final File packedFile = folder.newFile("texts.pack");
+    // Leave out the last document, which is then read from its file
+    PackedTextFiles.pack(paths.subList(0, NUM_DOCUMENTS - 1), textsLocation, packedFile);
+    try (PackedTextFiles packed = new PackedTextFiles(packedFile)) {
+      Assert.assertEquals(NUM_DOCUMENTS - 1, packed.getNumRecords());
+      Assert.assertEquals(-1, packed.indexOf(paths.get(NUM_DOCUMENTS - 1)));
+      final Charset charset = StandardCharsets.ISO_8859_1;
+      for (int numIoThreads : new int[] {0, 2}) {
+        checkAll(
+            new PackedLabeledSentenceProvider(
+                files, paths, packed, labels, 3, charset, numIoThreads));
+      }
+    }
+  }
+
+  @Test
+  public void testMissingFile() {
+    final List<File> missing = Arrays.asList(new File(textsLocation, "missing.txt"));
+    final LabeledSentenceProvider provider =
+        new FileLabeledSentenceProvider(
+            missing, Arrays.asList("0"), 1, StandardCharsets.UTF_8, 2);
+    try {
+      provider.nextSentence();
+      Assert.fail("Expected an exception for a missing file");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("missing.txt"));
+    }
+  }
+
+  /**
+   * Check that a provider returns all documents in order.
+   *
+   * @param provider Provider
+   */
+  private void checkAll(LabeledSentenceProvider provider) {
+    for (int i = 0; i < NUM_DOCUMENTS; i++) {
+      Assert.assertTrue(provider.hasNext());
+      final Pair<String, String> next = provider.nextSentence();
+      Assert.assertEquals(contents.get(i), next.getFirst());
+      Assert.assertEquals(labels.get(i), next.getSecond());
+    }
+    Assert.assertFalse(provider.hasNext());
+    provider.reset();
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * WekaDeeplearning4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WekaDeeplearning4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WekaDeeplearning4j.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * PretrainedWeightsTest.java
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, New Zealand
+ */
+
+package weka.zoo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.dl4j.zoo.LeNet;
+import weka.dl4j.zoo.PretrainedWeights;
+
+/**
+ * JUnit tests for the {@link PretrainedWeights}.
+ *
+ * @author Steven Lang
+ */
+public class PretrainedWeightsTest {
+
+  /** LeNet input shape */
+  private static final int[] SHAPE = {1, 28, 28};
+  /** Weights directory */
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testLoadByLayerNameWithNewHead() throws Exception {
+    ComputationGraph pretrained = initLeNet(10, 1);
+    PretrainedWeights.write(pretrained.getLayers(), new File(folder.getRoot(), "LeNet.weights"));
+
+    LeNet zooModel = new LeNet();
+    zooModel.setPretrained(true);
+    zooModel.setPretrainedWeightsDirectory(folder.getRoot());
+    ComputationGraph graph = initLeNet(3, 2);
+    graph.params().assign(0);
+    zooModel.loadPretrainedWeights(graph);
+
+    // All layers but the output layer have the pretrained parameters
+    final String outputLayer = graph.getConfiguration().getNetworkOutputs().get(0);
+    for (String layerName : new String[] {"cnn1", "cnn2", "ffn1"}) {
+      Assert.assertEquals(
+          pretrained.getLayer(layerName).params(), graph.getLayer(layerName).params());
+    }
+    Assert.assertEquals(3, graph.getLayer(outputLayer).getParam("W").columns());
+    Assert.assertEquals(0, graph.getLayer(outputLayer).params().sumNumber().doubleValue(), 0);
+  }
+
+  @Test
+  public void testSharedBetweenModels() throws Exception {
+    File file = new File(folder.getRoot(), "LeNet.weights");
+    PretrainedWeights.write(initLeNet(10, 1).getLayers(), file);
+    PretrainedWeights weights = PretrainedWeights.open(folder.getRoot(), "LeNet");
+    Assert.assertSame(weights, PretrainedWeights.open(file));
+
+    ComputationGraph first = initLeNet(10, 2);
+    ComputationGraph second = initLeNet(10, 3);
+    first.params().assign(0);
+    second.params().assign(1);
+    Assert.assertEquals(weights.size(), weights.load(first));
+    Assert.assertEquals(weights.size(), weights.load(second));
+    Assert.assertEquals(first.params(), second.params());
+  }
+
+  @Test(expected = IOException.class)
+  public void testChecksumMismatch() throws Exception {
+    File file = new File(folder.getRoot(), "LeNet.weights");
+    PretrainedWeights.write(initLeNet(10, 1).getLayers(), file);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(raf.length() - 1);
+      raf.write(raf.read() ^ 0xff);
+    }
+    PretrainedWeights.open(file);
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingWeights() throws Exception {
+    LeNet zooModel = new LeNet();
+    zooModel.setPretrained(true);
+    zooModel.setPretrainedWeightsDirectory(folder.getRoot());
+    zooModel.loadPretrainedWeights(initLeNet(10, 1));
+  }
+
+  /**
+   * Initialize a LeNet graph.
+   *
+   * @param numLabels Number of labels
+   * @param seed Seed
+   * @return Initialized graph
+   */
+  private static ComputationGraph initLeNet(int numLabels, long seed) {
+    ComputationGraph graph = new LeNet().init(numLabels, seed, SHAPE);
+    graph.init();
+    return graph;
+  }
+}
@@ -20,7 +20,11 @@ package weka.zoo;
 
 import java.util.Arrays;
 import lombok.extern.log4j.Log4j2;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.GradientNormalization;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Assert;
 import org.junit.Ignore;
 import weka.classifiers.functions.RnnSequenceClassifier;
 import weka.dl4j.NeuralNetConfiguration;
@@ -29,11 +33,13 @@ import weka.dl4j.updater.Adam;
 import weka.dl4j.zoo.ResNet50;
 import org.junit.Test;
 import weka.classifiers.functions.Dl4jMlpClassifier;
+import weka.classifiers.functions.dl4j.Utils;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.dl4j.earlystopping.EarlyStopping;
 import weka.dl4j.iterators.instance.ImageInstanceIterator;
+import weka.dl4j.layers.Layer;
 import weka.dl4j.listener.EpochListener;
 import weka.dl4j.zoo.*;
 import weka.util.DatasetLoader;
@@ -88,6 +94,23 @@ public class ZooModelTest {
     buildModel(new InceptionResNetV1());
   }
 
+  @Test
+  public void testSqueezeNet() throws Exception {
+    buildModel(new SqueezeNet());
+  }
+
+  @Test
+  public void testMobileNet() throws Exception {
+    MobileNet mobileNet = new MobileNet();
+    mobileNet.setWidthMultiplier(0.25);
+    buildModel(mobileNet);
+  }
+
+  @Test
+  public void testTinyYOLO() throws Exception {
+    buildModel(new TinyYOLO());
+  }
+
 
   private void buildModel(ZooModel model) throws Exception {
     // CLF
@@ -123,6 +146,44 @@ public class ZooModelTest {
   }
 
 
+  /** Test the input shape check that does not allocate the model parameters */
+  @Test
+  public void testInputTypeValidation() {
+    ComputationGraphConfiguration vgg =
+        new VGG16().init(10, 1, new int[] {1, 32, 32}).getConfiguration();
+    Assert.assertTrue(Utils.isValidInputType(vgg, InputType.convolutional(32, 32, 1)));
+    Assert.assertFalse(Utils.isValidInputType(vgg, InputType.convolutional(16, 16, 1)));
+
+    // The bottleneck layer has a fixed input size
+    ComputationGraphConfiguration inception =
+        new InceptionResNetV1().init(10, 1, new int[] {1, 139, 139}).getConfiguration();
+    Assert.assertTrue(Utils.isValidInputType(inception, InputType.convolutional(139, 139, 1)));
+    inception = new InceptionResNetV1().init(10, 1, new int[] {1, 250, 250}).getConfiguration();
+    Assert.assertFalse(Utils.isValidInputType(inception, InputType.convolutional(250, 250, 1)));
+  }
+
+  /** Test that the layers of a zoo model are listed without initializing the model */
+  @Test
+  public void testZooModelLayers() {
+    ResNet50 zooModel = new ResNet50();
+    ComputationGraph cg = zooModel.init(2, 1, zooModel.getShape()[0]);
+    cg.init();
+    Dl4jMlpClassifier clf = new Dl4jMlpClassifier();
+    clf.setZooModel(zooModel);
+    Layer[] layers = clf.getLayers();
+    Assert.assertEquals(cg.getLayers().length, layers.length);
+    for (int i = 0; i < layers.length; i++) {
+      Assert.assertEquals(
+          cg.getLayers()[i].conf().getLayer().getLayerName(), layers[i].getLayerName());
+    }
+
+    // Each classifier gets its own copy of the cached layers
+    Dl4jMlpClassifier other = new Dl4jMlpClassifier();
+    other.setZooModel(new ResNet50());
+    Assert.assertEquals(layers.length, other.getLayers().length);
+    Assert.assertNotSame(layers[0].getBackend(), other.getLayers()[0].getBackend());
+  }
+
   /** Test CustomNet init */
   @Test(expected = UnsupportedOperationException.class)
   public void testCustomNetInit() throws OperationNotSupportedException {